@@ -217,6 +217,16 @@ public abstract class AbstractPaxosLogger {
 		return state;
 	}
 
+	/* Deltas are appended synchronously as they can not be collapsed. */
+	protected static final String checkpointDelta(AbstractPaxosLogger logger,
+			String paxosID, int version, Set<String> members, int slot,
+			Ballot ballot, String delta, int gcSlot) {
+		if (logger.isAboutToClose())
+			return null;
+		return logger.putDeltaCheckpoint(paxosID, version, members, slot,
+				ballot, delta, gcSlot) ? delta : null;
+	}
+
 	/* Will replay logged messages from checkpoint onwards. Static because
 	 * logger could actually be any implementation, e.g., DerbyPaxosLogger. */
 	protected final static void rollForward(AbstractPaxosLogger logger,
@@ -354,6 +364,39 @@ public abstract class AbstractPaxosLogger {
 	 * logger. */
 
 	// checkpointing methods
+	/**
+	 * Loggers that store chains of delta checkpoints
+	 * ({@link edu.umass.cs.gigapaxos.paxosutil.DeltaCheckpoint}) on top of full
+	 * checkpoints must override this method.
+	 * 
+	 * @param paxosID
+	 * @return True if the next checkpoint for {@code paxosID} can be a delta.
+	 */
+	public boolean canAppendDeltaCheckpoint(String paxosID) {
+		return false;
+	}
+
+	/**
+	 * Appends {@code delta} to the chain of deltas on top of the full
+	 * checkpoint of {@code paxosID} and updates the slot and ballot of the
+	 * checkpoint. Loggers that override
+	 * {@link #canAppendDeltaCheckpoint(String)} must override this method.
+	 * 
+	 * @param paxosID
+	 * @param version
+	 * @param group
+	 * @param slot
+	 * @param ballot
+	 * @param delta
+	 * @param gcSlot
+	 * @return True if appended.
+	 */
+	public boolean putDeltaCheckpoint(String paxosID, int version,
+			Set<String> group, int slot, Ballot ballot, String delta,
+			int gcSlot) {
+		return false;
+	}
+
 	/**
 	 * 
 	 * @param paxosID
@@ -277,22 +277,34 @@ public class FailureDetection<NodeIDType> {
 		return this.lastHeardFrom.get(id);
 	}
 
-	private JSONObject getPingPacket(NodeIDType id) throws JSONException {
+	/*
+	 * Byteified pings can be decoded only by the fast demultiplexer, so we
+	 * fall back to json if the org.json demultiplexer is in use.
+	 */
+	private static final boolean BYTEIFY_PINGS = Config
+			.getGlobalBoolean(PaxosConfig.PC.BYTEIFICATION)
+			&& !Config.getGlobalString(PaxosConfig.PC.JSON_LIBRARY).equals(
+					"org.json");
+
+	private Object getPingPacket(NodeIDType id) throws JSONException {
 		FailureDetectionPacket<NodeIDType> fdp = new FailureDetectionPacket<NodeIDType>(
 				myID, id, true);
+		if (BYTEIFY_PINGS)
+			return fdp.toBytes();
 		JSONObject fdpJson = fdp.toJSONObject();
 		return fdpJson;
 	}
 
 	private class PingTask implements Runnable {
 		private final NodeIDType destID;
-		private final JSONObject pingJson;
+		// JSONObject or byte[]
+		private final Object ping;
 		private final InterfaceNIOTransport<NodeIDType, JSONObject> nioTransport;
 
-		PingTask(NodeIDType id, JSONObject fdpJson,
+		PingTask(NodeIDType id, Object fdp,
 				InterfaceNIOTransport<NodeIDType, JSONObject> niot) {
 			destID = id;
-			pingJson = fdpJson;
+			ping = fdp;
 			nioTransport = niot;
 		}
 
@@ -300,16 +312,15 @@ public class FailureDetection<NodeIDType> {
 			try {
 				// only to simulate crashes while testing
 				if (!TESTPaxosConfig.isCrashed(myID))
-					nioTransport.sendToID(destID, pingJson);
+					if (ping instanceof byte[])
+						nioTransport.sendToID(destID, (byte[]) ping);
+					else
+						nioTransport.sendToID(destID, (JSONObject) ping);
 			} catch (IOException e) {
-				try {
-					log.log(Level.INFO,
-							"{0} encountered IOException while sending keepalive to {2}",
-							new Object[] { pingJson.getInt("sender"), destID });
-					cleanupFailedPingTask(destID);
-				} catch (JSONException je) {
-					e.printStackTrace();
-				}
+				log.log(Level.INFO,
+						"{0} encountered IOException while sending keepalive to {1}",
+						new Object[] { myID, destID });
+				cleanupFailedPingTask(destID);
 			}
 		}
 	}
@@ -32,6 +32,10 @@ import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
@@ -42,6 +46,7 @@ import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 import edu.umass.cs.utils.MultiArrayMap;
@@ -104,6 +109,8 @@ public class PaxosAcceptor {
 	private byte lastActiveTime = 0;
 	// used to limit sync decisions rate
 	private byte lastSyncdTime = 0;
+	// wraparound millis when I last accepted in my ballot; for LEASE_READS
+	private int leaseGrantTime = (int) (System.currentTimeMillis() - LEASE_DURATION);
 
 	// static, so does not count towards space.
 	private static Logger log = PaxosManager.getLogger();
@@ -229,6 +236,13 @@ public class PaxosAcceptor {
 			return null;
 
 		PrepareReplyPacket preply = null;
+		if (prepare.ballot.compareTo(new Ballot(ballotNum, ballotCoord)) > 0
+				&& this.isLeaseGrantedToOther(prepare)) {
+			log.log(Level.FINE,
+					"Node {0} acceptor ignoring prepare {1} while leased to {2}",
+					new Object[] { myID, prepare.ballot, this.ballotCoord });
+			return null;
+		}
 		if (prepare.ballot.compareTo(new Ballot(ballotNum, ballotCoord)) > 0) {
 			log.log(Level.FINE,
 					"Node {0} acceptor updating to higher ballot {1}",
@@ -291,6 +305,8 @@ public class PaxosAcceptor {
 			this.ballotCoord = accept.ballot.coordinatorID;
 			if (accept.slot - this.acceptedGCSlot > 0)
 				this.acceptedProposals.put(accept.slot, accept); // wraparound
+			if (LEASE_READS && !accept.isRecovery())
+				this.leaseGrantTime = (int) System.currentTimeMillis();
 			log.log(Level.FINE, "Node{0} acceptor accepting {1}", new Object[] {
 					myID, accept.getSummary(log.isLoggable(Level.FINE)) });
 		}
@@ -577,10 +593,55 @@ public class PaxosAcceptor {
 	}
 
 	// //////////////////////////////////////////////////////////////
+	// not final only so that tests can set them via setLeases
+	private static boolean LEASE_READS = Config
+			.getGlobalBoolean(PC.LEASE_READS);
+	private static int LEASE_DURATION = Config
+			.getGlobalInt(PC.LEASE_DURATION);
+	/*
+	 * Leases granted before a crash are forgotten upon recovery, so an
+	 * acceptor honors any lease it may have granted until LEASE_DURATION after
+	 * this class is loaded, which happens during recovery.
+	 */
+	private static long LEASE_RECOVERY_TIME = System.currentTimeMillis();
+
+	// only for testing
+	static void setLeases(boolean leaseReads, int leaseDuration,
+			long recoveryTime) {
+		LEASE_READS = leaseReads;
+		LEASE_DURATION = leaseDuration;
+		LEASE_RECOVERY_TIME = recoveryTime;
+	}
+
+	/*
+	 * Accepting a proposal in the current ballot grants a lease to its
+	 * coordinator that precludes preparing a different coordinator's ballot
+	 * for LEASE_DURATION. Prepares from the lease holder itself or recovery
+	 * prepares are never refused.
+	 */
+	private boolean isLeaseGrantedToOther(PreparePacket prepare) {
+		if (!LEASE_READS || prepare.isRecovery()
+				|| prepare.ballot.coordinatorID == this.ballotCoord)
+			return false;
+		long now = System.currentTimeMillis();
+		// int subtraction is wraparound-aware
+		return (int) now - this.leaseGrantTime < LEASE_DURATION
+				|| now - LEASE_RECOVERY_TIME < LEASE_DURATION;
+	}
+
 	protected void justActive() {
 		this.lastActiveTime = byteSecs();
 	}
 
+	/* Synchronized so that it is atomic with respect to a pause that checks
+	 * isLongIdle and stops this acceptor while holding its monitor. */
+	protected synchronized boolean justActiveIfNotStopped() {
+		if (this.isStopped())
+			return false;
+		this.justActive();
+		return true;
+	}
+
 	protected void justSyncd() {
 		this.lastSyncdTime = byteSecs();
 	}
@@ -762,4 +823,92 @@ public class PaxosAcceptor {
 		System.out.println("SUCCESS!");
 	}
 
+	/**
+	 * Tests for acceptor leases granted to coordinators for lease reads.
+	 */
+	public static class PaxosAcceptorTest extends DefaultTest {
+		private static final int ME = 9, A = 1, B = 2;
+		private static final int DURATION = 300;
+		private static final boolean LEASES = LEASE_READS;
+		private static final int LEASE = LEASE_DURATION;
+		private static final long RECOVERY = LEASE_RECOVERY_TIME;
+
+		/**
+		 *
+		 */
+		@After
+		public void resetLeases() {
+			setLeases(LEASES, LEASE, RECOVERY);
+		}
+
+		private static AcceptPacket accept(int ballot, int coord, int slot) {
+			return new AcceptPacket(coord, new PValuePacket(new Ballot(ballot,
+					coord), new ProposalPacket(slot, new RequestPacket("value"
+					+ slot, false))), -1);
+		}
+
+		private static PrepareReplyPacket prepare(PaxosAcceptor acceptor,
+				int ballot, int coord) {
+			return acceptor.handlePrepare(new PreparePacket(new Ballot(ballot,
+					coord)), ME);
+		}
+
+		/**
+		 * A restarted acceptor may have granted leases that it no longer
+		 * remembers, so it refuses other coordinators' prepares for a lease
+		 * duration after recovery.
+		 */
+		@Test
+		public void testRecoveryLease() {
+			setLeases(true, DURATION, System.currentTimeMillis());
+			PaxosAcceptor acceptor = new PaxosAcceptor(1, A, 0, null);
+			Assert.assertNull(prepare(acceptor, 2, B));
+			Assert.assertEquals(new Ballot(1, A), acceptor.getBallot());
+			// the previous coordinator can still be prepared
+			Assert.assertNotNull(prepare(acceptor, 2, A));
+
+			setLeases(true, DURATION, System.currentTimeMillis() - DURATION);
+			PrepareReplyPacket preply = prepare(acceptor, 3, B);
+			Assert.assertNotNull(preply);
+			Assert.assertEquals(new Ballot(3, B), preply.ballot);
+		}
+
+		/**
+		 * Accepting a proposal grants its coordinator a lease during which
+		 * higher ballots of other coordinators are not prepared.
+		 * 
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testLeaseRefusesOtherCoordinators()
+				throws InterruptedException {
+			setLeases(true, DURATION, System.currentTimeMillis() - DURATION);
+			PaxosAcceptor acceptor = new PaxosAcceptor(1, A, 0, null);
+			// no lease granted yet
+			Assert.assertNotNull(prepare(acceptor, 2, B));
+
+			acceptor.acceptAndUpdateBallot(accept(3, A, 0), ME);
+			Assert.assertNull(prepare(acceptor, 4, B));
+			Assert.assertEquals(new Ballot(3, A), acceptor.getBallot());
+			Assert.assertNotNull(prepare(acceptor, 4, A));
+
+			// recovery accepts do not grant leases
+			acceptor = new PaxosAcceptor(1, A, 0, null);
+			acceptor.acceptAndUpdateBallot(
+					(AcceptPacket) accept(3, A, 0).setRecovery(), ME);
+			Assert.assertNotNull(prepare(acceptor, 4, B));
+
+			acceptor = new PaxosAcceptor(1, A, 0, null);
+			acceptor.acceptAndUpdateBallot(accept(3, A, 0), ME);
+			Thread.sleep(DURATION + 50);
+			PrepareReplyPacket preply = prepare(acceptor, 4, B);
+			Assert.assertNotNull(preply);
+			Assert.assertEquals(new Ballot(4, B), preply.ballot);
+
+			// no leases if disabled
+			setLeases(false, DURATION, System.currentTimeMillis());
+			acceptor.acceptAndUpdateBallot(accept(5, A, 1), ME);
+			Assert.assertNotNull(prepare(acceptor, 6, B));
+		}
+	}
 }
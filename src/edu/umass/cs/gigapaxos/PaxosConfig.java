@@ -264,6 +264,28 @@ public class PaxosConfig {
 		 * Refer to documentation in {@link SQLPaxosLogger}.
 		 */
 		MAX_FINAL_STATE_AGE(3600 * 1000),
+
+		/**
+		 * Size of the chunks in which large checkpoints are transferred
+		 * between replicas. Each chunk is checksummed separately, so a corrupt
+		 * or interrupted chunk is refetched without refetching the rest of the
+		 * checkpoint.
+		 */
+		LARGE_CHECKPOINT_CHUNK_SIZE(4 * 1024 * 1024),
+
+		/**
+		 * Maximum number of chunks of a large checkpoint fetched in parallel.
+		 * Chunks are spread across all replicas that have identical copies of
+		 * the checkpoint.
+		 */
+		LARGE_CHECKPOINT_FETCH_PARALLELISM(4),
+
+		/**
+		 * Timeout in milliseconds for connecting to and reading from a replica
+		 * during a large checkpoint transfer, after which the remaining bytes
+		 * of the chunk are fetched from another replica.
+		 */
+		LARGE_CHECKPOINT_TRANSFER_TIMEOUT(10000),
 		/**
 		 * Whether request batching is enabled.
 		 */
@@ -274,6 +296,20 @@ public class PaxosConfig {
 		 */
 		MAX_LOG_FILE_SIZE(64 * 1024 * 1024),
 
+		/**
+		 * Whether journal files are read back through read-only memory
+		 * mappings instead of opening a RandomAccessFile for every lookup.
+		 * Applies both to retrieving logged messages and to rolling forward
+		 * the journal upon recovery.
+		 */
+		JOURNAL_MMAP(true),
+
+		/**
+		 * Maximum number of journal files kept memory-mapped at a time. The
+		 * least recently used mapping is dropped when this limit is reached.
+		 */
+		MAX_MAPPED_JOURNAL_FILES(64),
+
 		/**
 		 * Wait period for forcibly killing a lower paxos instance version in
 		 * order to start a higher version.
@@ -363,6 +399,27 @@ public class PaxosConfig {
 		 */
 		MAX_BATCH_SIZE(2000),
 
+		/**
+		 * Whether request batch size caps and linger times are adapted per
+		 * paxos group based on observed queue depth and agreement latency
+		 * instead of using {@link #MAX_BATCH_SIZE} as a fixed cap and a global
+		 * sleep duration derived from {@link #BATCH_SLEEP_DURATION} and
+		 * {@link #BATCH_OVERHEAD}. {@link #MAX_BATCH_SIZE} remains the upper
+		 * bound on the cap and {@link #BATCH_OVERHEAD} the upper bound on the
+		 * linger time as a fraction of agreement latency.
+		 */
+		ADAPTIVE_BATCHING(false),
+
+		/**
+		 * Number of threads used to execute mutually non-conflicting requests
+		 * within a committed batch in parallel. Used only if the application
+		 * implements
+		 * {@link edu.umass.cs.gigapaxos.interfaces.ParallelReplicable}. A value
+		 * of 0 (default) means the number of available processors; a value of
+		 * 1 disables parallel execution.
+		 */
+		PARALLEL_EXECUTION_THREADS(0),
+
 		/**
 		 * Checkpoint interval. A larger value means slower recovery, slower
 		 * coordinator changes, and less frequent garbage collection, but it
@@ -370,6 +427,16 @@ public class PaxosConfig {
 		 */
 		CHECKPOINT_INTERVAL(400),
 
+		/**
+		 * Maximum number of delta checkpoints stored on top of a full
+		 * checkpoint for applications implementing
+		 * {@link edu.umass.cs.gigapaxos.interfaces.DeltaCheckpointReplicable}
+		 * before a full checkpoint is taken again. Longer chains make
+		 * checkpointing cheaper but recovery and checkpoint transfer slower. 0
+		 * disables delta checkpoints.
+		 */
+		MAX_DELTA_CHECKPOINTS(8),
+
 		/**
 		 * Number of threads in packet demultiplexer. More than 0 means that we
 		 * may not preserve the order of client requests while processing them.
@@ -382,6 +449,16 @@ public class PaxosConfig {
 		 */
 		ORDER_PRESERVING_REQUESTS(true),
 
+		/**
+		 * Whether paxos packets are dispatched by paxosID to
+		 * {@link #PACKET_DEMULTIPLEXER_THREADS} single-threaded lanes instead
+		 * of to a shared thread pool. Lanes preserve the order of all packets
+		 * of a paxos group, not just requests, without processing them in the
+		 * NIO thread as {@link #ORDER_PRESERVING_REQUESTS} otherwise does, and
+		 * different groups are processed in parallel.
+		 */
+		SHARDED_DEMULTIPLEXER(false),
+
 		/**
 		 * The replica receiving the request will simply send the request to the
 		 * local application replica, i.e., this essentially disables all paxos
@@ -519,6 +596,29 @@ public class PaxosConfig {
 		 */
 		USE_NIO_SENDER_TASK(false),
 
+		/**
+		 * Number of NIO reactor threads across which socket channels are
+		 * sharded. Each reactor has its own selector and does all reads and
+		 * writes for the channels assigned to it while the main selector
+		 * thread only accepts and connects. 0 means that a single selector
+		 * thread does everything. Ignored with SSL.
+		 */
+		NIO_REACTOR_THREADS(0),
+
+		/**
+		 * Whether NIO reads and queued sends use pooled direct buffers as
+		 * opposed to allocating a new heap buffer for every message.
+		 */
+		NIO_POOLED_BUFFERS(true),
+
+		/**
+		 * Bytes queued by NIO for a destination above which the destination
+		 * is deemed congested until its queue drains to half as many bytes.
+		 * The request batcher holds back proposals for groups with a member
+		 * behind a congested queue. 0 disables send queue backpressure.
+		 */
+		NIO_SEND_QUEUE_HIGH_WATERMARK(4 * 1024 * 1024),
+
 		/**
 		 * Disable congestion pushback.
 		 */
@@ -573,6 +673,34 @@ public class PaxosConfig {
 		 */
 		READ_YOUR_WRITES(false),
 
+		/**
+		 * If true, requests that the application declares as read-only via
+		 * {@link edu.umass.cs.gigapaxos.interfaces.LeaseReadReplicable} are
+		 * executed locally without being proposed or logged if this replica
+		 * is the coordinator and holds a lease from a majority of acceptors.
+		 * An acceptor grants a lease to a coordinator by accepting a proposal
+		 * in its ballot and refuses to prepare a different coordinator's
+		 * ballot for {@link #LEASE_DURATION} thereafter. Reads arriving at
+		 * other replicas or without a valid lease go through paxos as usual.
+		 *
+		 * Enabling this option delays coordinator changes by up to
+		 * {@link #LEASE_DURATION} and assumes that clock rates at replicas
+		 * differ by less than {@link #LEASE_GUARD} over a lease duration.
+		 */
+		LEASE_READS(false),
+
+		/**
+		 * Lease duration in milliseconds granted by an acceptor to a
+		 * coordinator upon accepting a proposal in its ballot.
+		 */
+		LEASE_DURATION(2000),
+
+		/**
+		 * Time in milliseconds by which a coordinator considers its lease to
+		 * expire before the acceptors granting it do.
+		 */
+		LEASE_GUARD(200),
+
 		/**
 		 * If true, gigapaxos will try to prevent executing (retransmitted)
 		 * requests if they had already been executed in the <i>recent</i> past.
@@ -610,6 +738,14 @@ public class PaxosConfig {
 		 */
 		DB_INDEX_JOURNAL(false),
 
+		/**
+		 * Number of threads used to restore checkpoints and roll forward
+		 * logged messages upon recovery. Paxos groups are sharded across these
+		 * threads by paxosID so that per-group order is preserved. A value of 1
+		 * (default) recovers all groups sequentially in the recovering thread.
+		 */
+		NUM_RECOVERY_THREADS(1),
+
 		/**
 		 * Failure detection timeout in seconds after which a node will be
 		 * considered dead if no keepalives have been received from it. Used to
@@ -638,6 +774,22 @@ public class PaxosConfig {
 		 */
 		USE_CHECKPOINTS_AS_PAUSE_TABLE(true),
 
+		/**
+		 * Class name of a {@link edu.umass.cs.gigapaxos.paxosutil.KVStore}
+		 * implementation used to store paused instance state and paused
+		 * logIndexes instead of the SQL pause (or checkpoint) tables, e.g.,
+		 * {@link edu.umass.cs.gigapaxos.paxosutil.LogStructuredKVStore}. The
+		 * SQL tables are used if "null". Checkpoints and the message log are
+		 * unaffected.
+		 */
+		KV_PAUSE_STORE("null"),
+
+		/**
+		 * Size in bytes of the memory-mapped segment files of
+		 * {@link edu.umass.cs.gigapaxos.paxosutil.LogStructuredKVStore}.
+		 */
+		KV_SEGMENT_SIZE(32 * 1024 * 1024),
+
 		/**
 		 * 
 		 */
@@ -806,6 +958,16 @@ public class PaxosConfig {
 		 */
 		LOG_DISKMAP_CAPACITY(Config.getGlobalInt(PINSTANCES_CAPACITY)),
 
+		/**
+		 * If true, the packed entries of each
+		 * {@link edu.umass.cs.gigapaxos.paxosutil.LogIndex} are stored in a
+		 * direct buffer outside the Java heap. Reduces heap usage and GC
+		 * pressure with very large logIndexes at the cost of slower
+		 * allocation, so it is best suited for a modest number of busy paxos
+		 * groups.
+		 */
+		LOG_INDEX_OFF_HEAP(false),
+
 		/**
 		 * 
 		 */
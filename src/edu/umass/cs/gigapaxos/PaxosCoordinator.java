@@ -352,6 +352,12 @@ public abstract class PaxosCoordinator {
 		return c!=null ? c.getNextProposalSlot() : -1;
 	}
 
+	protected abstract Integer getLeaseReadSlot(int[] members);
+
+	protected static Integer getLeaseReadSlot(PaxosCoordinator c, int[] members) {
+		return c != null ? c.getLeaseReadSlot(members) : null;
+	}
+
 	protected abstract int[] getNodeSlots();
 	
 	protected static int[] getNodeSlots(PaxosCoordinator c) {
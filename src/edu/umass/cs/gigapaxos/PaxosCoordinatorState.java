@@ -27,6 +27,10 @@ import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
@@ -38,6 +42,7 @@ import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.WaitforUtility;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 import edu.umass.cs.utils.NullIfEmptyMap;
@@ -143,12 +148,21 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 */
 	private int[] nodeSlotNumbers = null;
 
+	/*
+	 * leaseExpiry[i] is the time until which acceptor i has promised not to
+	 * prepare a different coordinator's ballot. Non-null only if LEASE_READS
+	 * is enabled and an accept reply in my ballot has been received.
+	 */
+	private long[] leaseExpiry = null;
+
 	private static Logger log = PaxosManager.getLogger();
 
 	// Used in myProposals map above and nowhere else
 	private class ProposalStateAtCoordinator {
 		final PValuePacket pValuePacket;
 		final WaitforUtility waitfor;
+		// precedes any acceptor's receipt of the corresponding accept
+		final long proposedTime = System.currentTimeMillis();
 
 		ProposalStateAtCoordinator(int[] members, PValuePacket pvalue) {
 			this.pValuePacket = new PValuePacket(new Ballot(myBallotNum,
@@ -599,6 +613,9 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		 */
 		if (pstate != null && ((waitfor = pstate.waitfor) != null)) {
 			waitfor.updateHeardFrom(acceptReply.acceptor);
+			if (LEASE_READS)
+				this.extendLease(members, acceptReply.acceptor,
+						pstate.proposedTime);
 			log.log(Level.FINEST,
 					"Node {0} updated waitfor to: {1} for {2}",
 					new Object[] {
@@ -664,6 +681,53 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		return false;
 	}
 
+	// not final only so that tests can set them via setLeases
+	private static boolean LEASE_READS = Config
+			.getGlobalBoolean(PC.LEASE_READS);
+	private static long LEASE_DURATION = Config
+			.getGlobalInt(PC.LEASE_DURATION)
+			- Config.getGlobalInt(PC.LEASE_GUARD);
+
+	// only for testing
+	static void setLeases(boolean leaseReads, long leaseDuration) {
+		LEASE_READS = leaseReads;
+		LEASE_DURATION = leaseDuration;
+	}
+
+	/*
+	 * An acceptor accepting a proposal in my ballot promises to not prepare
+	 * another coordinator's ballot for LEASE_DURATION after it receives the
+	 * accept. The accept was sent no earlier than the proposal's creation, so
+	 * the lease is conservatively measured from the latter.
+	 */
+	private void extendLease(int[] members, int acceptor, long proposedTime) {
+		if (this.leaseExpiry == null)
+			this.leaseExpiry = new long[members.length];
+		for (int i = 0; i < members.length; i++)
+			if (members[i] == acceptor
+					&& this.leaseExpiry[i] < proposedTime + LEASE_DURATION)
+				this.leaseExpiry[i] = proposedTime + LEASE_DURATION;
+	}
+
+	/*
+	 * Returns the slot up to which requests must be executed before a
+	 * read-only request received now can be executed locally, or null if I do
+	 * not hold an unexpired lease from a majority. Every request committed so
+	 * far was proposed by me in a slot below nextProposalSlotNumber as no
+	 * other coordinator could have been prepared while I hold the lease.
+	 */
+	protected synchronized Integer getLeaseReadSlot(int[] members) {
+		if (!this.active || this.leaseExpiry == null)
+			return null;
+		long now = System.currentTimeMillis();
+		int leased = 0;
+		for (long expiry : this.leaseExpiry)
+			if (expiry > now)
+				leased++;
+		return leased > members.length / 2 ? this.nextProposalSlotNumber
+				: null;
+	}
+
 	/*********************** End of Phase2b methods ************************/
 	protected Ballot getBallot() {
 		return new Ballot(this.myBallotNum, this.myBallotCoord);
@@ -1199,4 +1263,80 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		System.out
 				.println("\nSUCCESS! TBD: Only minimally tested. Not stress tested under concurrency.");
 	}
+
+	/**
+	 * Tests for leases held by a coordinator for lease reads.
+	 */
+	public static class PaxosCoordinatorStateTest extends DefaultTest {
+		private static final int DURATION = 300;
+		private static final boolean LEASES = LEASE_READS;
+		private static final long LEASE = LEASE_DURATION;
+		private static final int[] MEMBERS = { 1, 2, 3 };
+
+		/**
+		 *
+		 */
+		@After
+		public void resetLeases() {
+			setLeases(LEASES, LEASE);
+		}
+
+		private static AcceptReplyPacket acceptReply(
+				PaxosCoordinatorState pcs, int acceptor, int slot) {
+			return new AcceptReplyPacket(acceptor, new Ballot(pcs.myBallotNum,
+					pcs.myBallotCoord), slot, -1);
+		}
+
+		/**
+		 * A read may be served locally only while a majority of acceptors
+		 * have granted an unexpired lease, and only after all slots proposed
+		 * so far have been executed.
+		 * 
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testLeaseReadSlot() throws InterruptedException {
+			setLeases(true, DURATION);
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(1,
+					MEMBERS[0], 0, MEMBERS, null);
+			// inactive coordinator holds no lease
+			Assert.assertNull(pcs.getLeaseReadSlot(MEMBERS));
+			pcs.setCoordinatorActive();
+			Assert.assertNull(pcs.getLeaseReadSlot(MEMBERS));
+
+			AcceptPacket accept = pcs.propose(MEMBERS, new RequestPacket(
+					"value", false));
+			Assert.assertNotNull(accept);
+			Assert.assertNull(pcs.handleAcceptReplyMyBallot(MEMBERS,
+					acceptReply(pcs, MEMBERS[0], accept.slot)));
+			// one of three is not a majority
+			Assert.assertNull(pcs.getLeaseReadSlot(MEMBERS));
+			Assert.assertNotNull(pcs.handleAcceptReplyMyBallot(MEMBERS,
+					acceptReply(pcs, MEMBERS[1], accept.slot)));
+			// reads must wait for the proposed slot to be executed
+			Assert.assertEquals((Integer) (accept.slot + 1),
+					pcs.getLeaseReadSlot(MEMBERS));
+
+			Thread.sleep(DURATION + 50);
+			// expired lease
+			Assert.assertNull(pcs.getLeaseReadSlot(MEMBERS));
+		}
+
+		/**
+		 * No leases are acquired if lease reads are disabled.
+		 */
+		@Test
+		public void testLeasesDisabled() {
+			setLeases(false, DURATION);
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(1,
+					MEMBERS[0], 0, MEMBERS, null);
+			pcs.setCoordinatorActive();
+			AcceptPacket accept = pcs.propose(MEMBERS, new RequestPacket(
+					"value", false));
+			for (int member : MEMBERS)
+				pcs.handleAcceptReplyMyBallot(MEMBERS,
+						acceptReply(pcs, member, accept.slot));
+			Assert.assertNull(pcs.getLeaseReadSlot(MEMBERS));
+		}
+	}
 }
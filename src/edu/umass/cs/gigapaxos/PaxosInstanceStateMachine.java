@@ -20,18 +20,33 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
+import edu.umass.cs.gigapaxos.interfaces.DeltaCheckpointReplicable;
+import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.ParallelReplicable;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.interfaces.SummarizableRequest;
@@ -50,6 +65,7 @@ import edu.umass.cs.gigapaxos.paxospackets.StatePacket;
 import edu.umass.cs.gigapaxos.paxospackets.SyncDecisionsPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.gigapaxos.paxosutil.DeltaCheckpoint;
 import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
 import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
@@ -60,14 +76,20 @@ import edu.umass.cs.gigapaxos.paxosutil.RequestInstrumenter;
 import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
 import edu.umass.cs.gigapaxos.testing.TESTPaxosApp;
 import edu.umass.cs.gigapaxos.testing.TESTPaxosConfig.TC;
+import edu.umass.cs.nio.JSONNIOTransport;
 import edu.umass.cs.nio.NIOTransport;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.nio.nioutils.PacketDemultiplexerDefault;
 import edu.umass.cs.nio.nioutils.RTTEstimator;
+import edu.umass.cs.nio.nioutils.SampleNodeConfig;
 import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.Keyable;
 import edu.umass.cs.utils.Pausable;
 import edu.umass.cs.utils.Util;
 import edu.umass.cs.utils.DelayProfiler;
+import edu.umass.cs.utils.LatencyHistogram;
 
 /**
  * @author V. Arun
@@ -197,6 +219,16 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	PaxosInstanceStateMachine(String groupId, int version, int id,
 			Set<Integer> gms, Replicable app, String initialState,
 			PaxosManager<?> pm, final HotRestoreInfo hri, boolean missedBirthing) {
+		this(groupId, version, id, gms, app, initialState, pm, hri,
+				missedBirthing, null);
+	}
+
+	/* checkpoint, if non-null, is the checkpoint already read from the logger
+	 * for this paxosID:version during recovery, so it is not read again. */
+	PaxosInstanceStateMachine(String groupId, int version, int id,
+			Set<Integer> gms, Replicable app, String initialState,
+			PaxosManager<?> pm, final HotRestoreInfo hri,
+			boolean missedBirthing, SlotBallotState checkpoint) {
 
 		/* Final assignments: A paxos instance is born with a paxosID, version
 		 * this instance's node ID, the application request handler, the paxos
@@ -213,7 +245,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		 * in PaxosCoordinatorState (for coordinators) that inherits from
 		 * PaxosInstanceState. */
 		if (pm != null && hri == null)
-			initiateRecovery(initialState, missedBirthing);
+			initiateRecovery(initialState, missedBirthing, checkpoint);
 		else if ((hri != null) && hotRestore(hri)) {
 			if (initialState != null) // batched creation
 				// this.putInitialState(initialState);
@@ -579,11 +611,14 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	 * after a crash. It is all the same as far as the paxos instance is
 	 * concerned (provided we ensure that the app state after executing the
 	 * first request (slot 0) is checkpointed, which we do). */
-	private boolean initiateRecovery(String initialState, boolean missedBirthing) {
+	private boolean initiateRecovery(String initialState,
+			boolean missedBirthing, SlotBallotState checkpoint) {
 		String pid = this.getPaxosID();
+		assert (checkpoint == null || checkpoint.version == this.getVersion());
 		// only place where version is checked
-		SlotBallotState slotBallot = this.paxosManager.getPaxosLogger()
-				.getSlotBallotState(pid, this.getVersion());
+		SlotBallotState slotBallot = checkpoint != null ? checkpoint
+				: this.paxosManager.getPaxosLogger().getSlotBallotState(pid,
+						this.getVersion());
 
 		if (slotBallot != null) {
 			log.log(Level.FINE, "{0} recovered state: {1}", new Object[] {
@@ -595,7 +630,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 						"Paxos instance exists with a different replica group: "
 								+ (slotBallot.members));
 			// update app state
-			if (!this.restore(slotBallot.state))
+			if (!this.restore(slotBallot.state, slotBallot.deltas))
 				throw new PaxosInstanceCreationException(
 						"Unable to update app state with " + slotBallot.state);
 		}
@@ -879,7 +914,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		PrepareReplyPacket prepareReply = this.paxosState.handlePrepare(
 				prepare, this.paxosManager.getMyID());
 		if (prepareReply == null)
-			return null; // can happen only if acceptor is stopped
+			return null; // acceptor is stopped or leased to another
 		if (prepare.isRecovery())
 			return null; // no need to get accepted pvalues from disk during
 							// recovery as networking is disabled anyway
@@ -1465,6 +1500,12 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	private static final int AGREEMENT_LATENCY_SAMPLING = 100;
 	private static final int EXECUTION_LATENCY_SAMPLING = 100;
 
+	// unsampled as recording into a histogram is cheap
+	private static final LatencyHistogram AGREEMENT_LATENCY = DelayProfiler
+			.histogram("agreement");
+	private static final LatencyHistogram EXECUTION_LATENCY = DelayProfiler
+			.histogram(AbstractPaxosLogger.appName + ".execute");
+
 	/* The three actions--(1) extracting the next slot request from the
 	 * acceptor, (2) having the app execute the request, and (3) checkpoint if
 	 * needed--need to happen atomically. If the app throws an error while
@@ -1493,13 +1534,16 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 								inorderDecision.getSummary() });
 				String pid = this.getPaxosID();
 
-				if (inorderDecision.getEntryReplica() == this.getMyID()
-						&& instrument(AGREEMENT_LATENCY_SAMPLING))
-					DelayProfiler.updateDelay("agreement",
-							inorderDecision.getEntryTime());
+				if (inorderDecision.getEntryReplica() == this.getMyID()) {
+					AGREEMENT_LATENCY.recordMillisSince(inorderDecision
+							.getEntryTime());
+					if (instrument(AGREEMENT_LATENCY_SAMPLING))
+						DelayProfiler.updateDelay("agreement",
+								inorderDecision.getEntryTime());
+				}
 				updateRequestBatcher(inorderDecision, loggedDecision == null);
 
-				long t = System.currentTimeMillis();
+				long t = System.currentTimeMillis(), tNanos = System.nanoTime();
 				/* Execute it until successful, we are *by design* stuck
 				 * otherwise. Execution must be atomic with extraction and
 				 * possible checkpointing below. */
@@ -1513,6 +1557,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 					else if (this.forceStop())
 						break;
 
+				EXECUTION_LATENCY.recordSince(tNanos);
 				if (instrument(EXECUTION_LATENCY_SAMPLING))
 					DelayProfiler.updateDelay(AbstractPaxosLogger.appName
 							+ ".execute", t, inorderDecision.batchSize() + 1);
@@ -1543,6 +1588,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 					// this.paxosManager.kill(this, true);
 					break;
 			}
+			if (LEASE_READS && execCount > 0)
+				this.paxosManager.executeLeaseReads(this);
 			this.paxosState.assertSlotInvariant();
 		}
 		/* The kill has been moved out of the synchronized block above as the
@@ -1574,14 +1621,37 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		log.log(Level.FINE, "{0} checkpointing at slot {1}; isStop={2}",
 				new Object[] { pism, slot, isStop });
 		synchronized (pism.getPaxosManager()) {
-			return pism.canCheckpoint() ?
-				 AbstractPaxosLogger.checkpoint(pism.getPaxosManager()
-						.getPaxosLogger(), isStop, paxosID, version, members,
-						slot, ballot, state!=null ? state : pism.getApp().checkpoint(paxosID), gcSlot)
-						: null;
+			if (!pism.canCheckpoint())
+				return null;
+			AbstractPaxosLogger logger = pism.getPaxosManager()
+					.getPaxosLogger();
+			String delta = state == null ? getAppDelta(pism, isStop, paxosID)
+					: null;
+			// a delta that could not be appended is subsumed by a full one
+			if (delta != null
+					&& AbstractPaxosLogger.checkpointDelta(logger, paxosID,
+							version, members, slot, ballot, delta, gcSlot) != null)
+				return delta;
+			return AbstractPaxosLogger.checkpoint(logger, isStop, paxosID,
+					version, members, slot, ballot, state != null ? state
+							: pism.getApp().checkpoint(paxosID), gcSlot);
 		}
 	}
 
+	/* A delta if the app supports delta checkpoints and the logger can append
+	 * one more to the chain, else null. Final checkpoints are always full as
+	 * they are copied as epoch final state. */
+	private static final String getAppDelta(PaxosInstanceStateMachine pism,
+			boolean isStop, String paxosID) {
+		DeltaCheckpointReplicable deltaApp = pism.getPaxosManager()
+				.getDeltaCheckpointApp();
+		return !isStop
+				&& deltaApp != null
+				&& pism.getPaxosManager().getPaxosLogger()
+						.canAppendDeltaCheckpoint(paxosID) ? deltaApp
+				.checkpointDelta(paxosID) : null;
+	}
+
 	// initial checkpoint or not de-mapped yet
 	private boolean canCheckpoint() {
 		return this.paxosState.isRecovering()
@@ -1601,7 +1671,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 				&& !inorderDecision.isRecovery() && !handledCP) {
 			assert (inorderDecision.getEntryTime() <= System
 					.currentTimeMillis()) : inorderDecision.getEntryTime();
-			RequestBatcher.updateSleepDuration(inorderDecision.getEntryTime());
+			this.paxosManager.updateBatchingLatency(this.getPaxosID(),
+					inorderDecision.getEntryTime());
 		}
 	}
 
@@ -1619,6 +1690,10 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		boolean shouldLog = instrument(5 * getCPI(
 				paxosManager.getInterCheckpointInterval(),
 				decision.getPaxosID()));
+		Boolean executedInParallel = executeInParallel(pism, paxosManager,
+				app, decision, recoveryMode);
+		if (executedInParallel != null)
+			return executedInParallel;
 		for (RequestPacket requestPacket : decision.getRequestPackets()) {
 			boolean executed = false;
 			int retries = 0;
@@ -1701,9 +1776,228 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		return true;
 	}
 
+	/**
+	 * Executes the requests in {@code decision} in parallel if the app is a
+	 * {@link ParallelReplicable}. Requests are partitioned into connected
+	 * components of the "shares a conflict key" relation; each component is
+	 * executed sequentially in slot order by a single pool thread, and
+	 * different components are executed concurrently. This method returns
+	 * only after all components have been executed, so the caller's
+	 * subsequent checkpoint reflects the entire batch. Callbacks and
+	 * responses are issued afterwards by the calling thread in batch order.
+	 *
+	 * @return Null if the batch must instead be executed sequentially, e.g.,
+	 *         because the app does not declare conflict keys for some request
+	 *         or all requests conflict with each other; else the same as
+	 *         {@link #execute}.
+	 */
+	private static final Boolean executeInParallel(
+			final PaxosInstanceStateMachine pism, PaxosManager<?> paxosManager,
+			final Replicable app, final RequestPacket decision,
+			final boolean recoveryMode) {
+		ParallelReplicable parallelApp = paxosManager.getParallelApp();
+		ExecutorService pool = paxosManager.getParallelExecutor();
+		final RequestPacket[] requestPackets = decision.getRequestPackets();
+		final int myID = paxosManager.getMyID();
+		if (parallelApp == null || pool == null || requestPackets.length < 2
+				|| decision.isStopRequest())
+			return null;
+
+		final Request[] requests = new Request[requestPackets.length];
+		Collection<ArrayList<Integer>> components = getParallelComponents(
+				parallelApp, requestPackets, requests);
+		if (components == null)
+			return null;
+
+		ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		for (final ArrayList<Integer> component : components)
+			futures.add(pool.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					for (int i : component)
+						if (!executeWithRetries(pism, app, requestPackets[i],
+								requests[i], recoveryMode
+										|| requestPackets[i].getEntryReplica() != myID))
+							return false;
+					return true;
+				}
+			}));
+		boolean allExecuted = true;
+		boolean interrupted = false;
+		for (Future<Boolean> future : futures) {
+			/* Need to wait for all components even if one fails so that no
+			 * request of this batch is still executing when we return. */
+			while (true)
+				try {
+					allExecuted = future.get() && allExecuted;
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+					allExecuted = false;
+					break;
+				}
+		}
+		// restore the interrupt cleared above only after waiting for all
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		DelayProfiler.updateMovAvg("#parallelComponents", components.size());
+		if (!allExecuted)
+			return false;
+
+		for (int i = 0; i < requestPackets.length; i++) {
+			paxosManager.executed(requestPackets[i], requests[i],
+							requestPackets[i].getEntryReplica() == myID
+							&& !recoveryMode);
+			if (pism != null && pism.isStopped())
+				break;
+		}
+		return true;
+	}
+
+	/* Partitions the requests in requestPackets into components such that
+	 * requests in different components have disjoint conflict keys, directly
+	 * or transitively. Each component lists request indices in slot order.
+	 * Parsed requests are stored in requests. Returns null if the batch must be
+	 * executed sequentially, i.e., if a request could not be parsed, has null
+	 * conflict keys, or if there are fewer than two components. */
+	static Collection<ArrayList<Integer>> getParallelComponents(
+			ParallelReplicable parallelApp, RequestPacket[] requestPackets,
+			Request[] requests) {
+		// union-find over request indices keyed by conflict keys
+		int[] parent = new int[requestPackets.length];
+		HashMap<Object, Integer> keyOwners = new HashMap<Object, Integer>();
+		for (int i = 0; i < requestPackets.length; i++) {
+			parent[i] = i;
+			if (requestPackets[i].requestValue.equals(Request.NO_OP)) {
+				requests[i] = requestPackets[i];
+				continue;
+			}
+			try {
+				requests[i] = !requestPackets[i].shouldReturnRequestValue() ? requestPackets[i]
+						: parallelApp.getRequest(requestPackets[i]
+								.getRequestValue());
+			} catch (RequestParseException | RuntimeException e) {
+				// sequential path will retry and report
+				return null;
+			}
+			Set<?> keys = requests[i] != null ? parallelApp
+					.getConflictKeys(requests[i]) : null;
+			if (keys == null)
+				return null;
+			for (Object key : keys) {
+				Integer owner = keyOwners.put(key, i);
+				if (owner != null)
+					parent[find(parent, owner)] = find(parent, i);
+			}
+		}
+
+		// group into components preserving slot order within each component
+		LinkedHashMap<Integer, ArrayList<Integer>> components = new LinkedHashMap<Integer, ArrayList<Integer>>();
+		for (int i = 0; i < requestPackets.length; i++) {
+			if (requestPackets[i].requestValue.equals(Request.NO_OP))
+				continue;
+			int root = find(parent, i);
+			if (!components.containsKey(root))
+				components.put(root, new ArrayList<Integer>());
+			components.get(root).add(i);
+		}
+		return components.size() < 2 ? null : components.values();
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i)
+			i = parent[i] = parent[parent[i]];
+		return i;
+	}
+
+	/* Executes a single request in the app, retrying like execute above.
+	 * Invoked by parallel execution threads, so it does not invoke any
+	 * callbacks. */
+	private static boolean executeWithRetries(PaxosInstanceStateMachine pism,
+			Replicable app, RequestPacket requestPacket, Request request,
+			boolean doNotReplyToClient) {
+		int retries = 0;
+		do {
+			if (pism != null && pism.isStopped())
+				return true;
+			try {
+				log.log(Level.FINE,
+						"{0} executing (in-order, parallel) decision {1}",
+						new Object[] { pism, requestPacket.getSummary() });
+				if (app.execute(request, doNotReplyToClient))
+					return true;
+			} catch (Exception | Error e) {
+				// must swallow any and all exceptions
+				e.printStackTrace();
+			}
+			String error = app + " failed to execute request, retrying: "
+					+ requestPacket.requestValue;
+			log.severe(error);
+			new RuntimeException(error).printStackTrace();
+		} while (++retries <= RETRY_LIMIT && waitRetry(RETRY_TIMEOUT));
+		return false;
+	}
+
+	private static final boolean LEASE_READS = Config
+			.getGlobalBoolean(PC.LEASE_READS);
+
+	/**
+	 * Handles a read-only request received by this replica without proposing
+	 * it if this replica is the coordinator holding a lease from a majority.
+	 * The request is executed immediately if all requests committed so far
+	 * have been executed, else it is queued in PaxosManager until they have
+	 * been.
+	 * 
+	 * @return False if the request must instead be proposed as usual.
+	 */
+	protected boolean handleLeaseRead(RequestPacket requestPacket,
+			Request request) {
+		synchronized (this) {
+			if (this.paxosState.isStopped())
+				return false;
+			Integer readSlot = PaxosCoordinator.getLeaseReadSlot(
+					this.coordinator, this.groupMembers);
+			if (readSlot == null)
+				return false;
+			requestPacket.setEntryReplica(this.getMyID());
+			if (this.paxosState.getSlot() - readSlot >= 0)
+				this.executeLeaseRead(requestPacket, request);
+			else
+				this.paxosManager.enqueueLeaseRead(this, readSlot,
+						requestPacket, request);
+		}
+		return true;
+	}
+
+	/* Must be invoked while synchronized on this instance so that the read
+	 * does not interleave with the execution of decisions. */
+	protected void executeLeaseRead(RequestPacket requestPacket,
+			Request request) {
+		assert (Thread.holdsLock(this));
+		log.log(Level.FINE, "{0} executing lease read {1}", new Object[] {
+				this, requestPacket.getSummary(log.isLoggable(Level.FINE)) });
+		if (executeWithRetries(this, this.getApp(), requestPacket, request,
+				false))
+			this.paxosManager.executed(requestPacket, request, true);
+	}
+
+	/* Slot up to which decisions have been executed, i.e., the next slot to
+	 * be executed. */
+	protected int getExecutedSlot() {
+		return this.paxosState.getSlot();
+	}
+
 	private boolean restore(String state) {
+		return this.restore(state, null);
+	}
+
+	private boolean restore(String state, List<String> deltas) {
 		long t = System.currentTimeMillis();
-		boolean restored = this.getApp().restore(getPaxosID(), state);
+		boolean restored = DeltaCheckpoint.restore(this.getApp(), this
+				.getPaxosManager().getDeltaCheckpointApp(), getPaxosID(),
+				state, deltas);
 		DelayProfiler.updateDelay(AbstractPaxosLogger.appName + ".restore", t);
 		return restored;
 	}
@@ -1712,7 +2006,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	private synchronized MessagingTask handleCheckpoint(StatePacket statePacket) {
 		if (statePacket.slotNumber >= this.paxosState.getSlot()) {
 			// put checkpoint in app (like execute)
-			if (!this.restore(statePacket.state))
+			if (!this.restore(statePacket.state, statePacket.deltas))
 				return null;
 			// update acceptor (like extract)
 			this.paxosState.jumpSlot(statePacket.slotNumber + 1);
@@ -1721,8 +2015,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 					this.getPaxosID(), this.version,
 					this.paxosManager.getStringNodesFromIntArray(groupMembers),
 					statePacket.slotNumber, statePacket.ballot,
-					statePacket.state,
-					// this.getApp().checkpoint(getPaxosID()),
+					// deltas are folded into a full checkpoint
+					statePacket.deltas == null ? statePacket.state : this
+							.getApp().checkpoint(getPaxosID()),
 					this.paxosState.getGCSlot());
 			/* A transferred checkpoint is almost definitely not a final
 			 * checkpoint as final checkpoints are ephemeral. Even if it is a
@@ -1860,15 +2155,23 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	 * and EEC will become a noop, so no harm done.
 	 * 
 	 * Note: If we make this method synchronized, the deactivator thread could
-	 * be blocked on this instance for a long time. */
-	protected HotRestoreInfo tryPause() {
+	 * be blocked on this instance for a long time.
+	 * 
+	 * If onlyIfIdle is true, idleness is rechecked while holding paxosState,
+	 * so an instance concurrently marked active by markActiveIfNotStopped is
+	 * not paused. */
+	protected HotRestoreInfo tryPause(boolean onlyIfIdle) {
 		// boolean paused = false;
 		HotRestoreInfo hri = null;
 		synchronized (this.paxosState) {
 			// Ugly nesting, not sure how else to do this correctly
 			synchronized (this.coordinator != null ? this.coordinator
 					: this.paxosState) {
-				if (this.paxosState.caughtUp()
+				if (onlyIfIdle && !this.paxosState.isLongIdle())
+					log.log(Level.FINE,
+							"{0} not pausing because it was just active",
+							new Object[] { this });
+				else if (this.paxosState.caughtUp()
 						&& PaxosCoordinator.caughtUp(this.coordinator)) {
 					hri = new HotRestoreInfo(this.getPaxosID(),
 							this.getVersion(), this.groupMembers,
@@ -2514,15 +2817,214 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		return this.paxosState.isLongIdle();
 	}
 
+	/* Same check as tryPause but without any nested locking as it is only a
+	 * hint for whether the instance needs a sync. */
+	protected boolean isCaughtUp() {
+		return this.paxosState.caughtUp()
+				&& PaxosCoordinator.caughtUp(this.coordinator);
+	}
+
 	protected PaxosInstanceStateMachine markActive() {
 		this.paxosState.justActive();
 		return this;
 	}
 
+	/* Marks this instance active atomically with respect to tryPause(true),
+	 * so an instance marked active here is not subsequently paused as idle.
+	 * Returns false if this instance is already stopped, e.g., because it
+	 * was just paused. */
+	protected boolean markActiveIfNotStopped() {
+		return this.paxosState.justActiveIfNotStopped();
+	}
+
 	private static final double CPI_NOISE = Config.getGlobalDouble(PC.CPI_NOISE);
 
 	private static final int getCPI(int cpi, String paxosID) {
 		return (int) (cpi * (1 - CPI_NOISE) + (Math.abs(paxosID.hashCode()) % cpi)
 				* 2 * CPI_NOISE);
 	}
+
+	/**
+	 * Tests parallel execution of requests within a batch.
+	 */
+	public static class ParallelExecutionTest extends DefaultTest {
+
+		/* Conflict keys are the comma-separated words of the request value,
+		 * "null" has null keys, and "bad" can not be parsed. Execution sleeps
+		 * for even-numbered requests so that later requests finish first.
+		 * Requests are parsed in batch order before they are executed. */
+		private static class KeyedApp implements ParallelReplicable {
+			private final AtomicInteger active = new AtomicInteger(0);
+			private final AtomicInteger maxActive = new AtomicInteger(0);
+			private final Set<String> parsed = new LinkedHashSet<String>();
+
+			@Override
+			public boolean execute(Request request) {
+				String value = ((RequestPacket) request).requestValue;
+				int n = this.active.incrementAndGet();
+				this.maxActive.set(Math.max(this.maxActive.get(), n));
+				try {
+					if (value.startsWith("r")
+							&& Integer.valueOf(value.substring(1)) % 2 == 0)
+						Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					this.active.decrementAndGet();
+				}
+				return true;
+			}
+
+			@Override
+			public boolean execute(Request request, boolean doNotReplyToClient) {
+				return this.execute(request);
+			}
+
+			@Override
+			public Request getRequest(String stringified)
+					throws RequestParseException {
+				if (stringified.equals("bad"))
+					throw new RequestParseException(new Exception(stringified));
+				synchronized (this.parsed) {
+					this.parsed.add(stringified);
+				}
+				return new RequestPacket(stringified, false);
+			}
+
+			@Override
+			public Set<IntegerPacketType> getRequestTypes() {
+				return new HashSet<IntegerPacketType>();
+			}
+
+			@Override
+			public String checkpoint(String name) {
+				return "";
+			}
+
+			@Override
+			public boolean restore(String name, String state) {
+				return true;
+			}
+
+			@Override
+			public Set<?> getConflictKeys(Request request) {
+				String value = ((RequestPacket) request).requestValue;
+				if (value.equals("null"))
+					return null;
+				return value.isEmpty() ? new HashSet<String>()
+						: new HashSet<String>(Arrays.asList(value.split(",")));
+			}
+		}
+
+		private static RequestPacket[] batch(String... values) {
+			RequestPacket[] requestPackets = new RequestPacket[values.length];
+			for (int i = 0; i < values.length; i++)
+				requestPackets[i] = new RequestPacket(i, values[i], false)
+						.setReturnRequestValue();
+			return requestPackets;
+		}
+
+		private static String components(String... values) {
+			Collection<ArrayList<Integer>> components = getParallelComponents(
+					new KeyedApp(), batch(values), new Request[values.length]);
+			return components != null ? components.toString() : null;
+		}
+
+		/**
+		 * 
+		 */
+		@Test
+		public void testComponents() {
+			// disjoint keys
+			Assert.assertEquals("[[0], [1], [2]]", components("a", "b", "c"));
+			// transitive conflicts in slot order
+			Assert.assertEquals("[[0, 2, 3], [1], [4]]",
+					components("a,b", "c", "b,d", "d,e", "f"));
+			Assert.assertEquals("[[0, 1, 3], [2]]",
+					components("a", "b", "c", "a,b"));
+			// empty keys conflict with nothing
+			Assert.assertEquals("[[0], [1], [2]]", components("", "", "a"));
+			// no-ops are not executed
+			Assert.assertEquals("[[0], [2]]",
+					components("a", Request.NO_OP, "b"));
+		}
+
+		/**
+		 * 
+		 */
+		@Test
+		public void testSequentialFallback() {
+			// null keys, parse failures, or a single component
+			Assert.assertNull(components("a", "null", "b"));
+			Assert.assertNull(components("a", "bad", "b"));
+			Assert.assertNull(components("a", "a,b", "b"));
+			Assert.assertNull(components("a"));
+		}
+
+		/**
+		 * Requests executed in parallel must still be called back in batch
+		 * order. Batches are not in proposal order as the request batcher
+		 * collects them in a set.
+		 * 
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testCallbacksInBatchOrder() throws IOException,
+				InterruptedException {
+			int id = 927;
+			String paxosID = "parallel_group";
+			final int numRequests = 60;
+			// registers PC so that the override below is not cached over
+			Object numThreads = Config
+					.getGlobal(PC.PARALLEL_EXECUTION_THREADS);
+			Config.getConfig(PC.class).put(
+					PC.PARALLEL_EXECUTION_THREADS.toString(), "4");
+			SampleNodeConfig<Integer> nc = new SampleNodeConfig<Integer>(2927);
+			nc.localSetup(Util.arrayToIntSet(new int[] { id }));
+			KeyedApp app = new KeyedApp();
+			PaxosManager.startWithCleanDB(true);
+			PaxosManager<Integer> pm = new PaxosManager<Integer>(id, nc,
+					new JSONNIOTransport<Integer>(id, nc,
+							new PacketDemultiplexerDefault(), true), app);
+			PaxosManager.startWithCleanDB(false);
+			final ArrayList<String> calledBack = new ArrayList<String>();
+			try {
+				Assert.assertNotNull(pm.getParallelApp());
+				Assert.assertTrue(pm.createPaxosInstance(paxosID,
+						Util.arrayToIntSet(new int[] { id }), ""));
+				for (int i = 0; i < numRequests; i++) {
+					Assert.assertNotNull(pm.propose(paxosID, "r" + i,
+							new ExecutedCallback() {
+								@Override
+								public void executed(Request request,
+										boolean handled) {
+									synchronized (calledBack) {
+										calledBack
+												.add(((RequestPacket) request).requestValue);
+										calledBack.notify();
+									}
+								}
+							}));
+				}
+				long deadline = System.currentTimeMillis() + 20000;
+				synchronized (calledBack) {
+					while (calledBack.size() < numRequests
+							&& System.currentTimeMillis() < deadline)
+						calledBack.wait(1000);
+				}
+				synchronized (app.parsed) {
+					Assert.assertEquals(new ArrayList<String>(app.parsed),
+							calledBack);
+				}
+				// some batch was executed in parallel
+				Assert.assertTrue(app.maxActive.get() > 1);
+			} finally {
+				Config.getConfig(PC.class).put(
+						PC.PARALLEL_EXECUTION_THREADS.toString(), numThreads);
+				pm.getPaxosLogger().removeAll();
+				pm.close();
+			}
+		}
+	}
 }
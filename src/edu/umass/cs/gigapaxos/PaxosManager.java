@@ -18,6 +18,9 @@ package edu.umass.cs.gigapaxos;
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
 import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.DeltaCheckpointReplicable;
+import edu.umass.cs.gigapaxos.interfaces.LeaseReadReplicable;
+import edu.umass.cs.gigapaxos.interfaces.ParallelReplicable;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
@@ -32,6 +35,7 @@ import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
 import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.gigapaxos.paxosutil.LargeCheckpointer;
+import edu.umass.cs.gigapaxos.paxosutil.LeaseReadQueue;
 import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.MessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosInstanceCreationException;
@@ -42,6 +46,7 @@ import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer;
 import edu.umass.cs.gigapaxos.paxosutil.PendingDigests;
 import edu.umass.cs.gigapaxos.paxosutil.RateLimiter;
 import edu.umass.cs.gigapaxos.paxosutil.RecoveryInfo;
+import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
 import edu.umass.cs.gigapaxos.paxosutil.RequestInstrumenter;
 import edu.umass.cs.gigapaxos.paxosutil.StringContainer;
 import edu.umass.cs.gigapaxos.testing.TESTPaxosConfig;
@@ -56,17 +61,25 @@ import edu.umass.cs.nio.SSLDataProcessingWorker;
 import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
 import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.Messenger;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.interfaces.InterfaceNIOTransport;
 import edu.umass.cs.nio.interfaces.NodeConfig;
 import edu.umass.cs.nio.interfaces.SSLMessenger;
+import edu.umass.cs.nio.interfaces.SendQueueCallback;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.nio.nioutils.PacketDemultiplexerDefault;
 import edu.umass.cs.nio.nioutils.SampleNodeConfig;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.utils.ConcurrentMultiArrayMap;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.Diskable;
 import edu.umass.cs.utils.GCConcurrentHashMap;
 import edu.umass.cs.utils.GCConcurrentHashMapCallback;
+import edu.umass.cs.utils.IdleTracker;
+import edu.umass.cs.utils.LaneExecutor;
+import edu.umass.cs.utils.LatencyHistogram;
 import edu.umass.cs.utils.StringLocker;
 import edu.umass.cs.utils.Util;
 import edu.umass.cs.utils.DelayProfiler;
@@ -75,6 +88,8 @@ import edu.umass.cs.utils.MultiArrayMap;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -90,14 +105,17 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -129,14 +147,58 @@ public class PaxosManager<NodeIDType> {
 	private final PaxosMessenger<NodeIDType> messenger; // messaging
 	private final int myID;
 	private final Replicable myApp; // default app for all paxosIDs
+	// non-null only if myApp can execute non-conflicting requests in parallel
+	private final ParallelReplicable parallelApp;
+	private final ExecutorService parallelExecutor;
+	// non-null only if LEASE_READS and myApp identifies read-only requests
+	private final LeaseReadReplicable leaseReadApp;
+	// non-null only if myApp can checkpoint deltas
+	private final DeltaCheckpointReplicable deltaCheckpointApp;
+	// lease reads waiting for earlier decisions to be executed, by paxosID
+	private final LeaseReadQueue<LeaseRead> leaseReads = new LeaseReadQueue<LeaseRead>();
 
 	// background deactivation/cremation tasks, all else event-driven
 	private final ScheduledExecutorService executor;
 	// paxos instance mapping
 	private final MultiArrayMap<String, PaxosInstanceStateMachine> pinstances;
+	// approximate LRU order of pinstances for picking pause candidates
+	private final IdleTracker<String> idleTracker = new IdleTracker<String>(
+			Config.getGlobalLong(PC.DEACTIVATION_PERIOD) / 16);
+	// active paxosIDs found not caught up, the only ones needing a sync
+	private final Set<String> notCaughtUp = ConcurrentHashMap.newKeySet();
 	// stopped paxos instances about to be incinerated
 	private final HashMap<String, PaxosInstanceStateMachine> corpses;
 	private final IntegerMap<NodeIDType> integerMap = new IntegerMap<NodeIDType>();
+	/* node->number of send queues to it above the NIO high watermark. The
+	 * callback is registered with the messenger's main transport and each of
+	 * its workers, so a node stays congested until all of them drain. */
+	private final ConcurrentHashMap<Integer, Integer> congestedNodes = new ConcurrentHashMap<Integer, Integer>();
+	private final SendQueueCallback<NodeIDType> sendQueueCallback = new SendQueueCallback<NodeIDType>() {
+		@Override
+		public void congestionChanged(InetSocketAddress isa, NodeIDType node,
+				final boolean congested) {
+			if (node == null)
+				return; // clients don't throttle proposals
+			int nodeID = PaxosManager.this.integerMap.put(node);
+			final boolean[] changed = new boolean[1];
+			PaxosManager.this.congestedNodes.compute(nodeID,
+					new BiFunction<Integer, Integer, Integer>() {
+						@Override
+						public Integer apply(Integer k, Integer count) {
+							int n = (count != null ? count : 0)
+									+ (congested ? 1 : -1);
+							changed[0] = congested ? n == 1 : n == 0;
+							return n > 0 ? n : null;
+						}
+					});
+			if (changed[0])
+				log.log(congested ? Level.WARNING : Level.INFO,
+						"{0} send queue to {1} {2}; {3} proposals to its groups",
+						new Object[] { PaxosManager.this, node,
+								congested ? "congested" : "drained",
+								congested ? "holding back" : "resuming" });
+		}
+	};
 	private final Stringifiable<NodeIDType> unstringer;
 	private final RequestBatcher requestBatcher;
 	private final PaxosPacketBatcher ppBatcher;
@@ -236,6 +298,7 @@ public class PaxosManager<NodeIDType> {
 		 * 
 		 */
 		 final ExecutedCallback callback;
+		 final long createTime = System.nanoTime();
 
 		RequestAndCallback(RequestPacket request, ExecutedCallback callback) {
 			this.requestPacket = request;
@@ -258,6 +321,10 @@ public class PaxosManager<NodeIDType> {
 	private static final boolean NO_RESPONSE = Config
 			.getGlobalBoolean(PC.NO_RESPONSE);
 
+	// from propose to execution at the entry replica
+	private static final LatencyHistogram PROPOSE_LATENCY = DelayProfiler
+			.histogram("propose");
+
 	// default callback tries to send back response
 	private void defaultCallback(Request response, InetSocketAddress clientAddress, InetSocketAddress listenAddress) {
 		if (response == null || !(response instanceof ClientRequest))
@@ -295,8 +362,10 @@ public class PaxosManager<NodeIDType> {
 	protected boolean executed(RequestPacket requestPacket, Request request,
 			boolean sendResponse) {
 		RequestAndCallback rc = this.outstanding.dequeue(requestPacket);
-		if (rc != null)
+		if (rc != null) {
 			this.outstanding.totalRequestSize -= rc.requestPacket.lengthEstimate();
+			PROPOSE_LATENCY.recordSince(rc.createTime);
+		}
 		RequestInstrumenter.remove(requestPacket.requestID);
 		// cache response
 		if(ENABLE_RESPONSE_CACHING && request instanceof ClientRequest)
@@ -332,7 +401,7 @@ public class PaxosManager<NodeIDType> {
 	}
 
 	// non-final
-	private boolean hasRecovered = false;
+	private volatile boolean hasRecovered = false;
 
 	// need this to be static so DB can be closed gracefully
 	private static boolean closed = false;
@@ -395,12 +464,38 @@ public class PaxosManager<NodeIDType> {
 		this.largeCheckpointer = new LargeCheckpointer(paxosLogFolder,
 				this.myID + "");
 		this.myApp = LargeCheckpointer.wrap(pi, largeCheckpointer);
+		int numExecThreads = Config.getGlobalInt(PC.PARALLEL_EXECUTION_THREADS) > 0 ? Config
+				.getGlobalInt(PC.PARALLEL_EXECUTION_THREADS) : Runtime
+				.getRuntime().availableProcessors();
+		this.parallelApp = pi instanceof ParallelReplicable
+				&& ((ParallelReplicable) pi).supportsParallelExecution()
+				&& numExecThreads > 1 ? (ParallelReplicable) pi : null;
+		this.parallelExecutor = this.parallelApp != null ? Executors
+				.newFixedThreadPool(numExecThreads, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = Executors.defaultThreadFactory()
+								.newThread(r);
+						thread.setName(PaxosManager.class.getSimpleName()
+								+ myID + ":exec");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}) : null;
+		this.leaseReadApp = Config.getGlobalBoolean(PC.LEASE_READS)
+				&& pi instanceof LeaseReadReplicable
+				&& ((LeaseReadReplicable) pi).supportsLeaseReads() ? (LeaseReadReplicable) pi
+				: null;
+		this.deltaCheckpointApp = pi instanceof DeltaCheckpointReplicable
+				&& ((DeltaCheckpointReplicable) pi).supportsDeltaCheckpoints() ? (DeltaCheckpointReplicable) pi
+				: null;
 		this.FD = new FailureDetection<NodeIDType>(id, niot, paxosLogFolder);
-		this.pinstances = new MultiArrayMap<String, PaxosInstanceStateMachine>(
+		this.pinstances = new ConcurrentMultiArrayMap<String, PaxosInstanceStateMachine>(
 				Config.getGlobalInt(PC.PINSTANCES_CAPACITY));
 		this.corpses = new HashMap<String, PaxosInstanceStateMachine>();
 		// this.activePaxii = new HashMap<String, ActivePaxosState>();
 		this.messenger = (new PaxosMessenger<NodeIDType>(niot, this.integerMap));
+		this.messenger.addSendQueueCallback(this.sendQueueCallback);
 		this.paxosLogger = new SQLPaxosLogger(this.myID, id.toString(),
 				paxosLogFolder, this.wrapMessenger(this.messenger));
 		this.nullCheckpointsEnabled = enableNullCheckpoints;
@@ -449,7 +544,7 @@ public class PaxosManager<NodeIDType> {
 											rc.requestPacket.getPaxosID() + ":"
 													+ rc.requestPacket.getSummary());
 								log.log(Level.INFO,
-										"{0} |outstanding|={1}; {2}; |unpaused|={3}; \n|pending|={4}; {5}",
+										"{0} |outstanding|={1}; {2}; |unpaused|={3}; \n|pending|={4}; {5} {6}",
 										new Object[] {
 												PaxosManager.this,
 												PaxosManager.this.outstanding.requests
@@ -460,7 +555,9 @@ public class PaxosManager<NodeIDType> {
 												PaxosManager.this.pinstances
 														.size(),
 												PaxosManager.this.pendingDigests,
-												DelayProfiler.getStats() });
+												DelayProfiler.getStats(),
+												PaxosManager.this.requestBatcher
+														.getBatchingStats() });
 								if (!PaxosManager.this.outstanding.requests
 										.isEmpty()
 										&& PaxosManager.this.outstanding.requests instanceof GCConcurrentHashMap)
@@ -665,7 +762,7 @@ public class PaxosManager<NodeIDType> {
 			boolean missedBirthing) {
 		this.waitPinstancesSize();
 		return this.createPaxosInstanceFinal(paxosID, version, gms, app,
-				initialState, hri, tryRestore, missedBirthing);
+				initialState, hri, tryRestore, missedBirthing, null);
 	}
 
 	private long totalInstancesCreated = 0;
@@ -700,12 +797,34 @@ public class PaxosManager<NodeIDType> {
 	 * concurrency. This is the only method that can actually create a paxos
 	 * instance. All other methods just call this method eventually.
 	 * 
+	 * During recovery, instances are created only by recovery tasks, and all
+	 * tasks for a paxosID run in the same recovery lane, so there can not be
+	 * duplicate creations. Only updating pinstances needs to be synchronized
+	 * then so that restoring app state proceeds in parallel across lanes.
+	 * Network threads can not create instances until then as restore(String)
+	 * and unpause(String) both refuse to run before recovery completes.
+	 * 
 	 * private because it ensures that initialState!=null and missedBirthing are
 	 * not both true. */
-	private synchronized PaxosInstanceStateMachine createPaxosInstanceFinal(
+	private PaxosInstanceStateMachine createPaxosInstanceFinal(
 			String paxosID, int version, Set<NodeIDType> gms, Replicable app,
 			String initialState, HotRestoreInfo hri, boolean tryRestore,
-			boolean missedBirthing) {
+			boolean missedBirthing, SlotBallotState checkpoint) {
+		if (!this.hasRecovered())
+			return this.createPaxosInstanceUnsynchronized(paxosID, version,
+					gms, app, initialState, hri, tryRestore, missedBirthing,
+					checkpoint);
+		synchronized (this) {
+			return this.createPaxosInstanceUnsynchronized(paxosID, version,
+					gms, app, initialState, hri, tryRestore, missedBirthing,
+					checkpoint);
+		}
+	}
+
+	private PaxosInstanceStateMachine createPaxosInstanceUnsynchronized(
+			String paxosID, int version, Set<NodeIDType> gms, Replicable app,
+			String initialState, HotRestoreInfo hri, boolean tryRestore,
+			boolean missedBirthing, SlotBallotState checkpoint) {
 
 		if (this.isClosed())
 			return null;
@@ -748,12 +867,13 @@ public class PaxosManager<NodeIDType> {
 			// else try to create (could still run into exception)
 			pism = new PaxosInstanceStateMachine(paxosID, version, myID,
 					this.integerMap.put(gms), app != null ? app : this.myApp,
-					initialState, this, hri, missedBirthing);
+					initialState, this, hri, missedBirthing, checkpoint);
 		} catch (Exception e) {
 			throw new PaxosInstanceCreationException(e.getMessage());
 		}
 
 		pinstances.put(paxosID, pism);
+		this.idleTracker.touch(paxosID);
 		incrCreated();
 		this.notifyUponCreation();
 		assert (this.getInstance(paxosID, false, false) != null);
@@ -827,6 +947,8 @@ public class PaxosManager<NodeIDType> {
 	private final boolean DISABLE_CC = Config.getGlobalBoolean(PC.DISABLE_CC);
 	private final boolean ORDER_PRESERVING_REQUESTS = Config
 			.getGlobalBoolean(PC.ORDER_PRESERVING_REQUESTS);
+	private static final boolean SHARDED_DEMULTIPLEXER = Config
+			.getGlobalBoolean(PC.SHARDED_DEMULTIPLEXER);
 
 	// older demultiplexer based purely on JSON
 	class JSONDemultiplexer extends AbstractJSONPacketDemultiplexer {
@@ -842,6 +964,31 @@ public class PaxosManager<NodeIDType> {
 			this.register(PaxosPacket.PaxosPacketType.PAXOS_PACKET);
 			this.setThreadName(myID + (clientFacing ? "-clientFacing" : ""));
 			this.clientFacing = clientFacing;
+			if (SHARDED_DEMULTIPLEXER)
+				this.setNumOrderingLanes(numThreads);
+		}
+
+		@Override
+		protected Object getOrderingKey(JSONObject msg) {
+			return msg.optString(PaxosPacket.Keys.ID.toString(), null);
+		}
+
+		// batched packets span groups, so each part is ordered separately
+		@Override
+		protected Collection<JSONObject> unbatchForOrdering(JSONObject msg) {
+			try {
+				if (PaxosPacket.getPaxosPacketType(msg) != PaxosPacketType.BATCHED_PAXOS_PACKET)
+					return null;
+				JSONArray jarray = msg.getJSONArray(PaxosPacket.Keys.PP
+						.toString());
+				List<JSONObject> parts = new ArrayList<JSONObject>();
+				for (int i = 0; i < jarray.length(); i++)
+					parts.add(jarray.getJSONObject(i));
+				return parts;
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+			return null;
 		}
 
 		public boolean handleMessage(JSONObject jsonMsg, edu.umass.cs.nio.nioutils.NIOHeader header) {
@@ -905,15 +1052,33 @@ public class PaxosManager<NodeIDType> {
 		return PaxosManager.this.getNumOutstandingOrQueued() > MAX_OUTSTANDING_REQUESTS;
 	}
 
+	/**
+	 * @param paxosID
+	 * @return True if the send queue to some member of paxosID is above the
+	 *         NIO high watermark. Does not unpause paxosID.
+	 */
+	protected boolean isCongested(String paxosID) {
+		if (this.congestedNodes.isEmpty())
+			return false;
+		PaxosInstanceStateMachine pism = this.pinstances.get(paxosID);
+		if (pism != null)
+			for (int member : pism.getMembers())
+				if (this.congestedNodes.containsKey(member))
+					return true;
+		return false;
+	}
+
 	// faster demultiplexer based on byte[] serialization
 	class FastDemultiplexer extends
 			edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast {
 
 		public FastDemultiplexer(int numThreads, boolean clientFacing) {
-			super(numThreads);
+			super(numThreads, PaxosManager.this.unstringer);
 			this.setThreadName(PaxosManager.this.intToString(myID)
 					+ (clientFacing ? "-clientFacing" : ""));
 			this.register(PaxosPacket.PaxosPacketType.PAXOS_PACKET);
+			if (SHARDED_DEMULTIPLEXER)
+				this.setNumOrderingLanes(numThreads);
 		}
 
 		public FastDemultiplexer() {
@@ -923,6 +1088,8 @@ public class PaxosManager<NodeIDType> {
 		public boolean handleMessage(Object msg, edu.umass.cs.nio.nioutils.NIOHeader header) {
 			// long t = System.nanoTime();
 			assert (msg != null);
+			// decoding is deferred to here if ordering lanes are enabled
+			msg = this.decodeDeferred(msg, header);
 			if (msg instanceof net.minidev.json.JSONObject)
 				try {
 					PaxosPacketType type = null;
@@ -1037,6 +1204,10 @@ public class PaxosManager<NodeIDType> {
 			for (PaxosPacket packet : ((BatchedPaxosPacket) pp)
 					.getPaxosPackets())
 				this.handleIncomingPacket(packet);
+		else if (this.leaseReadApp != null
+				&& pp.getType() == PaxosPacketType.REQUEST
+				&& this.handleLeaseRead((RequestPacket) pp))
+			return;
 		else if (BATCHING_ENABLED)
 			this.enqueueRequest(pp);
 		else
@@ -1066,6 +1237,63 @@ public class PaxosManager<NodeIDType> {
 		}
 	}
 
+	private static class LeaseRead {
+		final RequestPacket requestPacket;
+		final Request request;
+
+		LeaseRead(RequestPacket requestPacket, Request request) {
+			this.requestPacket = requestPacket;
+			this.request = request;
+		}
+	}
+
+	/* Returns true if requestPacket is a read-only request from a client of
+	 * this replica that has been or will be executed locally without being
+	 * proposed. Only requests marked read-only by their issuer are parsed
+	 * here, so writes incur no parsing overhead. */
+	private boolean handleLeaseRead(RequestPacket requestPacket) {
+		if (!requestPacket.isReadOnly() || requestPacket.isStopRequest()
+				|| requestPacket.batchSize() > 0
+				|| requestPacket.isBroadcasted()
+				|| requestPacket.getPaxosID() == null
+				|| !(requestPacket.getEntryReplica() == this.myID || requestPacket
+						.getEntryReplica() == IntegerMap.NULL_INT_NODE))
+			return false;
+		PaxosInstanceStateMachine pism = this.getInstance(requestPacket
+				.getPaxosID());
+		if (pism == null || pism.getVersion() != requestPacket.getVersion())
+			return false;
+		Request request = requestPacket;
+		try {
+			if (requestPacket.shouldReturnRequestValue())
+				request = this.myApp.getRequest(requestPacket
+						.getRequestValue());
+		} catch (RequestParseException e) {
+			// let paxos deal with it as usual
+			return false;
+		}
+		return request != null && this.leaseReadApp.isReadOnly(request)
+				&& pism.handleLeaseRead(requestPacket, request);
+	}
+
+	// invoked by pism while synchronized on it
+	protected void enqueueLeaseRead(PaxosInstanceStateMachine pism, int slot,
+			RequestPacket requestPacket, Request request) {
+		this.leaseReads.enqueue(pism.getPaxosID(), pism.getVersion(), slot,
+				new LeaseRead(requestPacket, request));
+	}
+
+	/* Invoked by pism while synchronized on it after executing decisions.
+	 * Reads enqueued for an older version of pism are dropped and will be
+	 * retransmitted by clients. */
+	protected void executeLeaseReads(PaxosInstanceStateMachine pism) {
+		List<LeaseRead> ready = this.leaseReads.dequeueReady(
+				pism.getPaxosID(), pism.getVersion(), pism.getExecutedSlot());
+		if (!pism.isStopped())
+			for (LeaseRead read : ready)
+				pism.executeLeaseRead(read.requestPacket, read.request);
+	}
+
 	private void error(RequestPacket req) {
 		log.warning(this + " received request with no paxosID: "
 				+ req.getSummary());
@@ -1198,7 +1426,12 @@ public class PaxosManager<NodeIDType> {
 	 */
 	public String propose(String paxosID, Request request,
 			ExecutedCallback callback) {
-		return this.propose(paxosID, this.getRequestPacket(request), callback);
+		RequestPacket requestPacket = this.getRequestPacket(request);
+		// request is already parsed, so marking reads here is cheap
+		if (this.leaseReadApp != null && !requestPacket.isReadOnly()
+				&& this.leaseReadApp.isReadOnly(request))
+			requestPacket.setReadOnly();
+		return this.propose(paxosID, requestPacket, callback);
 	}
 
 	/**
@@ -1507,6 +1740,10 @@ public class PaxosManager<NodeIDType> {
 		return this.outOfOrderLimit;
 	}
 
+	protected void updateBatchingLatency(String paxosID, long entryTime) {
+		this.requestBatcher.updateLatency(paxosID, entryTime);
+	}
+
 	private int getNumOutstandingOrQueued() {
 		return (this.outstanding.requests.size())
 				+ this.requestBatcher.getQueueSize();
@@ -1633,11 +1870,14 @@ public class PaxosManager<NodeIDType> {
 		/* Close logger, FD, messenger, request batcher, executor */
 		this.paxosLogger.close();
 		this.FD.close();
+		this.messenger.removeSendQueueCallback(this.sendQueueCallback);
 		this.messenger.stop();
 		this.requestBatcher.stop();
 		this.ppBatcher.stop();
 		this.largeCheckpointer.close();
 		this.executor.shutdownNow();
+		if (this.parallelExecutor != null)
+			this.parallelExecutor.shutdownNow();
 
 		for (Iterator<PaxosInstanceStateMachine> pismIter = this.pinstances
 				.concurrentIterator(); pismIter.hasNext();)
@@ -1737,11 +1977,15 @@ public class PaxosManager<NodeIDType> {
 			String paxosID, boolean tryHotRestore, boolean tryRestore) {
 		// long methodEntryTime = System.currentTimeMillis();
 		PaxosInstanceStateMachine pism = null;
-		synchronized (this) {
-			// atomic get and mark active to prevent concurrent pause
-			if ((pism = pinstances.get(paxosID)) != null)
-				pism.markActive();
-		}
+		/* Marking active is atomic with respect to pausing an idle instance,
+		 * so no manager-wide lock is needed here. An instance that got
+		 * stopped, possibly by a pause that won the race, is looked up again
+		 * via unpause below. */
+		if ((pism = pinstances.get(paxosID)) != null
+				&& !pism.markActiveIfNotStopped())
+			pism = null;
+		if (pism != null)
+			this.idleTracker.touch(paxosID);
 		if (pism == null
 				&& ((tryHotRestore && (pism = this.unpause(paxosID)) != null) || (tryRestore && (pism = this
 						.restore(paxosID)) != null)))
@@ -1763,43 +2007,102 @@ public class PaxosManager<NodeIDType> {
 		return Config.getGlobalBoolean(PC.HIBERNATE_OPTION);
 	}
 
+	private static final int NUM_RECOVERY_THREADS = Config
+			.getGlobalInt(PC.NUM_RECOVERY_THREADS);
+	// bounds memory used by checkpoints and messages read ahead of recovery
+	private static final int RECOVERY_LANE_CAPACITY = 1024;
+
+	/* Runs task inline or, in parallel recovery mode, in the lane that paxosID
+	 * hashes to so that all recovery tasks for a group, both checkpoint
+	 * restoration and roll forward, execute one at a time in the order in
+	 * which they were read from the logger. */
+	private void runRecoveryTask(LaneExecutor lanes, String paxosID,
+			Runnable task) {
+		if (lanes == null) {
+			task.run();
+			return;
+		}
+		try {
+			lanes.execute(paxosID, task);
+		} catch (InterruptedException ie) {
+			Util.suicide(log, this + " recovery interrupted while recovering "
+					+ paxosID
+					+ ";\n Exiting because it is unsafe to continue recovery.");
+		}
+	}
+
+	private void awaitRecoveryTasks(LaneExecutor lanes) {
+		if (lanes != null)
+			try {
+				lanes.awaitQuiescence();
+			} catch (InterruptedException ie) {
+				Util.suicide(log, this + " recovery interrupted; "
+						+ "exiting because it is unsafe to continue recovery.");
+			}
+	}
+
+	private void recover(RecoveryInfo pri) {
+		// start paxos instance, restore app state from checkpoint if any
+		// and roll forward
+		try {
+			this.recover(pri.getPaxosID(), pri.getVersion(), this.myID,
+					getNodesFromStringSet(pri.getMembers()), myApp,
+					pri.getCheckpoint());
+		} catch (PaxosInstanceCreationException pice) {
+			// should we remove this checkpoint?
+			pice.printStackTrace();
+			log.severe(this + " unable to create paxos instance "
+					+ pri.getPaxosID());
+		}
+	}
+
 	/* For each paxosID in the logs, this method creates the corresponding paxos
 	 * instance and rolls it forward from the last checkpointed state.
 	 * 
-	 * Synchronized because this method invokes an incremental read on the
-	 * database that currently does not support parallelism. But the
-	 * "synchronized" qualifier here is not necessary for correctness. */
-	private synchronized void initiateRecovery() {
+	 * The logger is read through a single cursor in both phases, but if
+	 * NUM_RECOVERY_THREADS is more than 1, restoring checkpoints and handling
+	 * rolled forward messages is done in parallel by that many lanes with
+	 * groups sharded across lanes by paxosID. Per-group order is preserved
+	 * because each group always maps to the same single-threaded lane.
+	 * 
+	 * Not synchronized as lane threads need this's monitor to create and look
+	 * up instances. The incremental reads on the database that do not support
+	 * parallelism are protected by the logger's own initiateRead* locks, and
+	 * this method is invoked only once in the constructor anyway. */
+	private void initiateRecovery() {
 		boolean found = false;
 		int groupCount = 0, freq = 1;
-		log.log(Level.INFO, "{0} beginning to recover checkpoints",
-				new Object[] { this });
+		LaneExecutor lanes = NUM_RECOVERY_THREADS > 1 ? new LaneExecutor(
+				this + ":recovery", NUM_RECOVERY_THREADS,
+				RECOVERY_LANE_CAPACITY) : null;
+		long recoveryStart = System.currentTimeMillis(), t = recoveryStart;
+		log.log(Level.INFO, "{0} beginning to recover checkpoints{1}",
+				new Object[] {
+						this,
+						lanes != null ? " using " + lanes.getNumLanes()
+								+ " recovery threads" : "" });
 		while (this.paxosLogger.initiateReadCheckpoints(true))
 			; // acquires lock
 		RecoveryInfo pri = null;
 		while ((pri = this.paxosLogger.readNextCheckpoint(true)) != null) {
 			found = true;
 			assert (pri.getPaxosID() != null);
-			// start paxos instance, restore app state from checkpoint if any
-			// and roll forward
-			try {
-				this.recover(pri.getPaxosID(), pri.getVersion(), this.myID,
-						getNodesFromStringSet(pri.getMembers()), myApp,
-						pri.getState());
-			} catch (PaxosInstanceCreationException pice) {
-				// should we remove this checkpoint?
-				pice.printStackTrace();
-				log.severe(this + " unable to create paxos instance "
-						+ pri.getPaxosID());
-			}
+			final RecoveryInfo recoveryInfo = pri;
+			this.runRecoveryTask(lanes, pri.getPaxosID(), new Runnable() {
+				public void run() {
+					PaxosManager.this.recover(recoveryInfo);
+				}
+			});
 			if ((++groupCount) % freq == 0) {
 				freq *= 2;
 			}
 		}
+		this.awaitRecoveryTasks(lanes);
 		this.paxosLogger.closeReadAll(); // releases lock
+		long checkpointPhase = System.currentTimeMillis() - t;
 		log.log(Level.INFO,
-				"{0} has recovered checkpoints for {1} paxos groups",
-				new Object[] { this, groupCount });
+				"{0} has recovered checkpoints for {1} paxos groups in {2}ms",
+				new Object[] { this, groupCount, checkpointPhase });
 		if (!found) {
 			log.warning("No checkpoint state found for node "
 					+ this.myID
@@ -1809,6 +2112,7 @@ public class PaxosManager<NodeIDType> {
 		}
 		int logCount = 0;
 		freq = 1;
+		t = System.currentTimeMillis();
 		// roll forward all logged messages in a single pass
 		log.log(Level.INFO, "{0} beginning to roll forward logged messages",
 				new Object[] { this });
@@ -1921,13 +2225,19 @@ public class PaxosManager<NodeIDType> {
 
 		try {
 			while ((paxosPacket = this.paxosLogger.readNextMessage()) != null) {
-				paxosPacket = PaxosPacket.markRecovered(paxosPacket);
+				final PaxosPacket recovered = PaxosPacket
+						.markRecovered(paxosPacket);
 				Level level = Level.FINEST;
 				log.log(level,
 						"{0} rolling forward logged message {1}",
 						new Object[] { this,
-								paxosPacket.getSummary(log.isLoggable(level)) });
-				this.handlePaxosPacket((paxosPacket));
+								recovered.getSummary(log.isLoggable(level)) });
+				this.runRecoveryTask(lanes, recovered.getPaxosID(),
+						new Runnable() {
+							public void run() {
+								PaxosManager.this.handlePaxosPacket(recovered);
+							}
+						});
 				if ((++logCount) % freq == 0) {
 					freq *= 2;
 				}
@@ -1938,15 +2248,24 @@ public class PaxosManager<NodeIDType> {
 					+ ";\n Exiting because it is unsafe to continue recovery.");
 			e.printStackTrace();
 		}
+		this.awaitRecoveryTasks(lanes);
 		this.paxosLogger.closeReadAll(); // releases lock
+		long rollForwardPhase = System.currentTimeMillis() - t;
 		log.log(Level.INFO,
-				"{0} rolled forward {1} messages total across {2} paxos groups",
-				new Object[] { this, logCount, groupCount });
+				"{0} rolled forward {1} messages total across {2} paxos groups in {3}ms",
+				new Object[] { this, logCount, groupCount, rollForwardPhase });
+		if (lanes != null)
+			try {
+				lanes.shutdown();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		t = System.currentTimeMillis();
 
 		// need to make another pass to mark all instances as active
-		while (this.paxosLogger.initiateReadCheckpoints(true))
+		while (this.paxosLogger.initiateReadCheckpoints(false))
 			; // acquires lock
-		while ((pri = this.paxosLogger.readNextCheckpoint(true)) != null) {
+		while ((pri = this.paxosLogger.readNextCheckpoint(false)) != null) {
 			found = true;
 			assert (pri.getPaxosID() != null);
 			PaxosInstanceStateMachine pism = getInstance(pri.getPaxosID());
@@ -1965,6 +2284,11 @@ public class PaxosManager<NodeIDType> {
 		log.log(Level.INFO,
 				"------------------{0} recovery complete-------------------",
 				new Object[] { this });
+		log.log(Level.INFO,
+				"{0} recovery took {1}ms [checkpoints={2}ms, rollForward={3}ms, activation={4}ms]",
+				new Object[] { this, System.currentTimeMillis() - recoveryStart,
+						checkpointPhase, rollForwardPhase,
+						System.currentTimeMillis() - t });
 	}
 
 	protected boolean hasRecovered() {
@@ -2098,6 +2422,8 @@ public class PaxosManager<NodeIDType> {
 					+ ":" + pism.getVersion());
 		incrKilled();
 		this.softCrash(pism);
+		if (this.leaseReadApp != null)
+			this.leaseReads.remove(pism.getPaxosID());
 		this.corpses.put(pism.getPaxosID(), pism);
 		executor.schedule(new Cremator(pism.getPaxosID(), this.corpses),
 				Config.getGlobalInt(PC.MORGUE_DELAY), TimeUnit.MILLISECONDS);
@@ -2122,6 +2448,8 @@ public class PaxosManager<NodeIDType> {
 		assert (pism != null);
 		pism.forceStop();
 		this.pinstances.remove(pism.getPaxosID());
+		this.idleTracker.remove(pism.getPaxosID());
+		this.notCaughtUp.remove(pism.getPaxosID());
 	}
 
 	/* For testing. Similar to hibernate but without forcing a checkpoint and
@@ -2167,13 +2495,18 @@ public class PaxosManager<NodeIDType> {
 		PaxosInstanceStateMachine pism = null;
 		if ((pism = this.pinstances.get(paxosID)) != null)
 			return pism;
+		/* Else a recovery lane may be concurrently creating the instance
+		 * without synchronizing on this manager. Packets for it will be
+		 * retransmitted. */
+		if (!this.hasRecovered())
+			return null;
 		log.log(Level.INFO, "{0} trying to restore instance {1}", new Object[] {
 				this, paxosID });
 		RecoveryInfo pri = this.paxosLogger.getRecoveryInfo(paxosID);
 		if (pri != null)
 			pism = this.recover(paxosID, pri.getVersion(), this.myID,
 					this.getNodesFromStringSet(pri.getMembers()), this.myApp,
-					pri.getState());
+					pri.getCheckpoint());
 		if (pism != null)
 			log.log(Level.INFO,
 					"{0} successfully restored hibernated instance {1}",
@@ -2194,7 +2527,8 @@ public class PaxosManager<NodeIDType> {
 	 * if we pause in modest-sized batches, we will hold up regular request
 	 * processing for slightly longer but get done with pausing all pausable
 	 * instances much more quickly. */
-	protected HotRestoreInfo pause(PaxosInstanceStateMachine pism) {
+	protected HotRestoreInfo pause(PaxosInstanceStateMachine pism,
+			boolean onlyIfIdle) {
 		if (pism == null || this.isClosed()
 				|| !this.pinstances.containsValue(pism) || !isPauseEnabled())
 			return null;
@@ -2203,7 +2537,7 @@ public class PaxosManager<NodeIDType> {
 
 		// else try to pause
 		long pauseInitTime = System.currentTimeMillis();
-		HotRestoreInfo hri = pism.tryPause();
+		HotRestoreInfo hri = pism.tryPause(onlyIfIdle);
 		if (hri != null) {
 			/* crash means the same as removing from pinstances as well as
 			 * activePaxii for an already stopped paxos instance. */
@@ -2226,7 +2560,7 @@ public class PaxosManager<NodeIDType> {
 		public Set<String> commit(
 				Map<String, PaxosInstanceStateMachine> toCommit)
 				throws IOException {
-			return PaxosManager.this.pause(toCommit, false);
+			return PaxosManager.this.pause(toCommit, false, false);
 		}
 
 		@Override
@@ -2238,17 +2572,38 @@ public class PaxosManager<NodeIDType> {
 	/* Batched pausing can speed up pause throughput by leveraging batching in a
 	 * database. It doesn't help unpausing though. */
 	protected synchronized Set<String> pause(
-			Map<String, PaxosInstanceStateMachine> pauseBatch, boolean dequeue) {
+			Map<String, PaxosInstanceStateMachine> pauseBatch, boolean dequeue,
+			boolean onlyIfIdle) {
 		if (this.isClosed() || !isPauseEnabled())
 			return null;
 
+		Set<String> batchIDs = new HashSet<String>();
+		for (PaxosInstanceStateMachine pism : pauseBatch.values())
+			batchIDs.add(pism.getPaxosID());
+		synchronized (this.pausing) {
+			this.pausing.addAll(batchIDs);
+		}
+		try {
+			return this.pauseAndPersist(pauseBatch, dequeue, onlyIfIdle);
+		} finally {
+			synchronized (this.pausing) {
+				this.pausing.removeAll(batchIDs);
+				this.pausing.notifyAll();
+			}
+		}
+	}
+
+	private Set<String> pauseAndPersist(
+			Map<String, PaxosInstanceStateMachine> pauseBatch, boolean dequeue,
+			boolean onlyIfIdle) {
 		long t = System.currentTimeMillis();
 		// pause paxos instances
 		Map<String, HotRestoreInfo> hriMap = new HashMap<String, HotRestoreInfo>();
 		for (PaxosInstanceStateMachine pism : pauseBatch.values()) {
 			String paxosID = pism.getPaxosID();
-			HotRestoreInfo hri = dequeue ? this.pause(pism) : pism.tryPause();
-			// unpause here can return null unless synchronized
+			HotRestoreInfo hri = dequeue ? this.pause(pism, onlyIfIdle) : pism
+					.tryPause(onlyIfIdle);
+			// unpause waits on pausing until the pause record is written
 			if (hri != null)
 				hriMap.put(paxosID, hri);
 		}
@@ -2279,11 +2634,32 @@ public class PaxosManager<NodeIDType> {
 
 	private StringLocker stringLocker = new StringLocker();
 
+	/* paxosIDs in a batched pause between stopping their instance and
+	 * persisting or rolling back their pause record. An unpause in this window
+	 * would find neither an instance nor a pause record. */
+	private final Set<String> pausing = new HashSet<String>();
+
+	/* A thread holding the manager monitor never waits here as pausing is
+	 * non-empty only while pause holds that monitor, and pause itself never
+	 * unpauses. */
+	private void awaitPausing(String paxosID) {
+		synchronized (this.pausing) {
+			while (this.pausing.contains(paxosID))
+				try {
+					this.pausing.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+		}
+	}
+
 	// Hot restores from disk, i.e., restores quickly without need for rollback
 	private/* synchronized */PaxosInstanceStateMachine unpause(String paxosID) {
 		if (this.isClosed() || !this.hasRecovered() || !this.isPauseEnabled())
 			return null;
 
+		this.awaitPausing(paxosID);
 		PaxosInstanceStateMachine restored = null;
 		if ((restored = this.pinstances.get(paxosID)) != null)
 			return restored;
@@ -2317,8 +2693,9 @@ public class PaxosManager<NodeIDType> {
 		}
 		this.stringLocker.remove(paxosID);
 
+		// a concurrent stop decision may execute as soon as it is restored
 		if (restored != null)
-			assert (restored.isActive());
+			assert (restored.isActive() || restored.isStopped());
 		if (restored != null)
 			DelayProfiler.updateDelay("unpause", unpauseInitTime);
 		return restored;
@@ -2326,13 +2703,16 @@ public class PaxosManager<NodeIDType> {
 
 	/* Create paxos instance restoring app state from checkpoint if any and roll
 	 * forward. */
+	/* checkpoint, if non-null, is the already read checkpoint for
+	 * paxosID:version, else it will be read from the logger. */
 	private PaxosInstanceStateMachine recover(String paxosID, int version,
-			int id, Set<NodeIDType> members, Replicable app, String state) {
+			int id, Set<NodeIDType> members, Replicable app,
+			SlotBallotState checkpoint) {
 		log.log(Level.FINE, "{0} {1}:{2} {3} recovering", new Object[] { this,
 				paxosID, version, members });
-		PaxosInstanceStateMachine pism = this.createPaxosInstance(paxosID,
-				version, (members), app, null, null, false);
-		return pism;
+		this.waitPinstancesSize();
+		return this.createPaxosInstanceFinal(paxosID, version, members, app,
+				null, null, false, false, checkpoint);
 	}
 
 	private PaxosInstanceStateMachine recover(String paxosID, int version,
@@ -2688,19 +3068,16 @@ public class PaxosManager<NodeIDType> {
 	private static final double PAUSE_RATE_LIMIT = Config
 			.getGlobalDouble(PC.PAUSE_RATE_LIMIT);
 
-	/* We currently make a periodic pass over all active instances to sync and
-	 * check for deactivation. However, deactivation can be delegated to a
-	 * general-purpose DiskMap like structure and can be done more efficiently
-	 * in *expectation* than a full active sweep (at a ~2x higher memory cost)
-	 * every iteration. The sync also does not need a sweep if we maintain a
-	 * separate set of paxosIDs (with a commensurate memory cost) that are not
-	 * caught up and we sync just those. A sweep thread (like below or in
-	 * DiskMap) is needed in order to have the benefit of reducing the memory
-	 * footprint down to as small as necessary in steady-state without slowing
-	 * down the critical path. The bad case for a sweep is when most of the
-	 * mapped instances are active, so the sweeps end up being redundant; it is
-	 * unclear if this actually affects performance much given the low priority
-	 * hint for the thread and the explict rate limit. */
+	/* Instead of a periodic pass over all active instances, pause candidates
+	 * are polled in approximate LRU order from idleTracker, which costs O(1)
+	 * per instance access and, per deactivation round, time proportional to
+	 * the number of candidates rather than the number of active instances (at
+	 * a ~2x higher memory cost). Likewise, only the instances in notCaughtUp,
+	 * i.e., instances that could not be paused because they were not caught
+	 * up, are synced every round. The deactivation thread is still needed in
+	 * order to reduce the memory footprint down to as small as necessary in
+	 * steady-state without slowing down the critical path, but its cost no
+	 * longer grows with the number of mostly active instances. */
 	private void syncAndDeactivate() {
 		if (isClosed() || this.pinstances.size() == 0)
 			return;
@@ -2710,92 +3087,134 @@ public class PaxosManager<NodeIDType> {
 		long t0 = System.currentTimeMillis();
 		RateLimiter rateLimiter = new RateLimiter(PAUSE_RATE_LIMIT);
 		log.log(Level.FINE,
-				"{0} initiating deactivation attempt, |activePaxii| = {1}",
-				new Object[] { this, this.pinstances.size() });
-		int numPaused = 0;
-		Map<String, PaxosInstanceStateMachine> batch = new HashMap<String, PaxosInstanceStateMachine>();
+				"{0} initiating deactivation attempt, |activePaxii| = {1}, |notCaughtUp| = {2}",
+				new Object[] { this, this.pinstances.size(),
+						this.notCaughtUp.size() });
 
-		// cuckoo hashmap now supports an efficient iterator
-		for (Iterator<PaxosInstanceStateMachine> pismIter = this.pinstances
-				.concurrentIterator(); pismIter.hasNext();) {
-			PaxosInstanceStateMachine pism = pismIter.next();
+		this.syncNotCaughtUp();
 
-			String paxosID = pism.getPaxosID();
+		int numPaused = 0;
+		List<String> candidates = null;
+		while (!(candidates = this.idleTracker.pollIdle(
+				Config.getGlobalLong(PC.DEACTIVATION_PERIOD), PAUSE_BATCH_SIZE))
+				.isEmpty())
+			numPaused += this.deactivate(candidates, false, rateLimiter);
+
+		// if size > capacity/2, pause 1/FORCE_PAUSE_FACTOR fraction, coldest first
+		for (int attempted = 0; this.pinstances.size() > this.pinstances
+				.capacity() / 2
+				&& attempted < this.pinstances.capacity() / FORCE_PAUSE_FACTOR
+				&& numPaused < this.pinstances.capacity() / FORCE_PAUSE_FACTOR
+				&& !(candidates = this.idleTracker.pollColdest(PAUSE_BATCH_SIZE))
+						.isEmpty(); attempted += candidates.size())
+			numPaused += this.deactivate(candidates, true, rateLimiter);
+
+		DelayProfiler.updateDelay("deactivation", t0);
+	}
 
-			if (pism.isLongIdle()
-			// if size > capacity/2, pause 1/FORCE_PAUSE_FACTOR fraction
-					|| (this.pinstances.size() > this.pinstances.capacity() / 2 && numPaused < this.pinstances
-							.capacity() / FORCE_PAUSE_FACTOR)) {
-				log.log(Level.FINER, "{0} trying to pause {1} [{2}]",
-						new Object[] { this, paxosID, pism });
-				/* The sync below ensures that, at least once every deactivation
-				 * period, we sync decisions for an active paxos instance. This
-				 * is handy when a paxos instance is not caught up but doesn't
-				 * get any new messages either, say, because nothing new is
-				 * happening, then it has no reason to do anything but will
-				 * remain unnecessarily active; the sync here allows it to
-				 * potentially catch up and possibly be paused in the next
-				 * deactivation round if there is still no action by then. The
-				 * sync is useful irrespective of whether or not the instance is
-				 * caught up for pausability
-				 * 
-				 * Overhead: This sync imposes a message overhead of up to A
-				 * messages A is the number of active paxos instances. For
-				 * example, with 10K active instances, this method could send
-				 * 10K messages, which is high. However, for each instance, the
-				 * sync message will get sent only if it has not recently sent a
-				 * sync message *and* it is out of sync or it has just started
-				 * up and has a very low outOfOrder limit. Consequently, we
-				 * should avoid having a large number of paxos instances with a
-				 * very low outOfOrderLimit, especially if all they plan to do
-				 * is to start up and do nothing, otherwise, they will cause a
-				 * one-time deluge of sync messages before being paused.
-				 * 
-				 * If active instances are generally busy but out of sync, we
-				 * could impose a bandwidth overhead of A/D where D is the
-				 * deactivation thread's period, e.g., A=10K, D=30secs => an
-				 * overhead of 333 messages/sec, which although seems high is
-				 * possible only if none of those paxos instances sent a sync
-				 * reauest in the last S seconds, where S is the minimum
-				 * inter-sync interval for each instance (default 1 second). In
-				 * expectation, a high overhead relative to the inevitable paxos
-				 * commit overhead (of 3 messages per replica per decision) is
-				 * unlikely unless the workload and network behave
-				 * adversarially, i.e., in every D period, each active paxos
-				 * instance executes just enough decisions for it to be possible
-				 * for its outOfOrder threshold to be triggered and the network
-				 * reorders some of those decisions. If the instance commits
-				 * many more decisions than the outOfOrder threshold, then the
-				 * sync message adds only a small relative overhead, e.g., if
-				 * the outOfOrder threshold is 10, roughly 33 messages (accept,
-				 * acceptReply, decision) would be required to commit at least
-				 * 11 decisions that would then trigger just one sync message.
-				 * If the outOfOrder threshold is 1, then the sync message could
-				 * add one message to every 6 expected messages (for 2 paxos
-				 * commits) at this replica, a ~15% overhead. But with such a
-				 * low outOfOrder threshold, we should not be having a large
-				 * number of paxos instances in the first place. */
+	private void syncNotCaughtUp() {
+		for (Iterator<String> iter = this.notCaughtUp.iterator(); iter
+				.hasNext();) {
+			PaxosInstanceStateMachine pism = this.pinstances.get(iter.next());
+			if (pism == null || pism.isCaughtUp())
+				iter.remove();
+			else
 				this.syncPaxosInstance(pism, false);
-				// rate limit if well under capacity
-				if (this.pinstances.size() < this.pinstances.capacity()
-						/ FORCE_PAUSE_FACTOR)
-					rateLimiter.record();
-				batch.put(pism.getPaxosID(), pism);
-				if (batch.size() >= PAUSE_BATCH_SIZE) {
-					Set<String> batchPaused = pause(batch, true);
-					if (batchPaused != null)
-						numPaused += batchPaused.size();
-					log.log(Level.FINE, "{0} paused {1}", new Object[] { this,
-							batchPaused });
-					this.printPauseLog(batchPaused);
-					batch.clear();
-				}
-			}
 		}
-		if (!batch.isEmpty()) {
-			this.printPauseLog(this.pause(batch, true));
+	}
+
+	/* Tries to pause the paxos instances in paxosIDs polled from idleTracker,
+	 * which must all either be paused or be tracked again. Returns the number
+	 * paused. */
+	private int deactivate(List<String> paxosIDs, boolean force,
+			RateLimiter rateLimiter) {
+		Map<String, PaxosInstanceStateMachine> batch = new HashMap<String, PaxosInstanceStateMachine>();
+		for (String paxosID : paxosIDs) {
+			PaxosInstanceStateMachine pism = this.pinstances.get(paxosID);
+			if (pism == null)
+				continue;
+			// marked active by a path that bypassed the tracker
+			if (!force && !pism.isLongIdle()) {
+				this.idleTracker.touch(paxosID);
+				continue;
+			}
+			log.log(Level.FINER, "{0} trying to pause {1} [{2}]",
+					new Object[] { this, paxosID, pism });
+			/* The sync below, and the one in syncNotCaughtUp for candidates
+			 * that failed to pause, ensures that, at least once every
+			 * deactivation period, we sync decisions for an idle paxos
+			 * instance. This is handy when a paxos instance is not caught up
+			 * but doesn't get any new messages either, say, because nothing
+			 * new is happening, then it has no reason to do anything but
+			 * will remain unnecessarily active; the sync here allows it to
+			 * potentially catch up and possibly be paused in the next
+			 * deactivation round if there is still no action by then. The
+			 * sync is useful irrespective of whether or not the instance is
+			 * caught up for pausability
+			 * 
+			 * Overhead: This sync imposes a message overhead of up to A
+			 * messages A is the number of idle paxos instances. For
+			 * example, with 10K active instances, this method could send
+			 * 10K messages, which is high. However, for each instance, the
+			 * sync message will get sent only if it has not recently sent a
+			 * sync message *and* it is out of sync or it has just started
+			 * up and has a very low outOfOrder limit. Consequently, we
+			 * should avoid having a large number of paxos instances with a
+			 * very low outOfOrderLimit, especially if all they plan to do
+			 * is to start up and do nothing, otherwise, they will cause a
+			 * one-time deluge of sync messages before being paused.
+			 * 
+			 * If active instances are generally busy but out of sync, we
+			 * could impose a bandwidth overhead of A/D where D is the
+			 * deactivation thread's period, e.g., A=10K, D=30secs => an
+			 * overhead of 333 messages/sec, which although seems high is
+			 * possible only if none of those paxos instances sent a sync
+			 * reauest in the last S seconds, where S is the minimum
+			 * inter-sync interval for each instance (default 1 second). In
+			 * expectation, a high overhead relative to the inevitable paxos
+			 * commit overhead (of 3 messages per replica per decision) is
+			 * unlikely unless the workload and network behave
+			 * adversarially, i.e., in every D period, each active paxos
+			 * instance executes just enough decisions for it to be possible
+			 * for its outOfOrder threshold to be triggered and the network
+			 * reorders some of those decisions. If the instance commits
+			 * many more decisions than the outOfOrder threshold, then the
+			 * sync message adds only a small relative overhead, e.g., if
+			 * the outOfOrder threshold is 10, roughly 33 messages (accept,
+			 * acceptReply, decision) would be required to commit at least
+			 * 11 decisions that would then trigger just one sync message.
+			 * If the outOfOrder threshold is 1, then the sync message could
+			 * add one message to every 6 expected messages (for 2 paxos
+			 * commits) at this replica, a ~15% overhead. But with such a
+			 * low outOfOrder threshold, we should not be having a large
+			 * number of paxos instances in the first place. */
+			this.syncPaxosInstance(pism, false);
+			// rate limit if well under capacity
+			if (this.pinstances.size() < this.pinstances.capacity()
+					/ FORCE_PAUSE_FACTOR)
+				rateLimiter.record();
+			batch.put(paxosID, pism);
+		}
+		if (batch.isEmpty())
+			return 0;
+
+		Set<String> batchPaused = this.pause(batch, true, !force);
+		for (String paxosID : batch.keySet()) {
+			PaxosInstanceStateMachine pism = null;
+			// still active, e.g., not caught up or rolled back
+			if ((batchPaused == null || !batchPaused.contains(paxosID))
+					&& (pism = this.pinstances.get(paxosID)) != null) {
+				this.idleTracker.touch(paxosID);
+				if (!pism.isCaughtUp())
+					this.notCaughtUp.add(paxosID);
+			}
 		}
-		DelayProfiler.updateDelay("deactivation", t0);
+		if (batchPaused == null)
+			return 0;
+		log.log(Level.FINE, "{0} paused {1}",
+				new Object[] { this, batchPaused });
+		this.printPauseLog(batchPaused);
+		return batchPaused.size();
 	}
 
 	private void printPauseLog(Collection<String> paused) {
@@ -3291,6 +3710,25 @@ public class PaxosManager<NodeIDType> {
 		return this.myApp;
 	}
 
+	/**
+	 * @return The app if it supports parallel execution of non-conflicting
+	 *         requests and parallel execution is enabled, else null.
+	 */
+	protected ParallelReplicable getParallelApp() {
+		return this.parallelApp;
+	}
+
+	/**
+	 * @return The app if it supports delta checkpoints, else null.
+	 */
+	protected DeltaCheckpointReplicable getDeltaCheckpointApp() {
+		return this.deltaCheckpointApp;
+	}
+
+	protected ExecutorService getParallelExecutor() {
+		return this.parallelExecutor;
+	}
+
 	protected MessageDigest getMessageDigest() {
 		return PendingDigests.getMessageDigest();
 	}
@@ -3397,4 +3835,243 @@ public class PaxosManager<NodeIDType> {
 				iter.remove();
 		return nodes;
 	}
+
+	/**
+	 * Tests that a {@link DeltaCheckpointReplicable} app behind a
+	 * {@link PaxosManager} gets its deltas checkpointed and restored upon
+	 * recovery.
+	 */
+	public static class DeltaCheckpointTest extends DefaultTest {
+
+		// state is the concatenation of all executed request values
+		private static class DeltaApp implements DeltaCheckpointReplicable {
+			private String state = "";
+			private int lastCheckpointed = 0;
+			private int numDeltas = 0;
+			private int numRestoredDeltas = 0;
+			private int numExecuted = 0;
+
+			@Override
+			public synchronized boolean execute(Request request) {
+				this.state += ((RequestPacket) request).requestValue;
+				this.numExecuted++;
+				this.notifyAll();
+				return true;
+			}
+
+			@Override
+			public boolean execute(Request request, boolean doNotReplyToClient) {
+				return this.execute(request);
+			}
+
+			@Override
+			public Request getRequest(String stringified)
+					throws RequestParseException {
+				return new RequestPacket(stringified, false);
+			}
+
+			@Override
+			public Set<IntegerPacketType> getRequestTypes() {
+				return new HashSet<IntegerPacketType>();
+			}
+
+			@Override
+			public synchronized String checkpoint(String name) {
+				this.lastCheckpointed = this.state.length();
+				return this.state;
+			}
+
+			@Override
+			public synchronized boolean restore(String name, String state) {
+				this.state = state != null ? state : "";
+				this.lastCheckpointed = this.state.length();
+				return true;
+			}
+
+			@Override
+			public synchronized String checkpointDelta(String name) {
+				String delta = this.state.substring(this.lastCheckpointed);
+				this.lastCheckpointed = this.state.length();
+				this.numDeltas++;
+				return delta;
+			}
+
+			@Override
+			public synchronized boolean restoreDelta(String name, String delta) {
+				this.state += delta;
+				this.lastCheckpointed = this.state.length();
+				this.numRestoredDeltas++;
+				return true;
+			}
+
+			synchronized void waitForExecuted(int n) throws InterruptedException {
+				long deadline = System.currentTimeMillis() + 10000;
+				while (this.numExecuted < n
+						&& System.currentTimeMillis() < deadline)
+					this.wait(deadline - System.currentTimeMillis());
+				Assert.assertEquals(n, this.numExecuted);
+			}
+		}
+
+		private static PaxosManager<Integer> startPaxosManager(int id,
+				int port, DeltaApp app) throws IOException {
+			SampleNodeConfig<Integer> nc = new SampleNodeConfig<Integer>(port);
+			nc.localSetup(Util.arrayToIntSet(new int[] { id }));
+			PaxosManager<Integer> pm = new PaxosManager<Integer>(id, nc,
+					new JSONNIOTransport<Integer>(id, nc,
+							new PacketDemultiplexerDefault(), true), app);
+			pm.setInterCheckpointInterval(2);
+			return pm;
+		}
+
+		/**
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testDeltasThroughPaxosManager() throws IOException,
+				InterruptedException {
+			int id = 926;
+			String paxosID = "delta_group";
+			int numRequests = 9;
+
+			DeltaApp app = new DeltaApp();
+			PaxosManager.startWithCleanDB(true);
+			PaxosManager<Integer> pm = startPaxosManager(id, 2926, app);
+			PaxosManager.startWithCleanDB(false);
+			try {
+				Assert.assertSame(app, pm.getDeltaCheckpointApp());
+				Assert.assertTrue(pm.createPaxosInstance(paxosID,
+						Util.arrayToIntSet(new int[] { id }), ""));
+				for (int i = 0; i < numRequests; i++) {
+					Assert.assertNotNull(pm.propose(paxosID, "r" + i + ";",
+							null));
+					app.waitForExecuted(i + 1);
+				}
+				Assert.assertTrue(app.numDeltas > 0);
+				SlotBallotState sbs = pm.getPaxosLogger().getSlotBallotState(
+						paxosID);
+				Assert.assertTrue(sbs.hasDeltas());
+				// the full checkpoint is only the base of the chain
+				Assert.assertTrue(app.state.startsWith(sbs.state));
+				Assert.assertTrue(app.state.length() > sbs.state.length());
+			} finally {
+				pm.close();
+			}
+
+			DeltaApp recovered = new DeltaApp();
+			pm = startPaxosManager(id, 3926, recovered);
+			try {
+				Assert.assertTrue(pm.hasRecovered());
+				Assert.assertTrue(recovered.numRestoredDeltas > 0);
+				Assert.assertEquals(app.state, recovered.state);
+			} finally {
+				pm.getPaxosLogger().removeAll();
+				pm.close();
+			}
+		}
+	}
+
+	/**
+	 * Tests that instances being paused in a batch stay reachable.
+	 */
+	public static class PauseTest extends DefaultTest {
+
+		/**
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testGetInstanceDuringBatchedPause() throws IOException,
+				InterruptedException {
+			int id = 927;
+			int numGroups = 500;
+			SampleNodeConfig<Integer> nc = new SampleNodeConfig<Integer>(2927);
+			nc.localSetup(Util.arrayToIntSet(new int[] { id }));
+			PaxosManager.startWithCleanDB(true);
+			final PaxosManager<Integer> pm = new PaxosManager<Integer>(id, nc,
+					new JSONNIOTransport<Integer>(id, nc,
+							new PacketDemultiplexerDefault(), true),
+					new edu.umass.cs.gigapaxos.examples.noop.NoopPaxosApp());
+			PaxosManager.startWithCleanDB(false);
+			try {
+				final Map<String, PaxosInstanceStateMachine> batch = new HashMap<String, PaxosInstanceStateMachine>();
+				for (int i = 0; i < numGroups; i++) {
+					String paxosID = "pause_group" + i;
+					Assert.assertTrue(pm.createPaxosInstance(paxosID,
+							Util.arrayToIntSet(new int[] { id }), ""));
+					batch.put(paxosID, pm.pinstances.get(paxosID));
+				}
+				final Set<String> paused = ConcurrentHashMap.newKeySet();
+				Thread pauser = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						paused.addAll(pm.pause(batch, true, false));
+					}
+				});
+				pauser.start();
+				int misses = 0, lookups = 0;
+				// look up in reverse so as to race with the pausing loop
+				do {
+					for (int i = numGroups - 1; i >= 0; i--, lookups++)
+						if (pm.getInstance("pause_group" + i) == null)
+							misses++;
+				} while (pauser.isAlive());
+				pauser.join();
+				Assert.assertFalse(paused.isEmpty());
+				Assert.assertEquals(misses + " of " + lookups
+						+ " lookups found no instance", 0, misses);
+				for (String paxosID : batch.keySet())
+					Assert.assertNotNull(pm.getInstance(paxosID));
+			} finally {
+				pm.getPaxosLogger().removeAll();
+				pm.close();
+			}
+		}
+	}
+
+	/**
+	 * Tests that send queue congestion is tracked across transports.
+	 */
+	public static class CongestionTest extends DefaultTest {
+
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void testCongestedUntilAllTransportsDrain() throws IOException {
+			int id = 928;
+			String paxosID = "congested_group";
+			SampleNodeConfig<Integer> nc = new SampleNodeConfig<Integer>(2928);
+			nc.localSetup(Util.arrayToIntSet(new int[] { id }));
+			PaxosManager.startWithCleanDB(true);
+			PaxosManager<Integer> pm = new PaxosManager<Integer>(id, nc,
+					new JSONNIOTransport<Integer>(id, nc,
+							new PacketDemultiplexerDefault(), true),
+					new edu.umass.cs.gigapaxos.examples.noop.NoopPaxosApp());
+			PaxosManager.startWithCleanDB(false);
+			try {
+				Assert.assertTrue(pm.createPaxosInstance(paxosID,
+						Util.arrayToIntSet(new int[] { id }), ""));
+				InetSocketAddress isa = new InetSocketAddress(
+						nc.getNodeAddress(id), nc.getNodePort(id));
+				Assert.assertFalse(pm.isCongested(paxosID));
+				// as reported by two transports, e.g., main and a worker
+				pm.sendQueueCallback.congestionChanged(isa, id, true);
+				pm.sendQueueCallback.congestionChanged(isa, id, true);
+				Assert.assertTrue(pm.isCongested(paxosID));
+				pm.sendQueueCallback.congestionChanged(isa, id, false);
+				Assert.assertTrue(pm.isCongested(paxosID));
+				pm.sendQueueCallback.congestionChanged(isa, id, false);
+				Assert.assertFalse(pm.isCongested(paxosID));
+				// unmatched drain reports are ignored
+				pm.sendQueueCallback.congestionChanged(isa, id, false);
+				pm.sendQueueCallback.congestionChanged(isa, id, true);
+				Assert.assertTrue(pm.isCongested(paxosID));
+			} finally {
+				pm.getPaxosLogger().removeAll();
+				pm.close();
+			}
+		}
+	}
 }
@@ -0,0 +1,396 @@
+package edu.umass.cs.gigapaxos;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
+import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedAcceptReply;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
+import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
+import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
+import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.gigapaxos.paxosutil.LogIndex;
+import edu.umass.cs.gigapaxos.paxosutil.LogIndex.LogIndexEntry;
+import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
+import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
+import edu.umass.cs.nio.nioutils.NIOHeader;
+import edu.umass.cs.utils.DiskMap;
+import edu.umass.cs.utils.MicroBenchmark;
+import edu.umass.cs.utils.MultiArrayMap;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Microbenchmarks for gigapaxos hot paths run with
+ *         {@link MicroBenchmark}: request serialization and parsing, decoding
+ *         in {@link PaxosPacketDemultiplexerFast}, {@link MultiArrayMap} and
+ *         {@link DiskMap} gets and puts, {@link LogIndex} adds and pauses,
+ *         {@link Ballot} comparison, {@link BatchedCommit} construction, and
+ *         {@link SQLPaxosLogger#logBatch(LogMessagingTask[])} against a log
+ *         directory on tmpfs (/dev/shm if present) so that the measured cost
+ *         is that of the logger rather than of the disk. Usage:
+ *
+ *         <pre>
+ * PaxosMicroBenchmarks [regex [iterations [millisPerIteration [outputFile]]]]
+ * </pre>
+ *
+ *         where regex selects benchmarks by name. Each benchmark reports
+ *         ops/sec and heap bytes allocated per op, and if outputFile is
+ *         specified, one JSON line per benchmark is appended to it so that
+ *         baselines can be tracked across changes. Run with a fixed heap
+ *         (-Xms equal to -Xmx) for stable numbers. The logBatch benchmark
+ *         needs tmpfs space for its journal of up to a few hundred MB per
+ *         second of warmup and measurement.
+ */
+public class PaxosMicroBenchmarks {
+
+	private static final int REQUEST_SIZE = 100;
+	private static final int NUM_KEYS = 1 << 18;
+	private static final int LOG_INDEX_ENTRIES = 16;
+	private static final int BATCH_SIZE = 32;
+	private static final int NUM_GROUPS = 64;
+	private static final int[] GROUP = { 0, 1, 2 };
+
+	private static final InetSocketAddress SNDR = new InetSocketAddress(
+			"127.0.0.1", 2000), RCVR = new InetSocketAddress("127.0.0.1",
+			2001);
+
+	private static final Ballot BALLOT = new Ballot(3, 1);
+
+	private static RequestPacket makeRequest(String paxosID, long reqID) {
+		RequestPacket request = new RequestPacket(reqID, new String(
+				Util.getRandomAlphanumericBytes(REQUEST_SIZE)), false);
+		request.putPaxosID(paxosID, 0);
+		return request;
+	}
+
+	private static PValuePacket makeDecision(String paxosID, int slot) {
+		PValuePacket pvalue = new PValuePacket(BALLOT, new ProposalPacket(
+				slot, makeRequest(paxosID, slot)));
+		pvalue.putPaxosID(paxosID, 0);
+		return pvalue.makeDecision(-1);
+	}
+
+	private static AcceptPacket makeAccept(String paxosID, int slot) {
+		PValuePacket pvalue = new PValuePacket(BALLOT, new ProposalPacket(
+				slot, makeRequest(paxosID, slot)));
+		pvalue.putPaxosID(paxosID, 0);
+		AcceptPacket accept = new AcceptPacket(BALLOT.coordinatorID, pvalue,
+				-1);
+		accept.putPaxosID(paxosID, 0);
+		return accept;
+	}
+
+	private static AcceptReplyPacket makeAcceptReply(String paxosID, int slot) {
+		AcceptReplyPacket reply = new AcceptReplyPacket(GROUP[1], BALLOT,
+				slot, -1);
+		reply.putPaxosID(paxosID, 0);
+		return reply;
+	}
+
+	private static Set<Integer> getGroup() {
+		Set<Integer> group = new HashSet<Integer>();
+		for (int member : GROUP)
+			group.add(member);
+		return group;
+	}
+
+	private static String[] makeKeys() {
+		String[] keys = new String[NUM_KEYS];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = "paxos" + i;
+		return keys;
+	}
+
+	private static LogIndexEntry[] makeLogIndexEntries() {
+		LogIndexEntry[] entries = new LogIndexEntry[LOG_INDEX_ENTRIES];
+		for (int i = 0; i < entries.length; i++)
+			entries[i] = new LogIndexEntry(i, BALLOT.ballotNumber,
+					BALLOT.coordinatorID, (i % 2 == 0 ? PaxosPacket.PaxosPacketType.ACCEPT
+							: PaxosPacket.PaxosPacketType.DECISION).getInt(),
+					"paxos_logs/log.0." + (1000000 + i / 4), 1024L * i, 256);
+		return entries;
+	}
+
+	// decodes byteified paxos packets the way the demultiplexer does
+	private static MicroBenchmark demux(PaxosPacket.PaxosPacketType type,
+			final byte[] bytes) {
+		return new MicroBenchmark("demux." + type) {
+			final NIOHeader header = new NIOHeader(SNDR, RCVR);
+
+			protected Object op(int i) {
+				return PaxosPacketDemultiplexerFast.processHeaderUtil(bytes,
+						this.header);
+			}
+		};
+	}
+
+	private static List<MicroBenchmark> getBenchmarks() {
+		List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+
+		final RequestPacket request = makeRequest("paxos0", 0);
+		benchmarks.add(new MicroBenchmark("RequestPacket.toBytes") {
+			protected Object op(int i) {
+				// copies do not inherit the cached byteified form
+				return new RequestPacket(request).toBytes();
+			}
+		});
+		benchmarks.add(new MicroBenchmark("RequestPacket.parse") {
+			final byte[] bytes = request.toBytes();
+
+			protected Object op(int i) throws IOException {
+				return new RequestPacket(this.bytes);
+			}
+		});
+
+		BatchedAcceptReply batchedReply = new BatchedAcceptReply(
+				makeAcceptReply("paxos0", 0));
+		BatchedCommit batchedCommit = new BatchedCommit(makeDecision("paxos0",
+				0), getGroup());
+		for (int slot = 1; slot < BATCH_SIZE; slot++) {
+			batchedReply.addAcceptReply(makeAcceptReply("paxos0", slot));
+			batchedCommit.addCommit(makeDecision("paxos0", slot));
+		}
+		// demux stamps addresses into the bytes, so use a copy
+		benchmarks.add(demux(request.getType(),
+				new RequestPacket(request).toBytes()));
+		AcceptPacket accept = makeAccept("paxos0", 0);
+		benchmarks.add(demux(accept.getType(), accept.toBytes()));
+		benchmarks.add(demux(batchedReply.getType(), batchedReply.toBytes()));
+		benchmarks.add(demux(batchedCommit.getType(), batchedCommit.toBytes()));
+
+		final String[] keys = makeKeys();
+		final LogIndex[] values = makeValues(keys);
+		final MultiArrayMap<String, LogIndex> multiArrayMap = new MultiArrayMap<String, LogIndex>(
+				NUM_KEYS);
+		for (LogIndex value : values)
+			multiArrayMap.put(value.getKey(), value);
+		benchmarks.add(new MicroBenchmark("MultiArrayMap.get") {
+			protected Object op(int i) {
+				return multiArrayMap.get(keys[i & (NUM_KEYS - 1)]);
+			}
+		});
+		benchmarks.add(new MicroBenchmark("MultiArrayMap.put") {
+			protected Object op(int i) {
+				return multiArrayMap.put(keys[i & (NUM_KEYS - 1)],
+						values[i & (NUM_KEYS - 1)]);
+			}
+		});
+
+		benchmarks.add(new DiskMapBenchmark("DiskMap.get", keys, values,
+				false));
+		benchmarks.add(new DiskMapBenchmark("DiskMap.put", keys, values,
+				true));
+
+		final LogIndexEntry[] entries = makeLogIndexEntries();
+		benchmarks.add(new MicroBenchmark("LogIndex.add") {
+			LogIndex logIndex = null;
+
+			protected Object op(int i) {
+				// amortize creation over a typical number of entries
+				if (i % LOG_INDEX_ENTRIES == 0)
+					this.logIndex = new LogIndex("paxos0", 0);
+				this.logIndex.add(entries[i % LOG_INDEX_ENTRIES]);
+				return this.logIndex;
+			}
+		});
+		final LogIndex logIndex = new LogIndex("paxos0", 0);
+		for (LogIndexEntry entry : entries)
+			logIndex.add(entry);
+		benchmarks.add(new MicroBenchmark("LogIndex.pause") {
+			protected Object op(int i) {
+				return logIndex.toBytes();
+			}
+		});
+		benchmarks.add(new MicroBenchmark("LogIndex.unpause") {
+			final byte[] paused = logIndex.toBytes();
+
+			protected Object op(int i) throws IOException {
+				return new LogIndex(this.paused);
+			}
+		});
+
+		final Ballot[] ballots = new Ballot[1024];
+		Random random = new Random(0);
+		for (int i = 0; i < ballots.length; i++)
+			ballots[i] = new Ballot(random.nextInt(4), random.nextInt(4));
+		benchmarks.add(new MicroBenchmark("Ballot.compareTo") {
+			protected Object op(int i) {
+				return ballots[i & (ballots.length - 1)]
+						.compareTo(ballots[(i + 1) & (ballots.length - 1)]);
+			}
+		});
+
+		final PValuePacket[] decisions = new PValuePacket[BATCH_SIZE];
+		for (int slot = 0; slot < decisions.length; slot++)
+			decisions[slot] = makeDecision("paxos0", slot);
+		final Set<Integer> group = getGroup();
+		benchmarks.add(new MicroBenchmark("BatchedCommit.new") {
+			protected Object op(int i) {
+				BatchedCommit commit = new BatchedCommit(decisions[0], group);
+				for (int j = 1; j < decisions.length; j++)
+					commit.addCommit(decisions[j]);
+				return commit;
+			}
+		});
+
+		benchmarks.add(new LogBatchBenchmark());
+		return benchmarks;
+	}
+
+	// an empty log index is the smallest Keyable value at hand
+	private static LogIndex[] makeValues(String[] keys) {
+		LogIndex[] values = new LogIndex[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			values[i] = new LogIndex(keys[i], 0);
+		return values;
+	}
+
+	/* An in-memory DiskMap large enough to never pause, so that only the
+	 * overhead of DiskMap over its in-memory map is measured. */
+	private static class DiskMapBenchmark extends MicroBenchmark {
+		final String[] keys;
+		final LogIndex[] values;
+		final boolean put;
+		DiskMap<String, LogIndex> diskMap;
+
+		DiskMapBenchmark(String name, String[] keys, LogIndex[] values,
+				boolean put) {
+			super(name);
+			this.keys = keys;
+			this.values = values;
+			this.put = put;
+		}
+
+		protected void setup() {
+			final Map<String, LogIndex> disk = new ConcurrentHashMap<String, LogIndex>();
+			this.diskMap = new DiskMap<String, LogIndex>(2 * NUM_KEYS) {
+				@Override
+				public Set<String> commit(Map<String, LogIndex> toCommit)
+						throws IOException {
+					disk.putAll(toCommit);
+					return new HashSet<String>(toCommit.keySet());
+				}
+
+				@Override
+				public LogIndex restore(String key) throws IOException {
+					return disk.get(key);
+				}
+			};
+			for (int i = 0; i < this.keys.length; i++)
+				this.diskMap.put(this.keys[i], this.values[i]);
+		}
+
+		protected Object op(int i) {
+			return this.put ? this.diskMap.put(this.keys[i & (NUM_KEYS - 1)],
+					this.values[i & (NUM_KEYS - 1)]) : this.diskMap
+					.get(this.keys[i & (NUM_KEYS - 1)]);
+		}
+
+		protected void teardown() {
+			this.diskMap.close(false);
+			this.diskMap = null;
+		}
+	}
+
+	/* Logs batches of accepts across groups. Accepts are byteified once
+	 * upfront as they would have been for sending before being logged. As
+	 * checkpoints do not advance, the journal grows at the logged rate, i.e.,
+	 * a few hundred MB/s, until it is removed in teardown. */
+	private static class LogBatchBenchmark extends MicroBenchmark {
+		private static final int NUM_BATCHES = 64;
+		final LogMessagingTask[][] batches = new LogMessagingTask[NUM_BATCHES][BATCH_SIZE];
+		String logdir;
+		SQLPaxosLogger logger;
+
+		LogBatchBenchmark() {
+			super("SQLPaxosLogger.logBatch(" + BATCH_SIZE + ")");
+		}
+
+		protected void setup() {
+			File tmpfs = new File("/dev/shm");
+			this.logdir = (tmpfs.isDirectory() && tmpfs.canWrite() ? tmpfs
+					.getPath() : System.getProperty("java.io.tmpdir"))
+					+ "/" + PaxosMicroBenchmarks.class.getSimpleName()
+					+ System.nanoTime();
+			this.logger = new SQLPaxosLogger(0, "bench", this.logdir, null);
+			// journal GC expects logged groups to have been checkpointed
+			for (int g = 0; g < NUM_GROUPS; g++)
+				this.logger.putCheckpointState("paxos" + g, 0,
+						Util.arrayOfIntToStringSet(GROUP), 0, BALLOT, "", -1);
+			for (int b = 0; b < NUM_BATCHES; b++)
+				for (int j = 0; j < BATCH_SIZE; j++) {
+					AcceptPacket accept = makeAccept("paxos"
+							+ ((b * BATCH_SIZE + j) % NUM_GROUPS), b);
+					accept.toBytes();
+					this.batches[b][j] = new LogMessagingTask(accept);
+				}
+		}
+
+		protected Object op(int i) {
+			return this.logger.logBatch(this.batches[i % NUM_BATCHES]);
+		}
+
+		protected void teardown() {
+			if (this.logger != null)
+				this.logger.close();
+			Util.recursiveRemove(new File(this.logdir));
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String regex = args.length > 0 ? args[0] : ".*";
+		int iterations = args.length > 1 ? Integer.valueOf(args[1]) : 5;
+		long iterationMillis = args.length > 2 ? Long.valueOf(args[2]) : 1000;
+		String outputFile = args.length > 3 ? args[3] : null;
+
+		FileWriter output = outputFile != null ? new FileWriter(outputFile,
+				true) : null;
+		try {
+			for (MicroBenchmark benchmark : getBenchmarks()) {
+				if (!benchmark.getName().matches(regex))
+					continue;
+				MicroBenchmark.Result result = benchmark.run(
+						Math.max(1, iterations / 2 + 1), iterations,
+						iterationMillis);
+				System.out.println(result);
+				if (output != null) {
+					output.write(toJSON(result).toString() + "\n");
+					output.flush();
+				}
+			}
+		} finally {
+			if (output != null)
+				output.close();
+		}
+		System.exit(0);
+	}
+
+	private static JSONObject toJSON(MicroBenchmark.Result result)
+			throws JSONException {
+		JSONObject json = result.toJSONObject();
+		json.put("timestamp", System.currentTimeMillis());
+		json.put("java", System.getProperty("java.version"));
+		return json;
+	}
+}
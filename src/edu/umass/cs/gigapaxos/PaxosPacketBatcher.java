@@ -206,6 +206,8 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 			if (pkts.add(mtask))
 				lengthEstimate += ((RequestPacket) mtask.msgs[0]).lengthEstimate();
 
+		if (ENABLE_INSTRUMENTATION && Util.oneIn(20))
+			DelayProfiler.updateMovAvg("#ppBatched", pkts.size());
 		return pkts.toArray(new MessagingTask[0]);
 	}
 
@@ -32,6 +32,7 @@ import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.nio.interfaces.Messenger;
 import edu.umass.cs.nio.interfaces.NodeConfig;
 import edu.umass.cs.nio.interfaces.SSLMessenger;
@@ -141,6 +142,12 @@ public class PaxosServer {
 		Config.register(args);
 		if (Config.getGlobalBoolean(PC.EMULATE_DELAYS))
 			AbstractPacketDemultiplexer.emulateDelays();
+		NIOTransport.setNumReactors(Config
+				.getGlobalInt(PC.NIO_REACTOR_THREADS));
+		NIOTransport.setUsePooledBuffers(Config
+				.getGlobalBoolean(PC.NIO_POOLED_BUFFERS));
+		NIOTransport.setSendQueueHighWatermark(Config
+				.getGlobalLong(PC.NIO_SEND_QUEUE_HIGH_WATERMARK));
 
 		
 		PaxosConfig.load();
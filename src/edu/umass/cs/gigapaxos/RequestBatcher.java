@@ -26,6 +26,7 @@ import java.util.logging.Logger;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxosutil.AdaptiveBatchController;
 import edu.umass.cs.gigapaxos.paxosutil.ConsumerTask;
 import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.utils.Config;
@@ -36,6 +37,12 @@ import edu.umass.cs.utils.Util;
  * @author arun
  *
  *         A utility class to consume batched requests.
+ *         <p>
+ *         If {@link PC#ADAPTIVE_BATCHING} is enabled, the batch size cap and
+ *         the time for which a group's requests linger in the queue waiting
+ *         for more requests to batch with are set per paxos group by an
+ *         {@link AdaptiveBatchController} instead of the static
+ *         {@link PC#MAX_BATCH_SIZE} and a global sleep duration.
  */
 public class RequestBatcher extends ConsumerTask<RequestPacket> {
 
@@ -45,11 +52,20 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 			.getGlobalDouble(PC.BATCH_SLEEP_DURATION);
 	private static final double BATCH_OVERHEAD = Config
 			.getGlobalDouble(PC.BATCH_OVERHEAD);
+	private static final boolean ADAPTIVE_BATCHING = Config
+			.getGlobalBoolean(PC.ADAPTIVE_BATCHING);
+	// floor for adaptively decreased batch size caps
+	private static final int MIN_ADAPTIVE_BATCH_SIZE = 16;
 
 	private final HashMap<String, LinkedBlockingQueue<RequestPacket>> batched;
 	private final PaxosManager<?> paxosManager;
 	private static double agreementLatency = 0;
 
+	// null if adaptive batching is disabled
+	private final AdaptiveBatchController controller;
+	// nanoTime when the oldest currently queued request of a group was queued
+	private final HashMap<String, Long> firstQueued = new HashMap<String, Long>();
+
 	private static Logger log = PaxosManager.getLogger();
 
 	/**
@@ -65,6 +81,9 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		super(lock);
 		this.batched = lock;
 		this.paxosManager = paxosManager;
+		this.controller = ADAPTIVE_BATCHING ? new AdaptiveBatchController(
+				MIN_ADAPTIVE_BATCH_SIZE, MAX_BATCH_SIZE,
+				MAX_BATCH_SLEEP_DURATION, BATCH_OVERHEAD) : null;
 	}
 
 	/**
@@ -88,6 +107,27 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 			DelayProfiler.updateDelay("latency", entryTime);
 	}
 
+	/**
+	 * Feedback about the agreement latency of a request that this node
+	 * entered into {@code paxosID}.
+	 * 
+	 * @param paxosID
+	 * @param entryTime
+	 */
+	protected void updateLatency(String paxosID, long entryTime) {
+		updateSleepDuration(entryTime);
+		if (this.controller != null)
+			this.controller.agreed(paxosID, System.currentTimeMillis()
+					- entryTime);
+	}
+
+	/**
+	 * @return Adaptive batching metrics if enabled.
+	 */
+	protected String getBatchingStats() {
+		return this.controller != null ? this.controller.getStats() : "";
+	}
+
 	// just to name the thread, otherwise super suffices
 	public void start() {
 		Thread me = (new Thread(this));
@@ -110,7 +150,10 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 
 	@Override
 	public void enqueueImpl(RequestPacket task) {
-		this.setSleepDuration(this.computeSleepDuration());
+		if (this.controller == null)
+			this.setSleepDuration(this.computeSleepDuration());
+		else if (!this.firstQueued.containsKey(task.getPaxosID()))
+			this.firstQueued.put(task.getPaxosID(), System.nanoTime());
 
 		// increase outstanding count and enqueue
 		this.paxosManager.incrOutstanding(task.addDebugInfo("b",
@@ -155,6 +198,60 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		}
 	}
 
+	/* Returns the first queued group whose oldest request has lingered long
+	 * enough or that has at least a full batch queued. If none, sets the sleep
+	 * duration to the time until the earliest group becomes ready and returns
+	 * null. Lingering is skipped altogether if many groups are queued as
+	 * batches are then formed anyway by the time each group gets its turn. */
+	private String getReadyGroup() {
+		if (this.batched.size() >= MAX_GROUPS_FOR_BATCH_SLEEP) {
+			String paxosID = this.getUncongestedGroup();
+			if (paxosID != null)
+				this.setSleepDuration(0);
+			return paxosID;
+		}
+		long now = System.nanoTime();
+		double minWait = MAX_BATCH_SLEEP_DURATION;
+		for (Entry<String, LinkedBlockingQueue<RequestPacket>> entry : this.batched
+				.entrySet()) {
+			String paxosID = entry.getKey();
+			if (this.paxosManager.isCongested(paxosID))
+				continue;
+			Long queued = this.firstQueued.get(paxosID);
+			double wait = this.controller.getLinger(paxosID)
+					- (queued != null ? (now - queued) / 1000.0 / 1000 : 0);
+			if (wait <= 0
+					|| entry.getValue().size() >= this.controller
+							.getBatchCap(paxosID)) {
+				this.setSleepDuration(0);
+				return paxosID;
+			}
+			minWait = Math.min(minWait, wait);
+		}
+		this.setSleepDuration(minWait);
+		return null;
+	}
+
+	private boolean backedOff = false;
+
+	/* Returns the first queued group none of whose members is behind a
+	 * congested NIO send queue. If none, backs off for the max batch sleep
+	 * duration and returns null. Held back requests continue to count towards
+	 * queueSize, so PaxosManager.isCongested() pushes back on clients if the
+	 * congestion persists. */
+	private String getUncongestedGroup() {
+		for (String paxosID : this.batched.keySet())
+			if (!this.paxosManager.isCongested(paxosID)) {
+				if (this.backedOff && this.controller == null)
+					this.setSleepDuration(this.computeSleepDuration());
+				this.backedOff = false;
+				return paxosID;
+			}
+		this.backedOff = true;
+		this.setSleepDuration(MAX_BATCH_SLEEP_DURATION);
+		return null;
+	}
+
 	protected static boolean shouldEnqueue() {
 		return agreementLatency > MIN_AGREEMENT_LATENCY_FOR_BATCHING;
 	}
@@ -169,14 +266,17 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		if (this.batched.isEmpty())
 			return null;
 
-		// pluck first list (each grouped by paxosID)
-		Iterator<Entry<String, LinkedBlockingQueue<RequestPacket>>> mapEntryIter = this.batched
-				.entrySet().iterator();
-		Entry<String, LinkedBlockingQueue<RequestPacket>> firstEntry = mapEntryIter
-				.next();
+		// pluck first (ready) list (each grouped by paxosID)
+		String paxosID = this.controller != null ? this.getReadyGroup()
+				: this.getUncongestedGroup();
+		if (paxosID == null)
+			return null;
+		LinkedBlockingQueue<RequestPacket> queued = this.batched.get(paxosID);
+		int maxBatchSize = this.controller != null ? this.controller
+				.getBatchCap(paxosID) : MAX_BATCH_SIZE;
 
 		// make a batched request out of this extracted (nonempty) list
-		Iterator<RequestPacket> reqPktIter = firstEntry.getValue().iterator();
+		Iterator<RequestPacket> reqPktIter = queued.iterator();
 		assert (reqPktIter.hasNext());
 		// first pluck the first request from the list
 		RequestPacket first = (reqPktIter.next());
@@ -207,7 +307,7 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 					SQLPaxosLogger.MAX_LOG_MESSAGE_SIZE)
 					: NIOTransport.MAX_PAYLOAD_SIZE))
 					// batch size limit would be reached
-					|| ((totalBatchSize += next.batchSize() + 1) > MAX_BATCH_SIZE))
+					|| ((totalBatchSize += next.batchSize() + 1) > maxBatchSize))
 				break;
 			// else add to batch and remove
 			batch.add(next);
@@ -219,11 +319,24 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 			first.latchToBatch(batch.toArray(new RequestPacket[0]));
 
 		// remove first list if all plucked
-		if (firstEntry.getValue().isEmpty())// !reqPktIter.hasNext())
-			mapEntryIter.remove();
+		if (queued.isEmpty()) {
+			this.batched.remove(paxosID);
+			this.firstQueued.remove(paxosID);
+		}
+		if (this.controller != null) {
+			this.controller.batched(paxosID, first.batchSize() + 1,
+					queued.size());
+			if (ENABLE_INSTRUMENTATION && Util.oneIn(20)) {
+				DelayProfiler.updateMovAvg("batchCap", maxBatchSize);
+				DelayProfiler.updateMovAvg("linger",
+						this.controller.getLinger(paxosID));
+			}
+		}
 
-		if (ENABLE_INSTRUMENTATION && Util.oneIn(20))
+		if (ENABLE_INSTRUMENTATION && Util.oneIn(20)) {
 			DelayProfiler.updateMovAvg("#queued", queueSize);
+			DelayProfiler.updateMovAvg("batchSize", first.batchSize() + 1);
+		}
 		assert (first.batchSize() < MAX_BATCH_SIZE);
 		queueSize -= (first.batchSize() + 1);
 		Level level = Level.FINE;
@@ -29,6 +29,7 @@ import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
 import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
+import edu.umass.cs.gigapaxos.paxosutil.KVStore;
 import edu.umass.cs.gigapaxos.paxosutil.LogIndex;
 import edu.umass.cs.gigapaxos.paxosutil.LogIndex.LogIndexEntry;
 import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
@@ -41,14 +42,17 @@ import edu.umass.cs.gigapaxos.paxosutil.StringContainer;
 import edu.umass.cs.gigapaxos.testing.TESTPaxosMain;
 import edu.umass.cs.nio.MessageExtractor;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DiskMap;
 import edu.umass.cs.utils.Diskable;
 import edu.umass.cs.utils.MultiArrayMap;
 import edu.umass.cs.utils.Util;
 import edu.umass.cs.utils.DelayProfiler;
+import edu.umass.cs.utils.LatencyHistogram;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
@@ -62,10 +66,10 @@ import javax.sql.DataSource;
 import java.beans.PropertyVetoException;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
@@ -73,6 +77,9 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.sql.Blob;
 import java.sql.Clob;
@@ -86,10 +93,13 @@ import java.sql.Statement;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -156,6 +166,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	 */
 	private static final String CHECKPOINT_TABLE = "checkpoint";
 	private static final String PREV_CHECKPOINT_TABLE = "prev_checkpoint";
+	private static final String DELTA_TABLE = "deltas";
 	private static final String PAUSE_TABLE = "pause";
 	private static final String MESSAGES_TABLE = "messages";
 
@@ -261,6 +272,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 	private final ScheduledExecutorService GC;
 	private final MessageLogDiskMap messageLog;
+	// used instead of the pause table if PC.KV_PAUSE_STORE is set
+	private final KVStore pauseStore;
 
 	private static Logger log = Logger.getLogger(PaxosManager.class.getName());;
 
@@ -284,6 +297,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		this.mapDB = USE_MAP_DB ? new MapDBContainer(DBMaker.fileDB(
 				new File(this.getLogIndexDBPrefix())).make(), DBMaker
 				.memoryDB().transactionDisable().make()) : null;
+		this.pauseStore = createPauseStore(getPauseStoreDir(this.logDirectory,
+				this.strID));
 
 		Diskable<String, LogIndex> disk = new Diskable<String, LogIndex>() {
 
@@ -322,6 +337,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		this.strID = strID;
 		this.messageLog = null;
 		this.mapDB = null;
+		this.pauseStore = null;
 		this.journaler = null;
 		this.GC = null;
 		this.initialize(false);
@@ -343,6 +359,9 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					// logIndex match pattern
 					SQLPaxosLogger.getLogIndexDBPrefix(
 							SQLPaxosLogger.LOG_DIRECTORY, strID),
+					// pause store
+					SQLPaxosLogger.getPauseStoreDir(
+							SQLPaxosLogger.LOG_DIRECTORY, strID),
 					// locks dir
 					SQLPaxosLogger.getLocksDir()+"/"+strID);
 		}
@@ -367,6 +386,23 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return getLogIndexDBPrefix(this.logDirectory, this.strID /* this.myID */);
 	}
 
+	private static String getPauseStoreDir(String logdir, Object strID) {
+		return logdir + "/" + "pauseStore" + strID;
+	}
+
+	private static KVStore createPauseStore(String dir) {
+		String className = Config.getGlobalString(PC.KV_PAUSE_STORE);
+		if (className == null || "null".equals(className))
+			return null;
+		try {
+			return (KVStore) Class.forName(className)
+					.getConstructor(String.class).newInstance(dir);
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new RuntimeException("Unable to create "
+					+ PC.KV_PAUSE_STORE + " " + className + ": " + e);
+		}
+	}
+
 	/**
 	 * @param id
 	 * @param dbPath
@@ -705,17 +741,25 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		private final Object myID;
 		private final String logdir;
 		private final String logfilePrefix;
-		private String curLogfile = null;
+		// volatile as readers check it to avoid mapping the growing file
+		private volatile String curLogfile = null;
 		private FileOutputStream fos;
 		private long curLogfileSize = 0;
 		private int numLogfiles = 0;
 		private int numOngoingGCs = 0;
 		private Object fosLock = new Object();
+		// fsync every group of appends
+		private final boolean sync;
 
 		private FileIDMap fidMap = new FileIDMap();
 
 		Journaler(String logdir, Object myID) {
+			this(logdir, myID, SYNC);
+		}
+
+		Journaler(String logdir, Object myID, boolean sync) {
 			this.myID = myID;
+			this.sync = sync;
 			this.logdir = getJournalLogDir(logdir, myID) + "/";
 			// logdir + SUBDIR + myID + "/";
 			this.logfilePrefix = PREFIX + myID + POSTPREFIX;
@@ -827,17 +871,36 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			}
 		}
 
-		private void appendToLogFile(byte[] bytes, String paxosID)
+		/* Group commit: appends all of the buffers using a single gathering
+		 * write and, if SYNC, forces them to disk using a single fsync. The
+		 * batched logger releases the corresponding replies only after this
+		 * method returns, so the cost of an fsync is amortized across all log
+		 * messages that accumulated while the previous fsync was in progress. */
+		private void appendToLogFile(ByteBuffer[] bufs, String[] paxosIDs)
 				throws IOException {
 			synchronized (fosLock) {
-				fos.write(bytes);
+				long length = 0;
+				for (ByteBuffer buf : bufs)
+					length += buf.remaining();
+				FileChannel channel = fos.getChannel();
+				long written = 0;
+				while (written < length)
+					written += channel.write(bufs);
 				if (FLUSH)
 					fos.flush();
-				// will sync to disk but will be slow as hell
-				if (SYNC)
-					fos.getFD().sync();
-				curLogfileSize += bytes.length;
-				this.fidMap.add(this.curLogfile, paxosID);
+				if (this.sync) {
+					long t = System.nanoTime();
+					// metadata need not be forced for appends to be durable
+					channel.force(false);
+					if (Util.oneIn(10)) {
+						DelayProfiler.updateDelayNano("journalForce", t);
+						DelayProfiler.updateMovAvg("groupCommitSize",
+								bufs.length);
+					}
+				}
+				curLogfileSize += length;
+				for (String paxosID : paxosIDs)
+					this.fidMap.add(this.curLogfile, paxosID);
 			}
 		}
 
@@ -895,7 +958,99 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 	private static boolean deleteFile(File f, Object lockMe) {
 		synchronized (lockMe) {
-			return f.delete();
+			boolean deleted = f.delete();
+			MappedJournals.invalidate(f.toString());
+			return deleted;
+		}
+	}
+
+	private static final boolean JOURNAL_MMAP = Config
+			.getGlobalBoolean(PC.JOURNAL_MMAP);
+
+	/* Cache of read-only memory mappings of journal files so that retrieving a
+	 * journaled message is just pointer arithmetic on an already mapped file
+	 * instead of opening and seeking a RandomAccessFile per lookup.
+	 * 
+	 * Journal files are append-only, so a mapping remains valid for all
+	 * offsets below its capacity. The file currently being appended to is not
+	 * mapped as it would have to be remapped as it grows; it is read using
+	 * positional reads instead (see getActiveJournalChannel). Compaction replaces a file by renaming a
+	 * rewritten file onto it, so mappings must be invalidated whenever a
+	 * journal file is deleted or replaced. A reader that raced with such an
+	 * invalidation still reads the old contents consistently because a mapping
+	 * outlives the deletion of its file, but that mapping is not cached. */
+	static class MappedJournals {
+		private static final int MAX_MAPPED_JOURNAL_FILES = Config
+				.getGlobalInt(PC.MAX_MAPPED_JOURNAL_FILES);
+
+		private static final LinkedHashMap<String, MappedByteBuffer> mapped = new LinkedHashMap<String, MappedByteBuffer>(
+				16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, MappedByteBuffer> eldest) {
+				return this.size() > MAX_MAPPED_JOURNAL_FILES;
+			}
+		};
+		// incremented upon every invalidation
+		private static long epoch = 0;
+
+		/**
+		 * @param file
+		 * @param minLength
+		 * @return A buffer positioned at 0 that is a private view of a mapping
+		 *         of at least {@code minLength} bytes of {@code file}, or null
+		 *         if the file is too short or too big to be mapped.
+		 * @throws IOException
+		 */
+		static ByteBuffer get(String file, long minLength) throws IOException {
+			String key = new File(file).getPath();
+			MappedByteBuffer mbuf = null;
+			long curEpoch;
+			synchronized (mapped) {
+				mbuf = mapped.get(key);
+				curEpoch = epoch;
+			}
+			if (mbuf == null || mbuf.capacity() < minLength) {
+				if ((mbuf = map(file, minLength)) == null)
+					return null;
+				synchronized (mapped) {
+					if (curEpoch == epoch)
+						mapped.put(key, mbuf);
+				}
+			}
+			return mbuf.duplicate();
+		}
+
+		/**
+		 * Maps the current length of {@code file} without caching the mapping.
+		 * 
+		 * @param file
+		 * @param minLength
+		 * @return As in {@link #get(String, long)}.
+		 * @throws IOException
+		 */
+		static MappedByteBuffer map(String file, long minLength)
+				throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				long length = raf.length();
+				if (length < minLength || length > Integer.MAX_VALUE)
+					return null;
+				return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+						length);
+			} finally {
+				// the mapping remains valid after the file is closed
+				raf.close();
+			}
+		}
+
+		static void invalidate(String file) {
+			synchronized (mapped) {
+				mapped.remove(new File(file).getPath());
+				epoch++;
+			}
 		}
 	}
 
@@ -985,6 +1140,11 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			return null; // error
 		boolean amCoordinator = false, isAccept = false;
 		PendingLogTask[] pending = new PendingLogTask[packets.length];
+		// appended to the log file as a single group at the end
+		ArrayList<ByteBuffer> group = new ArrayList<ByteBuffer>(packets.length);
+		ArrayList<String> groupIDs = new ArrayList<String>(packets.length);
+		// the batched logger is the only writer, so offsets are predictable
+		long offset = this.journaler.curLogfileSize;
 		for (int i = 0; i < packets.length; i++) {
 			LogMessagingTask pkt = packets[i];
 			amCoordinator = pkt.logMsg instanceof PValuePacket ? ((PValuePacket) pkt.logMsg).ballot.coordinatorID == myID
@@ -1032,19 +1192,18 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 									.add(pending[i] = new PendingLogTask(
 											packets[i],
 											this.journaler.curLogfile,
-											this.journaler.curLogfileSize,
-											bytes.length));
+											offset, bytes.length));
 						}
 					else if (PAUSABLE_INDEX_JOURNAL)
 						this.messageLog.add(packets[i].logMsg,
-								this.journaler.curLogfile,
-								this.journaler.curLogfileSize, bytes.length);
+								this.journaler.curLogfile, offset,
+								bytes.length);
 					if (USE_MAP_DB && Util.oneIn(1000))
 						this.mapDB.dbMemory.commit();
-					SQLPaxosLogger.this.journaler.appendToLogFile(bbuf.array(),
-							pkt.logMsg.getPaxosID());
-					assert (pending[i] == null || this.journaler.curLogfileSize == pending[i].logfileOffset
-							+ bbuf.capacity());
+					bbuf.flip();
+					group.add(bbuf);
+					groupIDs.add(pkt.logMsg.getPaxosID());
+					offset += bbuf.capacity();
 				}
 
 			} catch (IOException ioe) {
@@ -1052,6 +1211,16 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				return null;
 			}
 		}
+		if (!group.isEmpty())
+			try {
+				SQLPaxosLogger.this.journaler.appendToLogFile(
+						group.toArray(new ByteBuffer[0]),
+						groupIDs.toArray(new String[0]));
+				assert (this.journaler.curLogfileSize == offset);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+				return null;
+			}
 
 		if (this.journaler.curLogfileSize > MAX_LOG_FILE_SIZE) {
 			// always commit pending before rolling log file
@@ -1183,14 +1352,39 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private static final int MAX_DB_BATCH_SIZE = Config
 			.getGlobalInt(PC.MAX_DB_BATCH_SIZE);
 
-	/* A wrapper to select between the purely DB-based logger and the
-	 * work-in-progress journaling logger. */
+	private static final int MAX_DELTA_CHECKPOINTS = Config
+			.getGlobalInt(PC.MAX_DELTA_CHECKPOINTS);
+
+	/* Number of delta checkpoints stored on top of the full checkpoint of
+	 * each paxosID that has any. Modified only under checkpointLock. */
+	private final ConcurrentHashMap<String, Integer> deltaChains = new ConcurrentHashMap<String, Integer>();
+
+	@Override
+	public boolean canAppendDeltaCheckpoint(String paxosID) {
+		Integer chain = this.deltaChains.get(paxosID);
+		return (chain != null ? chain : 0) < MAX_DELTA_CHECKPOINTS;
+	}
+
+	private static final LatencyHistogram LOG_BATCH_LATENCY = DelayProfiler
+			.histogram("logBatch");
+
 	@Override
 	public boolean logBatch(final LogMessagingTask[] packets) {
 		if (isClosed())
 			return false;
 		if (!isLoggingEnabled())
 			return true;
+		long t = System.nanoTime();
+		try {
+			return this.logBatchJournalOrDB(packets);
+		} finally {
+			LOG_BATCH_LATENCY.recordSince(t);
+		}
+	}
+
+	/* A wrapper to select between the purely DB-based logger and the
+	 * work-in-progress journaling logger. */
+	private boolean logBatchJournalOrDB(final LogMessagingTask[] packets) {
 		if (!isJournalingEnabled())
 			// no need to journal and the file, offset have no meaning here
 			return this.logBatchDB(packets);
@@ -1412,6 +1606,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			final long createTime, boolean existingCP) {
 		if (isClosed() || DISABLE_CHECKPOINTING)
 			return;
+		// a full checkpoint compacts the delta chain if any
+		boolean deleteDeltas = this.deltaChains.containsKey(paxosID);
 
 		long t1 = System.currentTimeMillis();
 		// stupid derby doesn't have an insert if not exist command
@@ -1428,6 +1624,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		String minLogfile = null;
 		try {
 			conn = this.getDefaultConn();
+			if (deleteDeltas)
+				conn.setAutoCommit(false);
 			insertCP = conn.prepareStatement(cmd);
 			insertCP.setInt(1, version);
 			insertCP.setString(2, Util.toJSONString(group));
@@ -1448,6 +1646,11 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 									: acceptedGCSlot));
 			insertCP.setString(9, paxosID);
 			insertCP.executeUpdate();
+			if (deleteDeltas) {
+				this.deleteDeltaCheckpoints(conn, paxosID);
+				conn.commit();
+				this.deltaChains.remove(paxosID);
+			}
 			// conn.commit();
 			incrTotalCheckpoints();
 
@@ -1487,6 +1690,162 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 	}
 
+	@Override
+	public boolean putDeltaCheckpoint(String paxosID, int version,
+			Set<String> group, int slot, Ballot ballot, String delta,
+			int acceptedGCSlot) {
+		if (isClosed() || DISABLE_CHECKPOINTING)
+			return false;
+		synchronized (this.checkpointLock) {
+			if (!this.appendDeltaCheckpoint(paxosID, version, group, slot,
+					ballot, delta, acceptedGCSlot, System.currentTimeMillis()))
+				return false;
+		}
+		this.deleteOutdatedMessages(paxosID, version, ballot, acceptedGCSlot,
+				ballot.ballotNumber, ballot.coordinatorID, acceptedGCSlot);
+		return true;
+	}
+
+	/* Appends a delta to the chain of paxosID and updates the slot, ballot,
+	 * etc. of its checkpoint but not the state, which remains the base of the
+	 * chain. Must be called under checkpointLock. */
+	private boolean appendDeltaCheckpoint(String paxosID, int version,
+			Set<String> group, int slot, Ballot ballot, String delta,
+			int acceptedGCSlot, long createTime) {
+		long t1 = System.currentTimeMillis();
+		String updateCmd = "update "
+				+ getCTable()
+				+ " set version=?,members=?, slot=?, ballotnum=?, coordinator=?, create_time=?, min_logfile=? where paxos_id=?";
+		String insertCmd = "insert into " + getDTable()
+				+ " (paxos_id, version, slot, delta) values (?,?,?,?)";
+		PreparedStatement updateCP = null, insertDelta = null;
+		Connection conn = null;
+		boolean appended = false;
+		try {
+			conn = this.getDefaultConn();
+			conn.setAutoCommit(false);
+			updateCP = conn.prepareStatement(updateCmd);
+			updateCP.setInt(1, version);
+			updateCP.setString(2, Util.toJSONString(group));
+			updateCP.setInt(3, slot);
+			updateCP.setInt(4, ballot.ballotNumber);
+			updateCP.setInt(5, ballot.coordinatorID);
+			updateCP.setLong(6, createTime);
+			updateCP.setString(7, this.getSetGCAndGetMinLogfile(paxosID,
+					version, slot - acceptedGCSlot < 0 ? slot : acceptedGCSlot));
+			updateCP.setString(8, paxosID);
+			if (updateCP.executeUpdate() == 0) {
+				// no full checkpoint to append to
+				conn.rollback();
+				log.log(Level.SEVERE,
+						"{0} found no checkpoint for {1}:{2} to append delta to",
+						new Object[] { this, paxosID, version });
+				return false;
+			}
+			insertDelta = conn.prepareStatement(insertCmd);
+			insertDelta.setString(1, paxosID);
+			insertDelta.setInt(2, version);
+			insertDelta.setInt(3, slot);
+			if (getCheckpointBlobOption()) {
+				Blob blob = conn.createBlob();
+				blob.setBytes(1, delta.getBytes(CHARSET));
+				insertDelta.setBlob(4, blob);
+			} else
+				insertDelta.setString(4, delta);
+			insertDelta.executeUpdate();
+			conn.commit();
+			Integer chain = this.deltaChains.get(paxosID);
+			this.deltaChains.put(paxosID, (chain != null ? chain : 0) + 1);
+			incrTotalCheckpoints();
+			appended = true;
+
+			DelayProfiler.updateDelay(appName + ".checkpointDelta", t1);
+			if (shouldLogCheckpoint())
+				log.log(Level.INFO,
+						"{0} checkpointed delta ({1}:{2}, {3}, <{4}, {5}>, {6} [{7}]) in {8} ms",
+						new Object[] {
+								this,
+								paxosID,
+								version,
+								group,
+								slot,
+								ballot,
+								acceptedGCSlot,
+								Util.truncate(delta, TRUNCATED_STATE_SIZE,
+										TRUNCATED_STATE_SIZE),
+								(System.currentTimeMillis() - t1), });
+		} catch (SQLException | UnsupportedEncodingException sqle) {
+			log.log(Level.SEVERE,
+					"{0} SQLException while checkpointing delta for {1}:{2} at slot {3}",
+					new Object[] { this, paxosID, version, slot });
+			sqle.printStackTrace();
+		} finally {
+			cleanup(insertDelta);
+			cleanup(updateCP);
+			cleanup(conn);
+		}
+		return appended;
+	}
+
+	private void deleteDeltaCheckpoints(Connection conn, String paxosID)
+			throws SQLException {
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = conn.prepareStatement("delete from " + getDTable()
+					+ " where paxos_id=?");
+			pstmt.setString(1, paxosID);
+			pstmt.executeUpdate();
+		} finally {
+			cleanup(pstmt);
+		}
+	}
+
+	// deltas of paxosID in order
+	private ArrayList<String> getDeltaCheckpoints(String paxosID) {
+		ArrayList<String> deltas = new ArrayList<String>();
+		PreparedStatement pstmt = null;
+		ResultSet rset = null;
+		Connection conn = null;
+		try {
+			conn = this.getDefaultConn();
+			pstmt = conn.prepareStatement("select delta from " + getDTable()
+					+ " where paxos_id=? order by slot");
+			pstmt.setString(1, paxosID);
+			rset = pstmt.executeQuery();
+			while (rset.next())
+				deltas.add(!getCheckpointBlobOption() ? rset.getString(1)
+						: lobToString(rset.getBlob(1)));
+		} catch (SQLException | IOException e) {
+			log.severe(this + " failed to read delta checkpoints for "
+					+ paxosID);
+			e.printStackTrace();
+		} finally {
+			cleanup(pstmt, rset);
+			cleanup(conn);
+		}
+		return deltas;
+	}
+
+	private void loadDeltaChains() {
+		PreparedStatement pstmt = null;
+		ResultSet rset = null;
+		Connection conn = null;
+		try {
+			conn = this.getDefaultConn();
+			pstmt = conn.prepareStatement("select paxos_id, count(*) from "
+					+ getDTable() + " group by paxos_id");
+			rset = pstmt.executeQuery();
+			while (rset.next())
+				this.deltaChains.put(rset.getString(1), rset.getInt(2));
+		} catch (SQLException sqle) {
+			log.severe(this + " failed to read delta checkpoint chains");
+			sqle.printStackTrace();
+		} finally {
+			cleanup(pstmt, rset);
+			cleanup(conn);
+		}
+	}
+
 	private static final boolean ENABLE_INSTRUMENTATION = Config
 			.getGlobalBoolean(PC.ENABLE_INSTRUMENTATION);
 
@@ -1618,7 +1977,9 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				CheckpointTask task = tasks[i];
 				assert (task != null);
 				assert (update || task.slot == 0);
-				if ((task.slot == 0) == update) {
+				// compactions are not batched
+				if ((task.slot == 0) == update
+						|| this.deltaChains.containsKey(task.paxosID)) {
 					this.putCheckpointState(task.paxosID, task.version,
 							(task.members), task.slot, task.ballot, task.state,
 							task.gcSlot, task.createTime);
@@ -1670,16 +2031,15 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 									(tasks.length > 1 ? "(batched="
 											+ tasks.length + ")" : "") });
 
-				if ((i + 1) % MAX_DB_BATCH_SIZE == 0 || (i + 1) == tasks.length) {
-					int[] executed = insertCP.executeBatch();
-					conn.commit();
-					insertCP.clearBatch();
-					for (int j = 0; j < executed.length; j++)
-						batchSuccess = batchSuccess
-								&& (committed[batch.get(j)] = (executed[j] > 0));
-					batch.clear();
-				}
+				if (batch.size() == MAX_DB_BATCH_SIZE)
+					batchSuccess = executeCheckpointBatch(conn, insertCP,
+							batch, committed) && batchSuccess;
 			}
+			/* The last task may have been written individually above, so the
+			 * remainder of the batch must be flushed here. */
+			if (!batch.isEmpty())
+				batchSuccess = executeCheckpointBatch(conn, insertCP, batch,
+						committed) && batchSuccess;
 			if (ENABLE_INSTRUMENTATION && Util.oneIn(10))
 				DelayProfiler.updateDelay("checkpoint", t1, tasks.length);
 		} catch (SQLException | UnsupportedEncodingException sqle) {
@@ -1687,6 +2047,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					"{0} SQLException while batched checkpointing",
 					new Object[] { this });
 			sqle.printStackTrace();
+			batchSuccess = false;
 		} finally {
 			cleanup(insertCP);
 			cleanup(conn);
@@ -1722,6 +2083,21 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return true;
 	}
 
+	/* Executes and commits the batched checkpoints at the task indexes in
+	 * batch and marks them committed if written. */
+	private static boolean executeCheckpointBatch(Connection conn,
+			PreparedStatement insertCP, ArrayList<Integer> batch,
+			boolean[] committed) throws SQLException {
+		int[] executed = insertCP.executeBatch();
+		conn.commit();
+		insertCP.clearBatch();
+		boolean success = executed.length == batch.size();
+		for (int j = 0; j < executed.length; j++)
+			success = (committed[batch.get(j)] = (executed[j] > 0)) && success;
+		batch.clear();
+		return success;
+	}
+
 	private void deleteCheckpoint(String paxosID, int version,
 			Set<String> members, int slot, Ballot ballot, String state,
 			int gcSlot) {
@@ -1730,8 +2106,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 		SlotBallotState sbs = this.getSlotBallotState(paxosID, version);
 		if (!(sbs != null && sbs.slot == slot && sbs.members.equals(members)
-				&& sbs.ballotnum == ballot.ballotNumber && sbs.state
-					.equals(state))) {
+				&& sbs.ballotnum == ballot.ballotNumber && !sbs.hasDeltas()
+				&& sbs.state.equals(state))) {
 			return;
 		}
 
@@ -1934,6 +2310,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			Map<String, HotRestoreInfo> hriMap) {
 		if (isClosed())
 			return null;
+		if (this.pauseStore != null)
+			return this.pauseToStore(hriMap);
 		if (!USE_CHECKPOINTS_AS_PAUSE_TABLE)
 			return pauseBatchIndividually(hriMap);
 
@@ -2012,6 +2390,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	public/* synchronized */boolean pause(String paxosID, String serializedState) {
 		if (isClosed() /* || !isLoggingEnabled() */)
 			return false;
+		if (this.pauseStore != null)
+			return this.pauseToStore(paxosID, serializedState);
 
 		boolean paused = false;
 		String insertCmd = "insert into "
@@ -2044,14 +2424,11 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				pstmt.setString(1, serializedState);
 				if (pauseLogIndex) {
 					// we pause logIndex as well with older MessageLogPausable
-					logIndexBytes = deflate(this.messageLog
-							.getLogIndex(paxosID).toString().getBytes(CHARSET));
+					logIndexBytes = logIndexToBytes(this.messageLog
+							.getLogIndex(paxosID));
 					blob = conn.createBlob();
 					blob.setBytes(1, logIndexBytes);
 					pstmt.setBlob(2, blob);
-					assert (new String(inflate(logIndexBytes), CHARSET)
-							.equals(this.messageLog.getLogIndex(paxosID)
-									.toString()));
 				}
 				pstmt.setString(pauseLogIndex ? 3 : 2, paxosID);
 				try {
@@ -2073,7 +2450,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				log.log(Level.FINE, "{0} paused [{1}] ,[{2}]", new Object[] {
 						this, serializedState, logIndex });
 				paused = true;
-			} catch (SQLException | IOException e) {
+			} catch (SQLException e) {
 				log.severe(this + " failed to pause instance " + paxosID);
 				this.deletePaused(paxosID);
 				e.printStackTrace();
@@ -2091,6 +2468,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	public/* synchronized */HotRestoreInfo unpause(String paxosID) {
 		if (isClosed() /* || !isLoggingEnabled() */)
 			return null;
+		if (this.pauseStore != null)
+			return this.unpauseFromStore(paxosID);
 
 		HotRestoreInfo hri = null;
 		PreparedStatement pstmt = null;
@@ -2113,10 +2492,10 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					hri = new HotRestoreInfo(serialized);
 
 				Blob logIndexBlob = rset.getBlob(2);
-				logIndexString = lobToString(logIndexBlob);
-				if (logIndexBlob != null) {
-					this.messageLog.restore(new LogIndex(new JSONArray(
-							logIndexString)));
+				LogIndex logIndex = blobToLogIndex(logIndexBlob);
+				if (logIndex != null) {
+					logIndexString = logIndex.toString();
+					this.messageLog.restore(logIndex);
 				}
 			}
 		} catch (SQLException | JSONException | IOException e) {
@@ -2168,6 +2547,9 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			LogIndex logIndex) {
 		if (isClosed() /* || !isLoggingEnabled() */)
 			return false;
+		if (this.pauseStore != null)
+			return !this.pauseLogIndexToStore(
+					Collections.singletonMap(paxosID, logIndex)).isEmpty();
 		boolean paused = false;
 		// insert works because unpause always deletes on-disk copy
 		String insertCmd = "insert into " + getPTable()
@@ -2184,8 +2566,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				// try update first; if exception, try insert
 				pstmt = conn.prepareStatement(updateCmd);
 
-				byte[] logIndexBytes = logIndex != null ? deflate(logIndex
-						.toString().getBytes(CHARSET)) : null;
+				byte[] logIndexBytes = logIndexToBytes(logIndex);
 				Blob blob = conn.createBlob();
 				blob.setBytes(1, logIndexBytes);
 				pstmt.setBlob(1, blob);
@@ -2206,7 +2587,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					pstmt.executeUpdate();
 				}
 				paused = true;
-			} catch (SQLException | IOException sqle) {
+			} catch (SQLException sqle) {
 				log.severe(this + " failed to pause logIndex for " + paxosID);
 				sqle.printStackTrace();
 			} finally {
@@ -2236,6 +2617,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			Map<String, LogIndex> toCommit) {
 		if (isClosed())
 			return null;
+		if (this.pauseStore != null)
+			return this.pauseLogIndexToStore(toCommit);
 		if (!USE_CHECKPOINTS_AS_PAUSE_TABLE)
 			return this.pauseLogIndexIndividually(toCommit);
 		String updateCmd = "update "
@@ -2257,8 +2640,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 						pstmt = conn.prepareStatement(updateCmd);
 					}
 
-					byte[] logIndexBytes = logIndex != null ? deflate(logIndex
-							.toString().getBytes(CHARSET)) : null;
+					byte[] logIndexBytes = logIndexToBytes(logIndex);
 					if (logIndexBytes != null && ENABLE_INSTRUMENTATION
 							&& Util.oneIn(Integer.MAX_VALUE))
 						DelayProfiler.updateMovAvg("logindex_size",
@@ -2285,7 +2667,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					}
 					i++;
 				}
-			} catch (SQLException | IOException sqle) {
+			} catch (SQLException sqle) {
 				log.severe(this + " failed to pause logIndex batch");
 				sqle.printStackTrace();
 			} finally {
@@ -2308,6 +2690,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 		log.log(Level.FINER, "{0} trying to unpause logIndex for {1}",
 				new Object[] { this, paxosID });
+		if (this.pauseStore != null)
+			return this.unpauseLogIndexFromStore(paxosID);
 		PreparedStatement pstmt = null;
 		ResultSet rset = null;
 		Connection conn = null;
@@ -2324,8 +2708,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				Blob logIndexBlob = rset.getBlob(1);
 				if (logIndexBlob == null)
 					continue;
-				logIndexString = (lobToString(logIndexBlob));
-				logIndex = new LogIndex(new JSONArray(logIndexString));
+				logIndex = blobToLogIndex(logIndexBlob);
+				logIndexString = logIndex.toString();
 				this.messageLog.restore(logIndex);
 				log.log(Level.FINE, "{0} unpaused logIndex for {1}",
 						new Object[] { this, paxosID });
@@ -2341,6 +2725,167 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return logIndex;
 	}
 
+	/* Keys of a paxos group in the pause store are the group name followed by
+	 * a separator that can not occur in names, so that all of them can be
+	 * scanned with the group name as the prefix. */
+	private static final char PAUSE_KEY_SEPARATOR = '\u0000';
+
+	private static String getPauseKeyPrefix(String paxosID) {
+		return paxosID + PAUSE_KEY_SEPARATOR;
+	}
+
+	private static String getPauseKey(String paxosID) {
+		return getPauseKeyPrefix(paxosID) + "hri";
+	}
+
+	private static String getLogIndexKey(String paxosID) {
+		return getPauseKeyPrefix(paxosID) + "logIndex";
+	}
+
+	private Map<String, HotRestoreInfo> pauseToStore(
+			Map<String, HotRestoreInfo> hriMap) {
+		Map<String, byte[]> batch = new HashMap<String, byte[]>();
+		for (HotRestoreInfo hri : hriMap.values())
+			batch.put(getPauseKey(hri.paxosID), toBytes(hri.toString()));
+		try {
+			this.pauseStore.put(batch);
+			log.log(Level.FINE, "{0} paused [{1}]", new Object[] { this,
+					Util.truncatedLog(hriMap.keySet(), 16) });
+			return new HashMap<String, HotRestoreInfo>(hriMap);
+		} catch (IOException e) {
+			log.severe(this + " failed to pause batch "
+					+ Util.truncatedLog(hriMap.keySet(), 10));
+			e.printStackTrace();
+		}
+		return new HashMap<String, HotRestoreInfo>();
+	}
+
+	// pauses logIndex as well like the SQL pause
+	private boolean pauseToStore(String paxosID, String serializedState) {
+		boolean paused = false;
+		synchronized (this.messageLog) {
+			Map<String, byte[]> batch = new HashMap<String, byte[]>();
+			batch.put(getPauseKey(paxosID), toBytes(serializedState));
+			LogIndex logIndex = this.messageLog.getLogIndex(paxosID);
+			if (logIndex != null)
+				batch.put(getLogIndexKey(paxosID), logIndexToBytes(logIndex));
+			try {
+				this.pauseStore.put(batch);
+				log.log(Level.FINE, "{0} paused [{1}] ,[{2}]", new Object[] {
+						this, serializedState, logIndex });
+				paused = true;
+			} catch (IOException e) {
+				log.severe(this + " failed to pause instance " + paxosID);
+				e.printStackTrace();
+			}
+			this.messageLog.uncache(paxosID);
+		}
+		return paused;
+	}
+
+	private HotRestoreInfo unpauseFromStore(String paxosID) {
+		HotRestoreInfo hri = null;
+		try {
+			Map<String, byte[]> paused = this.pauseStore
+					.scan(getPauseKeyPrefix(paxosID));
+			byte[] hriBytes = paused.get(getPauseKey(paxosID));
+			if (hriBytes != null)
+				hri = new HotRestoreInfo(new String(hriBytes, CHARSET));
+			byte[] logIndexBytes = paused.get(getLogIndexKey(paxosID));
+			if (logIndexBytes != null)
+				this.messageLog.restore(new LogIndex(logIndexBytes));
+			// unpause also deletes paused state but not the logIndex
+			if (hri != null)
+				this.pauseStore.put(getPauseKey(paxosID), null);
+		} catch (IOException e) {
+			log.severe(this + " failed to unpause instance " + paxosID);
+			e.printStackTrace();
+		}
+		return hri;
+	}
+
+	private Set<String> pauseLogIndexToStore(Map<String, LogIndex> toCommit) {
+		Map<String, byte[]> batch = new HashMap<String, byte[]>();
+		for (Map.Entry<String, LogIndex> entry : toCommit.entrySet())
+			batch.put(getLogIndexKey(entry.getKey()),
+					logIndexToBytes(entry.getValue()));
+		synchronized (this.messageLog) {
+			try {
+				this.pauseStore.put(batch);
+			} catch (IOException e) {
+				log.severe(this + " failed to pause logIndex batch");
+				e.printStackTrace();
+				return new HashSet<String>();
+			}
+			// free up memory
+			for (String paxosID : toCommit.keySet())
+				this.messageLog.uncache(paxosID);
+		}
+		log.log(Level.FINE, "{0} paused logIndex batch {1}", new Object[] {
+				this, Util.truncatedLog(toCommit.keySet(), 16) });
+		return new HashSet<String>(toCommit.keySet());
+	}
+
+	private LogIndex unpauseLogIndexFromStore(String paxosID) {
+		LogIndex logIndex = null;
+		try {
+			byte[] logIndexBytes = this.pauseStore.get(getLogIndexKey(paxosID));
+			if (logIndexBytes == null)
+				return null;
+			logIndex = new LogIndex(logIndexBytes);
+			this.messageLog.restore(logIndex);
+			log.log(Level.FINE, "{0} unpaused logIndex for {1}", new Object[] {
+					this, paxosID });
+		} catch (IOException e) {
+			log.severe(this + " failed to unpause logIndex for " + paxosID);
+			e.printStackTrace();
+		}
+		return logIndex;
+	}
+
+	// removes pause state and logIndex of version or lower
+	private void removeFromPauseStore(String paxosID, int version) {
+		try {
+			if (paxosID == null) {
+				this.pauseStore.clear();
+				return;
+			}
+			Map<String, byte[]> batch = new HashMap<String, byte[]>();
+			for (Map.Entry<String, byte[]> entry : this.pauseStore.scan(
+					getPauseKeyPrefix(paxosID)).entrySet()) {
+				int pausedVersion = entry.getKey().equals(
+						getLogIndexKey(paxosID)) ? new LogIndex(
+						entry.getValue()).version : new HotRestoreInfo(
+						new String(entry.getValue(), CHARSET)).version;
+				if (pausedVersion - version <= 0)
+					batch.put(entry.getKey(), null);
+			}
+			this.pauseStore.put(batch);
+		} catch (IOException e) {
+			log.severe(this + " failed to remove pause state for " + paxosID);
+			e.printStackTrace();
+		}
+	}
+
+	private boolean isPausedInStore(String paxosID) {
+		try {
+			return this.pauseStore.get(getPauseKey(paxosID)) != null;
+		} catch (IOException e) {
+			log.severe(this + " failed to read pause state for " + paxosID);
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	private static byte[] toBytes(String str) {
+		try {
+			return str.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			// CHARSET is a standard charset
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Gets current checkpoint. There can be only one checkpoint for a paxosID
 	 * at any time.
@@ -2436,6 +2981,23 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		// return new String(inflate(blobBytes), CHARSET);
 	}
 
+	/* LogIndexes are paused in their packed binary format that, unlike the
+	 * deflated JSON format used earlier, needs no compression or parsing. */
+	private static byte[] logIndexToBytes(LogIndex logIndex) {
+		return logIndex != null ? logIndex.toBytes() : null;
+	}
+
+	// also reads logIndexes paused in the earlier deflated JSON format
+	private static LogIndex blobToLogIndex(Blob blob) throws SQLException,
+			IOException, JSONException {
+		if (blob == null)
+			return null;
+		byte[] bytes = blob.getBytes(1L, (int) blob.length());
+		return LogIndex.isLogIndexBytes(bytes) ? new LogIndex(bytes)
+				: new LogIndex(new JSONArray(new String(inflate(bytes),
+						CHARSET)));
+	}
+
 	private static String lobToString(Blob blob) throws SQLException,
 			IOException {
 		byte[] bytes = lobToBytes(blob);
@@ -2456,6 +3018,22 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	 */
 	public SlotBallotState getSlotBallotState(String table, String paxosID,
 			int version, boolean matchVersion) {
+		if (!table.equals(getCTable()) || !this.deltaChains.containsKey(paxosID))
+			return this.getSlotBallotStateNoDeltas(table, paxosID, version,
+					matchVersion);
+		// the checkpoint and its deltas must be read atomically
+		synchronized (this.checkpointLock) {
+			SlotBallotState sbs = this.getSlotBallotStateNoDeltas(table,
+					paxosID, version, matchVersion);
+			return sbs != null ? new SlotBallotState(sbs.slot, sbs.ballotnum,
+					sbs.coordinator, sbs.state,
+					this.getDeltaCheckpoints(paxosID), sbs.version,
+					sbs.createTime, sbs.members) : null;
+		}
+	}
+
+	private SlotBallotState getSlotBallotStateNoDeltas(String table,
+			String paxosID, int version, boolean matchVersion) {
 		if (isClosed())
 			return null;
 
@@ -2541,8 +3119,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		SlotBallotState sbs = this.getSlotBallotState(paxosID);
 		StatePacket statePacket = null;
 		if (sbs != null)
-			statePacket = new StatePacket(new Ballot(sbs.ballotnum,
-					sbs.coordinator), sbs.slot, sbs.state);
+			statePacket = StatePacket.getStatePacket(sbs);
 		return statePacket;
 	}
 
@@ -2588,7 +3165,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		try {
 			this.cursorPstmt = this.getPreparedStatement(this.getCursorConn(),
 					getCTable(), null, "paxos_id, version, members"
-							+ (readState ? ", state" : ""));
+							+ (readState ? ", state, slot, ballotnum, "
+									+ "coordinator, create_time" : ""));
 			this.cursorRset = this.cursorPstmt.executeQuery();
 			initiated = true;
 		} catch (SQLException sqle) {
@@ -2606,10 +3184,23 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				int version = cursorRset.getInt(2);
 				String members = cursorRset.getString(3);
 				String[] pieces = Util.jsonToStringArray(members);
-				String state = (readState ? (!getCheckpointBlobOption() ? cursorRset
-						.getString(4) : lobToString(cursorRset.getBlob(4)))
-						: null);
-				pri = new RecoveryInfo(paxosID, version, pieces, state);
+				if (readState) {
+					String state = !getCheckpointBlobOption() ? cursorRset
+							.getString(4) : lobToString(cursorRset.getBlob(4));
+					/* Checkpoints are not written while they are being read
+					 * for recovery, so the deltas need not be read
+					 * atomically with the checkpoint under checkpointLock. */
+					List<String> deltas = this.deltaChains
+							.containsKey(paxosID) ? this
+							.getDeltaCheckpoints(paxosID) : null;
+					pri = new RecoveryInfo(paxosID, pieces,
+							new SlotBallotState(cursorRset.getInt(5),
+									cursorRset.getInt(6), cursorRset.getInt(7),
+									state, deltas, version,
+									cursorRset.getLong(8),
+									Util.stringToStringSet(members)));
+				} else
+					pri = new RecoveryInfo(paxosID, version, pieces);
 				/* Whenever a checkpoint is found, we must try to restore the
 				 * corresponding logIndex so that we maintain the invariant that
 				 * logIndex is always unpaused when the corresponding paxos
@@ -2630,6 +3221,55 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private File[] logfiles = null;
 	private int logfileIndex = 0;
 	RandomAccessFile curRAF = null;
+	// used instead of curRAF if the logfile could be mapped
+	ByteBuffer curMapped = null;
+
+	private void openLogfileForReading(File logfile) throws IOException {
+		if (JOURNAL_MMAP
+				&& (this.curMapped = MappedJournals.map(logfile.toString(), 0)) != null)
+			return;
+		this.curRAF = new RandomAccessFile(logfile, "r");
+	}
+
+	private boolean isLogfileOpenForReading() {
+		return this.curMapped != null || this.curRAF != null;
+	}
+
+	private long getLogfileReadPointer() throws IOException {
+		return this.curMapped != null ? this.curMapped.position()
+				: this.curRAF.getFilePointer();
+	}
+
+	private boolean isLogfileReadFully() throws IOException {
+		return this.curMapped != null ? !this.curMapped.hasRemaining()
+				: this.curRAF.getFilePointer() == this.curRAF.length();
+	}
+
+	private void closeLogfileForReading() throws IOException {
+		// a mapping is released when garbage collected
+		this.curMapped = null;
+		if (this.curRAF != null)
+			this.curRAF.close();
+		this.curRAF = null;
+	}
+
+	private byte[] readNextJournaledMessage() throws IOException {
+		if (this.curRAF != null) {
+			byte[] msg = new byte[this.curRAF.readInt()];
+			this.curRAF.readFully(msg);
+			return msg;
+		}
+		// truncated tail, e.g., from a crash in the middle of an append
+		if (this.curMapped.remaining() < 4
+				|| this.curMapped.remaining() - 4 < this.curMapped
+						.getInt(this.curMapped.position()))
+			throw new EOFException(this + " found truncated message at "
+					+ this.logfiles[this.logfileIndex] + ":"
+					+ this.curMapped.position());
+		byte[] msg = new byte[this.curMapped.getInt()];
+		this.curMapped.get(msg);
+		return msg;
+	}
 
 	public boolean initiateReadMessages() {
 		if (isClosed())
@@ -2676,12 +3316,12 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 							new Object[] { this, logfiles[i] });
 
 					this.logfileIndex = i;
-					curRAF = new RandomAccessFile(logfiles[i], "r");
+					this.openLogfileForReading(logfiles[i]);
 					log.log(Level.FINEST,
 							"{0} rolling forward logged messages from file {1}",
 							new Object[] { this.journaler,
 									this.logfiles[this.logfileIndex] });
-				} catch (FileNotFoundException e) {
+				} catch (IOException e) {
 					e.printStackTrace();
 				}
 		}
@@ -2707,7 +3347,10 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 									+ getPTable() + ")"));
 			rset = pstmt.executeQuery();
 			while (rset != null && rset.next()) {
-				unpaused.add(rset.getString(1));
+				// has_serialized is not set if paused in pauseStore
+				if (this.pauseStore == null
+						|| !this.isPausedInStore(rset.getString(1)))
+					unpaused.add(rset.getString(1));
 			}
 		} catch (SQLException e) {
 			log.severe("SQLException while getting all paxos IDs " + " : " + e);
@@ -2806,32 +3449,29 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		else if (isJournalingEnabled()) {
 			String latest = this.getLatestJournalFile();
 			try {
-				while (this.curRAF != null
-						&& this.curRAF.getFilePointer() == this.curRAF.length()) {
-					this.curRAF.close();
-					this.curRAF = null;
+				while (this.isLogfileOpenForReading()
+						&& this.isLogfileReadFully()) {
+					this.closeLogfileForReading();
 					// move on to the next file
 					if (this.logfileIndex + 1 < this.logfiles.length)
-						this.curRAF = new RandomAccessFile(
-								this.logfiles[++this.logfileIndex], "r");
-					if (this.curRAF != null)
+						this.openLogfileForReading(this.logfiles[++this.logfileIndex]);
+					if (this.isLogfileOpenForReading())
 						log.log(Level.INFO,
 								"{0} rolling forward logged messages from file {1}",
 								new Object[] { this.journaler,
 										this.logfiles[this.logfileIndex] });
 				}
-				if (this.curRAF == null)
+				if (!this.isLogfileOpenForReading())
 					return null;
 
 				log.log(Level.FINEST,
 						"{0} reading from offset {1} from file {2}",
-						new Object[] { this, this.curRAF.getFilePointer(),
+						new Object[] { this, this.getLogfileReadPointer(),
 								this.logfiles[this.logfileIndex] });
 
-				long msgOffset = this.curRAF.getFilePointer();
-				int msgLength = this.curRAF.readInt();
-				byte[] msg = new byte[msgLength];
-				this.curRAF.readFully(msg);
+				long msgOffset = this.getLogfileReadPointer();
+				byte[] msg = this.readNextJournaledMessage();
+				int msgLength = msg.length;
 				// packetStr = new String(msg, CHARSET);
 				packetBytes = msg;
 
@@ -3085,6 +3725,26 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		assert (logfile != null);
 		if (!new File(logfile).exists())
 			return null;
+		ByteBuffer mbuf = null;
+		if (JOURNAL_MMAP && logfile.equals(this.journaler.curLogfile)) {
+			FileChannel channel = this.getActiveJournalChannel(logfile);
+			try {
+				mbuf = ByteBuffer.allocate(4 + length);
+				while (mbuf.hasRemaining())
+					if (channel.read(mbuf, offset + mbuf.position()) < 0)
+						throw new IOException("Unexpected end of " + logfile
+								+ " at " + (offset + mbuf.position()));
+				mbuf.flip();
+				return this.getJournaledMessage(mbuf, logfile, offset,
+						length);
+			} catch (ClosedChannelException e) {
+				// rolled over concurrently, fall back to a one-off read
+			}
+		} else if (JOURNAL_MMAP
+				&& (mbuf = MappedJournals.get(logfile, offset + 4 + length)) != null) {
+			mbuf.position((int) offset);
+			return this.getJournaledMessage(mbuf, logfile, offset, length);
+		}
 		boolean locallyOpened = false;
 		if (raf == null) {
 			locallyOpened = true;
@@ -3127,6 +3787,62 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return buf;// msg;
 	}
 
+	private String activeJournal = null;
+	private FileChannel activeJournalChannel = null;
+	// not this as that is held during database writes
+	private final Object activeJournalLock = new Object();
+
+	/* A channel for positional reads of the journal file being appended to.
+	 * The channel of the previous active file is closed upon rollover, after
+	 * which that file gets mapped like any other. */
+	private FileChannel getActiveJournalChannel(String logfile)
+			throws IOException {
+		synchronized (this.activeJournalLock) {
+			if (!logfile.equals(this.activeJournal)) {
+				this.closeActiveJournalChannel();
+				this.activeJournalChannel = new RandomAccessFile(logfile, "r")
+						.getChannel();
+				this.activeJournal = logfile;
+			}
+			return this.activeJournalChannel;
+		}
+	}
+
+	private void closeActiveJournalChannel() {
+		synchronized (this.activeJournalLock) {
+			if (this.activeJournalChannel != null)
+				try {
+					this.activeJournalChannel.close();
+				} catch (IOException e) {
+					log.log(Level.INFO, "{0} unable to close {1}: {2}",
+							new Object[] { this, this.activeJournal, e });
+				}
+			this.activeJournalChannel = null;
+			this.activeJournal = null;
+		}
+	}
+
+	// reads the message at the current position of mbuf
+	private byte[] getJournaledMessage(ByteBuffer mbuf, String logfile,
+			long offset, int length) throws IOException {
+		int readLength = mbuf.getInt();
+		if (readLength != length) {
+			log.log(Level.SEVERE,
+					"{0} found length {1} != {2} while retrieving journaled message {3}:{4}",
+					new Object[] { this, readLength, length, logfile, offset });
+			throw new IOException("Inconsistent length " + readLength
+					+ " != " + length + " at " + logfile + ":" + offset);
+		}
+		byte[] buf = new byte[length];
+		mbuf.get(buf);
+		if (JOURNAL_COMPRESSION)
+			buf = inflate(buf);
+		log.log(Level.FINEST,
+				"{0} returning mapped journaled message from {1}:{2}",
+				new Object[] { this, logfile, offset + ":" + length });
+		return buf;
+	}
+
 	private static class FileOffsetLength {
 		final String file;
 		final long offset;
@@ -3142,6 +3858,17 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private ArrayList<byte[]> getJournaledMessage(FileOffsetLength[] fols)
 			throws IOException {
 		ArrayList<byte[]> logStrings = new ArrayList<byte[]>();
+		if (JOURNAL_MMAP) {
+			// no need to open files as they will be mapped if needed
+			for (FileOffsetLength fol : fols)
+				try {
+					logStrings.add(this.getJournaledMessage(fol.file,
+							fol.offset, fol.length, null));
+				} catch (IOException e) {
+					// the file may have been garbage collected concurrently
+				}
+			return logStrings;
+		}
 		RandomAccessFile raf = null;
 		String filename = null;
 		for (FileOffsetLength fol : fols) {
@@ -3462,6 +4189,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			while (!tmpLogfile.renameTo(logfile))
 				log.severe(msgLog + " failed to rename " + tmpLogfile + " to "
 						+ logfile);
+			MappedJournals.invalidate(logfile.toString());
 			// long t = System.currentTimeMillis();
 			for (String paxosID : logIndexEntries.keySet())
 				for (LogIndexEntry entry : logIndexEntries.get(paxosID))
@@ -3549,6 +4277,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					fidMap);
 			if (prev.delete())
 				fidMap.remove(prev.toString());
+			MappedJournals.invalidate(prev.toString());
 		}
 		DelayProfiler.updateDelay("merge", t);
 		log.log(Level.INFO, "{0} merged logfile {1} into {2}", new Object[] {
@@ -3794,6 +4523,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 						new Object[] { this, paxosID, version });
 			}
 		}
+		if (this.pauseStore != null)
+			this.removeFromPauseStore(paxosID, version);
 		String cmdM = "delete from "
 				+ getMTable()
 				+ (paxosID != null ? " where paxos_id='"
@@ -3807,6 +4538,15 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				+ getPTable()
 				+ (paxosID != null ? " where paxos_id='" + paxosID + "'"
 						: " where true");
+		String cmdD = "delete from "
+				+ getDTable()
+				+ (paxosID != null ? " where paxos_id='"
+						+ paxosID
+						+ "' and (version="
+						+ version
+						+ " or "
+						+ SQLPaxosLogger.getIntegerLTConstraint("version",
+								version) + ")" : " where true");
 		Connection conn = null;
 		try {
 			conn = this.getDefaultConn();
@@ -3817,6 +4557,13 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			removedM = true;
 			stmt.execute(cmdP);
 			removedP = true;
+			stmt.execute(cmdD);
+			synchronized (this.checkpointLock) {
+				if (paxosID == null)
+					this.deltaChains.clear();
+				else
+					this.deltaChains.remove(paxosID);
+			}
 			// conn.commit();
 			log.log(Level.FINE,
 					"{0} removed all state for {1}:{2} and pause state for all versions of {3} ",
@@ -3863,9 +4610,12 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		// messageLog should be closed before DB
 		if (this.messageLog != null)
 			this.messageLog.close();
+		this.closeActiveJournalChannel();
 		this.setClosed(true);
 		if (this.mapDB != null)
 			this.mapDB.close();
+		if (this.pauseStore != null)
+			this.pauseStore.close();
 		// can not close derby until all instances are done
 		if (allClosed() || !isEmbeddedDB())
 			this.closeGracefully();
@@ -3970,6 +4720,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			return true;
 		if (!createTables())
 			return false;
+		this.loadDeltaChains();
 		setClosed(false); // setting open
 		return true;
 	}
@@ -3983,7 +4734,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	 * coordinator fields, so they are indexed.
 	 */
 	private boolean createTables() {
-		boolean createdCheckpoint = false, createdMessages = false, createdPTable = false, createdPrevCheckpoint = false;
+		boolean createdCheckpoint = false, createdMessages = false, createdPTable = false, createdPrevCheckpoint = false, createdDeltas = false;
 		String cmdC = "create table "
 				+ getCTable()
 				+ " ("
@@ -4061,6 +4812,17 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				+ SQL.getBlobString(LOG_INDEX_SIZE, SQL_TYPE)
 				+ ", primary key (paxos_id))";
 
+		String cmdD = "create table "
+				+ getDTable()
+				+ " (paxos_id varchar("
+				+ MAX_PAXOS_ID_SIZE
+				+ ") not null, version int, slot int, delta "
+				+ (getCheckpointBlobOption() ? SQL.getBlobString(
+						maxCheckpointSize, SQL_TYPE) : " varchar("
+						+ maxCheckpointSize + ")") + ")";
+		String cmdDI = "create index deltas_index on " + getDTable()
+				+ "(paxos_id)";
+
 		// this.dropTable(getPTable()); // pause table is unnecessary
 		// this.clearTable(getPTable()); // pause table is unnecessary
 
@@ -4076,6 +4838,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 							stmt, cmdMI, getMTable()));
 			createdPTable = createTable(stmt, cmdP, getPTable());
 			createdPrevCheckpoint = createTable(stmt, cmdPC, getPCTable());
+			createdDeltas = createTable(stmt, cmdD, getDTable())
+					&& createIndex(stmt, cmdDI, getDTable());
 			log.log(Level.INFO, "{0}{1}{2}{3}{4}{5}", new Object[] {
 					"Created tables ", getCTable(), " and ", getMTable(),
 					" and ", getPTable() });
@@ -4083,6 +4847,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			log.severe("Could not create table(s): "
 					+ (createdPTable ? "" : getPTable()) + " "
 					+ (createdPrevCheckpoint ? "" : getPCTable()) + " "
+					+ (createdDeltas ? "" : getDTable()) + " "
 					+ (createdMessages ? "" : getMTable()) + " "
 					+ (createdCheckpoint ? "" : getCTable()));
 			sqle.printStackTrace();
@@ -4423,11 +5188,15 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return PAUSE_TABLE + this.getMyIDSanitized()/* this.myID */;
 	}
 
+	private String getDTable() {
+		return DELTA_TABLE + this.getMyIDSanitized()/* this.myID */;
+	}
+
 	/* end of table names */
 
 	private String[] getAllTableNames() {
 		return new String[] { getCTable(), getPTable(), getMTable(),
-				getPTable() };
+				getPTable(), getDTable() };
 	}
 
 	private synchronized void cleanupCursorConn() {
@@ -5209,6 +5978,238 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		}
 	}
 
+	/**
+	 * Tests that delta checkpoints are stored and returned separately from
+	 * the full checkpoint they are appended to.
+	 */
+	public static class DeltaCheckpointTest extends DefaultTest {
+		/**
+		 *
+		 */
+		@Test
+		public void testDeltaChain() {
+			SQLPaxosLogger logger = new SQLPaxosLogger(24, null, null);
+			try {
+				logger.removeAll();
+				int[] group = { 32, 43, 54 };
+				Set<String> members = Util.arrayOfIntToStringSet(group);
+				String paxosID = "delta_paxos";
+				Ballot ballot = new Ballot(1, 32);
+				Assert.assertFalse(logger.putDeltaCheckpoint(paxosID, 0,
+						members, 1, ballot, "orphan", 0));
+
+				logger.putCheckpointState(paxosID, 0, group, 0, ballot, "base",
+						0);
+				Assert.assertTrue(logger.canAppendDeltaCheckpoint(paxosID));
+				Assert.assertTrue(logger.putDeltaCheckpoint(paxosID, 0,
+						members, 1, ballot, "d1", 0));
+				Assert.assertTrue(logger.putDeltaCheckpoint(paxosID, 0,
+						members, 2, ballot, "#d2", 0));
+				SlotBallotState sbs = logger.getSlotBallotState(paxosID, 0);
+				Assert.assertEquals(2, sbs.slot);
+				Assert.assertEquals("base", sbs.state);
+				Assert.assertEquals(Arrays.asList("d1", "#d2"), sbs.deltas);
+				Assert.assertEquals(sbs.deltas,
+						logger.getStatePacket(paxosID).deltas);
+
+				// a full checkpoint compacts the chain
+				logger.putCheckpointState(paxosID, 0, members, 3, ballot,
+						"full", 0);
+				sbs = logger.getSlotBallotState(paxosID, 0);
+				Assert.assertEquals("full", sbs.state);
+				Assert.assertFalse(sbs.hasDeltas());
+				Assert.assertNull(logger.getStatePacket(paxosID).deltas);
+			} finally {
+				logger.removeAll();
+				logger.close();
+			}
+		}
+
+		/**
+		 * A compaction is written individually, so it must not cause the
+		 * batched checkpoints before it to be dropped.
+		 */
+		@Test
+		public void testBatchEndingInCompaction() {
+			SQLPaxosLogger logger = new SQLPaxosLogger(25, null, null);
+			try {
+				logger.removeAll();
+				int[] group = { 32, 43, 54 };
+				Set<String> members = Util.arrayOfIntToStringSet(group);
+				Ballot ballot = new Ballot(1, 32);
+				String[] paxosIDs = { "batched0", "batched1", "chained" };
+				for (String paxosID : paxosIDs)
+					logger.putCheckpointState(paxosID, 0, group, 0, ballot,
+							"initial", 0);
+				Assert.assertTrue(logger.putDeltaCheckpoint("chained", 0,
+						members, 1, ballot, "d1", 0));
+
+				CheckpointTask[] tasks = new CheckpointTask[paxosIDs.length];
+				for (int i = 0; i < paxosIDs.length; i++)
+					tasks[i] = logger.new CheckpointTask(logger, paxosIDs[i],
+							0, members, 5, ballot, "state" + i, 0);
+				Assert.assertTrue(logger.putCheckpointState(tasks, true));
+
+				for (int i = 0; i < paxosIDs.length; i++) {
+					SlotBallotState sbs = logger.getSlotBallotState(
+							paxosIDs[i], 0);
+					Assert.assertEquals(5, sbs.slot);
+					Assert.assertEquals("state" + i, sbs.state);
+					Assert.assertFalse(sbs.hasDeltas());
+				}
+			} finally {
+				logger.removeAll();
+				logger.close();
+			}
+		}
+	}
+
+	/**
+	 * Tests group commit in {@link Journaler} with and without fsync and
+	 * logs the append latency and throughput at FINE.
+	 */
+	public static class JournalerTest extends DefaultTest {
+		private static final int NUM_GROUPS = 200;
+		private static final int GROUP_SIZE = 32;
+		private static final int MSG_SIZE = 200;
+
+		private static long appendGroups(Journaler journaler)
+				throws IOException {
+			byte[] msg = Arrays.copyOf(testBytes, MSG_SIZE);
+			long expectedSize = journaler.curLogfileSize;
+			for (int i = 0; i < NUM_GROUPS; i++) {
+				ByteBuffer[] group = new ByteBuffer[GROUP_SIZE];
+				String[] paxosIDs = new String[GROUP_SIZE];
+				for (int j = 0; j < GROUP_SIZE; j++) {
+					group[j] = (ByteBuffer) ByteBuffer
+							.allocate(4 + msg.length).putInt(msg.length)
+							.put(msg).flip();
+					paxosIDs[j] = "paxos" + j;
+					expectedSize += group[j].capacity();
+				}
+				journaler.appendToLogFile(group, paxosIDs);
+				Assert.assertEquals(expectedSize, journaler.curLogfileSize);
+			}
+			return expectedSize;
+		}
+
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void testGroupCommit() throws IOException {
+			String logdir = LOG_DIRECTORY + "/"
+					+ JournalerTest.class.getSimpleName() + "/";
+			for (boolean sync : new boolean[] { false, true }) {
+				Journaler journaler = new Journaler(logdir, "sync" + sync,
+						sync);
+				long t = System.nanoTime();
+				long size = appendGroups(journaler);
+				double elapsedMillis = (System.nanoTime() - t) / 1000.0 / 1000;
+				journaler.fos.close();
+				Assert.assertEquals(size,
+						new File(journaler.curLogfile).length());
+				log.log(Level.FINE, "{0} sync={1}: {2}ms/group, {3} msgs/s",
+						new Object[] {
+								JournalerTest.class.getSimpleName(),
+								sync,
+								Util.df(elapsedMillis / NUM_GROUPS),
+								Util.df(NUM_GROUPS * GROUP_SIZE * 1000.0
+										/ elapsedMillis) });
+				new File(journaler.curLogfile).delete();
+				new File(journaler.logdir).delete();
+			}
+			new File(logdir).delete();
+		}
+
+		/**
+		 * Tests that reads through {@link MappedJournals} see appends made
+		 * after the file was first mapped and see the new contents after the
+		 * file is replaced and the mapping invalidated.
+		 * 
+		 * @throws IOException
+		 */
+		@Test
+		public void testMappedReads() throws IOException {
+			String logdir = LOG_DIRECTORY + "/"
+					+ JournalerTest.class.getSimpleName() + "/";
+			Journaler journaler = new Journaler(logdir, "mmap", false);
+			String file = journaler.curLogfile;
+			long[] offsets = new long[2 * GROUP_SIZE];
+			for (int i = 0; i < offsets.length; i++) {
+				byte[] msg = ("msg" + i).getBytes(CHARSET);
+				offsets[i] = journaler.curLogfileSize;
+				journaler.appendToLogFile(
+						new ByteBuffer[] { (ByteBuffer) ByteBuffer
+								.allocate(4 + msg.length).putInt(msg.length)
+								.put(msg).flip() }, new String[] { "paxos" });
+				// read back each message right after appending it
+				ByteBuffer mbuf = MappedJournals.get(file, offsets[i] + 4
+						+ msg.length);
+				Assert.assertNotNull(mbuf);
+				mbuf.position((int) offsets[i]);
+				byte[] read = new byte[mbuf.getInt()];
+				mbuf.get(read);
+				Assert.assertArrayEquals(msg, read);
+			}
+			journaler.fos.close();
+
+			// replace the file as compaction would
+			File tmp = new File(file + TMP_FILE_SUFFIX);
+			FileOutputStream fos = new FileOutputStream(tmp);
+			byte[] replaced = "replaced".getBytes(CHARSET);
+			fos.write(ByteBuffer.allocate(4).putInt(replaced.length).array());
+			fos.write(replaced);
+			fos.close();
+			new File(file).delete();
+			Assert.assertTrue(tmp.renameTo(new File(file)));
+			MappedJournals.invalidate(file);
+			ByteBuffer mbuf = MappedJournals.get(file, 4 + replaced.length);
+			Assert.assertEquals(4 + replaced.length, mbuf.capacity());
+			byte[] read = new byte[mbuf.getInt()];
+			mbuf.get(read);
+			Assert.assertArrayEquals(replaced, read);
+
+			MappedJournals.invalidate(file);
+			new File(file).delete();
+			new File(journaler.logdir).delete();
+			new File(logdir).delete();
+		}
+
+		/**
+		 * Tests that messages in the journal file being appended to are read
+		 * without mapping that file.
+		 * 
+		 * @throws IOException
+		 */
+		@Test
+		public void testActiveJournalReads() throws IOException {
+			SQLPaxosLogger logger = new SQLPaxosLogger(26, null, null);
+			try {
+				Journaler journaler = logger.journaler;
+				for (int i = 0; i < 2 * GROUP_SIZE; i++) {
+					byte[] msg = ("msg" + i).getBytes(CHARSET);
+					long offset = journaler.curLogfileSize;
+					journaler.appendToLogFile(
+							new ByteBuffer[] { (ByteBuffer) ByteBuffer
+									.allocate(4 + msg.length)
+									.putInt(msg.length).put(msg).flip() },
+							new String[] { "paxos" });
+					Assert.assertArrayEquals(msg, logger.getJournaledMessage(
+							journaler.curLogfile, offset, msg.length, null));
+				}
+				synchronized (MappedJournals.mapped) {
+					Assert.assertFalse(MappedJournals.mapped
+							.containsKey(new File(journaler.curLogfile)
+									.getPath()));
+				}
+			} finally {
+				logger.removeAll();
+				logger.close();
+			}
+		}
+	}
+
 	/**
 	 * @param args
 	 */
@@ -0,0 +1,67 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.interfaces;
+
+/**
+ * @author arun
+ *
+ *         An opt-in extension of {@link Replicable} for applications that can
+ *         checkpoint just the changes to their state. Between full
+ *         checkpoints, paxos checkpoints such an application by asking it for
+ *         a delta, and the logger stores the chain of deltas on top of the
+ *         last full checkpoint. After
+ *         {@link edu.umass.cs.gigapaxos.PaxosConfig.PC#MAX_DELTA_CHECKPOINTS}
+ *         deltas, or whenever a paxos instance is stopped, a full checkpoint
+ *         is taken using {@link #checkpoint(String)}, which compacts the chain.
+ *         <p>
+ *         To recover or to catch up a lagging replica, the application's state
+ *         is reset using {@link #restore(String, String)} with the full
+ *         checkpoint followed by {@link #restoreDelta(String, String)} with
+ *         each delta in order.
+ */
+public interface DeltaCheckpointReplicable extends Replicable {
+	/**
+	 * @param name
+	 * @return The changes to the state of {@code name} since the most recent
+	 *         invocation of {@link #checkpoint(String)},
+	 *         {@link #checkpointDelta(String)}, or
+	 *         {@link #restore(String, String)} for {@code name}. Returning null
+	 *         means that a full checkpoint is to be taken instead.
+	 */
+	public String checkpointDelta(String name);
+
+	/**
+	 * Applies {@code delta}, previously returned by
+	 * {@link #checkpointDelta(String)}, to the current state of {@code name}.
+	 *
+	 * @param name
+	 * @param delta
+	 * @return True if the app atomically updated the state successfully. Else,
+	 *         it must throw an exception.
+	 */
+	public boolean restoreDelta(String name, String delta);
+
+	/**
+	 * Wrappers such as replica coordinators implement this interface on
+	 * behalf of the application they wrap and return whether that
+	 * application implements it.
+	 * 
+	 * @return True if delta checkpoints are supported.
+	 */
+	default boolean supportsDeltaCheckpoints() {
+		return true;
+	}
+}
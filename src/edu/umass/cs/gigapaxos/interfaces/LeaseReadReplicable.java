@@ -0,0 +1,56 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.interfaces;
+
+/**
+ * @author arun
+ *
+ *         An opt-in extension of {@link Replicable} for applications that
+ *         identify read-only requests. If
+ *         {@link edu.umass.cs.gigapaxos.PaxosConfig.PC#LEASE_READS} is enabled,
+ *         a read-only request received by the coordinator of its paxos group
+ *         may be executed locally, without being proposed or logged, after
+ *         all requests committed before its receipt have been executed. Only
+ *         requests proposed as {@link Request} objects or sent by clients as
+ *         {@link edu.umass.cs.gigapaxos.paxospackets.RequestPacket} marked
+ *         via
+ *         {@link edu.umass.cs.gigapaxos.paxospackets.RequestPacket#setReadOnly()}
+ *         are checked with {@link #isReadOnly(Request)}, so that writes are
+ *         not parsed an extra time.
+ *         <p>
+ *         Executing a request declared read-only must not change the
+ *         safety-critical state of the application, as it is executed at only
+ *         one replica and is not replayed upon recovery.
+ */
+public interface LeaseReadReplicable extends Replicable {
+	/**
+	 * @param request
+	 * @return True if executing {@code request} does not modify the
+	 *         application state.
+	 */
+	public boolean isReadOnly(Request request);
+
+	/**
+	 * Wrappers such as replica coordinators implement this interface on
+	 * behalf of the application they wrap and return whether that
+	 * application implements it.
+	 * 
+	 * @return True if lease reads are supported.
+	 */
+	default boolean supportsLeaseReads() {
+		return true;
+	}
+}
@@ -0,0 +1,56 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.interfaces;
+
+import java.util.Set;
+
+/**
+ * @author arun
+ *
+ *         An opt-in extension of {@link Replicable} for applications whose
+ *         requests declare the keys that they read or write. Requests within a
+ *         committed batch whose key sets are disjoint may be executed in
+ *         parallel. Requests whose key sets intersect, directly or
+ *         transitively via other requests in the batch, are executed one at a
+ *         time in slot order. {@link #checkpoint(String)} is invoked only after
+ *         all requests in a batch have been executed.
+ *         <p>
+ *         An application implementing this interface must support concurrent
+ *         invocations of {@link #execute(Request, boolean)} for requests with
+ *         disjoint conflict keys, and the effect of executing such requests
+ *         must be independent of the order in which they execute.
+ */
+public interface ParallelReplicable extends Replicable {
+	/**
+	 * @param request
+	 * @return The keys that {@code request} reads or writes. An empty set means
+	 *         that the request conflicts with no other request. Null means that
+	 *         the request may conflict with any request, in which case its
+	 *         entire batch is executed sequentially.
+	 */
+	public Set<?> getConflictKeys(Request request);
+
+	/**
+	 * Wrappers such as replica coordinators implement this interface on
+	 * behalf of the application they wrap and return whether that
+	 * application implements it.
+	 * 
+	 * @return True if requests may be executed in parallel.
+	 */
+	default boolean supportsParallelExecution() {
+		return true;
+	}
+}
@@ -29,12 +29,13 @@ import com.mchange.v1.lang.ClassUtils;
 
 import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit.Fields;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * @author arun
  *
  */
-public class AcceptReplyPacket extends PaxosPacket {
+public class AcceptReplyPacket extends PaxosPacket implements Byteable {
 	/**
 	 * Sender node ID.
 	 */
@@ -188,6 +189,22 @@ public class AcceptReplyPacket extends PaxosPacket {
 		return bbuf;
 	}
 
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofHeader()
+					+ SIZEOF_ACCEPTREPLY]);
+			this.toBytes(bbuf);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * @return {@link #requestID} used only for debugging.
 	 */
@@ -1,6 +1,8 @@
 package edu.umass.cs.gigapaxos.paxospackets;
 
 import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeMap;
@@ -11,13 +13,14 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 /**
  * @author arun
  *
  */
-public class BatchedAccept extends PaxosPacket {
+public class BatchedAccept extends PaxosPacket implements Byteable {
 
 	/**
 	 * 
@@ -95,6 +98,78 @@ public class BatchedAccept extends PaxosPacket {
 
 	}
 
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedAccept(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		checkBytesFormatVersion(bbuf, this.packetType);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.medianCheckpointedSlot = bbuf.getInt();
+		int numSlots = bbuf.getInt();
+		for (int i = 0; i < numSlots; i++) {
+			int slot = bbuf.getInt();
+			this.slotRequestIDs.put(slot, bbuf.getLong());
+			byte[] digest = new byte[bbuf.getInt()];
+			bbuf.get(digest);
+			this.slotDigests.put(slot, digest);
+		}
+		this.group = new HashSet<Integer>();
+		int groupSize = bbuf.getInt();
+		for (int i = 0; i < groupSize; i++)
+			this.group.add(bbuf.getInt());
+	}
+
+	/**
+	 * Like {@link BatchedCommit#SIZEOF_BATCHEDCOMMIT_FIXED}, this excludes the
+	 * variable length slots and group along with their sizes.
+	 */
+	protected static final int SIZEOF_BATCHEDACCEPT_FIXED = 1 // format version
+			+ 8 // int,int ballot
+			+ 4 // int medianCheckpointedSlot
+	;
+
+	// slot, requestID, digest length
+	private static final int SIZEOF_SLOT_ENTRY_FIXED = 4 + 8 + 4;
+
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			int length = this.sizeofHeader() + SIZEOF_BATCHEDACCEPT_FIXED + 4
+					+ 4 + 4 * this.group.size();
+			for (byte[] digest : this.slotDigests.values())
+				length += SIZEOF_SLOT_ENTRY_FIXED
+						+ (digest != null ? digest.length : 0);
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[length]);
+			super.toBytes(bbuf).put(BYTES_FORMAT_VERSION)
+					.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID)
+					.putInt(this.medianCheckpointedSlot)
+					.putInt(this.slotDigests.size());
+			for (Integer slot : this.slotDigests.keySet()) {
+				byte[] digest = this.slotDigests.get(slot);
+				Long requestID = this.slotRequestIDs.get(slot);
+				bbuf.putInt(slot).putLong(requestID != null ? requestID : 0)
+						.putInt(digest != null ? digest.length : 0);
+				if (digest != null)
+					bbuf.put(digest);
+			}
+			bbuf.putInt(this.group.size());
+			for (Integer member : this.group)
+				bbuf.putInt(member);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	protected JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -1,5 +1,8 @@
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -9,6 +12,7 @@ import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * @author arun
@@ -19,7 +23,7 @@ import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
  *         well try to extract blood out of stone.
  * 
  */
-public class BatchedPaxosPacket extends PaxosPacket {
+public class BatchedPaxosPacket extends PaxosPacket implements Byteable {
 
 	ArrayList<PaxosPacket> packets = new ArrayList<PaxosPacket>();
 
@@ -73,6 +77,61 @@ public class BatchedPaxosPacket extends PaxosPacket {
 		}
 	}
 
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedPaxosPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkBytesFormatVersion(bbuf, this.packetType);
+		int numPackets = bbuf.getInt();
+		for (int i = 0; i < numPackets; i++) {
+			int length = bbuf.getInt();
+			// packet decoding expects to start at position 0
+			ByteBuffer element = (ByteBuffer) bbuf.slice().limit(length);
+			bbuf.position(bbuf.position() + length);
+			this.packets.add(PaxosPacketDemultiplexerFast.toPaxosPacket(
+					element, null, null));
+		}
+	}
+
+	/**
+	 * Byteifies all batched packets if they can all be byteified, otherwise
+	 * falls back to stringifying the whole batch.
+	 */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		for (PaxosPacket pp : this.packets)
+			if (!(pp instanceof Byteable)
+					|| !PaxosPacketDemultiplexerFast.isByteable(pp.getType()))
+				return this.toStringBytes();
+		try {
+			ArrayList<byte[]> elements = new ArrayList<byte[]>(
+					this.packets.size());
+			int length = this.sizeofHeader() + 1 // format version
+					+ 4; // int number of packets
+			for (PaxosPacket pp : this.packets) {
+				byte[] element = ((Byteable) pp).toBytes();
+				elements.add(element);
+				length += 4 + element.length;
+			}
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[length]);
+			super.toBytes(bbuf).put(BYTES_FORMAT_VERSION)
+					.putInt(elements.size());
+			for (byte[] element : elements)
+				bbuf.putInt(element.length).put(element);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	protected JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
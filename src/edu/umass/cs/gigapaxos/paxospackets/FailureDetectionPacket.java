@@ -17,9 +17,13 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 
 import org.json.JSONException;
@@ -35,7 +39,8 @@ import org.json.JSONObject;
  */
 
 @SuppressWarnings("javadoc")
-public class FailureDetectionPacket<NodeIDType> extends PaxosPacket {
+public class FailureDetectionPacket<NodeIDType> extends PaxosPacket implements
+		Byteable {
 
 	private static enum Keys {
 		SNDR, RCVR, MODE, SADDR
@@ -80,6 +85,59 @@ public class FailureDetectionPacket<NodeIDType> extends PaxosPacket {
 		this.saddr = MessageNIOTransport.getSenderAddress(json);
 	}
 
+	/**
+	 * Node IDs are byteified as strings, so unlike other byteified paxos
+	 * packets, this packet does not need integer node IDs.
+	 * 
+	 * @param bbuf
+	 * @param unstringer
+	 * @param saddr
+	 *            Sender address, typically from the NIO header, as the bytes
+	 *            do not carry a stamped sender address unlike json.
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public FailureDetectionPacket(ByteBuffer bbuf,
+			Stringifiable<NodeIDType> unstringer, InetSocketAddress saddr)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkBytesFormatVersion(bbuf, this.packetType);
+		this.status = bbuf.get() == (byte) 1;
+		this.senderNodeID = unstringer.valueOf(getString(bbuf));
+		this.responderNodeID = unstringer.valueOf(getString(bbuf));
+		this.saddr = saddr;
+	}
+
+	private static String getString(ByteBuffer bbuf)
+			throws UnsupportedEncodingException {
+		byte[] bytes = new byte[bbuf.getInt()];
+		bbuf.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	@Override
+	public byte[] toBytes() {
+		if (!BYTEIFICATION)
+			return this.toStringBytes();
+		try {
+			byte[] sndr = this.senderNodeID.toString().getBytes(CHARSET);
+			byte[] rcvr = this.responderNodeID.toString().getBytes(CHARSET);
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofHeader()
+					+ 1 // format version
+					+ 1 // boolean status
+					+ 4 + sndr.length + 4 + rcvr.length]);
+			super.toBytes(bbuf).put(BYTES_FORMAT_VERSION)
+					.put(this.status ? (byte) 1 : (byte) 0)
+					.putInt(sndr.length).put(sndr).putInt(rcvr.length)
+					.put(rcvr);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
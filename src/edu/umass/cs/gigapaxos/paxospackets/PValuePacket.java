@@ -123,7 +123,7 @@ public class PValuePacket extends ProposalPacket {
 				.toString()) : false;
 	}
 
-	protected PValuePacket(ByteBuffer bbuf)
+	public PValuePacket(ByteBuffer bbuf)
 			throws UnsupportedEncodingException, UnknownHostException {
 		super(bbuf);
 		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
@@ -132,6 +132,38 @@ public class PValuePacket extends ProposalPacket {
 		this.noCoalesce = bbuf.get() == (byte) 1;
 	}
 
+	/**
+	 * The byteified pvalue has the same layout as {@link AcceptPacket} minus
+	 * the sender, i.e., the request followed by the slot and pvalue fields.
+	 */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return super.toBytes();
+		return this.toPValueBytes();
+	}
+
+	/**
+	 * Byteifies only up to and including the fields of this class, i.e.,
+	 * without any subclass fields, so that the bytes can always be decoded
+	 * using {@link #PValuePacket(ByteBuffer)}.
+	 * 
+	 * @return Byteified pvalue.
+	 */
+	protected byte[] toPValueBytes() {
+		// true => byteify afresh ignoring any cached accept bytes
+		byte[] buf = super.toBytes(true);
+		ByteBuffer bbuf = ByteBuffer.wrap(new byte[buf.length
+				+ SIZEOF_PROPOSAL + SIZEOF_PVALUE]);
+		bbuf.put(buf).putInt(this.slot).putInt(this.ballot.ballotNumber)
+				.putInt(this.ballot.coordinatorID)
+				.put(this.recovery ? (byte) 1 : 0)
+				.putInt(this.medianCheckpointedSlot)
+				.put(this.noCoalesce ? (byte) 1 : 0);
+		assert (!bbuf.hasRemaining()); // exact alignment
+		return bbuf.array();
+	}
+
 	public PValuePacket makeDecision(int mcSlot) {
 		this.packetType = PaxosPacketType.DECISION;
 		this.medianCheckpointedSlot = mcSlot;
@@ -26,6 +26,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.utils.Config;
@@ -103,6 +105,10 @@ public abstract class PaxosPacket extends JSONPacket {
 		 * large checkpoint option?
 		 */
 		BIG_CP,
+		/**
+		 * delta checkpoints on top of checkpoint state
+		 */
+		DELTAS,
 		/**
 		 * sync mode; used by pause deactivator
 		 */
@@ -449,6 +455,61 @@ public abstract class PaxosPacket extends JSONPacket {
 
 	protected static final int SIZEOF_PAXOSPACKET_FIXED = 4 + 4 + 4 + 1;
 
+	/**
+	 * Version of the byteified body format, i.e., what follows the fixed
+	 * PaxosPacket header, for packet types other than request, accept, batched
+	 * commit, and batched accept reply. The latter have a fixed, unversioned
+	 * body format as accepts are also persisted in that format by the logger.
+	 * The version byte immediately follows the header and is checked upon
+	 * decoding so that an incompatible peer fails loudly instead of silently
+	 * misparsing.
+	 */
+	protected static final byte BYTES_FORMAT_VERSION = 1;
+
+	protected static void checkBytesFormatVersion(ByteBuffer bbuf,
+			PaxosPacketType type) throws UnsupportedEncodingException {
+		byte version = bbuf.get();
+		if (version != BYTES_FORMAT_VERSION)
+			throw new UnsupportedEncodingException(type
+					+ " has unsupported byteified format version " + version
+					+ " != " + BYTES_FORMAT_VERSION);
+	}
+
+	/**
+	 * Byteification uses int node IDs, so it is only possible when all node
+	 * IDs are integers, otherwise we fall back to {@link #toStringBytes()}.
+	 *
+	 * @return True if byteification is enabled and possible.
+	 */
+	protected static boolean isByteifiable() {
+		return BYTEIFICATION && IntegerMap.allInt();
+	}
+
+	/**
+	 * @return The stringified (JSON) form of this packet as bytes.
+	 */
+	protected byte[] toStringBytes() {
+		try {
+			// some types like BATCHED_PAXOS_PACKET only support json-smart
+			net.minidev.json.JSONObject jsonSmart = this.toJSONSmart();
+			return (jsonSmart != null ? jsonSmart.toString() : this.toString())
+					.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException | JSONException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * @return Length of the fixed PaxosPacket header including the paxosID.
+	 * @throws UnsupportedEncodingException
+	 */
+	protected int sizeofHeader() throws UnsupportedEncodingException {
+		return SIZEOF_PAXOSPACKET_FIXED
+				+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+						: 0);
+	}
+
 	protected ByteBuffer toBytes(ByteBuffer bbuf)
 			throws UnsupportedEncodingException {
 		// paxospacket stuff
@@ -749,5 +810,117 @@ public abstract class PaxosPacket extends JSONPacket {
 				: null;
 	}
 
+	/* The methods below lazily read select fields directly from a byteified
+	 * paxos packet starting at the buffer's current position without decoding
+	 * the rest of the packet, e.g., the request value. They only use absolute
+	 * gets, so the buffer's position and limit are left unchanged. */
+
+	/**
+	 * @param bbuf
+	 * @return PaxosPacketType if {@code bbuf} is a byteified paxos packet.
+	 */
+	public static PaxosPacketType getType(ByteBuffer bbuf) {
+		int pos = bbuf.position();
+		return bbuf.remaining() >= SIZEOF_PAXOSPACKET_FIXED
+				&& bbuf.getInt(pos) == PaxosPacketType.PAXOS_PACKET.getInt() ? PaxosPacketType
+				.getPaxosPacketType(bbuf.getInt(pos + 4)) : null;
+	}
+
+	/**
+	 * @param bbuf
+	 * @return Paxos group version (or epoch number).
+	 */
+	public static int getVersion(ByteBuffer bbuf) {
+		return bbuf.getInt(bbuf.position() + 8);
+	}
+
+	/**
+	 * @param bbuf
+	 * @return Paxos group ID or null if none.
+	 * @throws UnsupportedEncodingException
+	 */
+	public static String getPaxosID(ByteBuffer bbuf)
+			throws UnsupportedEncodingException {
+		int pos = bbuf.position();
+		int length = bbuf.get(pos + SIZEOF_PAXOSPACKET_FIXED - 1);
+		if (length <= 0)
+			return null;
+		byte[] paxosIDBytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			paxosIDBytes[i] = bbuf.get(pos + SIZEOF_PAXOSPACKET_FIXED + i);
+		return new String(paxosIDBytes, CHARSET);
+	}
+
+	/**
+	 * @param bbuf
+	 * @return Length of the header including the paxosID, i.e., the offset
+	 *         relative to the packet start where the body begins.
+	 */
+	public static int getHeaderLength(ByteBuffer bbuf) {
+		return SIZEOF_PAXOSPACKET_FIXED
+				+ bbuf.get(bbuf.position() + SIZEOF_PAXOSPACKET_FIXED - 1);
+	}
+
+	// offset of ballot relative to start, or -1 if none at a fixed offset
+	private static int getBallotOffset(ByteBuffer bbuf, PaxosPacketType type) {
+		int start = bbuf.position();
+		int body = start + getHeaderLength(bbuf);
+		switch (type) {
+		case ACCEPT:
+			// trailer is slot, ballot, recovery, gcSlot, noCoalesce, sender
+			return bbuf.limit() - (PValuePacket.SIZEOF_PVALUE + 4);
+		case DECISION:
+		case PREEMPTED:
+			return bbuf.limit() - PValuePacket.SIZEOF_PVALUE;
+		case ACCEPT_REPLY:
+		case BATCHED_ACCEPT_REPLY:
+			return body + 4; // after acceptor
+		case BATCHED_COMMIT:
+			return body;
+		case PREPARE:
+		case BATCHED_ACCEPT:
+		case CHECKPOINT_STATE:
+			return body + 1; // after format version
+		case PREPARE_REPLY:
+			return body + 1 + 4; // after format version and acceptor
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @param bbuf
+	 * @return Ballot if the packet type has one, else null.
+	 */
+	public static Ballot getBallot(ByteBuffer bbuf) {
+		PaxosPacketType type = getType(bbuf);
+		int offset = type != null ? getBallotOffset(bbuf, type) : -1;
+		return offset >= 0 ? new Ballot(bbuf.getInt(offset),
+				bbuf.getInt(offset + 4)) : null;
+	}
+
+	/**
+	 * @param bbuf
+	 * @return Slot if the packet type has a single slot, else null.
+	 */
+	public static Integer getSlot(ByteBuffer bbuf) {
+		PaxosPacketType type = getType(bbuf);
+		if (type == null)
+			return null;
+		switch (type) {
+		case ACCEPT:
+		case DECISION:
+		case PREEMPTED:
+			// slot immediately precedes ballot in the trailer
+			return bbuf.getInt(getBallotOffset(bbuf, type) - 4);
+		case ACCEPT_REPLY:
+		case CHECKPOINT_STATE:
+			// slot immediately follows ballot
+			return bbuf.getInt(getBallotOffset(bbuf, type) + 8);
+		default:
+			return null;
+		}
+	}
+
 	/************* End of type-specific methods *******************/
 }
@@ -22,7 +22,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -34,7 +39,7 @@ import java.util.TreeMap;
  *
  */
 @SuppressWarnings("javadoc")
-public class PrepareReplyPacket extends PaxosPacket {
+public class PrepareReplyPacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot of the PREPARE being replied to.
@@ -102,6 +107,67 @@ public class PrepareReplyPacket extends PaxosPacket {
 		this.createTime = json.getLong(RequestPacket.Keys.CT.toString());
 	}
 
+	public PrepareReplyPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkBytesFormatVersion(bbuf, this.packetType);
+		this.acceptor = bbuf.getInt();
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.firstSlot = bbuf.getInt();
+		this.maxSlot = bbuf.getInt();
+		this.minSlot = bbuf.getInt();
+		this.createTime = bbuf.getLong();
+		this.accepted = new TreeMap<Integer, PValuePacket>();
+		int numAccepted = bbuf.getInt();
+		for (int i = 0; i < numAccepted; i++) {
+			int length = bbuf.getInt();
+			// pvalue decoding expects to start at position 0
+			ByteBuffer element = (ByteBuffer) bbuf.slice().limit(length);
+			bbuf.position(bbuf.position() + length);
+			PValuePacket pvalue = new PValuePacket(element);
+			this.accepted.put(pvalue.slot, pvalue);
+		}
+	}
+
+	protected static final int SIZEOF_PREPAREREPLY_FIXED = 1 // format version
+			+ 4 // int acceptor
+			+ 8 // int,int ballot
+			+ 4 // int firstSlot
+			+ 4 // int maxSlot
+			+ 4 // int minSlot
+			+ 8 // long createTime
+			+ 4 // int number of accepted pvalues
+	;
+
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			ArrayList<byte[]> pvalues = new ArrayList<byte[]>(
+					this.accepted.size());
+			int length = this.sizeofHeader() + SIZEOF_PREPAREREPLY_FIXED;
+			for (PValuePacket pvalue : this.accepted.values()) {
+				byte[] element = pvalue.toPValueBytes();
+				pvalues.add(element);
+				length += 4 + element.length;
+			}
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[length]);
+			super.toBytes(bbuf).put(BYTES_FORMAT_VERSION)
+					.putInt(this.acceptor).putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID).putInt(this.firstSlot)
+					.putInt(this.maxSlot).putInt(this.minSlot)
+					.putLong(this.createTime).putInt(pvalues.size());
+			for (byte[] element : pvalues)
+				bbuf.putInt(element.length).put(element);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	// only for unit testing in PrepareReplyAssembler
 	public PrepareReplyPacket(int acceptor, Ballot ballot,
 			HashMap<Integer, PValuePacket> acceptedMap, int gcSlot, int max) {
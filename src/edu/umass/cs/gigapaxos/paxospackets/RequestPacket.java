@@ -18,6 +18,7 @@ package edu.umass.cs.gigapaxos.paxospackets;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
 import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.PaxosConfig;
@@ -152,6 +153,11 @@ public class RequestPacket extends PaxosPacket implements Request,
 		 * Whether to broadcast.
 		 */
 		BC,
+
+		/**
+		 * True if marked read-only.
+		 */
+		RO,
 	}
 
 	public static enum ResponseCodes {
@@ -222,6 +228,11 @@ public class RequestPacket extends PaxosPacket implements Request,
 	// batch of requests attached to this request
 	private RequestPacket[] batched = null;
 
+	/* Whether the issuer marked this request as read-only so that it may be
+	 * considered for a lease read without parsing every request. Sent as a
+	 * bit in the stop byte when byteified. */
+	private boolean readOnly = false;
+
 	// these fields are not passed over the network
 	private String stringifiedSelf = null;
 	private byte[] byteifiedSelf = null;
@@ -331,6 +342,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 		this.clientAddress = req.clientAddress;
 		this.listenAddress = req.listenAddress;
 		this.shouldReturnRequestValue = req.shouldReturnRequestValue;
+		this.readOnly = req.readOnly;
 		this.responseValue = req.responseValue;
 		this.digest = req.digest;
 
@@ -358,6 +370,28 @@ public class RequestPacket extends PaxosPacket implements Request,
 		return this;
 	}
 
+	/**
+	 * Marks this request as read-only. Only requests so marked are considered
+	 * for local execution at a leased coordinator if
+	 * {@link edu.umass.cs.gigapaxos.PaxosConfig.PC#LEASE_READS} is enabled,
+	 * and they are still subject to the application's
+	 * {@link edu.umass.cs.gigapaxos.interfaces.LeaseReadReplicable#isReadOnly(edu.umass.cs.gigapaxos.interfaces.Request)}.
+	 * 
+	 * @return this
+	 */
+	public RequestPacket setReadOnly() {
+		this.readOnly = true;
+		this.byteifiedSelf = null;
+		return this;
+	}
+
+	/**
+	 * @return True if marked read-only via {@link #setReadOnly()}.
+	 */
+	public boolean isReadOnly() {
+		return this.readOnly;
+	}
+
 	public int getClientID() {
 		if (this.clientAddress != null)
 			return this.clientAddress.getPort();
@@ -500,6 +534,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 		super(json);
 		this.packetType = PaxosPacketType.REQUEST;
 		this.stop = json.optBoolean(Keys.STOP.toString());
+		this.readOnly = json.optBoolean(Keys.RO.toString());
 		this.requestID = json.getLong(Keys.QID.toString());
 		this.requestValue = json.getString(Keys.QV.toString());
 
@@ -575,6 +610,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 		this.packetType = PaxosPacketType.REQUEST;
 		this.stop = json.containsKey(Keys.STOP.toString()) ? (Boolean) json
 				.get(Keys.STOP.toString()) : false;
+		this.readOnly = json.containsKey(Keys.RO.toString()) ? (Boolean) json
+				.get(Keys.RO.toString()) : false;
 		this.requestID = Util.toLong(json.get(Keys.QID.toString()));
 		this.requestValue = (String) json.get(Keys.QV.toString());
 
@@ -647,6 +684,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 			json.put(Keys.NFWDS.toString(), this.forwardCount);
 		if (this.stop)
 			json.put(Keys.STOP.toString(), this.stop);
+		if (this.readOnly)
+			json.put(Keys.RO.toString(), this.readOnly);
 		if (DEBUG) {
 			json.put(RequestPacket.Keys.FWDR.toString(), this.forwarderID);
 			json.putOpt(Keys.DBG.toString(), this.debugInfo);
@@ -693,6 +732,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 			json.put(Keys.NFWDS.toString(), this.forwardCount);
 		if (this.stop)
 			json.put(Keys.STOP.toString(), this.stop);
+		if (this.readOnly)
+			json.put(Keys.RO.toString(), this.readOnly);
 		if (DEBUG) {
 			json.put(RequestPacket.Keys.FWDR.toString(), this.forwarderID);
 			if (this.debugInfo != null)
@@ -841,7 +882,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 			exactLength += (bbuf.position());
 
 			bbuf.putLong(this.requestID);
-			bbuf.put(this.stop ? (byte) 1 : (byte) 0);
+			// read-only marker in the second bit of the stop byte
+			bbuf.put((byte) ((this.stop ? 1 : 0) | (this.readOnly ? 2 : 0)));
 			exactLength += (Long.BYTES + 1);
 
 			// addresses
@@ -946,7 +988,9 @@ public class RequestPacket extends PaxosPacket implements Request,
 		int exactLength = bbuf.position();
 
 		this.requestID = bbuf.getLong();
-		this.stop = bbuf.get() == (byte) 1;
+		byte stopAndReadOnly = bbuf.get();
+		this.stop = (stopAndReadOnly & 1) != 0;
+		this.readOnly = (stopAndReadOnly & 2) != 0;
 		exactLength += (8 + 1);
 
 		// addresses
@@ -1513,6 +1557,24 @@ public class RequestPacket extends PaxosPacket implements Request,
 		public void testCheckFields() {
 			doubleCheckFields();
 		}
+
+		@Test
+		public void testReadOnlyMarker() throws JSONException,
+				UnsupportedEncodingException, UnknownHostException {
+			RequestPacket read = new RequestPacket("read", false).setReadOnly();
+			RequestPacket stop = new RequestPacket("stop", true);
+			Assert.assertTrue(new RequestPacket(read.toJSONObject())
+					.isReadOnly());
+			Assert.assertTrue(new RequestPacket(read.toJSONSmart())
+					.isReadOnly());
+			RequestPacket bytes = new RequestPacket(read.toBytesInstrument());
+			Assert.assertTrue(bytes.isReadOnly() && !bytes.isStopRequest());
+			bytes = new RequestPacket(stop.toBytesInstrument());
+			Assert.assertTrue(!bytes.isReadOnly() && bytes.isStopRequest());
+			Assert.assertFalse(new RequestPacket(stop.toJSONObject())
+					.isReadOnly());
+			Assert.assertTrue(new RequestPacket(read).isReadOnly());
+		}
 	}
 
 	static {
@@ -19,8 +19,16 @@ package edu.umass.cs.gigapaxos.paxospackets;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -30,7 +38,7 @@ import org.json.JSONObject;
  *
  */
 @SuppressWarnings("javadoc")
-public final class StatePacket extends PaxosPacket{
+public final class StatePacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot in which the request at the checkpointed slot was committed.
@@ -44,6 +52,11 @@ public final class StatePacket extends PaxosPacket{
 	 * The checkpoint state encoded as a string.
 	 */
 	public final String state;
+	/**
+	 * Delta checkpoints to be restored in order after {@link #state}, or null
+	 * if none.
+	 */
+	public final List<String> deltas;
 	/*
 	 * Whether the checkpoint is large. If so, checkpoint/restore or remote
 	 * checkpoint transfers will use the file system instead of memory.
@@ -51,13 +64,21 @@ public final class StatePacket extends PaxosPacket{
 	public final boolean isLargeCheckpoint;
 
 	public StatePacket(Ballot b, int slotNumber, String state) {
-		this(b, slotNumber, state, false);
+		this(b, slotNumber, state, null);
 	}
-	private StatePacket(Ballot b, int slotNumber, String state, boolean isLargeCheckpoint) {
+
+	public StatePacket(Ballot b, int slotNumber, String state,
+			List<String> deltas) {
+		this(b, slotNumber, state, deltas, false);
+	}
+
+	private StatePacket(Ballot b, int slotNumber, String state,
+			List<String> deltas, boolean isLargeCheckpoint) {
 		super((PaxosPacket)null);
 		this.ballot = b;
 		this.slotNumber = slotNumber;
 		this.state = state;
+		this.deltas = deltas != null && !deltas.isEmpty() ? deltas : null;
 		this.packetType = PaxosPacketType.CHECKPOINT_STATE;
 		this.isLargeCheckpoint = isLargeCheckpoint;		
 	}
@@ -70,6 +91,84 @@ public final class StatePacket extends PaxosPacket{
 		this.ballot = new Ballot(json.getString(PaxosPacket.NodeIDKeys.B.toString()));
 		this.state = json.getString(PaxosPacket.Keys.STATE.toString());
 		this.isLargeCheckpoint = json.optBoolean(PaxosPacket.Keys.BIG_CP.toString());
+		JSONArray jsonDeltas = json.optJSONArray(PaxosPacket.Keys.DELTAS
+				.toString());
+		List<String> deltas = null;
+		if (jsonDeltas != null) {
+			deltas = new ArrayList<String>();
+			for (int i = 0; i < jsonDeltas.length(); i++)
+				deltas.add(jsonDeltas.getString(i));
+		}
+		this.deltas = deltas;
+	}
+
+	public StatePacket(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		checkBytesFormatVersion(bbuf, this.packetType);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.slotNumber = bbuf.getInt();
+		this.isLargeCheckpoint = bbuf.get() == (byte) 1;
+		int stateLength = bbuf.getInt();
+		if (stateLength >= 0) {
+			byte[] stateBytes = new byte[stateLength];
+			bbuf.get(stateBytes);
+			this.state = new String(stateBytes, CHARSET);
+		} else
+			this.state = null;
+		int numDeltas = bbuf.getInt();
+		List<String> deltas = null;
+		for (int i = 0; i < numDeltas; i++) {
+			byte[] deltaBytes = new byte[bbuf.getInt()];
+			bbuf.get(deltaBytes);
+			(deltas = deltas != null ? deltas : new ArrayList<String>())
+					.add(new String(deltaBytes, CHARSET));
+		}
+		this.deltas = deltas;
+	}
+
+	protected static final int SIZEOF_STATE_FIXED = 1 // format version
+			+ 8 // int,int ballot
+			+ 4 // int slotNumber
+			+ 1 // boolean isLargeCheckpoint
+			+ 4 // int state length, -1 for null
+			+ 4 // int number of deltas, each followed by int length and bytes
+	;
+
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			byte[] stateBytes = this.state != null ? this.state
+					.getBytes(CHARSET) : null;
+			byte[][] deltaBytes = new byte[this.deltas != null ? this.deltas
+					.size() : 0][];
+			int deltasLength = 0;
+			for (int i = 0; i < deltaBytes.length; i++)
+				deltasLength += 4 + (deltaBytes[i] = this.deltas.get(i)
+						.getBytes(CHARSET)).length;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofHeader()
+					+ SIZEOF_STATE_FIXED
+					+ (stateBytes != null ? stateBytes.length : 0)
+					+ deltasLength]);
+			super.toBytes(bbuf).put(BYTES_FORMAT_VERSION)
+					.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID)
+					.putInt(this.slotNumber)
+					.put(this.isLargeCheckpoint ? (byte) 1 : (byte) 0)
+					.putInt(stateBytes != null ? stateBytes.length : -1);
+			if (stateBytes != null)
+				bbuf.put(stateBytes);
+			bbuf.putInt(deltaBytes.length);
+			for (byte[] delta : deltaBytes)
+				bbuf.putInt(delta.length).put(delta);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
 	}
 
 	@Override
@@ -79,16 +178,21 @@ public final class StatePacket extends PaxosPacket{
 		json.put(PaxosPacket.NodeIDKeys.B.toString(), this.ballot.ballotNumber+":"+this.ballot.coordinatorID);
 		json.put(PaxosPacket.Keys.STATE.toString(), this.state);
 		json.put(PaxosPacket.Keys.BIG_CP.toString(), this.isLargeCheckpoint);
+		if (this.deltas != null)
+			json.put(PaxosPacket.Keys.DELTAS.toString(), new JSONArray(
+					this.deltas));
 		return json;
 	}
 	
 	public static StatePacket getStatePacket(SlotBallotState sbs) {
-		return new StatePacket(new Ballot(sbs.ballotnum, sbs.coordinator), sbs.slot, sbs.state);
+		return new StatePacket(new Ballot(sbs.ballotnum, sbs.coordinator),
+				sbs.slot, sbs.state, sbs.deltas);
 	}
 
 	@Override
 	protected String getSummaryString() {
 		return ballot + ", " + slotNumber + ", ["
-				+ Util.truncate(state, 16, 16) + "]";
+				+ Util.truncate(state, 16, 16) + "]"
+				+ (deltas != null ? " + " + deltas.size() + " deltas" : "");
 	}
 }
@@ -17,12 +17,16 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -33,7 +37,8 @@ import java.util.ArrayList;
  *         it is reporting as missing in this sync reply.
  */
 @SuppressWarnings("javadoc")
-public final class SyncDecisionsPacket extends PaxosPacket {
+public final class SyncDecisionsPacket extends PaxosPacket implements
+		Byteable {
 
 	/**
 	 * Node sending the sync decisions request.
@@ -75,6 +80,49 @@ public final class SyncDecisionsPacket extends PaxosPacket {
 		this.packetType = PaxosPacketType.SYNC_DECISIONS_REQUEST;
 	}
 
+	public SyncDecisionsPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkBytesFormatVersion(bbuf, this.packetType);
+		this.nodeID = bbuf.getInt();
+		this.maxDecisionSlot = bbuf.getInt();
+		int numMissing = bbuf.getInt();
+		if (numMissing > 0) {
+			this.missingSlotNumbers = new ArrayList<Integer>(numMissing);
+			for (int i = 0; i < numMissing; i++)
+				this.missingSlotNumbers.add(bbuf.getInt());
+		} else
+			// consistent with json where empty is omitted
+			this.missingSlotNumbers = null;
+	}
+
+	protected static final int SIZEOF_SYNC_DECISIONS = 1 // format version
+			+ 4 // int nodeID
+			+ 4 // int maxDecisionSlot
+			+ 4 // int number of missing slots
+	;
+
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		int numMissing = this.missingSlotNumbers != null ? this.missingSlotNumbers
+				.size() : 0;
+		try {
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofHeader()
+					+ SIZEOF_SYNC_DECISIONS + 4 * numMissing]);
+			super.toBytes(bbuf).put(BYTES_FORMAT_VERSION).putInt(this.nodeID)
+					.putInt(this.maxDecisionSlot).putInt(numMissing);
+			for (int i = 0; i < numMissing; i++)
+				bbuf.putInt(this.missingSlotNumbers.get(i));
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -0,0 +1,300 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Per paxos group feedback controller for request batching. For each
+ *         group it maintains a batch size cap and a linger time, i.e., how
+ *         long the oldest queued request may wait for more requests to join
+ *         its batch.
+ *         <p>
+ *         The cap is adjusted AIMD-style. It is increased additively whenever
+ *         a batch is cut short by the cap while more requests remain queued,
+ *         and it is decreased multiplicatively whenever the agreement latency
+ *         of the group exceeds {@link #LATENCY_SLACK} times its baseline
+ *         latency while batches are close to the cap, i.e., when big batches
+ *         are making logging or network transfer the bottleneck. Agreement
+ *         latency is measured from entry to in-order execution, so it
+ *         includes the time to log the batch.
+ *         <p>
+ *         The linger time stays at zero under light load so that latency is a
+ *         single agreement round trip. It grows additively, up to a small
+ *         fraction of the agreement latency, only when batches form but the
+ *         queue is drained by each batch, i.e., when waiting a little longer
+ *         is likely to make batches bigger. It is halved whenever a batch
+ *         contains a single request or leaves a backlog behind.
+ *         <p>
+ *         Only the most recently active groups are tracked; other groups get
+ *         the initial cap and no linger. This class is thread-safe.
+ */
+public class AdaptiveBatchController {
+
+	/**
+	 * Latency over baseline beyond which batch caps are decreased.
+	 */
+	public static final double LATENCY_SLACK = 2.0;
+	private static final double DECREASE_FACTOR = 0.5;
+	// additive increase as a fraction of the maximum cap
+	private static final int INCREASE_DIVISOR = 64;
+	// additive linger increase in milliseconds
+	private static final double LINGER_STEP = 0.1;
+	// linger below this is considered zero
+	private static final double MIN_LINGER = 0.01;
+	// baseline latency drifts up by this fraction per sample
+	private static final double BASELINE_DRIFT = 0.01;
+	private static final int MAX_TRACKED_GROUPS = 4096;
+
+	static class GroupState {
+		int cap;
+		double linger = 0;
+		int lastBatchSize = 0;
+		double latency = 0;
+		double baseline = 0;
+
+		GroupState(int cap) {
+			this.cap = cap;
+		}
+	}
+
+	private final int minCap;
+	private final int maxCap;
+	private final double maxLinger;
+	private final double lingerFraction;
+	private final int increment;
+
+	private final LinkedHashMap<String, GroupState> groups = new LinkedHashMap<String, GroupState>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, GroupState> eldest) {
+			return this.size() > MAX_TRACKED_GROUPS;
+		}
+	};
+
+	// metrics
+	private long numBatches = 0;
+	private long numBatchedRequests = 0;
+	private long numIncreases = 0;
+	private long numDecreases = 0;
+
+	/**
+	 * @param minCap
+	 *            Smallest batch size cap.
+	 * @param maxCap
+	 *            Largest batch size cap. Also the initial cap.
+	 * @param maxLinger
+	 *            Largest linger time in milliseconds.
+	 * @param lingerFraction
+	 *            Largest linger time as a fraction of agreement latency.
+	 */
+	public AdaptiveBatchController(int minCap, int maxCap, double maxLinger,
+			double lingerFraction) {
+		this.minCap = Math.max(1, Math.min(minCap, maxCap));
+		this.maxCap = Math.max(this.minCap, maxCap);
+		this.maxLinger = maxLinger;
+		this.lingerFraction = lingerFraction;
+		this.increment = Math.max(1, this.maxCap / INCREASE_DIVISOR);
+	}
+
+	private GroupState getState(String paxosID) {
+		GroupState state = this.groups.get(paxosID);
+		if (state == null)
+			this.groups.put(paxosID, state = new GroupState(this.maxCap));
+		return state;
+	}
+
+	/**
+	 * @param paxosID
+	 * @return Maximum number of requests in the next batch for
+	 *         {@code paxosID}.
+	 */
+	public synchronized int getBatchCap(String paxosID) {
+		GroupState state = this.groups.get(paxosID);
+		return state != null ? state.cap : this.maxCap;
+	}
+
+	/**
+	 * @param paxosID
+	 * @return Milliseconds for which the oldest queued request of
+	 *         {@code paxosID} may wait before it is dequeued.
+	 */
+	public synchronized double getLinger(String paxosID) {
+		GroupState state = this.groups.get(paxosID);
+		return state != null ? state.linger : 0;
+	}
+
+	/**
+	 * Feedback from the batcher after forming a batch.
+	 *
+	 * @param paxosID
+	 * @param batchSize
+	 *            Number of requests in the batch just formed.
+	 * @param remaining
+	 *            Number of requests for {@code paxosID} still queued.
+	 */
+	public synchronized void batched(String paxosID, int batchSize,
+			int remaining) {
+		GroupState state = this.getState(paxosID);
+		state.lastBatchSize = batchSize;
+		this.numBatches++;
+		this.numBatchedRequests += batchSize;
+
+		if (remaining > 0) {
+			// backlogged, so no point waiting
+			state.linger /= 2;
+			if (batchSize >= state.cap && state.cap < this.maxCap) {
+				state.cap = Math.min(this.maxCap, state.cap + this.increment);
+				this.numIncreases++;
+			}
+		} else if (batchSize <= 1)
+			// light load, so don't add latency
+			state.linger /= 2;
+		else
+			// batches are forming, so waiting a bit may help
+			state.linger = Math.min(
+					Math.min(this.maxLinger, state.latency
+							* this.lingerFraction), state.linger + LINGER_STEP);
+		if (state.linger < MIN_LINGER)
+			state.linger = 0;
+	}
+
+	/**
+	 * Feedback from execution of an agreed upon request.
+	 *
+	 * @param paxosID
+	 * @param latency
+	 *            Agreement latency in milliseconds.
+	 */
+	public synchronized void agreed(String paxosID, double latency) {
+		GroupState state = this.getState(paxosID);
+		state.latency = state.latency == 0 ? latency : Util.movingAverage(
+				latency, state.latency);
+		// baseline tracks the minimum but slowly drifts up to forget old lows
+		state.baseline = state.baseline == 0 || latency < state.baseline ? latency
+				: state.baseline * (1 + BASELINE_DRIFT);
+		if (state.latency > LATENCY_SLACK * Math.max(state.baseline, 1)
+				&& state.lastBatchSize >= state.cap / 2
+				&& state.cap > this.minCap) {
+			state.cap = Math.max(this.minCap,
+					(int) (state.cap * DECREASE_FACTOR));
+			// don't decrease again until the next batch is observed
+			state.lastBatchSize = 0;
+			state.linger /= 2;
+			this.numDecreases++;
+		}
+	}
+
+	/**
+	 * @return Average number of requests per batch so far.
+	 */
+	public synchronized double getAverageBatchSize() {
+		return this.numBatches > 0 ? (double) this.numBatchedRequests
+				/ this.numBatches : 0;
+	}
+
+	/**
+	 * @return Summary metrics.
+	 */
+	public synchronized String getStats() {
+		double capSum = 0, lingerSum = 0;
+		for (GroupState state : this.groups.values()) {
+			capSum += state.cap;
+			lingerSum += state.linger;
+		}
+		int n = Math.max(1, this.groups.size());
+		return "[groups=" + this.groups.size() + ", batches=" + this.numBatches
+				+ ", avgBatch=" + Util.df(this.getAverageBatchSize())
+				+ ", avgCap=" + Util.df(capSum / n) + ", avgLinger="
+				+ Util.df(lingerSum / n) + "ms, increases=" + this.numIncreases
+				+ ", decreases=" + this.numDecreases + "]";
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + this.getStats();
+	}
+
+	/**
+	 * Unit tests for {@link AdaptiveBatchController}.
+	 */
+	public static class AdaptiveBatchControllerTest extends DefaultTest {
+		/**
+		 *
+		 */
+		@Test
+		public void testLightLoadHasNoLinger() {
+			AdaptiveBatchController abc = new AdaptiveBatchController(1, 2000,
+					10, 0.1);
+			for (int i = 0; i < 100; i++) {
+				abc.agreed("g", 5);
+				abc.batched("g", 1, 0);
+			}
+			Assert.assertEquals(0, abc.getLinger("g"), 0);
+			Assert.assertEquals(2000, abc.getBatchCap("g"));
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testLingerBoundedByLatency() {
+			AdaptiveBatchController abc = new AdaptiveBatchController(1, 2000,
+					10, 0.1);
+			for (int i = 0; i < 1000; i++) {
+				abc.agreed("g", 5);
+				abc.batched("g", 10, 0);
+			}
+			Assert.assertEquals(0.5, abc.getLinger("g"), 1e-9);
+			// backlog halves linger
+			abc.batched("g", 10, 5);
+			Assert.assertEquals(0.25, abc.getLinger("g"), 1e-9);
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testAIMD() {
+			AdaptiveBatchController abc = new AdaptiveBatchController(1, 640,
+					10, 0.1);
+			abc.agreed("g", 5);
+			// big batches coinciding with inflated latency shrink the cap
+			abc.batched("g", 640, 0);
+			for (int i = 0; i < 10; i++)
+				abc.agreed("g", 50);
+			Assert.assertEquals(320, abc.getBatchCap("g"));
+			// backlog at the cap increases it additively
+			abc.batched("g", 320, 100);
+			Assert.assertEquals(330, abc.getBatchCap("g"));
+			// cap is not binding, so no increase
+			abc.batched("g", 100, 100);
+			Assert.assertEquals(330, abc.getBatchCap("g"));
+			// other groups are unaffected
+			Assert.assertEquals(640, abc.getBatchCap("h"));
+		}
+	}
+}
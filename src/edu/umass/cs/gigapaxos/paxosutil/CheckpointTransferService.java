@@ -0,0 +1,805 @@
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.PaxosConfig;
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.PaxosManager;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Serves and fetches large checkpoint files in fixed-size chunks.
+ *
+ *         The server streams each requested chunk from the file directly to
+ *         the socket using {@link FileChannel#transferTo}, and a fetcher
+ *         reuses one connection for all of the chunks it fetches from a
+ *         source. A fetch first obtains the size and per-chunk CRC32 checksums
+ *         of the file from every source and keeps only the sources with
+ *         identical copies. It then fetches chunks in parallel from those
+ *         sources into a ".part" file and verifies each chunk as it arrives.
+ *         If a source fails in the middle of a chunk, the rest of the chunk is
+ *         fetched from the offset reached using another source. Chunks already
+ *         present in a ".part" file left behind by an earlier failed fetch are
+ *         not fetched again.
+ */
+public class CheckpointTransferService {
+
+	static {
+		PaxosConfig.load();
+	}
+
+	private static final byte STAT = 1;
+	private static final byte GET = 2;
+
+	private static final String PART_SUFFIX = ".part";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_CACHED_CHECKSUMS = 1024;
+	// per chunk, on top of one attempt per source
+	private static final int MAX_CHUNK_RETRIES = 3;
+
+	private static final int CHUNK_SIZE = Config
+			.getGlobalInt(PC.LARGE_CHECKPOINT_CHUNK_SIZE);
+	private static final int FETCH_PARALLELISM = Config
+			.getGlobalInt(PC.LARGE_CHECKPOINT_FETCH_PARALLELISM);
+	private static final int TRANSFER_TIMEOUT = Config
+			.getGlobalInt(PC.LARGE_CHECKPOINT_TRANSFER_TIMEOUT);
+
+	private static final ExecutorService fetchers = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = Executors.defaultThreadFactory()
+							.newThread(r);
+					thread.setName(CheckpointTransferService.class
+							.getSimpleName() + ":fetcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private static Logger log = PaxosManager.getLogger();
+
+	private final ServerSocketChannel serverChannel;
+	private final InetSocketAddress listeningAddress;
+	private final ExecutorService executor;
+	private final Object fileLock;
+	private final String myID;
+	private final ConcurrentHashMap<String, Checksums> checksums = new ConcurrentHashMap<String, Checksums>();
+	private volatile boolean closed = false;
+
+	/**
+	 * @param bindAddress
+	 * @param fileLock
+	 *            Lock held by the owner while deleting checkpoint files. It is
+	 *            held here only while opening a requested file as an open file
+	 *            can still be read after it is deleted.
+	 * @param myID
+	 * @throws IOException
+	 */
+	public CheckpointTransferService(InetSocketAddress bindAddress,
+			Object fileLock, final String myID) throws IOException {
+		this.fileLock = fileLock != null ? fileLock : this;
+		this.myID = myID;
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = Executors.defaultThreadFactory().newThread(r);
+				thread.setName(CheckpointTransferService.class.getSimpleName()
+						+ ":" + myID);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(bindAddress);
+		this.listeningAddress = (InetSocketAddress) this.serverChannel
+				.getLocalAddress();
+		this.executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	/**
+	 * @return The address at which checkpoints are served.
+	 */
+	public InetSocketAddress getListeningAddress() {
+		return this.listeningAddress;
+	}
+
+	/**
+	 *
+	 */
+	public void close() {
+		this.closed = true;
+		try {
+			this.serverChannel.close();
+		} catch (IOException e) {
+			log.severe(this + " unable to close server socket");
+			e.printStackTrace();
+		}
+		this.executor.shutdownNow();
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + this.myID;
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = null;
+			while ((channel = this.serverChannel.accept()) != null) {
+				final SocketChannel accepted = channel;
+				this.executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						serve(accepted);
+					}
+				});
+			}
+		} catch (IOException e) {
+			if (!this.closed) {
+				log.severe(this
+						+ " incurred IOException while accepting checkpoint transfer requests");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// serves requests on a connection until the fetcher closes it
+	private void serve(SocketChannel channel) {
+		FileChannel file = null;
+		String openFilename = null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(channel)));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)));
+			while (!this.closed) {
+				byte op = 0;
+				try {
+					op = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				String filename = in.readUTF();
+				if (op == STAT) {
+					Checksums sums = this.getChecksums(filename, in.readInt());
+					out.writeLong(sums != null ? sums.size : -1);
+					if (sums != null) {
+						out.writeInt(sums.crcs.length);
+						for (int crc : sums.crcs)
+							out.writeInt(crc);
+					}
+					out.flush();
+				} else if (op == GET) {
+					long offset = in.readLong();
+					long length = in.readLong();
+					if (!filename.equals(openFilename)) {
+						cleanup(file);
+						file = this.open(openFilename = filename);
+					}
+					length = file != null ? Math.max(0,
+							Math.min(length, file.size() - offset)) : -1;
+					out.writeLong(length);
+					out.flush();
+					for (long sent = 0; sent < length;)
+						sent += file.transferTo(offset + sent, length - sent,
+								channel);
+				} else
+					throw new IOException("Unknown checkpoint transfer request "
+							+ op);
+			}
+		} catch (IOException e) {
+			if (!this.closed)
+				log.log(Level.INFO,
+						"{0} aborting checkpoint transfer to {1}: {2}",
+						new Object[] { this, channel.socket().getRemoteSocketAddress(),
+								e.getMessage() });
+		} finally {
+			cleanup(file);
+			cleanup(channel);
+		}
+	}
+
+	// synchronized to prevent concurrent file delete
+	private FileChannel open(String filename) throws IOException {
+		synchronized (this.fileLock) {
+			if (!new File(filename).exists())
+				return null;
+			return FileChannel.open(new File(filename).toPath(),
+					StandardOpenOption.READ);
+		}
+	}
+
+	private static class Checksums {
+		final long size;
+		final long lastModified;
+		final int chunkSize;
+		final int[] crcs;
+
+		Checksums(long size, long lastModified, int chunkSize, int[] crcs) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.chunkSize = chunkSize;
+			this.crcs = crcs;
+		}
+	}
+
+	// checkpoint files are immutable, so checksums are computed only once
+	private Checksums getChecksums(String filename, int chunkSize)
+			throws IOException {
+		if (chunkSize <= 0)
+			throw new IOException("Invalid chunk size " + chunkSize);
+		File f = new File(filename);
+		Checksums sums = this.checksums.get(filename);
+		if (sums != null && sums.chunkSize == chunkSize
+				&& sums.size == f.length()
+				&& sums.lastModified == f.lastModified())
+			return sums;
+		FileChannel file = this.open(filename);
+		if (file == null) {
+			this.checksums.remove(filename);
+			return null;
+		}
+		try {
+			long lastModified = f.lastModified();
+			long size = file.size();
+			int[] crcs = checksum(file, size, chunkSize);
+			if (this.checksums.size() >= MAX_CACHED_CHECKSUMS)
+				this.checksums.clear();
+			this.checksums.put(filename, sums = new Checksums(size,
+					lastModified, chunkSize, crcs));
+			return sums;
+		} finally {
+			cleanup(file);
+		}
+	}
+
+	private static int numChunks(long size, int chunkSize) {
+		return (int) ((size + chunkSize - 1) / chunkSize);
+	}
+
+	private static int[] checksum(FileChannel file, long size, int chunkSize)
+			throws IOException {
+		int[] crcs = new int[numChunks(size, chunkSize)];
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		for (int i = 0; i < crcs.length; i++)
+			crcs[i] = checksum(file, i * (long) chunkSize,
+					Math.min(chunkSize, size - i * (long) chunkSize), buf);
+		return crcs;
+	}
+
+	private static int checksum(FileChannel file, long offset, long length,
+			ByteBuffer buf) throws IOException {
+		CRC32 crc = new CRC32();
+		for (long pos = offset; pos < offset + length;) {
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), offset + length - pos));
+			int nread = file.read(buf, pos);
+			if (nread < 0)
+				throw new EOFException(offset + length - pos
+						+ " bytes short of expected length");
+			pos += nread;
+			buf.flip();
+			crc.update(buf);
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * A file at a replica that serves it.
+	 */
+	public static class Source {
+		final InetSocketAddress address;
+		final String filename;
+
+		/**
+		 * @param address
+		 * @param filename
+		 */
+		public Source(InetSocketAddress address, String filename) {
+			this.address = address;
+			this.filename = filename;
+		}
+
+		public String toString() {
+			return this.address + ":" + this.filename;
+		}
+	}
+
+	private static class Stat {
+		final long size;
+		final int[] crcs;
+
+		Stat(long size, int[] crcs) {
+			this.size = size;
+			this.crcs = crcs;
+		}
+
+		boolean sameContent(Stat stat) {
+			return this.size == stat.size && Arrays.equals(this.crcs, stat.crcs);
+		}
+	}
+
+	// a connection used by one fetcher thread at a time
+	private static class Connection {
+		final Source source;
+		final Socket sock;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		Connection(Source source) throws IOException {
+			this.source = source;
+			this.sock = new Socket();
+			try {
+				this.sock.connect(source.address, TRANSFER_TIMEOUT);
+				this.sock.setSoTimeout(TRANSFER_TIMEOUT);
+				this.in = new DataInputStream(new BufferedInputStream(
+						this.sock.getInputStream(), BUFFER_SIZE));
+				this.out = new DataOutputStream(new BufferedOutputStream(
+						this.sock.getOutputStream()));
+			} catch (IOException e) {
+				this.close();
+				throw e;
+			}
+		}
+
+		Stat stat(int chunkSize) throws IOException {
+			this.out.writeByte(STAT);
+			this.out.writeUTF(this.source.filename);
+			this.out.writeInt(chunkSize);
+			this.out.flush();
+			long size = this.in.readLong();
+			if (size < 0)
+				return null;
+			int[] crcs = new int[this.in.readInt()];
+			if (crcs.length != numChunks(size, chunkSize))
+				throw new IOException(this.source + " returned "
+						+ crcs.length + " checksums for " + size + " bytes");
+			for (int i = 0; i < crcs.length; i++)
+				crcs[i] = this.in.readInt();
+			return new Stat(size, crcs);
+		}
+
+		// fetches the rest of chunk into file
+		void get(Chunk chunk, FileChannel file, byte[] buf) throws IOException {
+			long length = chunk.length - chunk.received;
+			this.out.writeByte(GET);
+			this.out.writeUTF(this.source.filename);
+			this.out.writeLong(chunk.offset + chunk.received);
+			this.out.writeLong(length);
+			this.out.flush();
+			long available = this.in.readLong();
+			if (available != length)
+				throw new IOException(this.source + " returned " + available
+						+ " bytes instead of " + length);
+			while (chunk.received < chunk.length) {
+				int nread = this.in.read(buf, 0,
+						(int) Math.min(buf.length, chunk.length - chunk.received));
+				if (nread < 0)
+					throw new EOFException(this.source + " closed connection");
+				ByteBuffer bbuf = ByteBuffer.wrap(buf, 0, nread);
+				for (long pos = chunk.offset + chunk.received; bbuf
+						.hasRemaining();)
+					pos += file.write(bbuf, pos);
+				chunk.crc.update(buf, 0, nread);
+				chunk.received += nread;
+			}
+		}
+
+		void close() {
+			try {
+				this.sock.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	// progress survives a failed source so that another one can resume it
+	private static class Chunk {
+		final int index;
+		final long offset;
+		final long length;
+		CRC32 crc = new CRC32();
+		long received = 0;
+		int attempts = 0;
+
+		Chunk(int index, long offset, long length) {
+			this.index = index;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		void reset() {
+			this.crc = new CRC32();
+			this.received = 0;
+		}
+	}
+
+	/**
+	 * Fetches the file from {@code sources} to {@code localFilename}. All
+	 * sources are expected to have identical copies of the file, and sources
+	 * whose copies differ from the first responding source are not used.
+	 *
+	 * @param sources
+	 * @param fileSize
+	 *            Expected file size, or -1 if unknown.
+	 * @param localFilename
+	 * @return True if the file was fetched and its checksums verified.
+	 */
+	public static boolean fetch(List<Source> sources, long fileSize,
+			String localFilename) {
+		return fetch(sources, fileSize, localFilename, CHUNK_SIZE,
+				FETCH_PARALLELISM);
+	}
+
+	static boolean fetch(List<Source> sources, long fileSize,
+			String localFilename, final int chunkSize, int parallelism) {
+		final List<StatConnection> conns = stat(sources, fileSize, chunkSize);
+		if (conns.isEmpty()) {
+			log.log(Level.WARNING,
+					"{0} found no source with {1} bytes for {2} among {3}",
+					new Object[] {
+							CheckpointTransferService.class.getSimpleName(),
+							fileSize, localFilename, sources });
+			return false;
+		}
+		final Stat stat = conns.get(0).stat;
+		File part = new File(localFilename + PART_SUFFIX);
+		part.getAbsoluteFile().getParentFile().mkdirs();
+		RandomAccessFile raf = null;
+		boolean fetched = false;
+		try {
+			raf = new RandomAccessFile(part, "rw");
+			final FileChannel file = raf.getChannel();
+
+			final LinkedBlockingQueue<Chunk> pending = new LinkedBlockingQueue<Chunk>();
+			byte[] buf = new byte[BUFFER_SIZE];
+			for (int i = 0; i < stat.crcs.length; i++) {
+				long offset = i * (long) chunkSize;
+				Chunk chunk = new Chunk(i, offset, Math.min(chunkSize,
+						stat.size - offset));
+				// left behind by an earlier attempt
+				if (file.size() < offset + chunk.length
+						|| checksum(file, offset, chunk.length,
+								ByteBuffer.wrap(buf)) != stat.crcs[i])
+					pending.add(chunk);
+			}
+			raf.setLength(stat.size);
+			if (pending.size() < stat.crcs.length)
+				log.log(Level.INFO,
+						"{0} resuming fetch of {1} with {2}/{3} chunks left",
+						new Object[] {
+								CheckpointTransferService.class.getSimpleName(),
+								localFilename, pending.size(),
+								stat.crcs.length });
+
+			final AtomicInteger remaining = new AtomicInteger(pending.size());
+			final AtomicBoolean failed = new AtomicBoolean(false);
+			final int maxAttempts = conns.size() + MAX_CHUNK_RETRIES;
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < Math.min(Math.max(parallelism, 1),
+					pending.size()); i++) {
+				final int first = i;
+				futures.add(fetchers.submit(new Runnable() {
+					@Override
+					public void run() {
+						fetchChunks(conns, first, file, pending, remaining,
+								failed, maxAttempts);
+					}
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+
+			if (remaining.get() == 0) {
+				file.force(false);
+				raf.close();
+				raf = null;
+				Files.move(part.toPath(), new File(localFilename).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				fetched = true;
+			}
+		} catch (IOException | InterruptedException | ExecutionException e) {
+			log.severe(CheckpointTransferService.class.getSimpleName()
+					+ " unable to fetch " + localFilename + " from " + sources
+					+ ": " + e);
+		} finally {
+			cleanup(raf);
+			for (Connection conn : conns)
+				conn.close();
+		}
+		return fetched;
+	}
+
+	private static class StatConnection extends Connection {
+		Stat stat;
+
+		StatConnection(Source source) throws IOException {
+			super(source);
+		}
+	}
+
+	// returns connections to sources with identical copies
+	private static List<StatConnection> stat(List<Source> sources,
+			long fileSize, final int chunkSize) {
+		List<Future<StatConnection>> futures = new ArrayList<Future<StatConnection>>();
+		for (final Source source : sources)
+			futures.add(fetchers.submit(new Callable<StatConnection>() {
+				@Override
+				public StatConnection call() throws IOException {
+					StatConnection conn = new StatConnection(source);
+					try {
+						conn.stat = conn.stat(chunkSize);
+					} catch (IOException e) {
+						conn.close();
+						throw e;
+					}
+					return conn;
+				}
+			}));
+		List<StatConnection> conns = new ArrayList<StatConnection>();
+		Stat first = null;
+		for (int i = 0; i < futures.size(); i++) {
+			StatConnection conn = null;
+			try {
+				conn = futures.get(i).get();
+			} catch (InterruptedException | ExecutionException e) {
+				log.log(Level.INFO, "{0} unable to reach {1}: {2}",
+						new Object[] {
+								CheckpointTransferService.class.getSimpleName(),
+								sources.get(i), e.getMessage() });
+				continue;
+			}
+			if (conn.stat != null
+					&& (fileSize < 0 || conn.stat.size == fileSize)
+					&& (first == null || first.sameContent(conn.stat))) {
+				first = (first == null ? conn.stat : first);
+				conns.add(conn);
+			} else {
+				log.log(Level.INFO,
+						"{0} not fetching from {1} as its copy is missing or different",
+						new Object[] {
+								CheckpointTransferService.class.getSimpleName(),
+								conn.source });
+				conn.close();
+			}
+		}
+		return conns;
+	}
+
+	/* Fetches chunks starting with conns[first], moving on to the next source
+	 * when the current one fails, until no chunks remain or all sources have
+	 * failed. */
+	private static void fetchChunks(List<StatConnection> conns, int first,
+			FileChannel file, LinkedBlockingQueue<Chunk> pending,
+			AtomicInteger remaining, AtomicBoolean failed, int maxAttempts) {
+		byte[] buf = new byte[BUFFER_SIZE];
+		int[] expected = conns.get(0).stat.crcs;
+		Connection conn = null;
+		for (int i = 0; i < conns.size() && remaining.get() > 0
+				&& !failed.get();) {
+			Source source = conns.get((first + i) % conns.size()).source;
+			try {
+				// the first round uses the connections opened by stat
+				if (conn == null)
+					conn = first < conns.size() ? conns.get(first)
+							: new Connection(source);
+				Chunk chunk = null;
+				while (remaining.get() > 0 && !failed.get())
+					if ((chunk = pending.poll(100, TimeUnit.MILLISECONDS)) != null) {
+						try {
+							conn.get(chunk, file, buf);
+						} catch (IOException e) {
+							requeue(chunk, pending, failed, maxAttempts);
+							throw e;
+						}
+						if ((int) chunk.crc.getValue() == expected[chunk.index])
+							remaining.decrementAndGet();
+						else {
+							log.log(Level.WARNING,
+									"{0} got chunk {1} of {2} with wrong checksum",
+									new Object[] {
+											CheckpointTransferService.class
+													.getSimpleName(),
+											chunk.index, source });
+							chunk.reset();
+							requeue(chunk, pending, failed, maxAttempts);
+						}
+					}
+			} catch (IOException e) {
+				log.log(Level.INFO,
+						"{0} switching from failed source {1}: {2}",
+						new Object[] {
+								CheckpointTransferService.class.getSimpleName(),
+								source, e.getMessage() });
+				if (conn != null)
+					conn.close();
+				conn = null;
+				// later rounds open new connections
+				first = first + conns.size();
+				i++;
+			} catch (InterruptedException e) {
+				failed.set(true);
+			}
+		}
+		if (conn != null && !conns.contains(conn))
+			conn.close();
+	}
+
+	private static void requeue(Chunk chunk,
+			LinkedBlockingQueue<Chunk> pending, AtomicBoolean failed,
+			int maxAttempts) {
+		if (++chunk.attempts > maxAttempts)
+			failed.set(true);
+		else
+			pending.add(chunk);
+	}
+
+	private static void cleanup(java.io.Closeable closeable) {
+		try {
+			if (closeable != null)
+				closeable.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class CheckpointTransferServiceTest extends DefaultTest {
+
+		private static final String DIR = "/tmp/"
+				+ CheckpointTransferService.class.getSimpleName() + "Test/";
+
+		private static String createFile(String filename, int size, long seed)
+				throws IOException {
+			byte[] bytes = new byte[size];
+			new Random(seed).nextBytes(bytes);
+			new File(DIR).mkdirs();
+			FileOutputStream fos = new FileOutputStream(DIR + filename);
+			fos.write(bytes);
+			fos.close();
+			return DIR + filename;
+		}
+
+		private static Source source(CheckpointTransferService service,
+				String filename) {
+			return new Source(new InetSocketAddress("localhost", service
+					.getListeningAddress().getPort()), filename);
+		}
+
+		private static boolean sameContent(String f1, String f2)
+				throws IOException {
+			return Arrays.equals(Files.readAllBytes(new File(f1).toPath()),
+					Files.readAllBytes(new File(f2).toPath()));
+		}
+
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void test_parallelFetch() throws IOException {
+			CheckpointTransferService s1 = new CheckpointTransferService(
+					new InetSocketAddress(0), null, "1");
+			CheckpointTransferService s2 = new CheckpointTransferService(
+					new InetSocketAddress(0), null, "2");
+			try {
+				// binary content with newlines and a partial last chunk
+				String f1 = createFile("f1", 100 * 1000 + 17, 1);
+				String f2 = createFile("f2", 100 * 1000 + 17, 1);
+				String bad = createFile("bad", 100 * 1000 + 17, 2);
+				List<Source> sources = Arrays.asList(source(s1, f1),
+						source(s2, f2), source(s2, bad), source(s1, DIR
+								+ "missing"));
+				Assert.assertTrue(fetch(sources, new File(f1).length(), DIR
+						+ "local", 4096, 4));
+				Assert.assertTrue(sameContent(f1, DIR + "local"));
+				Assert.assertFalse(new File(DIR + "local" + PART_SUFFIX)
+						.exists());
+
+				// wrong size or no copies
+				Assert.assertFalse(fetch(sources, 10, DIR + "local2", 4096, 4));
+				Assert.assertFalse(fetch(Arrays.asList(source(s1, DIR
+						+ "missing")), -1, DIR + "local2", 4096, 4));
+				Assert.assertFalse(new File(DIR + "local2").exists());
+
+				// empty file
+				createFile("empty", 0, 1);
+				Assert.assertTrue(fetch(
+						Arrays.asList(source(s1, DIR + "empty")), 0, DIR
+								+ "local3", 4096, 4));
+				Assert.assertEquals(0, new File(DIR + "local3").length());
+			} finally {
+				s1.close();
+				s2.close();
+				Util.recursiveRemove(new File(DIR));
+			}
+		}
+
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void test_resume() throws IOException {
+			CheckpointTransferService s1 = new CheckpointTransferService(
+					new InetSocketAddress(0), null, "1");
+			try {
+				String f1 = createFile("f1", 64 * 1024, 3);
+				// partial fetch with one corrupt chunk
+				byte[] bytes = Files.readAllBytes(new File(f1).toPath());
+				bytes = Arrays.copyOf(bytes, bytes.length / 2);
+				bytes[100] ^= 1;
+				Files.write(new File(DIR + "local" + PART_SUFFIX).toPath(),
+						bytes);
+				Assert.assertTrue(fetch(Arrays.asList(source(s1, f1)),
+						new File(f1).length(), DIR + "local", 4096, 2));
+				Assert.assertTrue(sameContent(f1, DIR + "local"));
+
+				// unreachable sources are skipped
+				s1.close();
+				CheckpointTransferService s2 = new CheckpointTransferService(
+						new InetSocketAddress(0), null, "2");
+				try {
+					Assert.assertTrue(fetch(Arrays.asList(source(s1, f1),
+							source(s2, f1)), new File(f1).length(), DIR
+							+ "local2", 4096, 2));
+					Assert.assertTrue(sameContent(f1, DIR + "local2"));
+				} finally {
+					s2.close();
+				}
+			} finally {
+				s1.close();
+				Util.recursiveRemove(new File(DIR));
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.interfaces.DeltaCheckpointReplicable;
+import edu.umass.cs.gigapaxos.interfaces.Replicable;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Restoration of checkpoint state for {@link DeltaCheckpointReplicable}
+ * applications. The logger stores deltas separately from the full checkpoint
+ * of a paxos group and returns them alongside it in
+ * {@link SlotBallotState#deltas}, which checkpoint transfer carries in
+ * {@link edu.umass.cs.gigapaxos.paxospackets.StatePacket#deltas}.
+ */
+public class DeltaCheckpoint {
+
+	/**
+	 * Resets the state of {@code name} to {@code state} followed by
+	 * {@code deltas}.
+	 *
+	 * @param app
+	 *            Restores full checkpoints.
+	 * @param deltaApp
+	 *            Restores deltas, or null if the app does not support deltas.
+	 * @param name
+	 * @param state
+	 * @param deltas
+	 *            Deltas in order on top of {@code state}, or null if none.
+	 * @return True if restored successfully.
+	 */
+	public static boolean restore(Replicable app,
+			DeltaCheckpointReplicable deltaApp, String name, String state,
+			List<String> deltas) {
+		if (!app.restore(name, state))
+			return false;
+		if (deltas == null || deltas.isEmpty())
+			return true;
+		if (deltaApp == null)
+			throw new RuntimeException(app.getClass().getSimpleName()
+					+ " is not a " + DeltaCheckpointReplicable.class.getSimpleName()
+					+ " but got delta checkpoints for " + name);
+		for (String delta : deltas)
+			if (!deltaApp.restoreDelta(name, delta))
+				return false;
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	public static class DeltaCheckpointTest extends DefaultTest {
+
+		// state is the concatenation of all deltas
+		private static class AppendApp implements DeltaCheckpointReplicable {
+			String state = null;
+
+			@Override
+			public boolean execute(Request request) {
+				return true;
+			}
+
+			@Override
+			public Request getRequest(String stringified)
+					throws RequestParseException {
+				return null;
+			}
+
+			@Override
+			public Set<IntegerPacketType> getRequestTypes() {
+				return null;
+			}
+
+			@Override
+			public boolean execute(Request request, boolean doNotReplyToClient) {
+				return true;
+			}
+
+			@Override
+			public String checkpoint(String name) {
+				return state;
+			}
+
+			@Override
+			public boolean restore(String name, String state) {
+				this.state = state;
+				return true;
+			}
+
+			@Override
+			public String checkpointDelta(String name) {
+				return null;
+			}
+
+			@Override
+			public boolean restoreDelta(String name, String delta) {
+				this.state = (this.state != null ? this.state : "") + delta;
+				return true;
+			}
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testRestore() {
+			AppendApp app = new AppendApp();
+			Assert.assertTrue(restore(app, app, "name", "ba:se",
+					Arrays.asList("1:", "", "#deltas#3")));
+			Assert.assertEquals("ba:se1:#deltas#3", app.state);
+
+			// null base
+			Assert.assertTrue(restore(app, app, "name", null,
+					Arrays.asList("x", "y")));
+			Assert.assertEquals("xy", app.state);
+
+			// no deltas need no delta app
+			Assert.assertTrue(restore(app, null, "name", "plain", null));
+			Assert.assertEquals("plain", app.state);
+			Assert.assertTrue(restore(app, null, "name", "plain2",
+					new ArrayList<String>()));
+			Assert.assertEquals("plain2", app.state);
+		}
+
+		/**
+		 *
+		 */
+		@Test(expected = RuntimeException.class)
+		public void testDeltasWithoutDeltaApp() {
+			AppendApp app = new AppendApp();
+			restore(app, null, "name", "base", Arrays.asList("x"));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * @author arun
+ *
+ *         A minimal key-value storage engine that
+ *         {@link edu.umass.cs.gigapaxos.SQLPaxosLogger} can use instead of the
+ *         SQL pause tables for paused instance state and logIndexes. Keys are
+ *         ordered as strings so that all keys of a paxos group can be scanned
+ *         with the group's name as a prefix.
+ *         <p>
+ *         Implementations must have a public constructor that takes the
+ *         directory (String) in which to store their files and must be safe
+ *         for concurrent use.
+ */
+public interface KVStore {
+	/**
+	 * @param key
+	 * @return Value most recently put for {@code key}, or null if none.
+	 * @throws IOException
+	 */
+	public byte[] get(String key) throws IOException;
+
+	/**
+	 * @param key
+	 * @param value
+	 *            A null value removes {@code key}.
+	 * @throws IOException
+	 */
+	public void put(String key, byte[] value) throws IOException;
+
+	/**
+	 * Puts all entries as a single batch. Null values remove the
+	 * corresponding keys.
+	 *
+	 * @param batch
+	 * @throws IOException
+	 */
+	public void put(Map<String, byte[]> batch) throws IOException;
+
+	/**
+	 * @param prefix
+	 * @return All entries whose keys start with {@code prefix} in key order.
+	 * @throws IOException
+	 */
+	public SortedMap<String, byte[]> scan(String prefix) throws IOException;
+
+	/**
+	 * Removes all entries.
+	 *
+	 * @throws IOException
+	 */
+	public void clear() throws IOException;
+
+	/**
+	 *
+	 */
+	public void close();
+}
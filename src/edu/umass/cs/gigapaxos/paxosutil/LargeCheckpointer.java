@@ -1,34 +1,28 @@
 package edu.umass.cs.gigapaxos.paxosutil;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -93,9 +87,7 @@ public class LargeCheckpointer {
 
 	private final String checkpointDir;
 	private final String myID;
-	private ServerSocket serverSock;
-	private ScheduledExecutorService executor;
-	private boolean closed = false;
+	private CheckpointTransferService transferService;
 
 	private static Logger log = PaxosManager.getLogger();
 
@@ -121,8 +113,6 @@ public class LargeCheckpointer {
 		this(null, myID);
 	}
 
-	private static final String CHARSET = "ISO-8859-1";
-
 	/**
 	 * {@link Replicable} applications can use this method to fetch the
 	 * checkpoint represented by the handle to a local file
@@ -145,7 +135,28 @@ public class LargeCheckpointer {
 			throw new RuntimeException(
 					"Supplied handle is not a correctly formatted paxos checkpoint handle: "
 							+ handle);
-		return LargeCheckpointer.fetchCheckpoint(handle, localFilename);
+		return LargeCheckpointer.fetchCheckpoint(Arrays.asList(handle),
+				localFilename);
+	}
+
+	/**
+	 * Same as {@link #restoreCheckpointHandle(String, String)} but for
+	 * handles to identical copies of the same checkpoint at different replicas,
+	 * e.g., the final state of an epoch. The checkpoint is fetched in parallel
+	 * from all replicas with the same copy as the first handle.
+	 * 
+	 * @param handles
+	 * @param localFilename
+	 * @return The file holding the checkpoint.
+	 */
+	public static String restoreCheckpointHandles(List<String> handles,
+			String localFilename) {
+		for (String handle : handles)
+			if (!isCheckpointHandle(handle))
+				throw new RuntimeException(
+						"Supplied handle is not a correctly formatted paxos checkpoint handle: "
+								+ handle);
+		return LargeCheckpointer.fetchCheckpoint(handles, localFilename);
 	}
 
 	/**
@@ -192,11 +203,15 @@ public class LargeCheckpointer {
 	 * formatted URL. If so, it returns a local filename. If not, it returns the
 	 * url back as-is.
 	 * 
-	 * @param url
+	 * @param urls
+	 *            Handles to identical copies of the checkpoint, the first of
+	 *            which determines the filename and size.
 	 * @param localFilename
-	 * @return Local filename or url depending on outcome.
+	 * @return Local filename, url, or null if the fetch failed.
 	 */
-	private static String fetchCheckpoint(String url, String localFilename) {
+	private static String fetchCheckpoint(List<String> urls,
+			String localFilename) {
+		String url = urls.get(0);
 		if (url == null)
 			return url;
 		String filename = url;
@@ -214,13 +229,12 @@ public class LargeCheckpointer {
 				 * previously from a remote node. */
 				if (!file.exists())
 					// fetch from remote (possibly localhost)
-					filename = fetchRemoteCheckpoint(
-							Util.getInetSocketAddressFromString(jsonUrl
-									.getString(Keys.ISA3142.toString())),
-							filename,
+					filename = fetchRemoteCheckpoint(getSources(urls),
 							jsonUrl.getLong(Keys.FSIZE6022.toString()),
 							// save with same filename first
 							filename);
+				if (filename == null)
+					return null;
 				// then copy to requested filename
 				if (!filename.equals(localFilename))
 					Files.copy(Paths.get(filename), Paths.get(localFilename),
@@ -234,6 +248,22 @@ public class LargeCheckpointer {
 		return localFilename;
 	}
 
+	private static List<CheckpointTransferService.Source> getSources(
+			List<String> handles) throws JSONException {
+		List<CheckpointTransferService.Source> sources = new ArrayList<CheckpointTransferService.Source>();
+		for (String handle : handles) {
+			JSONObject json = new JSONObject(handle);
+			// unset for handles not yet stowed away
+			InetSocketAddress sockAddr = json.isNull(Keys.ISA3142.toString()) ? null
+					: Util.getInetSocketAddressFromString(json
+							.getString(Keys.ISA3142.toString()));
+			if (sockAddr != null)
+				sources.add(new CheckpointTransferService.Source(sockAddr,
+						json.getString(Keys.FNAME2178.toString())));
+		}
+		return sources;
+	}
+
 	private boolean deleteOldCheckpoints(final String cpDir,
 			final String rcGroupName, int keep) {
 		return LargeCheckpointer.deleteOldCheckpoints(cpDir, rcGroupName, keep,
@@ -330,58 +360,20 @@ public class LargeCheckpointer {
 	}
 
 	/**
-	 * Helper function for getRemoteCheckpoint above that actually fetches the
-	 * reads from the socket and writes to a local file.
+	 * Helper function for fetchCheckpoint above that actually fetches the file
+	 * from the remote replicas using {@link CheckpointTransferService}.
 	 * 
-	 * @param paxosID
-	 * @param sockAddr
-	 * @param remoteFilename
+	 * @param sources
 	 * @param fileSize
-	 * @return
+	 * @param localFilename
+	 * @return Local filename, or null if the fetch failed.
 	 */
-	private static String fetchRemoteCheckpoint(InetSocketAddress sockAddr,
-			String remoteFilename, long fileSize, String localFilename) {
+	private static String fetchRemoteCheckpoint(
+			List<CheckpointTransferService.Source> sources, long fileSize,
+			String localFilename) {
 		synchronized (stringLocker.get(localFilename)) {
-			String request = remoteFilename + "\n";
-			Socket sock = null;
-			FileOutputStream fos = null;
-			try {
-				sock = new Socket(sockAddr.getAddress(), sockAddr.getPort());
-				sock.getOutputStream().write(request.getBytes(CHARSET));
-				InputStream inStream = (sock.getInputStream());
-				if (!createCheckpointFile(localFilename))
-					return null;
-				fos = new FileOutputStream(new File(localFilename));
-				byte[] buf = new byte[1024];
-				int nread = 0;
-				int nTotalRead = 0;
-				// read from sock, write to file
-				while ((nread = inStream.read(buf)) >= 0) {
-					/* FIXME: need to ensure that the read won't block forever
-					 * if the remote endpoint crashes ungracefully and there is
-					 * no exception triggered here. */
-					nTotalRead += nread;
-					fos.write(buf, 0, nread);
-				}
-				// check exact expected file size
-				if (nTotalRead != fileSize) {
-					new File(localFilename).delete();
-					localFilename = null;
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-				localFilename = null;
-			} finally {
-				try {
-					if (fos != null)
-						fos.close();
-					if (sock != null)
-						sock.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			return localFilename;
+			return CheckpointTransferService.fetch(sources, fileSize,
+					localFilename) ? localFilename : null;
 		}
 	}
 
@@ -394,20 +386,6 @@ public class LargeCheckpointer {
 				+ System.currentTimeMillis();
 	}
 
-	private static boolean createCheckpointFile(String filename) {
-		synchronized (stringLocker.get(filename)) {
-			File file = new File(filename);
-			try {
-				if (file.getParentFile().mkdirs())
-					file.createNewFile(); // will create only if not exists
-			} catch (IOException e) {
-				log.severe("Unable to create checkpoint file for " + filename);
-				e.printStackTrace();
-			}
-			return (file.exists());
-		}
-	}
-
 	public String toString() {
 		return this.getClass().getSimpleName() + myID;
 	}
@@ -432,7 +410,7 @@ public class LargeCheckpointer {
 		this.deleteOldCheckpoints(getCheckpointDir(), name, 4);
 
 		json.put(Keys.ISA3142.toString(),
-				this.serverSock.getLocalSocketAddress());
+				this.transferService.getListeningAddress());
 		json.put(Keys.FNAME2178.toString(), newFilename);
 		return json.toString();
 	}
@@ -450,26 +428,12 @@ public class LargeCheckpointer {
 
 	// /////// Start of file system checkpoint methods and classes /////////
 
-	private static final int THREAD_POOL_SIZE = 4;
-
-	// opens the server thread for file system based checkpoints
+	// opens the server for file system based checkpoints
 	private boolean initCheckpointServer() {
-		this.executor = Executors.newScheduledThreadPool(THREAD_POOL_SIZE,
-				new ThreadFactory() {
-					@Override
-					public Thread newThread(Runnable r) {
-						Thread thread = Executors.defaultThreadFactory()
-								.newThread(r);
-						thread.setName(LargeCheckpointer.class.getSimpleName()
-								+ ":" + myID);
-						return thread;
-					}
-				});
-
 		try {
-			this.serverSock = new ServerSocket();
-			this.serverSock.bind(new InetSocketAddress(0));
-			executor.submit(new CheckpointServer());
+			// deleteFile synchronizes on this
+			this.transferService = new CheckpointTransferService(
+					new InetSocketAddress(0), this, myID);
 			return true;
 		} catch (IOException e) {
 			log.severe(this
@@ -479,43 +443,12 @@ public class LargeCheckpointer {
 		return false;
 	}
 
-	// spawns off a new thread to process file system based checkpoint request
-	private class CheckpointServer implements Runnable {
-
-		@Override
-		public void run() {
-			Socket sock = null;
-			try {
-				while ((sock = LargeCheckpointer.this.serverSock.accept()) != null) {
-					executor.submit(new CheckpointTransporter(sock));
-					// (new Thread(new CheckpointTransporter(sock))).start();
-				}
-			} catch (IOException e) {
-				if (!isClosed()) {
-					log.severe(myID
-							+ " incurred IOException while processing checkpoint transfer request");
-					e.printStackTrace();
-				}
-			}
-		}
-	}
-
-	private boolean isClosed() {
-		return this.closed;
-	}
-
 	/**
 	 * 
 	 */
 	public void close() {
-		this.closed = true;
-		try {
-			this.serverSock.close();
-		} catch (IOException e) {
-			log.severe(this + " unable to close server socket");
-			e.printStackTrace();
-		}
-		this.executor.shutdownNow();
+		if (this.transferService != null)
+			this.transferService.close();
 	}
 
 	// use with care
@@ -524,66 +457,12 @@ public class LargeCheckpointer {
 		this.close();
 	}
 
-	// sends a requested file system based checkpoint
-	private class CheckpointTransporter implements Runnable {
-
-		final Socket sock;
-
-		CheckpointTransporter(Socket sock) {
-			this.sock = sock;
-		}
-
-		@Override
-		public void run() {
-			transferCheckpoint(sock);
-		}
-	}
-
 	private static boolean deleteHandleFile(String handle) throws JSONException {
 		String filename = new JSONObject(handle).getString(Keys.FNAME2178
 				.toString());
 		return new File(filename).delete();
 	}
 
-	// reads request and transfers requested checkpoint.
-	private static void transferCheckpoint(Socket sock) {
-		{
-			BufferedReader brSock = null, brFile = null;
-			try {
-				brSock = new BufferedReader(new InputStreamReader(
-						sock.getInputStream()));
-				// first and only line is request
-				String request = brSock.readLine();
-
-				// synchronized to prevent concurrent file delete
-				synchronized (stringLocker.get(request)) {
-					if ((new File(request).exists())) {
-						// request is filename
-						brFile = new BufferedReader(new InputStreamReader(
-								new FileInputStream(request)));
-						// file successfully open if here
-						OutputStream outStream = sock.getOutputStream();
-						String line = null; // each line is a record
-						while ((line = brFile.readLine()) != null)
-							outStream.write(line.getBytes(CHARSET));
-						outStream.close();
-					}
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				try {
-					if (brSock != null)
-						brSock.close();
-					if (brFile != null)
-						brFile.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-	}
-
 	static class TestReplicable implements Replicable {
 
 		Map<String, String> states = new HashMap<String, String>();
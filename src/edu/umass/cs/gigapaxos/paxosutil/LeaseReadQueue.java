@@ -0,0 +1,167 @@
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Lease reads waiting, by paxosID, for decisions up to their read slot to be
+ * executed. A read received by a leased coordinator can be executed locally
+ * only after every request committed before its receipt has been executed,
+ * i.e., after the slot returned by the coordinator's lease has been executed.
+ *
+ * @param <ReadType>
+ */
+public class LeaseReadQueue<ReadType> {
+
+	private static class LeaseRead<ReadType> {
+		final int version;
+		final int slot;
+		final ReadType read;
+
+		LeaseRead(int version, int slot, ReadType read) {
+			this.version = version;
+			this.slot = slot;
+			this.read = read;
+		}
+	}
+
+	private final ConcurrentHashMap<String, ArrayList<LeaseRead<ReadType>>> reads = new ConcurrentHashMap<String, ArrayList<LeaseRead<ReadType>>>();
+
+	/**
+	 * @param paxosID
+	 * @param version
+	 * @param slot
+	 *            The slot that must be executed before {@code read}.
+	 * @param read
+	 */
+	public void enqueue(String paxosID, int version, int slot, ReadType read) {
+		ArrayList<LeaseRead<ReadType>> pending = this.reads.get(paxosID);
+		if (pending == null) {
+			ArrayList<LeaseRead<ReadType>> prev = this.reads.putIfAbsent(
+					paxosID, pending = new ArrayList<LeaseRead<ReadType>>());
+			pending = prev != null ? prev : pending;
+		}
+		synchronized (pending) {
+			pending.add(new LeaseRead<ReadType>(version, slot, read));
+		}
+	}
+
+	/**
+	 * Removes and returns reads for {@code paxosID:version} whose read slot
+	 * has been executed. Reads enqueued for other versions are dropped and
+	 * will be retransmitted by clients.
+	 *
+	 * @param paxosID
+	 * @param version
+	 * @param executedSlot
+	 *            The highest slot executed by {@code paxosID:version}.
+	 * @return Reads ready for execution in the order they were enqueued.
+	 */
+	public List<ReadType> dequeueReady(String paxosID, int version,
+			int executedSlot) {
+		ArrayList<ReadType> ready = new ArrayList<ReadType>();
+		ArrayList<LeaseRead<ReadType>> pending = this.reads.get(paxosID);
+		if (pending == null)
+			return ready;
+		synchronized (pending) {
+			for (Iterator<LeaseRead<ReadType>> iter = pending.iterator(); iter
+					.hasNext();) {
+				LeaseRead<ReadType> read = iter.next();
+				// wraparound-aware
+				if (read.version != version || executedSlot - read.slot >= 0) {
+					iter.remove();
+					if (read.version == version)
+						ready.add(read.read);
+				}
+			}
+			if (pending.isEmpty())
+				this.reads.remove(paxosID, pending);
+		}
+		return ready;
+	}
+
+	/**
+	 * Drops all reads for {@code paxosID}.
+	 *
+	 * @param paxosID
+	 */
+	public void remove(String paxosID) {
+		this.reads.remove(paxosID);
+	}
+
+	/**
+	 * @param paxosID
+	 * @return Number of reads waiting for {@code paxosID}.
+	 */
+	public int size(String paxosID) {
+		ArrayList<LeaseRead<ReadType>> pending = this.reads.get(paxosID);
+		if (pending == null)
+			return 0;
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class LeaseReadQueueTest extends DefaultTest {
+		/**
+		 * A read is not ready until its read slot has been executed.
+		 */
+		@Test
+		public void testWaitsForReadSlot() {
+			LeaseReadQueue<String> queue = new LeaseReadQueue<String>();
+			queue.enqueue("name", 0, 5, "read1");
+			queue.enqueue("name", 0, 7, "read2");
+			queue.enqueue("other", 0, 0, "read3");
+			Assert.assertTrue(queue.dequeueReady("name", 0, 4).isEmpty());
+			Assert.assertEquals(2, queue.size("name"));
+			Assert.assertEquals(Arrays.asList("read1"),
+					queue.dequeueReady("name", 0, 5));
+			Assert.assertTrue(queue.dequeueReady("name", 0, 6).isEmpty());
+			Assert.assertEquals(Arrays.asList("read2"),
+					queue.dequeueReady("name", 0, 8));
+			Assert.assertEquals(0, queue.size("name"));
+			Assert.assertEquals(1, queue.size("other"));
+		}
+
+		/**
+		 * Slot comparisons are wraparound-aware.
+		 */
+		@Test
+		public void testWraparound() {
+			LeaseReadQueue<String> queue = new LeaseReadQueue<String>();
+			queue.enqueue("name", 0, Integer.MIN_VALUE + 1, "read");
+			Assert.assertTrue(queue.dequeueReady("name", 0, Integer.MAX_VALUE)
+					.isEmpty());
+			Assert.assertEquals(Arrays.asList("read"),
+					queue.dequeueReady("name", 0, Integer.MIN_VALUE + 1));
+		}
+
+		/**
+		 * Reads enqueued for a different version are dropped.
+		 */
+		@Test
+		public void testDropsStaleVersions() {
+			LeaseReadQueue<String> queue = new LeaseReadQueue<String>();
+			queue.enqueue("name", 0, 5, "stale");
+			queue.enqueue("name", 1, 5, "current");
+			Assert.assertTrue(queue.dequeueReady("name", 1, 0).isEmpty());
+			Assert.assertEquals(1, queue.size("name"));
+			Assert.assertEquals(Arrays.asList("current"),
+					queue.dequeueReady("name", 1, 5));
+			queue.enqueue("name", 1, 5, "killed");
+			queue.remove("name");
+			Assert.assertEquals(0, queue.size("name"));
+		}
+	}
+}
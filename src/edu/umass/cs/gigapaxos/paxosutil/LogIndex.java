@@ -1,14 +1,21 @@
 package edu.umass.cs.gigapaxos.paxosutil;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.junit.Assert;
 import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
@@ -23,39 +30,73 @@ import edu.umass.cs.utils.Pausable;
 /**
  * @author arun
  *
+ *         Index of the logged messages of a paxos group. Entries are packed as
+ *         fixed-size records into a single buffer, on or off the heap, and
+ *         logfile names are interned as ints, so an index consists of a small
+ *         constant number of objects regardless of its number of entries.
+ *         {@link LogIndexEntry} objects are created only when entries are
+ *         read.
  */
 public class LogIndex implements Keyable<String>, Serializable, Pausable {
 
 	/**
-	 * 
+	 *
 	 */
-	private static final long serialVersionUID = 37128037120321945L;
+	private static final long serialVersionUID = 37128037120321946L;
 	/**
-	 * 
+	 *
 	 */
 	public final String paxosID;
 	/**
-	 * 
+	 *
 	 */
 	public final int version;
 
-	private Integer gcSlot = -1;
-	private String minLogfile = null;
+	private int gcSlot = -1;
 	private long lastActive = System.currentTimeMillis();
 
-	private ArrayList<LogIndexEntry> log = null;
+	// interned logfile ids are process-local, so these are serialized by hand
+	private transient int minLogfile = NO_FILE;
+	private transient ByteBuffer entries = null;
+	private transient int size = 0;
+
+	private static final int NO_FILE = -1;
+
+	// record layout
+	private static final int SLOT = 0;
+	private static final int BALLOT_NUM = 4;
+	private static final int BALLOT_COORD = 8;
+	private static final int TYPE = 12;
+	private static final int FILE = 16;
+	private static final int LENGTH = 20;
+	private static final int OFFSET = 24;
+	private static final int ENTRY_SIZE = 32;
+
+	private static final int MIN_CAPACITY = 4;
+
+	/**
+	 * First byte of the binary format returned by {@link #toBytes()}. Differs
+	 * from the first byte of a deflated legacy JSON format.
+	 */
+	public static final byte MAGIC = (byte) 0xB1;
+	private static final byte FORMAT = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final boolean OFF_HEAP = Config
+			.getGlobalBoolean(PC.LOG_INDEX_OFF_HEAP);
 
 	/**
 	 *
 	 */
 	public static class LogIndexEntry implements Serializable {
 		/**
-		 * 
+		 *
 		 */
 		private static final long serialVersionUID = 32189003128411932L;
 
 		/**
-		 * 
+		 *
 		 */
 		public final int slot;
 		final int ballotNum;
@@ -108,6 +149,39 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 		}
 	}
 
+	/*
+	 * Process-wide logfile name table. Logfile names are few and long-lived
+	 * compared to logIndexes, so they are never removed.
+	 */
+	private static class Logfiles {
+		private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+		private static volatile String[] names = new String[64];
+		private static int count = 0;
+
+		static int intern(String logfile) {
+			if (logfile == null)
+				return NO_FILE;
+			Integer id = ids.get(logfile);
+			return id != null ? id : register(logfile);
+		}
+
+		private static synchronized int register(String logfile) {
+			Integer id = ids.get(logfile);
+			if (id != null)
+				return id;
+			if (count == names.length)
+				names = Arrays.copyOf(names, 2 * count);
+			// must be visible in names before its id is published
+			names[count] = logfile;
+			ids.put(logfile, count);
+			return count++;
+		}
+
+		static String name(int id) {
+			return id == NO_FILE ? null : names[id];
+		}
+	}
+
 	/**
 	 * @param paxosID
 	 * @param version
@@ -133,23 +207,27 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 	}
 
 	/**
-	 * 
+	 *
 	 */
-	public void GC() {
-		assert (this.gcSlot != null);
-		if (this.log == null)
+	public synchronized void GC() {
+		if (this.entries == null)
 			return;
-		for (Iterator<LogIndexEntry> entryIter = this.log.iterator(); entryIter
-				.hasNext();) {
-			LogIndexEntry entry = entryIter.next();
-			if (entry.slot - this.gcSlot <= 0)
-				entryIter.remove();
+		int kept = 0;
+		for (int i = 0; i < this.size; i++) {
+			if (this.slot(i) - this.gcSlot <= 0)
+				continue;
+			if (kept != i)
+				this.copy(i, kept);
+			kept++;
 		}
+		this.size = kept;
 		// the only time after initialization when minLogfile is updated
-		if (!this.log.isEmpty())
-			this.minLogfile = this.log.get(0).logfile;
-		else
-			this.minLogfile = null;
+		this.minLogfile = this.size > 0 ? this.file(0) : NO_FILE;
+		// shrink or free the buffer if mostly empty
+		if (this.size == 0)
+			this.entries = null;
+		else if (this.capacity() >= 4 * Math.max(this.size, MIN_CAPACITY))
+			this.resize(2 * this.size);
 	}
 
 	/**
@@ -162,24 +240,35 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 	 * @param length
 	 * @return True if added
 	 */
-	public boolean add(int s, int bnum, int bcoord, int type, String file,
-			long offset, int length) {
-		return this.add(new LogIndexEntry(s, bnum, bcoord, type, file, offset,
-				length));
+	public synchronized boolean add(int s, int bnum, int bcoord, int type,
+			String file, long offset, int length) {
+		if (s - gcSlot <= 0)
+			return false;
+		int fileID = Logfiles.intern(file);
+		if (this.minLogfile == NO_FILE)
+			this.minLogfile = fileID;
+		this.lastActive = System.currentTimeMillis();
+		if (this.entries == null || this.size == this.capacity())
+			this.resize(Math.max(MIN_CAPACITY, 2 * this.size));
+		this.put(this.size++, s, bnum, bcoord, type, fileID, offset, length);
+		return true;
 	}
 
 	/**
 	 * @param cur
 	 * @return True if modified.
 	 */
-	public boolean modify(LogIndexEntry cur) {
-		for (LogIndexEntry entry : this.log) {
-			if (entry.slot == cur.slot && entry.ballotNum == cur.ballotNum
-					&& entry.ballotCoord == cur.ballotCoord
-					&& entry.type == cur.type) {
-				entry.logfile = cur.logfile;
-				entry.offset = cur.offset;
-				entry.length = cur.length;
+	public synchronized boolean modify(LogIndexEntry cur) {
+		for (int i = 0; i < this.size; i++) {
+			if (this.slot(i) == cur.slot
+					&& this.ballotNum(i) == cur.ballotNum
+					&& this.ballotCoord(i) == cur.ballotCoord
+					&& this.type(i) == cur.type) {
+				int base = i * ENTRY_SIZE;
+				this.entries.putInt(base + FILE,
+						Logfiles.intern(cur.logfile));
+				this.entries.putLong(base + OFFSET, cur.offset);
+				this.entries.putInt(base + LENGTH, cur.length);
 				return true;
 			}
 		}
@@ -191,17 +280,8 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 	 * @return True if added
 	 */
 	public boolean add(LogIndexEntry entry) {
-		if (gcSlot == null || entry.slot - gcSlot <= 0)
-			return false;
-		if (this.minLogfile == null)
-			this.minLogfile = entry.logfile;
-		if (this.log == null)
-			this.log = new ArrayList<LogIndexEntry>();
-		this.lastActive = System.currentTimeMillis();
-
-		synchronized (this.log) {
-			return this.log.add(entry);
-		}
+		return this.add(entry.slot, entry.ballotNum, entry.ballotCoord,
+				entry.type, entry.logfile, entry.offset, entry.length);
 	}
 
 	/**
@@ -211,17 +291,22 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 		return this.lastActive;
 	}
 
-	private ArrayList<LogIndexEntry> getLoggedMessages(int minSlot,
-			Integer maxSlot, int type) {
+	/**
+	 * @return Number of indexed messages.
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	private synchronized ArrayList<LogIndexEntry> getLoggedMessages(
+			int minSlot, Integer maxSlot, int type) {
 		ArrayList<LogIndexEntry> messages = new ArrayList<LogIndexEntry>();
-		if (this.log != null)
-			synchronized (this.log) {
-				for (LogIndexEntry entry : this.log)
-					if ((type == -1 || entry.type == type)
-							&& entry.slot - minSlot >= 0
-							&& ((maxSlot == null) || (entry.slot - maxSlot <= 0)))
-						messages.add(entry);
-			}
+		for (int i = 0; i < this.size; i++) {
+			int slot = this.slot(i);
+			if ((type == -1 || this.type(i) == type) && slot - minSlot >= 0
+					&& ((maxSlot == null) || (slot - maxSlot <= 0)))
+				messages.add(this.getEntry(i));
+		}
 		return messages;
 	}
 
@@ -251,46 +336,46 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 	/**
 	 * @return Set of all logfiles from which messages are indexed.
 	 */
-	public Set<String> getLogfiles() {
+	public synchronized Set<String> getLogfiles() {
 		Set<String> logfiles = new HashSet<String>();
-		if (this.log != null)
-			for (LogIndexEntry entry : this.log)
-				logfiles.add(entry.logfile);
+		for (int i = 0; i < this.size; i++)
+			logfiles.add(Logfiles.name(this.file(i)));
 		return logfiles;
 	}
 
 	/**
 	 * The ordering of fields below is important for correctness as we are not
 	 * using keys for fields here.
-	 * 
+	 *
 	 * @return Serialized JSONArray string.
 	 */
-	public String toString() {
+	public synchronized String toString() {
 		JSONArray jArray = new JSONArray();
 		jArray.put(this.paxosID); // 0
 		jArray.put(this.version); // 1
 		jArray.put(this.gcSlot); // 2
-		jArray.put(this.minLogfile); // 3
+		jArray.put(Logfiles.name(this.minLogfile)); // 3
 		jArray.put(this.lastActive); // 4
 		JSONArray logArray = new JSONArray();
-		if (this.log != null)
-			for (LogIndexEntry lindex : this.log) {
-				JSONArray logEntryArray = new JSONArray();
-				logEntryArray.put(lindex.slot);
-				logEntryArray.put(lindex.ballotNum);
-				logEntryArray.put(lindex.ballotCoord);
-				logEntryArray.put(lindex.type);
-				logEntryArray.put(lindex.logfile);
-				logEntryArray.put(lindex.offset);
-				logEntryArray.put(lindex.length);
-
-				logArray.put(logEntryArray);
-			}
+		for (int i = 0; i < this.size; i++) {
+			JSONArray logEntryArray = new JSONArray();
+			logEntryArray.put(this.slot(i));
+			logEntryArray.put(this.ballotNum(i));
+			logEntryArray.put(this.ballotCoord(i));
+			logEntryArray.put(this.type(i));
+			logEntryArray.put(Logfiles.name(this.file(i)));
+			logEntryArray.put(this.entries.getLong(i * ENTRY_SIZE + OFFSET));
+			logEntryArray.put(this.entries.getInt(i * ENTRY_SIZE + LENGTH));
+
+			logArray.put(logEntryArray);
+		}
 		jArray.put(logArray); // 5
 		return jArray.toString();
 	}
 
 	/**
+	 * Legacy format used for logIndexes paused before {@link #toBytes()}.
+	 *
 	 * @param jArray
 	 * @throws JSONException
 	 */
@@ -298,28 +383,221 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 		this.paxosID = jArray.getString(0);
 		this.version = (Integer) jArray.get(1);
 		this.gcSlot = jArray.getInt(2);
-		this.minLogfile = jArray.getString(3);
 		this.lastActive = jArray.getLong(4);
 		JSONArray logArray = jArray.getJSONArray(5);
 		for (int i = 0; i < logArray.length(); i++) {
-			if (this.log == null)
-				this.log = new ArrayList<LogIndexEntry>();
 			JSONArray jEntry = logArray.getJSONArray(i);
-			synchronized (this.log) {
-				this.log.add(new LogIndexEntry(jEntry.getInt(0), jEntry
-						.getInt(1), jEntry.getInt(2), jEntry.getInt(3), jEntry
-						.getString(4), jEntry.getLong(5), jEntry.getInt(6)));
+			this.add(jEntry.getInt(0), jEntry.getInt(1), jEntry.getInt(2),
+					jEntry.getInt(3), jEntry.getString(4), jEntry.getLong(5),
+					jEntry.getInt(6));
+		}
+		// add above updates these
+		this.minLogfile = jArray.isNull(3) ? NO_FILE : Logfiles
+				.intern(jArray.getString(3));
+		this.lastActive = jArray.getLong(4);
+	}
+
+	/**
+	 * Compact binary format used for pausing. Logfile names are written once
+	 * each, and entries are written as variable-length deltas from the
+	 * previous entry as consecutive entries usually have nearby slots and
+	 * offsets.
+	 *
+	 * @return Binary representation readable by {@link #LogIndex(byte[])}.
+	 */
+	public synchronized byte[] toBytes() {
+		byte[] pid = this.paxosID.getBytes(UTF8);
+		ArrayList<byte[]> files = new ArrayList<byte[]>();
+		HashMap<Integer, Integer> localIDs = this.getLocalFileIDs(files);
+		ByteBuffer buf = ByteBuffer.allocate(1 + 1 + 4 + pid.length + 4 + 4
+				+ 8 + this.maxEntriesLength(files));
+		buf.put(MAGIC).put(FORMAT).putInt(pid.length).put(pid)
+				.putInt(this.version).putInt(this.gcSlot)
+				.putLong(this.lastActive);
+		this.putEntries(buf, files, localIDs);
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	/**
+	 * @param bytes
+	 * @return True if {@code bytes} is in the format returned by
+	 *         {@link #toBytes()}.
+	 */
+	public static boolean isLogIndexBytes(byte[] bytes) {
+		return bytes != null && bytes.length > 1 && bytes[0] == MAGIC
+				&& bytes[1] == FORMAT;
+	}
+
+	/**
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public LogIndex(byte[] bytes) throws IOException {
+		if (!isLogIndexBytes(bytes))
+			throw new IOException("Unrecognized logIndex format");
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(bytes, 2, bytes.length - 2);
+			byte[] pid = new byte[buf.getInt()];
+			buf.get(pid);
+			this.paxosID = new String(pid, UTF8);
+			this.version = buf.getInt();
+			this.gcSlot = buf.getInt();
+			this.lastActive = buf.getLong();
+			this.getEntries(buf);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt logIndex: " + e);
+		}
+	}
+
+	// maps interned logfile ids to dense local ids
+	private HashMap<Integer, Integer> getLocalFileIDs(ArrayList<byte[]> files) {
+		HashMap<Integer, Integer> localIDs = new HashMap<Integer, Integer>();
+		for (int i = -1; i < this.size; i++) {
+			int fileID = i < 0 ? this.minLogfile : this.file(i);
+			if (fileID != NO_FILE && !localIDs.containsKey(fileID)) {
+				localIDs.put(fileID, files.size());
+				files.add(Logfiles.name(fileID).getBytes(UTF8));
 			}
 		}
+		return localIDs;
+	}
+
+	// 5 bytes per varint and 10 per varlong in the worst case
+	private int maxEntriesLength(ArrayList<byte[]> files) {
+		int length = 5 + 5 + 5 + this.size * (6 * 5 + 10);
+		for (byte[] file : files)
+			length += 5 + file.length;
+		return length;
+	}
+
+	private void putEntries(ByteBuffer buf, ArrayList<byte[]> files,
+			HashMap<Integer, Integer> localIDs) {
+		putVarInt(buf, files.size());
+		for (byte[] file : files)
+			putVarInt(buf, file.length).put(file);
+		putVarInt(buf, this.minLogfile == NO_FILE ? 0 : localIDs
+				.get(this.minLogfile) + 1);
+		putVarInt(buf, this.size);
+		int prevSlot = this.gcSlot;
+		long prevOffset = 0;
+		for (int i = 0; i < this.size; i++) {
+			int base = i * ENTRY_SIZE, slot = this.slot(i);
+			long offset = this.entries.getLong(base + OFFSET);
+			putVarInt(buf, zigzag(slot - prevSlot));
+			putVarInt(buf, zigzag(this.ballotNum(i)));
+			putVarInt(buf, zigzag(this.ballotCoord(i)));
+			putVarInt(buf, this.type(i));
+			putVarInt(buf, localIDs.get(this.file(i)));
+			putVarLong(buf, zigzag(offset - prevOffset));
+			putVarInt(buf, this.entries.getInt(base + LENGTH));
+			prevSlot = slot;
+			prevOffset = offset;
+		}
+	}
+
+	private void getEntries(ByteBuffer buf) {
+		int[] fileIDs = new int[getVarInt(buf)];
+		for (int i = 0; i < fileIDs.length; i++) {
+			byte[] file = new byte[getVarInt(buf)];
+			buf.get(file);
+			fileIDs[i] = Logfiles.intern(new String(file, UTF8));
+		}
+		int min = getVarInt(buf);
+		this.minLogfile = min == 0 ? NO_FILE : fileIDs[min - 1];
+		int n = getVarInt(buf);
+		if (n == 0)
+			return;
+		this.resize(Math.max(MIN_CAPACITY, n));
+		int slot = this.gcSlot;
+		long offset = 0;
+		for (int i = 0; i < n; i++) {
+			slot += unzigzag(getVarInt(buf));
+			int bnum = unzigzag(getVarInt(buf));
+			int bcoord = unzigzag(getVarInt(buf));
+			int type = getVarInt(buf);
+			int fileID = fileIDs[getVarInt(buf)];
+			offset += unzigzag(getVarLong(buf));
+			this.put(i, slot, bnum, bcoord, type, fileID, offset,
+					getVarInt(buf));
+		}
+		this.size = n;
+	}
+
+	private static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	private static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static ByteBuffer putVarInt(ByteBuffer buf, int n) {
+		while ((n & ~0x7F) != 0) {
+			buf.put((byte) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+		return buf.put((byte) n);
+	}
+
+	private static ByteBuffer putVarLong(ByteBuffer buf, long n) {
+		while ((n & ~0x7FL) != 0) {
+			buf.put((byte) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+		return buf.put((byte) n);
+	}
+
+	private static int getVarInt(ByteBuffer buf) {
+		int n = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buf.get();
+			n |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return n;
+		}
+	}
+
+	private static long getVarLong(ByteBuffer buf) {
+		long n = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buf.get();
+			n |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return n;
+		}
+	}
+
+	private synchronized void writeObject(ObjectOutputStream out)
+			throws IOException {
+		out.defaultWriteObject();
+		ArrayList<byte[]> files = new ArrayList<byte[]>();
+		HashMap<Integer, Integer> localIDs = this.getLocalFileIDs(files);
+		ByteBuffer buf = ByteBuffer.allocate(this.maxEntriesLength(files));
+		this.putEntries(buf, files, localIDs);
+		out.writeObject(Arrays.copyOf(buf.array(), buf.position()));
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		this.minLogfile = NO_FILE;
+		this.getEntries(ByteBuffer.wrap((byte[]) in.readObject()));
 	}
 
 	/**
 	 * @return Oldest log file containing an entry for this paxosID after the
 	 *         last commit to disk.
 	 */
-	public String getMinLogfile() {
-		return (this.log == null || this.log.isEmpty()) ? null
-				: this.minLogfile;
+	public synchronized String getMinLogfile() {
+		return this.size == 0 ? null : Logfiles.name(this.minLogfile);
 	}
 
 	/**
@@ -329,15 +607,16 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 	 * @param type
 	 * @return True if log message can not be garbage collected yet.
 	 */
-	public boolean isLogMsgNeeded(int slot, int ballotNum, int ballotCoord,
-			int type) {
+	public synchronized boolean isLogMsgNeeded(int slot, int ballotNum,
+			int ballotCoord, int type) {
 		if (slot - this.gcSlot <= 0) {
 			return false;
 		} else if (type == PaxosPacketType.PREPARE.getInt()) {
 			// we only need the highest prepare
-			for (LogIndexEntry entry : this.log) {
-				if (entry.ballotNum - ballotNum > 0
-						|| (entry.ballotNum == ballotNum && entry.ballotCoord
+			for (int i = 0; i < this.size; i++) {
+				int bnum = this.ballotNum(i);
+				if (bnum - ballotNum > 0
+						|| (bnum == ballotNum && this.ballotCoord(i)
 								- ballotCoord > 0))
 					return false;
 			}
@@ -354,22 +633,88 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 			return null;
 		return new Object() {
 			public String toString() {
-				String s = "";
-				s += LogIndex.this.paxosID + ":" + LogIndex.this.version + ":"
-						+ LogIndex.this.minLogfile + ":" + LogIndex.this.gcSlot;
-				if (LogIndex.this.log != null && !LogIndex.this.log.isEmpty()) {
-					s += ":[";
-					for (LogIndexEntry entry : LogIndex.this.log) {
-						s += (PaxosPacketType.getPaxosPacketType(entry.type)
-								.toString().substring(0, 1) + entry.slot);
+				synchronized (LogIndex.this) {
+					String s = "";
+					s += LogIndex.this.paxosID + ":" + LogIndex.this.version
+							+ ":" + Logfiles.name(LogIndex.this.minLogfile)
+							+ ":" + LogIndex.this.gcSlot;
+					if (LogIndex.this.size > 0) {
+						s += ":[";
+						for (int i = 0; i < LogIndex.this.size; i++)
+							s += (PaxosPacketType
+									.getPaxosPacketType(LogIndex.this.type(i))
+									.toString().substring(0, 1) + LogIndex.this
+									.slot(i));
+						s += "]";
 					}
-					s += "]";
+					return s;
 				}
-				return s;
 			}
 		};
 	}
 
+	/*************** Packed record accessors ****************/
+
+	private int capacity() {
+		return this.entries != null ? this.entries.capacity() / ENTRY_SIZE : 0;
+	}
+
+	private void resize(int capacity) {
+		ByteBuffer resized = OFF_HEAP ? ByteBuffer.allocateDirect(capacity
+				* ENTRY_SIZE) : ByteBuffer.allocate(capacity * ENTRY_SIZE);
+		if (this.entries != null && this.size > 0) {
+			ByteBuffer src = this.entries.duplicate();
+			src.position(0).limit(this.size * ENTRY_SIZE);
+			resized.put(src);
+			resized.clear();
+		}
+		this.entries = resized;
+	}
+
+	private void put(int i, int slot, int bnum, int bcoord, int type,
+			int fileID, long offset, int length) {
+		int base = i * ENTRY_SIZE;
+		this.entries.putInt(base + SLOT, slot)
+				.putInt(base + BALLOT_NUM, bnum)
+				.putInt(base + BALLOT_COORD, bcoord).putInt(base + TYPE, type)
+				.putInt(base + FILE, fileID).putInt(base + LENGTH, length)
+				.putLong(base + OFFSET, offset);
+	}
+
+	private void copy(int from, int to) {
+		for (int j = 0; j < ENTRY_SIZE; j += 8)
+			this.entries.putLong(to * ENTRY_SIZE + j,
+					this.entries.getLong(from * ENTRY_SIZE + j));
+	}
+
+	private int slot(int i) {
+		return this.entries.getInt(i * ENTRY_SIZE + SLOT);
+	}
+
+	private int ballotNum(int i) {
+		return this.entries.getInt(i * ENTRY_SIZE + BALLOT_NUM);
+	}
+
+	private int ballotCoord(int i) {
+		return this.entries.getInt(i * ENTRY_SIZE + BALLOT_COORD);
+	}
+
+	private int type(int i) {
+		return this.entries.getInt(i * ENTRY_SIZE + TYPE);
+	}
+
+	private int file(int i) {
+		return this.entries.getInt(i * ENTRY_SIZE + FILE);
+	}
+
+	private LogIndexEntry getEntry(int i) {
+		int base = i * ENTRY_SIZE;
+		return new LogIndexEntry(this.slot(i), this.ballotNum(i),
+				this.ballotCoord(i), this.type(i), Logfiles.name(this.file(i)),
+				this.entries.getLong(base + OFFSET), this.entries.getInt(base
+						+ LENGTH));
+	}
+
 	private static final long DEACTIVATION_PERIOD = Config
 			.getGlobalLong(PC.DEACTIVATION_PERIOD);
 
@@ -382,6 +727,15 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 	 *
 	 */
 	public static class LogIndexTest extends DefaultTest {
+		private static LogIndex makeLogIndex(String paxosID, int numEntries) {
+			LogIndex logIndex = new LogIndex(paxosID, 3);
+			for (int i = 0; i < numEntries; i++)
+				logIndex.add(i, 2, 101, (i % 2 == 0 ? PaxosPacketType.ACCEPT
+						: PaxosPacketType.DECISION).getInt(), "logfile."
+						+ (i / 4), 1000L * i, 100 + i);
+			return logIndex;
+		}
+
 		/**
 		 * @throws JSONException
 		 * @throws IOException
@@ -398,5 +752,69 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 					"ISO-8859-1"));
 		}
 
+		/**
+		 * @throws JSONException
+		 * @throws IOException
+		 */
+		@Test
+		public void testBinaryRestore() throws JSONException, IOException {
+			LogIndex logIndex = makeLogIndex("paxos1", 23);
+			LogIndex restored = new LogIndex(logIndex.toBytes());
+			Assert.assertEquals(logIndex.toString(), restored.toString());
+			Assert.assertEquals(logIndex.toString(), new LogIndex(
+					new JSONArray(logIndex.toString())).toString());
+			Assert.assertFalse(isLogIndexBytes(SQLPaxosLogger.deflate(logIndex
+					.toString().getBytes(SQLPaxosLogger.CHARSET))));
+			// empty
+			logIndex = new LogIndex("paxos2", 0);
+			Assert.assertEquals(logIndex.toString(),
+					new LogIndex(logIndex.toBytes()).toString());
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testGCAndModify() {
+			LogIndex logIndex = makeLogIndex("paxos3", 20);
+			Assert.assertEquals(10, logIndex.getLoggedAccepts(0, null).size());
+			logIndex.setGCSlot(9);
+			Assert.assertEquals(10, logIndex.size());
+			Assert.assertEquals("logfile.2", logIndex.getMinLogfile());
+			Assert.assertEquals(3, logIndex.getLogfiles().size());
+			Assert.assertFalse(logIndex.add(5, 2, 101,
+					PaxosPacketType.ACCEPT.getInt(), "logfile.9", 0, 1));
+
+			LogIndexEntry entry = logIndex.getLoggedDecisions(11, 11).get(0);
+			Assert.assertTrue(logIndex.modify(new LogIndexEntry(entry.slot,
+					entry.ballotNum, entry.ballotCoord, entry.type,
+					"logfile.compacted", 7, 8)));
+			entry = logIndex.getLoggedDecisions(11, 11).get(0);
+			Assert.assertEquals("logfile.compacted", entry.getLogfile());
+			Assert.assertEquals(7, entry.getOffset());
+			Assert.assertEquals(8, entry.getLength());
+
+			logIndex.setGCSlot(100);
+			Assert.assertEquals(0, logIndex.size());
+			Assert.assertNull(logIndex.getMinLogfile());
+		}
+
+		/**
+		 * @throws IOException
+		 * @throws ClassNotFoundException
+		 */
+		@Test
+		public void testSerializable() throws IOException,
+				ClassNotFoundException {
+			LogIndex logIndex = makeLogIndex("paxos4", 9);
+			java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(logIndex);
+			oos.close();
+			LogIndex restored = (LogIndex) new ObjectInputStream(
+					new java.io.ByteArrayInputStream(bos.toByteArray()))
+					.readObject();
+			Assert.assertEquals(logIndex.toString(), restored.toString());
+		}
 	}
 }
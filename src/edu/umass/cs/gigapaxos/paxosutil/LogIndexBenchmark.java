@@ -0,0 +1,215 @@
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import edu.umass.cs.gigapaxos.SQLPaxosLogger;
+import edu.umass.cs.gigapaxos.paxosutil.LogIndex.LogIndexEntry;
+import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Compares the packed {@link LogIndex} with the earlier representation
+ *         as an {@code ArrayList<LogIndexEntry>} in terms of heap bytes per
+ *         paxos group, pause size, and pause/unpause throughput. The earlier
+ *         pause formats are Java serialization (used by MapDB) and deflated
+ *         JSON (used by the pause tables). Usage:
+ *
+ *         <pre>
+ * LogIndexBenchmark [numGroups [entriesPerGroup [secondsPerRun]]]
+ * </pre>
+ *
+ *         Heap usage is estimated from used memory after a GC, so it is
+ *         meaningful only with a quiet JVM and a sufficiently large heap
+ *         (-Xmx). Run with -Dgigapaxos.LOG_INDEX_OFF_HEAP=true to measure the
+ *         off-heap variant.
+ */
+public class LogIndexBenchmark {
+
+	// fields of LogIndex before entries were packed
+	@SuppressWarnings("unused")
+	private static class ListLogIndex implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String paxosID;
+		final int version;
+		Integer gcSlot = -1;
+		String minLogfile = null;
+		long lastActive = System.currentTimeMillis();
+		ArrayList<LogIndexEntry> log = null;
+
+		ListLogIndex(String paxosID, int version) {
+			this.paxosID = paxosID;
+			this.version = version;
+		}
+
+		void add(LogIndexEntry entry) {
+			if (this.minLogfile == null)
+				this.minLogfile = entry.logfile;
+			if (this.log == null)
+				this.log = new ArrayList<LogIndexEntry>();
+			this.log.add(entry);
+		}
+	}
+
+	private static final String[] LOGFILES = new String[64];
+	static {
+		for (int i = 0; i < LOGFILES.length; i++)
+			LOGFILES[i] = "paxos_logs/log.0." + (1000000 + i);
+	}
+
+	private static LogIndexEntry makeEntry(int group, int i) {
+		return new LogIndexEntry(i, 3, group % 5, (i % 2 == 0 ? PaxosPacketType.ACCEPT
+				: PaxosPacketType.DECISION).getInt(), LOGFILES[(group + i)
+				% LOGFILES.length], 1024L * i, 256 + i);
+	}
+
+	private static LogIndex makePacked(int group, int numEntries) {
+		LogIndex logIndex = new LogIndex("paxos" + group, 0);
+		for (int i = 0; i < numEntries; i++)
+			logIndex.add(makeEntry(group, i));
+		return logIndex;
+	}
+
+	private static ListLogIndex makeList(int group, int numEntries) {
+		ListLogIndex logIndex = new ListLogIndex("paxos" + group, 0);
+		for (int i = 0; i < numEntries; i++)
+			logIndex.add(makeEntry(group, i));
+		return logIndex;
+	}
+
+	private static long usedMemory() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return Runtime.getRuntime().totalMemory()
+				- Runtime.getRuntime().freeMemory();
+	}
+
+	private static double heapBytesPerGroup(boolean packed, int numGroups,
+			int numEntries) {
+		Object[] groups = new Object[numGroups];
+		long before = usedMemory();
+		for (int g = 0; g < numGroups; g++)
+			groups[g] = packed ? makePacked(g, numEntries) : makeList(g,
+					numEntries);
+		long after = usedMemory();
+		// keep groups reachable until measured
+		return (after - before) * 1.0 / groups.length;
+	}
+
+	private static byte[] serialize(Object obj) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(obj);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws IOException,
+			ClassNotFoundException {
+		return new ObjectInputStream(new ByteArrayInputStream(bytes))
+				.readObject();
+	}
+
+	private static enum Format {
+		JAVA_LIST, JAVA_PACKED, JSON_DEFLATED, BINARY
+	};
+
+	private static byte[] pause(Format format, Object logIndex)
+			throws IOException {
+		switch (format) {
+		case JAVA_LIST:
+		case JAVA_PACKED:
+			return serialize(logIndex);
+		case JSON_DEFLATED:
+			return SQLPaxosLogger.deflate(logIndex.toString().getBytes(
+					SQLPaxosLogger.CHARSET));
+		default:
+			return ((LogIndex) logIndex).toBytes();
+		}
+	}
+
+	private static Object unpause(Format format, byte[] bytes)
+			throws IOException, ClassNotFoundException, JSONException {
+		switch (format) {
+		case JAVA_LIST:
+		case JAVA_PACKED:
+			return deserialize(bytes);
+		case JSON_DEFLATED:
+			return new LogIndex(new JSONArray(new String(
+					SQLPaxosLogger.inflate(bytes), SQLPaxosLogger.CHARSET)));
+		default:
+			return new LogIndex(bytes);
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws JSONException
+	 */
+	public static void main(String[] args) throws IOException,
+			ClassNotFoundException, JSONException {
+		int numGroups = args.length > 0 ? Integer.valueOf(args[0]) : 100000;
+		int numEntries = args.length > 1 ? Integer.valueOf(args[1]) : 16;
+		long durationMillis = 1000 * (args.length > 2 ? Integer
+				.valueOf(args[2]) : 3);
+
+		// warm up class loading and interning
+		heapBytesPerGroup(true, 1000, numEntries);
+		heapBytesPerGroup(false, 1000, numEntries);
+		System.out.println("heap bytes/group: packed="
+				+ Util.df(heapBytesPerGroup(true, numGroups, numEntries))
+				+ " list="
+				+ Util.df(heapBytesPerGroup(false, numGroups, numEntries))
+				+ " (" + numGroups + " groups, " + numEntries
+				+ " entries/group)");
+
+		int numSamples = 1024;
+		Object[][] samples = new Object[Format.values().length][numSamples];
+		for (Format format : Format.values())
+			for (int g = 0; g < numSamples; g++)
+				samples[format.ordinal()][g] = format == Format.JAVA_LIST ? makeList(
+						g, numEntries) : makePacked(g, numEntries);
+
+		for (Format format : Format.values()) {
+			Object[] groups = samples[format.ordinal()];
+			long bytes = 0;
+			for (Object group : groups)
+				bytes += pause(format, group).length;
+			// warm up
+			long ops = 0;
+			for (long t = System.currentTimeMillis(); System
+					.currentTimeMillis() - t < durationMillis / 2; ops++)
+				unpause(format, pause(format, groups[(int) (ops % numSamples)]));
+			long pauseNanos = 0, unpauseNanos = 0;
+			ops = 0;
+			for (long t = System.currentTimeMillis(); System
+					.currentTimeMillis() - t < durationMillis; ops++) {
+				long t0 = System.nanoTime();
+				byte[] paused = pause(format,
+						groups[(int) (ops % numSamples)]);
+				long t1 = System.nanoTime();
+				unpause(format, paused);
+				unpauseNanos += System.nanoTime() - t1;
+				pauseNanos += t1 - t0;
+			}
+			System.out.println(format + ": bytes/group="
+					+ Util.df(bytes * 1.0 / numSamples) + " pause="
+					+ Util.df(ops * 1000.0 * 1000 * 1000 / pauseNanos)
+					+ "/s unpause="
+					+ Util.df(ops * 1000.0 * 1000 * 1000 / unpauseNanos)
+					+ "/s");
+		}
+	}
+}
@@ -0,0 +1,438 @@
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.PaxosManager;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         A log-structured {@link KVStore}. Puts and removes are appended as
+ *         records to memory-mapped segment files and an in-memory sorted index
+ *         maps each key to the location of its latest record, so gets and
+ *         prefix scans need no disk seeks beyond reading the records
+ *         themselves. Segments are replayed in order upon startup to rebuild
+ *         the index; a torn or corrupt record ends the replay of its segment.
+ *         <p>
+ *         Once more than half of the appended bytes are stale, all live
+ *         records are copied to new segments and the old segments are deleted
+ *         oldest first, so a crash at any point during compaction can neither
+ *         lose nor resurrect a key.
+ *         <p>
+ *         Records are forced to disk after each batch only if
+ *         {@link PC#SYNC} is enabled.
+ */
+public class LogStructuredKVStore implements KVStore {
+
+	private static final String SEGMENT_PREFIX = "segment.";
+
+	// record header: key length, value length, checksum
+	private static final int HEADER_SIZE = 12;
+	private static final int REMOVED = -1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final boolean SYNC = Config.getGlobalBoolean(PC.SYNC);
+
+	private final File dir;
+	private final int segmentSize;
+
+	private final TreeMap<Integer, MappedByteBuffer> segments = new TreeMap<Integer, MappedByteBuffer>();
+	// key -> segment ID << 32 | offset of its latest record
+	private final TreeMap<String, Long> index = new TreeMap<String, Long>();
+
+	private MappedByteBuffer tail = null;
+	private int tailID = -1;
+
+	private long liveBytes = 0;
+	private long totalBytes = 0;
+	private boolean closed = false;
+
+	private static final Logger log = Logger.getLogger(PaxosManager.class
+			.getName());
+
+	/**
+	 * @param dir
+	 * @throws IOException
+	 */
+	public LogStructuredKVStore(String dir) throws IOException {
+		this(dir, Config.getGlobalInt(PC.KV_SEGMENT_SIZE));
+	}
+
+	LogStructuredKVStore(String dir, int segmentSize) throws IOException {
+		this.dir = new File(dir);
+		this.segmentSize = segmentSize;
+		if (!this.dir.exists() && !this.dir.mkdirs())
+			throw new IOException("Unable to create directory " + dir);
+		for (int id : this.getSegmentIDs())
+			this.replay(id, this.map(id, 0));
+		if (this.tail == null)
+			this.roll(0);
+		log.log(Level.INFO, "{0} recovered {1} keys from {2} segments",
+				new Object[] { this, this.index.size(), this.segments.size() });
+	}
+
+	@Override
+	public synchronized byte[] get(String key) throws IOException {
+		this.checkOpen();
+		Long location = this.index.get(key);
+		return location != null ? this.readValue(location) : null;
+	}
+
+	@Override
+	public void put(String key, byte[] value) throws IOException {
+		Map<String, byte[]> batch = new HashMap<String, byte[]>();
+		batch.put(key, value);
+		this.put(batch);
+	}
+
+	@Override
+	public synchronized void put(Map<String, byte[]> batch) throws IOException {
+		this.checkOpen();
+		for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+			if (entry.getValue() == null
+					&& !this.index.containsKey(entry.getKey()))
+				continue;
+			this.append(entry.getKey(), entry.getValue());
+		}
+		if (SYNC)
+			this.tail.force();
+		if (this.totalBytes > this.segmentSize
+				&& 2 * this.liveBytes < this.totalBytes)
+			this.compact();
+	}
+
+	@Override
+	public synchronized SortedMap<String, byte[]> scan(String prefix)
+			throws IOException {
+		this.checkOpen();
+		SortedMap<String, byte[]> entries = new TreeMap<String, byte[]>();
+		for (Map.Entry<String, Long> entry : this.index.tailMap(prefix)
+				.entrySet()) {
+			if (!entry.getKey().startsWith(prefix))
+				break;
+			entries.put(entry.getKey(), this.readValue(entry.getValue()));
+		}
+		return entries;
+	}
+
+	@Override
+	public synchronized void clear() throws IOException {
+		this.checkOpen();
+		this.deleteSegments(new ArrayList<Integer>(this.segments.keySet()));
+		this.index.clear();
+		this.tail = null;
+		this.liveBytes = this.totalBytes = 0;
+		this.roll(0);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (this.closed)
+			return;
+		if (this.tail != null)
+			this.tail.force();
+		this.closed = true;
+		this.segments.clear();
+		this.index.clear();
+		this.tail = null;
+	}
+
+	/**
+	 * @return Number of keys.
+	 */
+	public synchronized int size() {
+		return this.index.size();
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + ":" + this.dir;
+	}
+
+	private void checkOpen() throws IOException {
+		if (this.closed)
+			throw new IOException(this + " is closed");
+	}
+
+	private void append(String key, byte[] value) throws IOException {
+		byte[] keyBytes = key.getBytes(UTF8);
+		int valueLength = value != null ? value.length : REMOVED;
+		int length = HEADER_SIZE + keyBytes.length
+				+ (value != null ? value.length : 0);
+		if (this.tail.remaining() < length)
+			this.roll(length);
+
+		int offset = this.tail.position();
+		ByteBuffer buf = this.tail.duplicate();
+		buf.position(offset + 4);
+		buf.putInt(valueLength).putInt(0).put(keyBytes);
+		if (value != null)
+			buf.put(value);
+		this.tail.putInt(offset + 8,
+				checksum(this.tail, offset, valueLength, length));
+		// key length last so that a partially written record is invalid
+		this.tail.putInt(offset, keyBytes.length);
+		this.tail.position(offset + length);
+
+		Long prev = value != null ? this.index.put(key, location(this.tailID,
+				offset)) : this.index.remove(key);
+		if (prev != null)
+			this.liveBytes -= this.recordLength(prev);
+		if (value != null)
+			this.liveBytes += length;
+		this.totalBytes += length;
+	}
+
+	private void replay(int id, MappedByteBuffer segment) {
+		int offset = 0;
+		while (offset + HEADER_SIZE <= segment.limit()) {
+			int keyLength = segment.getInt(offset);
+			int valueLength = segment.getInt(offset + 4);
+			int length = HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+			if (keyLength <= 0 || valueLength < REMOVED || length < 0
+					|| offset + length > segment.limit())
+				break;
+			if (segment.getInt(offset + 8) != checksum(segment, offset,
+					valueLength, length)) {
+				log.log(Level.WARNING,
+						"{0} found corrupt record at {1}:{2}; ignoring rest of segment",
+						new Object[] { this, id, offset });
+				break;
+			}
+			byte[] keyBytes = new byte[keyLength];
+			ByteBuffer buf = segment.duplicate();
+			buf.position(offset + HEADER_SIZE);
+			buf.get(keyBytes);
+			String key = new String(keyBytes, UTF8);
+
+			Long prev = valueLength != REMOVED ? this.index.put(key,
+					location(id, offset)) : this.index.remove(key);
+			if (prev != null)
+				this.liveBytes -= this.recordLength(prev);
+			if (valueLength != REMOVED)
+				this.liveBytes += length;
+			this.totalBytes += length;
+			offset += length;
+		}
+		segment.position(offset);
+		this.tail = segment;
+		this.tailID = id;
+	}
+
+	private void compact() throws IOException {
+		long before = this.totalBytes;
+		ArrayList<Integer> old = new ArrayList<Integer>(this.segments.keySet());
+		this.roll(0);
+		this.liveBytes = this.totalBytes = 0;
+		// a copy of the index as append updates it
+		for (Map.Entry<String, Long> entry : new TreeMap<String, Long>(
+				this.index).entrySet())
+			this.append(entry.getKey(), this.readValue(entry.getValue()));
+		for (MappedByteBuffer segment : this.segments.tailMap(
+				old.get(old.size() - 1), false).values())
+			segment.force();
+		this.deleteSegments(old);
+		log.log(Level.FINE, "{0} compacted {1}B to {2}B", new Object[] { this,
+				before, this.totalBytes });
+	}
+
+	// oldest first
+	private void deleteSegments(ArrayList<Integer> ids) {
+		for (int id : ids) {
+			this.segments.remove(id);
+			File file = this.getSegmentFile(id);
+			if (!file.delete() && file.exists())
+				log.log(Level.WARNING, "{0} unable to delete {1}",
+						new Object[] { this, file });
+		}
+	}
+
+	private void roll(int minSize) throws IOException {
+		if (this.tail != null && SYNC)
+			this.tail.force();
+		this.tail = this.map(this.tailID + 1,
+				Math.max(this.segmentSize, minSize));
+		this.tailID++;
+	}
+
+	// size 0 maps an existing segment as is
+	private MappedByteBuffer map(int id, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(this.getSegmentFile(id),
+				"rw");
+		try {
+			if (size > 0)
+				raf.setLength(size);
+			MappedByteBuffer segment = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			this.segments.put(id, segment);
+			return segment;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private ArrayList<Integer> getSegmentIDs() {
+		File[] files = this.dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX);
+			}
+		});
+		TreeMap<Integer, File> sorted = new TreeMap<Integer, File>();
+		for (File file : files != null ? files : new File[0])
+			try {
+				sorted.put(Integer.valueOf(file.getName().substring(
+						SEGMENT_PREFIX.length())), file);
+			} catch (NumberFormatException e) {
+				// not ours
+			}
+		return new ArrayList<Integer>(sorted.keySet());
+	}
+
+	private File getSegmentFile(int id) {
+		return new File(this.dir, SEGMENT_PREFIX + id);
+	}
+
+	private byte[] readValue(long location) {
+		MappedByteBuffer segment = this.segments.get((int) (location >>> 32));
+		int offset = (int) location;
+		byte[] value = new byte[segment.getInt(offset + 4)];
+		ByteBuffer buf = segment.duplicate();
+		buf.position(offset + HEADER_SIZE + segment.getInt(offset));
+		buf.get(value);
+		return value;
+	}
+
+	private int recordLength(long location) {
+		MappedByteBuffer segment = this.segments.get((int) (location >>> 32));
+		int offset = (int) location;
+		return HEADER_SIZE + segment.getInt(offset)
+				+ Math.max(segment.getInt(offset + 4), 0);
+	}
+
+	private static long location(int id, int offset) {
+		return ((long) id << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	// covers the value length, key, and value
+	private static int checksum(ByteBuffer segment, int offset,
+			int valueLength, int length) {
+		CRC32 crc = new CRC32();
+		for (int shift = 24; shift >= 0; shift -= 8)
+			crc.update(valueLength >>> shift);
+		ByteBuffer buf = segment.duplicate();
+		buf.limit(offset + length).position(offset + HEADER_SIZE);
+		crc.update(buf);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 *
+	 */
+	public static class LogStructuredKVStoreTest extends DefaultTest {
+
+		private static String newDir() throws IOException {
+			return Files.createTempDirectory(
+					LogStructuredKVStore.class.getSimpleName()).toString();
+		}
+
+		private static byte[] bytes(String s) {
+			return s.getBytes(UTF8);
+		}
+
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void testPutGetScan() throws IOException {
+			String dir = newDir();
+			LogStructuredKVStore kv = new LogStructuredKVStore(dir, 4096);
+			Map<String, byte[]> batch = new HashMap<String, byte[]>();
+			batch.put("a/1", bytes("v1"));
+			batch.put("a/2", bytes("v2"));
+			batch.put("ab/1", bytes("v3"));
+			batch.put("b/1", bytes("v4"));
+			kv.put(batch);
+			Assert.assertEquals("v2", new String(kv.get("a/2"), UTF8));
+			Assert.assertNull(kv.get("a/3"));
+			Assert.assertEquals(2, kv.scan("a/").size());
+			Assert.assertEquals("a/1", kv.scan("a/").firstKey());
+			Assert.assertEquals(3, kv.scan("a").size());
+
+			kv.put("a/1", null);
+			kv.put("a/2", bytes("v5"));
+			Assert.assertNull(kv.get("a/1"));
+			Assert.assertEquals("v5", new String(kv.get("a/2"), UTF8));
+			kv.close();
+			Util.recursiveRemove(new File(dir));
+		}
+
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void testRecovery() throws IOException {
+			String dir = newDir();
+			LogStructuredKVStore kv = new LogStructuredKVStore(dir, 4096);
+			// spans several segments
+			for (int i = 0; i < 1000; i++)
+				kv.put("key" + (i % 100), bytes("value" + i));
+			kv.put("key0", null);
+			kv.put("large", new byte[10000]);
+			kv.close();
+
+			kv = new LogStructuredKVStore(dir, 4096);
+			Assert.assertEquals(100, kv.size());
+			Assert.assertNull(kv.get("key0"));
+			Assert.assertEquals("value999", new String(kv.get("key99"), UTF8));
+			Assert.assertEquals(10000, kv.get("large").length);
+			kv.close();
+			Util.recursiveRemove(new File(dir));
+		}
+
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void testCompaction() throws IOException {
+			String dir = newDir();
+			LogStructuredKVStore kv = new LogStructuredKVStore(dir, 4096);
+			for (int i = 0; i < 10000; i++)
+				kv.put("key" + (i % 10), bytes("value" + i));
+			Assert.assertTrue(kv.totalBytes < 3 * 4096);
+			Assert.assertTrue(new File(dir).list().length < 5);
+			kv.close();
+
+			kv = new LogStructuredKVStore(dir, 4096);
+			Assert.assertEquals(10, kv.size());
+			Assert.assertEquals("value9999", new String(kv.get("key9"), UTF8));
+			kv.clear();
+			Assert.assertEquals(0, kv.size());
+			kv.close();
+			Util.recursiveRemove(new File(dir));
+		}
+	}
+}
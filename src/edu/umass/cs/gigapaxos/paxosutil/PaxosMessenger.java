@@ -32,6 +32,7 @@ import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.nio.GenericMessagingTask;
 import edu.umass.cs.nio.JSONMessenger;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.InterfaceNIOTransport;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
@@ -123,11 +124,8 @@ public class PaxosMessenger<NodeIDType> extends JSONMessenger<NodeIDType> {
 				&& ((RequestPacket) msg).getStringifiedSelf() != null)
 			return ((RequestPacket) msg).getStringifiedSelf();
 
-		// FIXME: to test byteable
-		if (BYTEIFICATION
-				&& IntegerMap.allInt()
-				&& (msg.getType() == PaxosPacket.PaxosPacketType.REQUEST || (msg
-						.getType() == PaxosPacket.PaxosPacketType.ACCEPT))
+		if (BYTEIFICATION && IntegerMap.allInt() && msg instanceof Byteable
+				&& PaxosPacketDemultiplexerFast.isByteable(msg.getType())
 				|| msg.getType() == PaxosPacketType.BATCHED_COMMIT
 				|| msg.getType() == PaxosPacketType.BATCHED_ACCEPT_REPLY)
 			return msg;
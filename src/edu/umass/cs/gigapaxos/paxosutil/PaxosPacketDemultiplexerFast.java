@@ -17,10 +17,23 @@ package edu.umass.cs.gigapaxos.paxosutil;
 
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -29,20 +42,31 @@ import org.json.JSONObject;
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.PaxosManager;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
+import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedAccept;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedAcceptReply;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
+import edu.umass.cs.gigapaxos.paxospackets.FindReplicaGroupPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
 import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxospackets.StatePacket;
+import edu.umass.cs.gigapaxos.paxospackets.SyncDecisionsPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.nio.MessageExtractor;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 import edu.umass.cs.nio.nioutils.NIOHeader;
+import edu.umass.cs.nio.nioutils.StringifiableDefault;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 
@@ -52,8 +76,9 @@ import edu.umass.cs.utils.Util;
  *         This is a faster demultiplexer than PaxosPacketDemultiplexerJSON.
  *         JSON turns out to be the bottleneck. This class supports json-smart
  *         and direct serialization to and from byte[]. The last option is the
- *         fastest. We need faster options only for RequestPacket and
- *         AcceptPacket; for everything else JSON is just fine.
+ *         fastest. All paxos packet types except PROPOSAL are byteable when
+ *         node IDs are integers; JSON is the fallback otherwise and is also
+ *         handy for debugging.
  * 
  *         Byteification is a bit harder to maintain, especially the
  *         processHeader part, but is worth it for this critical demultiplexer.
@@ -64,23 +89,45 @@ public abstract class PaxosPacketDemultiplexerFast extends
 	 * @param numThreads
 	 */
 	public PaxosPacketDemultiplexerFast(int numThreads) {
+		this(numThreads, null);
+	}
+
+	/**
+	 * @param numThreads
+	 * @param unstringer
+	 *            Used to decode node IDs in byteified FAILURE_DETECT packets.
+	 */
+	public PaxosPacketDemultiplexerFast(int numThreads,
+			Stringifiable<?> unstringer) {
 		super(numThreads);
+		this.unstringer = unstringer;
 	}
 
-	private static PaxosPacket toPaxosPacket(byte[] bytes)
-			throws UnsupportedEncodingException, UnknownHostException {
-		assert (bytes != null);
-		ByteBuffer bbuf = ByteBuffer.wrap(bytes);
+	private final Stringifiable<?> unstringer;
 
-		PaxosPacket.PaxosPacketType type = bbuf.getInt() == PaxosPacketType.PAXOS_PACKET
-				.getInt() ? PaxosPacketType.getPaxosPacketType(bbuf.getInt())
-				: null;
+	/**
+	 * Decodes a byteified paxos packet starting at position 0 of {@code bbuf}
+	 * . Only the packet types for which {@link #isByteable(PaxosPacketType)}
+	 * is true, or additionally FAILURE_DETECT given a non-null unstringer, can
+	 * be decoded.
+	 * 
+	 * @param bbuf
+	 * @param unstringer
+	 *            Needed only for decoding FAILURE_DETECT.
+	 * @param sndr
+	 *            Sender address, used only for FAILURE_DETECT.
+	 * @return Decoded paxos packet.
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public static PaxosPacket toPaxosPacket(ByteBuffer bbuf,
+			Stringifiable<?> unstringer, InetSocketAddress sndr)
+			throws UnsupportedEncodingException, UnknownHostException {
+		assert (bbuf != null && bbuf.position() == 0);
+		PaxosPacket.PaxosPacketType type = PaxosPacket.getType(bbuf);
 
 		if (type == null)
-			fatal(bytes);
-
-		// bbuf = ByteBuffer.wrap(bytes);
-		bbuf.rewind();
+			fatal(bbuf);
 
 		PaxosPacket paxosPacket = null;
 		switch (type) {
@@ -92,15 +139,47 @@ public abstract class PaxosPacketDemultiplexerFast extends
 		case ACCEPT:
 			paxosPacket = new AcceptPacket(bbuf);
 			break;
+		case DECISION:
+		case PREEMPTED:
+			paxosPacket = new PValuePacket(bbuf);
+			break;
 		case BATCHED_COMMIT:
 			paxosPacket = new BatchedCommit(bbuf);
 			break;
 		case BATCHED_ACCEPT_REPLY:
 			paxosPacket = new BatchedAcceptReply(bbuf);
 			break;
+		case ACCEPT_REPLY:
+			paxosPacket = new AcceptReplyPacket(bbuf);
+			break;
+		case BATCHED_ACCEPT:
+			paxosPacket = new BatchedAccept(bbuf);
+			break;
+		case PREPARE:
+			paxosPacket = new PreparePacket(bbuf);
+			break;
+		case PREPARE_REPLY:
+			paxosPacket = new PrepareReplyPacket(bbuf);
+			break;
+		case SYNC_DECISIONS_REQUEST:
+			paxosPacket = new SyncDecisionsPacket(bbuf);
+			break;
+		case CHECKPOINT_STATE:
+			paxosPacket = new StatePacket(bbuf);
+			break;
+		case FIND_REPLICA_GROUP:
+			paxosPacket = new FindReplicaGroupPacket(bbuf);
+			break;
+		case BATCHED_PAXOS_PACKET:
+			paxosPacket = new BatchedPaxosPacket(bbuf);
+			break;
+		case FAILURE_DETECT:
+			assert (unstringer != null);
+			paxosPacket = new FailureDetectionPacket<>(bbuf, unstringer, sndr);
+			break;
 
 		default:
-			assert (false);
+			assert (false) : type;
 		}
 		return paxosPacket;
 	}
@@ -206,25 +285,88 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				0, 4).getInt() : PaxosPacketType.PAXOS_PACKET.getInt();
 	}
 
-	// currently only RequestPacket is byteable
-	private static boolean isByteable(byte[] bytes) {
-		ByteBuffer bbuf;
-		int type = -1;
-		if ((bbuf = ByteBuffer.wrap(bytes, 0, 8)).getInt() == PaxosPacket.PaxosPacketType.PAXOS_PACKET
-				.getInt()
-				&& ((type = bbuf.getInt()) == PaxosPacket.PaxosPacketType.REQUEST
-						.getInt()
-						|| (type == PaxosPacket.PaxosPacketType.ACCEPT.getInt())
-						|| type == PaxosPacketType.BATCHED_COMMIT.getInt() || type == PaxosPacketType.BATCHED_ACCEPT_REPLY
-						.getInt()))
+	/**
+	 * FAILURE_DETECT is also byteable but is excluded here as it additionally
+	 * needs an unstringer to be decoded.
+	 * 
+	 * @param type
+	 * @return True if packets of type {@code type} can be decoded from bytes
+	 *         by {@link #toPaxosPacket(ByteBuffer, Stringifiable, InetSocketAddress)}.
+	 */
+	public static boolean isByteable(PaxosPacketType type) {
+		switch (type) {
+		case REQUEST:
+		case ACCEPT:
+		case DECISION:
+		case PREEMPTED:
+		case BATCHED_COMMIT:
+		case BATCHED_ACCEPT_REPLY:
+		case ACCEPT_REPLY:
+		case BATCHED_ACCEPT:
+		case PREPARE:
+		case PREPARE_REPLY:
+		case SYNC_DECISIONS_REQUEST:
+		case CHECKPOINT_STATE:
+		case FIND_REPLICA_GROUP:
+		case BATCHED_PAXOS_PACKET:
 			return true;
-		assert (type != PaxosPacket.PaxosPacketType.PROPOSAL.getInt());
-		return false;
+		default:
+			return false;
+		}
 	}
 
+	private static boolean isByteable(byte[] bytes, Stringifiable<?> unstringer) {
+		PaxosPacketType type = bytes.length >= 8 ? PaxosPacket.getType(bytes)
+				: null;
+		assert (type != PaxosPacket.PaxosPacketType.PROPOSAL);
+		return type != null
+				&& (isByteable(type) || (type == PaxosPacketType.FAILURE_DETECT && unstringer != null));
+	}
+
+	/**
+	 * With ordering lanes enabled, byteified packets for which
+	 * {@link #isDeferrable(byte[])} is true are passed on undecoded.
+	 * {@link #getOrderingKey(Object)} then reads just the paxosID from the
+	 * bytes, and the packet is decoded by
+	 * {@link #decodeDeferred(Object, NIOHeader)} in its lane instead of in
+	 * the NIO thread.
+	 */
 	@Override
 	protected Object processHeader(byte[] bytes, NIOHeader header) {
-		return processHeaderUtil(bytes, header);
+		if (this.hasOrderingLanes() && isDeferrable(bytes))
+			return bytes;
+		return processHeaderUtil(bytes, header, this.unstringer);
+	}
+
+	/* Requests are excluded as processHeaderUtil affixes the sender address,
+	 * batched packets as they must be unbatched before dispatch, and failure
+	 * detection packets as they have no paxosID. */
+	private static boolean isDeferrable(byte[] bytes) {
+		PaxosPacketType type = bytes.length >= 8 ? PaxosPacket.getType(bytes)
+				: null;
+		return type != null && isByteable(type)
+				&& type != PaxosPacketType.REQUEST
+				&& type != PaxosPacketType.BATCHED_PAXOS_PACKET;
+	}
+
+	/**
+	 * Handlers must call this method if ordering lanes are enabled.
+	 * 
+	 * @param msg
+	 * @param header
+	 * @return The decoded paxos packet if {@code msg} is a byteified packet
+	 *         passed on undecoded by {@link #processHeader(byte[], NIOHeader)}
+	 *         , else {@code msg} itself.
+	 */
+	protected Object decodeDeferred(Object msg, NIOHeader header) {
+		if (msg instanceof byte[] && isDeferrable((byte[]) msg))
+			try {
+				return toPaxosPacket(ByteBuffer.wrap((byte[]) msg),
+						this.unstringer, header != null ? header.sndr : null);
+			} catch (UnsupportedEncodingException | UnknownHostException e) {
+				e.printStackTrace();
+			}
+		return msg;
 	}
 
 	/**
@@ -234,7 +376,20 @@ public abstract class PaxosPacketDemultiplexerFast extends
 	 *         header processing.
 	 */
 	public static final Object processHeaderUtil(byte[] bytes, NIOHeader header) {
-		if (isByteable(bytes)) {
+		return processHeaderUtil(bytes, header, null);
+	}
+
+	/**
+	 * @param bytes
+	 * @param header
+	 * @param unstringer
+	 *            Needed only to decode byteified FAILURE_DETECT packets.
+	 * @return Decoded paxos packet, or json if {@code bytes} is not
+	 *         byteified, or {@code bytes} itself if neither.
+	 */
+	public static final Object processHeaderUtil(byte[] bytes,
+			NIOHeader header, Stringifiable<?> unstringer) {
+		if (isByteable(bytes, unstringer)) {
 			long t = System.nanoTime();
 			if (PaxosPacket.getType(bytes) == PaxosPacketType.REQUEST) {
 				// affix header info only for request packets
@@ -243,11 +398,10 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				byte[] laddress = header.rcvr.getAddress().getAddress();
 				short lport = (short) header.rcvr.getPort();
 				ByteBuffer bbuf = ByteBuffer.wrap(bytes);
-				for (int i = 0; i < 3; i++)
-					bbuf.getInt();
-				int paxosIDLength = bbuf.get();
+				int paxosIDLength = PaxosPacket.getHeaderLength(bbuf) - 13;
 
-				int offset = 13 + paxosIDLength + 8 + 1;
+				// after header, long requestID, and boolean stop
+				int offset = PaxosPacket.getHeaderLength(bbuf) + 8 + 1;
 				int expectedPos = offset + 4 + 2 + 4 + 2;
 				assert (bytes.length > offset + 12) : bytes.length + " <= "
 						+ expectedPos;
@@ -274,7 +428,8 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				}
 			}
 			try {
-				PaxosPacket pp = toPaxosPacket(bytes);
+				PaxosPacket pp = toPaxosPacket(ByteBuffer.wrap(bytes),
+						unstringer, header.sndr);
 				if (PaxosMessenger.INSTRUMENT_SERIALIZATION && Util.oneIn(100)) {
 					if (pp.getType() == PaxosPacketType.REQUEST)
 						DelayProfiler.updateDelayNano("<-request", t);
@@ -348,6 +503,49 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				.equals(PaxosPacket.PaxosPacketType.REQUEST));
 	}
 
+	/**
+	 * Paxos packets are ordered by paxosID if ordering lanes are enabled.
+	 * Batched packets spanning multiple groups are split up by
+	 * {@link #unbatchForOrdering(Object)}, so only packets that do not
+	 * belong to any group, e.g., failure detection packets, have no ordering
+	 * key.
+	 */
+	@Override
+	protected Object getOrderingKey(Object msg) {
+		if (msg instanceof PaxosPacket)
+			return ((PaxosPacket) msg).getPaxosID();
+		if (msg instanceof byte[] && isDeferrable((byte[]) msg))
+			try {
+				return PaxosPacket.getPaxosID(ByteBuffer.wrap((byte[]) msg));
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+			}
+		if (msg instanceof net.minidev.json.JSONObject)
+			return ((net.minidev.json.JSONObject) msg).get(PaxosPacket.Keys.ID
+					.toString());
+		return null;
+	}
+
+	/**
+	 * Splits a {@link BatchedPaxosPacket}, either decoded or json, into its
+	 * constituent paxos packets so that each is ordered by its own paxosID.
+	 */
+	@Override
+	protected Collection<Object> unbatchForOrdering(Object msg) {
+		if (msg instanceof net.minidev.json.JSONObject)
+			try {
+				if (PaxosPacket
+						.getPaxosPacketType((net.minidev.json.JSONObject) msg) == PaxosPacketType.BATCHED_PAXOS_PACKET)
+					msg = toPaxosPacket((net.minidev.json.JSONObject) msg,
+							this.unstringer);
+			} catch (JSONException e) {
+				e.printStackTrace();
+				return null;
+			}
+		return msg instanceof BatchedPaxosPacket ? new ArrayList<Object>(
+				((BatchedPaxosPacket) msg).getPaxosPackets()) : null;
+	}
+
 	private static net.minidev.json.JSONObject insertStringifiedSelf(
 			net.minidev.json.JSONObject json, String message) {
 		// sigh: we need the string to avoid restringification overhead
@@ -359,4 +557,208 @@ public abstract class PaxosPacketDemultiplexerFast extends
 		}
 		return json;
 	}
+
+	/**
+	 * Round-trip tests for byteified paxos packets.
+	 */
+	public static class PaxosPacketDemultiplexerFastTest extends DefaultTest {
+		private static final String GROUP = "byteified_group";
+		private static final int VERSION = 3;
+
+		private static PaxosPacket roundTrip(PaxosPacket pp)
+				throws UnsupportedEncodingException, UnknownHostException {
+			pp.putPaxosID(GROUP, VERSION);
+			Assert.assertTrue(pp.getType().toString(), isByteable(pp.getType()));
+			byte[] bytes = ((Byteable) pp).toBytes();
+			Assert.assertTrue(isByteable(bytes, null));
+
+			ByteBuffer bbuf = ByteBuffer.wrap(bytes);
+			Assert.assertEquals(pp.getType(), PaxosPacket.getType(bbuf));
+			Assert.assertEquals(GROUP, PaxosPacket.getPaxosID(bbuf));
+			Assert.assertEquals(VERSION, PaxosPacket.getVersion(bbuf));
+
+			PaxosPacket decoded = toPaxosPacket(bbuf, null, null);
+			Assert.assertEquals(stringify(pp), stringify(decoded));
+			return decoded;
+		}
+
+		private static String stringify(PaxosPacket pp) {
+			try {
+				net.minidev.json.JSONObject jsonSmart = pp.toJSONSmart();
+				return jsonSmart != null ? jsonSmart.toString() : pp.toString();
+			} catch (JSONException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * @throws Exception
+		 */
+		@Test
+		public void testRoundTrips() throws Exception {
+			Ballot ballot = new Ballot(23, 7);
+			PValuePacket pvalue = RequestPacket.getRandomPValue(GROUP,
+					VERSION, 41, ballot);
+
+			roundTrip(new PreparePacket(ballot, 17));
+			roundTrip(new SyncDecisionsPacket(2, 100,
+					new ArrayList<Integer>(Arrays.asList(3, 5, 8)), true));
+			roundTrip(new SyncDecisionsPacket(2, 100, null, true));
+			roundTrip(new StatePacket(ballot, 40, "some_state"));
+			List<String> deltas = Arrays.asList("d1", "", "#d3");
+			Assert.assertEquals(deltas, ((StatePacket) roundTrip(new StatePacket(
+					ballot, 40, null, deltas))).deltas);
+			Assert.assertEquals(deltas, new StatePacket(new StatePacket(ballot,
+					40, "some_state", deltas).toJSONObject()).deltas);
+			Assert.assertNull(((StatePacket) roundTrip(new StatePacket(ballot,
+					40, "some_state", new ArrayList<String>()))).deltas);
+			roundTrip(new FindReplicaGroupPacket(new int[] { 1, 2, 3 },
+					new FindReplicaGroupPacket(4, pvalue)));
+			roundTrip(new AcceptReplyPacket(4, ballot, 41, 30));
+			AcceptPacket accept = new AcceptPacket(7, pvalue, 30);
+			accept.getDigest(PendingDigests.getMessageDigest());
+			roundTrip(new BatchedAccept(accept, new HashSet<Integer>(Arrays
+					.asList(1, 4, 7))));
+			roundTrip(new PValuePacket(pvalue).makeDecision(30));
+			roundTrip(new PValuePacket(pvalue).preempt());
+
+			Map<Integer, PValuePacket> accepted = new HashMap<Integer, PValuePacket>();
+			accepted.put(41, pvalue);
+			accepted.put(42, RequestPacket.getRandomPValue(GROUP, VERSION, 42,
+					ballot));
+			roundTrip(new PrepareReplyPacket(4, ballot, accepted, 30));
+
+			BatchedPaxosPacket batched = new BatchedPaxosPacket(
+					new PaxosPacket[] {
+							new PValuePacket(pvalue).makeDecision(30),
+							new AcceptReplyPacket(4, ballot, 41, 30)
+									.putPaxosID(GROUP, VERSION) });
+			Assert.assertEquals(2,
+					((BatchedPaxosPacket) roundTrip(batched)).size());
+		}
+
+		/**
+		 * @throws Exception
+		 */
+		@Test
+		public void testLazyAccessors() throws Exception {
+			Ballot ballot = new Ballot(23, 7);
+			PValuePacket pvalue = RequestPacket.getRandomPValue(GROUP,
+					VERSION, 41, ballot);
+			PaxosPacket[] packets = {
+					new AcceptPacket(7, pvalue, 30),
+					new PValuePacket(pvalue).makeDecision(30),
+					new AcceptReplyPacket(4, ballot, 41, 30)
+							.putPaxosID(GROUP, VERSION),
+					new StatePacket(ballot, 41, "some_state").putPaxosID(
+							GROUP, VERSION),
+					new PreparePacket(ballot, 17).putPaxosID(GROUP, VERSION) };
+			for (PaxosPacket pp : packets) {
+				ByteBuffer bbuf = ByteBuffer.wrap(((Byteable) pp).toBytes());
+				Assert.assertEquals(pp.getType().toString(), ballot,
+						PaxosPacket.getBallot(bbuf));
+				Assert.assertEquals(
+						pp.getType().toString(),
+						pp.getType() == PaxosPacketType.PREPARE ? null : 41,
+						PaxosPacket.getSlot(bbuf));
+				// accessors must not move the position
+				Assert.assertEquals(0, bbuf.position());
+			}
+		}
+
+		/**
+		 * Interleaves single and batched (byteified and json) packets for
+		 * several groups and checks that each group's packets are handled
+		 * in the order received and that single packets are decoded only
+		 * in their lanes.
+		 * 
+		 * @throws Exception
+		 */
+		@Test
+		public void testOrderingLanes() throws Exception {
+			final int numGroups = 8, numSlots = 200;
+			final Map<String, List<Integer>> handled = new HashMap<String, List<Integer>>();
+			for (int g = 0; g < numGroups; g++)
+				handled.put(GROUP + g,
+						Collections.synchronizedList(new ArrayList<Integer>()));
+			final CountDownLatch latch = new CountDownLatch(numGroups
+					* numSlots);
+			final AtomicInteger deferred = new AtomicInteger(0);
+			PaxosPacketDemultiplexerFast demux = new PaxosPacketDemultiplexerFast(
+					2) {
+				@Override
+				public boolean handleMessage(Object msg, NIOHeader header) {
+					if (msg instanceof byte[])
+						deferred.incrementAndGet();
+					AcceptReplyPacket reply = (AcceptReplyPacket) this
+							.decodeDeferred(msg, header);
+					// slow handler so that misrouted packets overtake
+					if (reply.slotNumber % 3 != 0)
+						try {
+							Thread.sleep(0, 100000);
+						} catch (InterruptedException e) {
+							e.printStackTrace();
+						}
+					handled.get(reply.getPaxosID()).add(reply.slotNumber);
+					latch.countDown();
+					return true;
+				}
+
+				@Override
+				protected boolean matchesType(Object message) {
+					return message instanceof PaxosPacket;
+				}
+			};
+			demux.register(PaxosPacketType.PAXOS_PACKET);
+			demux.setNumOrderingLanes(4);
+			NIOHeader header = new NIOHeader(new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), 2000),
+					new InetSocketAddress(InetAddress.getLoopbackAddress(),
+							2001));
+			Ballot ballot = new Ballot(23, 7);
+			for (int slot = 0; slot < numSlots; slot++) {
+				PaxosPacket[] replies = new PaxosPacket[numGroups];
+				for (int g = 0; g < numGroups; g++)
+					replies[g] = new AcceptReplyPacket(4, ballot, slot, 30)
+							.putPaxosID(GROUP + g, VERSION);
+				if (slot % 3 != 0)
+					for (PaxosPacket reply : replies)
+						Assert.assertTrue(demux.handleMessageSuper(
+								((Byteable) reply).toBytes(), header));
+				else {
+					BatchedPaxosPacket batched = new BatchedPaxosPacket(
+							replies);
+					Assert.assertTrue(demux.handleMessageSuper(
+							slot % 2 == 0 ? batched.toBytes() : batched
+									.toJSONSmart().toString().getBytes(),
+							header));
+				}
+			}
+			Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+			for (List<Integer> slots : handled.values())
+				for (int slot = 0; slot < numSlots; slot++)
+					Assert.assertEquals(slot, (int) slots.get(slot));
+			// all but the batched slots 0, 3, 6, ...
+			Assert.assertEquals(numGroups * (numSlots - (numSlots + 2) / 3),
+					deferred.get());
+			demux.stop();
+		}
+
+		/**
+		 * @throws Exception
+		 */
+		@Test
+		public void testFailureDetection() throws Exception {
+			FailureDetectionPacket<String> fdp = new FailureDetectionPacket<String>(
+					"node1", "node2", true);
+			byte[] bytes = fdp.toBytes();
+			Stringifiable<String> unstringer = new StringifiableDefault<String>(
+					"");
+			Assert.assertFalse(isByteable(bytes, null));
+			Assert.assertTrue(isByteable(bytes, unstringer));
+			PaxosPacket decoded = toPaxosPacket(ByteBuffer.wrap(bytes),
+					unstringer, null);
+			Assert.assertEquals(fdp.toString(), decoded.toString());
+		}
+	}
 }
@@ -34,6 +34,8 @@ public class RecoveryInfo {
 	final int version;
 	final Set<String> members;
 	private String state = null;
+	// full checkpoint if read along with state during recovery
+	private SlotBallotState checkpoint = null;
 
 	public RecoveryInfo(String id, int ver, String[] group) {
 		this.paxosID = id;
@@ -48,6 +50,11 @@ public class RecoveryInfo {
 		this.state = state;
 	}
 
+	public RecoveryInfo(String id, String[] group, SlotBallotState checkpoint) {
+		this(id, checkpoint.version, group, checkpoint.state);
+		this.checkpoint = checkpoint;
+	}
+
 	public String getPaxosID() {
 		return paxosID;
 	}
@@ -64,6 +71,14 @@ public class RecoveryInfo {
 		return this.state;
 	}
 
+	/**
+	 * @return The checkpoint including slot and ballot if it was read along
+	 *         with the state, else null.
+	 */
+	public SlotBallotState getCheckpoint() {
+		return this.checkpoint;
+	}
+
 	public String toString() {
 		String s = "", group = "[";
 		for (String member : this.members)
@@ -17,6 +17,7 @@
  */
 package edu.umass.cs.gigapaxos.paxosutil;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -34,21 +35,39 @@ public class SlotBallotState {
 	 * The checkpointed state.
 	 */
 	public final String state;
+	/**
+	 * Delta checkpoints in order on top of {@link #state}, or null if none.
+	 */
+	public final List<String> deltas;
 	
 	public final int version;
 	public final long createTime;
 	public final Set<String> members;
 
 	public SlotBallotState(int s, int bn, int c, String st, int version, long createTime, Set<String> members) {
+		this(s, bn, c, st, null, version, createTime, members);
+	}
+
+	public SlotBallotState(int s, int bn, int c, String st,
+			List<String> deltas, int version, long createTime,
+			Set<String> members) {
 		this.slot = s;
 		this.ballotnum = bn;
 		this.coordinator = c;
 		this.state = st;
+		this.deltas = deltas != null && !deltas.isEmpty() ? deltas : null;
 		this.version = version;
 		this.createTime = createTime;
 		this.members = members;
 	}
 
+	/**
+	 * @return True if there are deltas on top of {@link #state}.
+	 */
+	public boolean hasDeltas() {
+		return this.deltas != null;
+	}
+
 	public int getSlot() {
 		return this.slot;
 	}
@@ -70,6 +89,7 @@ public class SlotBallotState {
 
 	public String toString() {
 		return "[slot=" + slot + ", ballot=" + ballotnum + ":" + coordinator
-				+ ", state = " + state + "]";
+				+ ", state = " + state
+				+ (deltas != null ? ", deltas = " + deltas.size() : "") + "]";
 	}
 }
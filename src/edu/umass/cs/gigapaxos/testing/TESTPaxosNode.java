@@ -227,6 +227,12 @@ public class TESTPaxosNode {
 			TESTPaxosConfig.setConsoleHandler();
 			NIOTransport.setUseSenderTask(Config
 					.getGlobalBoolean(PC.USE_NIO_SENDER_TASK));
+			NIOTransport.setNumReactors(Config
+					.getGlobalInt(PC.NIO_REACTOR_THREADS));
+			NIOTransport.setUsePooledBuffers(Config
+					.getGlobalBoolean(PC.NIO_POOLED_BUFFERS));
+			NIOTransport.setSendQueueHighWatermark(Config
+					.getGlobalLong(PC.NIO_SEND_QUEUE_HIGH_WATERMARK));
 			int myID = processArgs(args);
 			TESTPaxosNode me = new TESTPaxosNode(myID,
 					TESTPaxosConfig.getFromPaxosConfig(), false);
@@ -16,6 +16,7 @@
 package edu.umass.cs.nio;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -33,6 +34,7 @@ import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.interfaces.PacketDemultiplexer;
 import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
+import edu.umass.cs.utils.LaneExecutor;
 import edu.umass.cs.utils.Stringer;
 
 import java.util.logging.Level;
@@ -91,6 +93,8 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 	}
 
 	private final ScheduledThreadPoolExecutor executor;
+	// non-null only if ordering lanes are enabled
+	private volatile LaneExecutor lanes = null;
 	private final HashMap<Integer, PacketDemultiplexer<MessageType>> demuxMap = new HashMap<Integer, PacketDemultiplexer<MessageType>>();
 	private final Set<Integer> orderPreservingTypes = new HashSet<Integer>();
 	protected static final Logger log = NIOTransport.getLogger();
@@ -137,6 +141,103 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 		return this;
 	}
 
+	/**
+	 * Maximum number of queued messages per ordering lane beyond which
+	 * further messages for that lane are dropped.
+	 */
+	public static final int ORDERING_LANE_CAPACITY = 8192;
+
+	/**
+	 * Enables dispatch of messages with a non-null
+	 * {@link #getOrderingKey(Object)} to a fixed set of single-threaded lanes
+	 * chosen by hashing the key. Messages with equal keys are processed in
+	 * the order received, and messages with keys hashing to different lanes
+	 * are processed in parallel. Such messages are neither processed in the
+	 * NIO thread even if {@link #isOrderPreserving(Object)} is true nor
+	 * processed by the thread pool. A batch for which
+	 * {@link #unbatchForOrdering(Object)} is non-null is split up and each
+	 * part is dispatched to its own lane. Messages with a null ordering key
+	 * are dispatched as before.
+	 * 
+	 * The NIO thread never blocks on a lane. A message whose lane already
+	 * holds {@link #ORDERING_LANE_CAPACITY} messages is dropped, so
+	 * handlers of messages with ordering keys must tolerate loss, e.g.,
+	 * through retransmissions, and should still return quickly.
+	 * 
+	 * @param numLanes
+	 *            A value less than 1 disables ordering lanes.
+	 * @return {@code this}
+	 */
+	public synchronized AbstractPacketDemultiplexer<MessageType> setNumOrderingLanes(
+			int numLanes) {
+		if (this.lanes != null)
+			this.lanes.shutdownNow();
+		this.lanes = numLanes > 0 ? new LaneExecutor(this.threadName,
+				numLanes, ORDERING_LANE_CAPACITY) : null;
+		return this;
+	}
+
+	/**
+	 * @return True if messages with a non-null ordering key are dispatched to
+	 *         ordering lanes.
+	 */
+	protected boolean hasOrderingLanes() {
+		return this.myThreadPoolSize > 0 && this.lanes != null;
+	}
+
+	/**
+	 * @param message
+	 * @return The key determining the ordering lane for {@code message} if
+	 *         ordering lanes are enabled. The default implementation returns
+	 *         null, i.e., no ordering key.
+	 */
+	protected Object getOrderingKey(MessageType message) {
+		return null;
+	}
+
+	/**
+	 * @param message
+	 * @return The constituent messages of {@code message} if it is a batch
+	 *         whose parts may have different ordering keys, else null. Each
+	 *         part must be of a registered packet type. The default
+	 *         implementation returns null.
+	 */
+	protected Collection<MessageType> unbatchForOrdering(MessageType message) {
+		return null;
+	}
+
+	/* Never blocks the NIO thread. A full lane drops the message as a lossy
+	 * link would; dropping, unlike spilling to the thread pool, preserves
+	 * per-key order of the messages that do get processed. */
+	private boolean dispatchToLane(LaneExecutor lanes, Object key,
+			Tasker tasker) {
+		if (lanes.offer(key, tasker))
+			return true;
+		log.log(Level.WARNING,
+				"{0} dropping message {1} as ordering lane {2} is full",
+				new Object[] { this, tasker.json, lanes.getLane(key) });
+		return false;
+	}
+
+	private boolean dispatchToLanes(LaneExecutor lanes,
+			Collection<MessageType> parts, NIOHeader header) {
+		boolean dispatched = true;
+		for (MessageType part : parts) {
+			Integer type = getPacketType(part);
+			PacketDemultiplexer<MessageType> pd = type != null ? this.demuxMap
+					.get(type) : null;
+			if (pd == null) {
+				log.log(Level.FINER,
+						"{0} ignoring unknown packet type {1} in batch: {2}",
+						new Object[] { this, type, part });
+				continue;
+			}
+			dispatched = this.dispatchToLane(lanes, this.getOrderingKey(part),
+					new Tasker(part, pd, header)) && dispatched;
+		}
+		return dispatched;
+	}
+
 	/**
 	 * 
 	 */
@@ -179,7 +280,18 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 			return false;
 		}
 		Tasker tasker = new Tasker(message, this.demuxMap.get(type), header);
-		if (this.myThreadPoolSize == 0 || isOrderPreserving(message)) {
+		LaneExecutor lanes = this.lanes;
+		Collection<MessageType> parts = null;
+		Object key = null;
+		if (this.myThreadPoolSize > 0 && lanes != null
+				&& (parts = this.unbatchForOrdering(message)) != null)
+			// each part goes to the lane for its own key
+			return this.dispatchToLanes(lanes, parts, header);
+		else if (this.myThreadPoolSize > 0 && lanes != null
+				&& (key = this.getOrderingKey(message)) != null)
+			// preserves order per key without using the selector thread
+			return this.dispatchToLane(lanes, key, tasker);
+		else if (this.myThreadPoolSize == 0 || isOrderPreserving(message)) {
 			log.log(Level.FINER,
 					"{0} handling message type {1} in selector thread; this can cause "
 							+ "deadlocks if the handler involves blocking operations",
@@ -328,6 +440,9 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 	 */
 	public void stop() {
 		this.executor.shutdown();
+		// queued lane tasks are discarded so that stop never blocks
+		if (this.lanes != null)
+			this.lanes.shutdownNow();
 	}
 
 	// helper task for handleMessageSuper
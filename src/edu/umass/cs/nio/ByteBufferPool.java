@@ -0,0 +1,188 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         A size-classed pool of direct byte buffers. Size classes are powers
+ *         of two between {@link #MIN_SIZE_CLASS} and the maximum pooled size
+ *         specified in the constructor. A request bigger than the maximum
+ *         pooled size is served by a regular heap buffer that is simply
+ *         garbage collected upon release.
+ *
+ *         Buffers must be explicitly released by the consumer once it is done
+ *         with them and must not be used after release. Releasing a buffer
+ *         that did not come from the pool is harmless as it will be ignored
+ *         unless it looks exactly like a pooled buffer, i.e., it is direct and
+ *         its capacity is a size class.
+ *
+ *         This class is thread-safe.
+ */
+public class ByteBufferPool {
+
+	/**
+	 * Smallest size class.
+	 */
+	public static final int MIN_SIZE_CLASS = 64;
+
+	/**
+	 * Upper bound on the total bytes of free buffers retained per size class.
+	 */
+	private static final int MAX_FREE_BYTES_PER_CLASS = 8 * 1024 * 1024;
+
+	/**
+	 * Upper bound on the number of free buffers retained per size class.
+	 */
+	private static final int MAX_FREE_BUFFERS_PER_CLASS = 1024;
+
+	private static final int MIN_SHIFT = Integer
+			.numberOfTrailingZeros(MIN_SIZE_CLASS);
+
+	private final int maxPooledSize;
+	private final ConcurrentLinkedQueue<ByteBuffer>[] freeLists;
+	// ConcurrentLinkedQueue.size() is linear time
+	private final AtomicInteger[] freeCounts;
+	private final int[] maxFree;
+
+	/**
+	 * @param maxPooledSize
+	 *            Rounded up to a power of two.
+	 */
+	@SuppressWarnings("unchecked")
+	public ByteBufferPool(int maxPooledSize) {
+		int numClasses = sizeClass(Math.max(maxPooledSize, MIN_SIZE_CLASS)) + 1;
+		this.maxPooledSize = classSize(numClasses - 1);
+		this.freeLists = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[numClasses];
+		this.freeCounts = new AtomicInteger[numClasses];
+		this.maxFree = new int[numClasses];
+		for (int i = 0; i < numClasses; i++) {
+			this.freeLists[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			this.freeCounts[i] = new AtomicInteger(0);
+			this.maxFree[i] = Math.max(1, Math.min(MAX_FREE_BUFFERS_PER_CLASS,
+					MAX_FREE_BYTES_PER_CLASS / classSize(i)));
+		}
+	}
+
+	/**
+	 * @param size
+	 * @return A cleared buffer with limit {@code size} and capacity equal to
+	 *         the smallest size class that is at least {@code size}.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size > this.maxPooledSize)
+			return ByteBuffer.allocate(size);
+		int sizeClass = sizeClass(size);
+		ByteBuffer buf = this.freeLists[sizeClass].poll();
+		if (buf != null)
+			this.freeCounts[sizeClass].decrementAndGet();
+		else
+			buf = ByteBuffer.allocateDirect(classSize(sizeClass));
+		buf.clear().limit(size);
+		return buf;
+	}
+
+	/**
+	 * @param buf
+	 * @return True if {@code buf} was returned to the pool.
+	 */
+	public boolean release(ByteBuffer buf) {
+		if (buf == null || !buf.isDirect() || buf.capacity() > this.maxPooledSize
+				|| buf.capacity() < MIN_SIZE_CLASS
+				|| Integer.bitCount(buf.capacity()) != 1)
+			return false;
+		int sizeClass = sizeClass(buf.capacity());
+		if (this.freeCounts[sizeClass].incrementAndGet() > this.maxFree[sizeClass]) {
+			this.freeCounts[sizeClass].decrementAndGet();
+			return false;
+		}
+		this.freeLists[sizeClass].offer(buf);
+		return true;
+	}
+
+	/**
+	 * @return The largest pooled size.
+	 */
+	public int getMaxPooledSize() {
+		return this.maxPooledSize;
+	}
+
+	// smallest i such that classSize(i) >= size
+	private static int sizeClass(int size) {
+		if (size <= MIN_SIZE_CLASS)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	private static int classSize(int sizeClass) {
+		return MIN_SIZE_CLASS << sizeClass;
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + ":" + this.maxPooledSize;
+	}
+
+	/**
+	 * Unit tests for {@link ByteBufferPool}.
+	 */
+	public static class ByteBufferPoolTest extends DefaultTest {
+		/**
+		 *
+		 */
+		@Test
+		public void testSizeClasses() {
+			ByteBufferPool pool = new ByteBufferPool(1000);
+			Assert.assertEquals(1024, pool.getMaxPooledSize());
+			for (int size : new int[] { 0, 1, 63, 64, 65, 500, 512, 513, 1024 }) {
+				ByteBuffer buf = pool.acquire(size);
+				Assert.assertTrue(buf.isDirect());
+				Assert.assertEquals(size, buf.remaining());
+				Assert.assertTrue(buf.capacity() >= size
+						&& buf.capacity() < 2 * Math.max(size, MIN_SIZE_CLASS));
+			}
+			ByteBuffer big = pool.acquire(1025);
+			Assert.assertFalse(big.isDirect());
+			Assert.assertFalse(pool.release(big));
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testReuse() {
+			ByteBufferPool pool = new ByteBufferPool(4096);
+			ByteBuffer buf = pool.acquire(100);
+			buf.put((byte) 1);
+			Assert.assertTrue(pool.release(buf));
+			ByteBuffer reused = pool.acquire(120);
+			Assert.assertSame(buf, reused);
+			Assert.assertEquals(0, reused.position());
+			Assert.assertEquals(120, reused.limit());
+			// not a pool-shaped buffer
+			Assert.assertFalse(pool.release(ByteBuffer
+					.allocateDirect(100)));
+		}
+	}
+}
@@ -37,6 +37,7 @@ import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.InterfaceNIOTransport;
 import edu.umass.cs.nio.interfaces.NodeConfig;
 import edu.umass.cs.nio.interfaces.SSLMessenger;
+import edu.umass.cs.nio.interfaces.SendQueueCallback;
 import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Stringer;
@@ -531,6 +532,43 @@ public class JSONMessenger<NodeIDType> implements
 		return disconnected;
 	}
 
+	/**
+	 * Registers callback with the underlying transport and all workers as
+	 * sends to the same destination may be queued in any of them.
+	 * 
+	 * @param callback
+	 */
+	@SuppressWarnings("unchecked")
+	public void addSendQueueCallback(SendQueueCallback<NodeIDType> callback) {
+		if (this.nioTransport instanceof NIOTransport)
+			((NIOTransport<NodeIDType>) this.nioTransport)
+					.addSendQueueCallback(callback);
+		else if (this.nioTransport instanceof JSONMessenger)
+			((JSONMessenger<NodeIDType>) this.nioTransport)
+					.addSendQueueCallback(callback);
+		if (this.workers != null)
+			for (MessageNIOTransport<NodeIDType, JSONObject> worker : this.workers)
+				if (worker != null)
+					worker.addSendQueueCallback(callback);
+	}
+
+	/**
+	 * @param callback
+	 */
+	@SuppressWarnings("unchecked")
+	public void removeSendQueueCallback(SendQueueCallback<NodeIDType> callback) {
+		if (this.nioTransport instanceof NIOTransport)
+			((NIOTransport<NodeIDType>) this.nioTransport)
+					.removeSendQueueCallback(callback);
+		else if (this.nioTransport instanceof JSONMessenger)
+			((JSONMessenger<NodeIDType>) this.nioTransport)
+					.removeSendQueueCallback(callback);
+		if (this.workers != null)
+			for (MessageNIOTransport<NodeIDType, JSONObject> worker : this.workers)
+				if (worker != null)
+					worker.removeSendQueueCallback(callback);
+	}
+
 	@Override
 	public AddressMessenger<JSONObject> getClientMessenger(
 			InetSocketAddress listenSockAddr) {
@@ -19,19 +19,25 @@ import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
 import edu.umass.cs.nio.interfaces.DataProcessingWorker;
 import edu.umass.cs.nio.interfaces.HandshakeCallback;
 import edu.umass.cs.nio.interfaces.NodeConfig;
+import edu.umass.cs.nio.interfaces.SendQueueCallback;
 import edu.umass.cs.nio.nioutils.DataProcessingWorkerDefault;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
 import edu.umass.cs.nio.nioutils.RTTEstimator;
 import edu.umass.cs.nio.nioutils.SampleNodeConfig;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
+import edu.umass.cs.utils.LatencyHistogram;
 import edu.umass.cs.utils.Stringer;
 import edu.umass.cs.utils.Util;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
@@ -51,11 +57,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -63,6 +72,9 @@ import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
+import org.junit.Assert;
+import org.junit.Test;
+
 /**
  * @author V. Arun
  * @param <NodeIDType>
@@ -112,14 +124,24 @@ import java.util.zip.Inflater;
  *            demand by an application thread or by the selector thread when it
  *            tries to actually write the data to a socket channel and
  *            encounters an exception.
+ * 
+ *            Optionally, {@link #setNumReactors(int)} can be used to shard
+ *            socket channels across multiple reactor threads, each with its own
+ *            selector. In that mode, the main selector thread only accepts and
+ *            finishes connections and then hands off each socket channel to a
+ *            reactor chosen by hashing the channel. The reactor performs all
+ *            subsequent reads and writes on that channel, so per-connection
+ *            ordering is preserved while different connections are processed
+ *            in parallel. Reactors are not used with SSL.
  */
 public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 	/**
 	 * Number of sends that can be queued because the connection was established
 	 * but the remote end crashed before the send was complete. Note that this
-	 * is the number of packets, not bytes. Currently, there is no way to set a
-	 * byte limit for the queue size.
+	 * is the number of packets, not bytes. The number of queued bytes is not
+	 * limited but is signaled to {@link SendQueueCallback}s using the
+	 * {@link #sendQueueHighWatermark sendQueueHighWatermark}.
 	 */
 	public static final int MAX_QUEUED_SENDS = 1024 * 128;
 	private int maxQueuedSends = MAX_QUEUED_SENDS;
@@ -154,6 +176,86 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return this.minInterConnectTime;
 	}
 
+	/**
+	 * Number of reactor threads across which socket channels are sharded. Zero
+	 * (default) means that the single selector thread does everything.
+	 */
+	private static int numReactors = 0;
+
+	/**
+	 * Must be invoked before the NIOTransport instance is created in order to
+	 * take effect for that instance.
+	 * 
+	 * @param n
+	 *            Refer {@link #numReactors numReactors}.
+	 */
+	public static final void setNumReactors(int n) {
+		numReactors = Math.max(0, n);
+	}
+
+	/**
+	 * @return Number of reactor threads used by newly created instances.
+	 */
+	public static final int getNumReactors() {
+		return numReactors;
+	}
+
+	/**
+	 * Whether message bodies are read into and sent out of pooled direct
+	 * buffers. Compression, if enabled, disables pooling on the receive side
+	 * as inflation needs an array-backed buffer.
+	 */
+	private static boolean usePooledBuffers = true;
+
+	/**
+	 * @param b
+	 *            Refer {@link #usePooledBuffers usePooledBuffers}.
+	 */
+	public static final void setUsePooledBuffers(boolean b) {
+		usePooledBuffers = b;
+	}
+
+	/**
+	 * @return Whether pooled buffers are used.
+	 */
+	public static final boolean getUsePooledBuffers() {
+		return usePooledBuffers;
+	}
+
+	/**
+	 * Default {@link #sendQueueHighWatermark sendQueueHighWatermark}.
+	 */
+	public static final long DEFAULT_SEND_QUEUE_HIGH_WATERMARK = 4 * 1024 * 1024;
+
+	/**
+	 * Bytes queued for a destination above which the destination is deemed
+	 * congested until the queue drains to below half as many bytes.
+	 * Transitions are reported to registered {@link SendQueueCallback}s. Zero
+	 * disables congestion tracking.
+	 */
+	private static long sendQueueHighWatermark = DEFAULT_SEND_QUEUE_HIGH_WATERMARK;
+
+	/**
+	 * @param bytes
+	 *            Refer {@link #sendQueueHighWatermark sendQueueHighWatermark}.
+	 */
+	public static final void setSendQueueHighWatermark(long bytes) {
+		sendQueueHighWatermark = Math.max(0, bytes);
+	}
+
+	/**
+	 * @return Send queue high watermark in bytes.
+	 */
+	public static final long getSendQueueHighWatermark() {
+		return sendQueueHighWatermark;
+	}
+
+	/* Shared across all instances as a node typically has a few NIOTransport
+	 * instances sending and receiving similarly sized messages. Bigger
+	 * messages get regular heap buffers. */
+	private static final ByteBufferPool bufferPool = new ByteBufferPool(
+			1024 * 1024);
+
 	/**
 	 * Hint to set socket buffer size (that may be ignored by the system).
 	 */
@@ -201,7 +303,70 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 	/* The key is a socket address and the value is a list of messages to be
 	 * sent to that socket address. */
-	private final ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>> sendQueues = new ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>>();
+	private final ConcurrentHashMap<InetSocketAddress, SendQueue> sendQueues = new ConcurrentHashMap<InetSocketAddress, SendQueue>();
+
+	/* A send queue that also remembers since when its head message has been
+	 * waiting, i.e., since it last became non-empty or was last drained, and
+	 * the number of bytes in whole messages queued, which is the credit
+	 * consumed by the destination against the send queue watermarks. */
+	@SuppressWarnings("serial")
+	private static class SendQueue extends LinkedBlockingQueue<ByteBuffer> {
+		volatile long waitingSince = System.nanoTime();
+		final AtomicLong bytes = new AtomicLong(0);
+		volatile boolean congested = false;
+	}
+
+	private final CopyOnWriteArrayList<SendQueueCallback<NodeIDType>> sendQueueCallbacks = new CopyOnWriteArrayList<SendQueueCallback<NodeIDType>>();
+
+	/**
+	 * @param callback
+	 *            Notified when the send queue to a destination crosses the
+	 *            {@link #sendQueueHighWatermark sendQueueHighWatermark} or
+	 *            drains below half of it.
+	 */
+	public void addSendQueueCallback(SendQueueCallback<NodeIDType> callback) {
+		this.sendQueueCallbacks.addIfAbsent(callback);
+	}
+
+	/**
+	 * @param callback
+	 * @return True if callback was registered.
+	 */
+	public boolean removeSendQueueCallback(
+			SendQueueCallback<NodeIDType> callback) {
+		return this.sendQueueCallbacks.remove(callback);
+	}
+
+	/* Invoked after every change to sendQueue.bytes. Checks the watermarks
+	 * without locking in the common case and re-evaluates under the queue's
+	 * lock so that concurrent enqueues and drains report each transition
+	 * exactly once. */
+	private void updateCongestion(InetSocketAddress isa, SendQueue sendQueue) {
+		long high = getSendQueueHighWatermark();
+		if (high <= 0 || this.sendQueueCallbacks.isEmpty())
+			return;
+		long bytes = sendQueue.bytes.get();
+		if (sendQueue.congested ? bytes >= high / 2 : bytes <= high)
+			return;
+		synchronized (sendQueue) {
+			bytes = sendQueue.bytes.get();
+			boolean congested = sendQueue.congested ? bytes >= high / 2
+					: bytes > high;
+			if (congested == sendQueue.congested)
+				return;
+			sendQueue.congested = congested;
+			log.log(Level.FINE, "{0} send queue to {1} {2} with {3} bytes",
+					new Object[] { this, isa,
+							congested ? "congested" : "decongested", bytes });
+			NodeIDType node = this.getNodeID(isa);
+			for (SendQueueCallback<NodeIDType> callback : this.sendQueueCallbacks)
+				callback.congestionChanged(isa, node, congested);
+		}
+	}
+
+	// head-of-line wait in a send queue, one sample per (partial) drain
+	private static final LatencyHistogram SEND_QUEUE_WAIT = DelayProfiler
+			.histogram("sendQueueWait");
 
 	/* Maps a socket address to a socket channel. The latter may change in case
 	 * a connection breaks and a new one needs to be initiated. */
@@ -214,6 +379,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 	private SenderTask senderTask;
 
+	// null unless reactors are enabled
+	private final ArrayList<Reactor> reactors;
+
 	private boolean started = false;
 
 	private boolean stopped = false;
@@ -258,6 +426,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				.getLocalAddress();
 		this.listeningAddress = this.listeningSocketAddress.getAddress();
 		this.listeningPort = this.listeningSocketAddress.getPort();
+		this.reactors = this.initReactors();
 
 		(me = (new Thread(this))).setName(getClass().getSimpleName() + ":"
 				+ (myID != null ? myID : "[]"));
@@ -414,9 +583,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 		testAndIntiateConnection(isa);
 		// we put length header in *all* messages
-		ByteBuffer bbuf = getHeaderedByteBuffer(data = this.deflate(data));
-		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa, bbuf)
-				: 0;
+		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa,
+				this.deflate(data)) : 0;
 		if(written > 0)
 			NIOInstrumenter.incrSent();
 		return written > 0 ? written - HEADER_SIZE : written;
@@ -464,13 +632,47 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	}
 
 	private static ByteBuffer getHeaderedByteBuffer(byte[] data) {
-		ByteBuffer bbuf = ByteBuffer.allocate(HEADER_SIZE + data.length);
+		ByteBuffer bbuf = allocate(HEADER_SIZE + data.length);
 		putHeaderLength(bbuf, data.length).put(data);
-		assert (!bbuf.hasRemaining() && bbuf.capacity() == (HEADER_SIZE + data.length));
+		assert (!bbuf.hasRemaining() && bbuf.limit() == (HEADER_SIZE + data.length));
 		bbuf.flip();
 		return bbuf;
 	}
 
+	private static ByteBuffer allocate(int size) {
+		return getUsePooledBuffers() ? bufferPool.acquire(size) : ByteBuffer
+				.allocate(size);
+	}
+
+	// must be invoked only after the last use of buf
+	private static void release(ByteBuffer buf) {
+		if (getUsePooledBuffers())
+			bufferPool.release(buf);
+	}
+
+	/* Per-thread header buffer and gather array for direct writes by
+	 * application threads so that the common uncongested send path neither
+	 * allocates nor copies the payload. */
+	private static final ThreadLocal<ByteBuffer[]> gatherBuffers = new ThreadLocal<ByteBuffer[]>() {
+		@Override
+		protected ByteBuffer[] initialValue() {
+			return new ByteBuffer[] { ByteBuffer.allocateDirect(HEADER_SIZE),
+					null };
+		}
+	};
+
+	/* Returns the payload length from the header at the beginning of buf
+	 * without modifying buf, or -1 if buf does not begin with a legitimate
+	 * header. */
+	private static int peekPayloadLength(ByteBuffer buf) {
+		if (buf.limit() < HEADER_SIZE)
+			return -1;
+		if (USE_PREAMBLE && buf.getInt(0) != PREAMBLE)
+			return -1;
+		int length = buf.getInt(USE_PREAMBLE ? Integer.BYTES : 0);
+		return outOfRange(length) ? -1 : length;
+	}
+
 	private static ByteBuffer putHeaderLength(ByteBuffer buf, int length) {
 		return (USE_PREAMBLE ? buf.putInt(PREAMBLE) : buf).putInt(length);
 	}
@@ -519,9 +721,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				// wait for an event one of the registered channels.
 				this.selector.select(SELECT_TIMEOUT);
 				// accept, connect, read, or write as needed.
-				processSelectedKeys();
+				processSelectedKeys(this.selector, this.writeBuffer);
 				// process data from pending buffers on congested channels
-				this.tryProcessCongested();
+				this.tryProcessCongested(this.selector);
 			} catch (Exception e) {
 				/* Can do little else here. Hopefully, the exceptions inside the
 				 * individual methods above have already been contained. */
@@ -553,6 +755,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (this.senderTask != null)
 			this.senderTask.close();
 		this.selector.wakeup();
+		if (this.reactors != null)
+			for (Reactor reactor : this.reactors)
+				reactor.selector.wakeup();
 	}
 
 	/**
@@ -593,11 +798,12 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return node != null ? this.lastFailed.containsKey(node) : false;
 	}
 
-	// Invoked only by the selector thread. Typical nio event handling code.
-	private void processSelectedKeys() {
+	/* Invoked only by the selector thread or by a reactor thread for its own
+	 * selector. Typical nio event handling code. */
+	private void processSelectedKeys(Selector selector, ByteBuffer writeBuffer) {
 		// Iterate over the set of keys for which events are available
 		Collection<SelectionKey> selected = // new ArrayList<SelectionKey>
-		(this.selector.selectedKeys());
+		(selector.selectedKeys());
 		Iterator<SelectionKey> selectedKeys = selected.iterator();
 		//Collections.shuffle(selected); // to mix in reads and writes
 
@@ -617,10 +823,11 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				if (key.isValid() && key.isConnectable())
 					this.finishConnection(key);
 				if (key.isValid() && key.isWritable())
-					if (useSenderTask() && this.senderTask != null)
+					if (useSenderTask() && this.senderTask != null
+							&& selector == this.selector)
 						this.senderTask.addKey(key);
 					else
-						this.write(key);
+						this.write(key, writeBuffer);
 				if (key.isValid() && key.isReadable())
 					this.read(key);
 			} catch (IOException | CancelledKeyException e) {
@@ -635,7 +842,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				cleanupSSL(key);
 			}
 		}
-		this.selector.selectedKeys().clear();
+		selector.selectedKeys().clear();
 	}
 
 	private void updateFailed(SelectionKey key) {
@@ -710,6 +917,19 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		RTTEstimator.record(((InetSocketAddress) socketChannel
 				.getRemoteAddress()).getAddress());
 
+		// hand off reads and writes to the channel's reactor
+		if (this.reactors != null) {
+			if (DUPLEX_CONNECTIONS)
+				this.putSockAddrToSockChannel(
+						(InetSocketAddress) socketChannel.getRemoteAddress(),
+						socketChannel);
+			this.getReactor(socketChannel).register(
+					socketChannel,
+					SelectionKey.OP_READ
+							| (DUPLEX_CONNECTIONS ? SelectionKey.OP_WRITE : 0));
+			return;
+		}
+
 		/* Register the new SocketChannel with our Selector, indicating we'd
 		 * like to be notified when there's data waiting to be read. We could
 		 * have also use key.selector() below. */
@@ -834,7 +1054,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 						+ " on channel " + socketChannel);
 			}
 			// allocate new buffer and read payload
-			bbuf = (abbuf.bodyBuf = ByteBuffer.allocate(length));
+			bbuf = (abbuf.bodyBuf = (getCompression() ? ByteBuffer
+					.allocate(length) : allocate(length)));
 			socketChannel.read(bbuf);
 		}
 
@@ -847,11 +1068,14 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 							this,
 							Thread.currentThread().getId(),
 							socketChannel,
-							log.isLoggable(level) ? new Stringer(bbuf.array(),
-									bbuf.position(), bbuf.remaining()) : "" });
+							log.isLoggable(level) && bbuf.hasArray() ? new Stringer(
+									bbuf.array(), bbuf.position(), bbuf
+											.remaining()) : "" });
 			this.worker.processData(socketChannel, this.inflate(bbuf));
 			// clear header to prepare to read the next message
 			if (!bbuf.hasRemaining()) {
+				// worker must have copied out everything it needs by now
+				release(bbuf);
 				abbuf.clear();
 				this.congested.remove(key);
 			}
@@ -870,11 +1094,16 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		 * notwithstanding. */
 	}
 
-	private void tryProcessCongested() throws IOException {
+	/* Only keys registered with the calling thread's own selector are
+	 * processed, otherwise two threads could end up reading the same
+	 * channel. */
+	private void tryProcessCongested(Selector selector) throws IOException {
 		if (!this.congested.isEmpty())
 			for (Iterator<SelectionKey> keyIter = this.congested.keySet()
 					.iterator(); keyIter.hasNext();) {
 				SelectionKey key = keyIter.next();
+				if (key.selector() != selector)
+					continue;
 				if (key.isValid())
 					this.read(key);
 				else
@@ -948,6 +1177,13 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	/* Invoked only by the selector thread. If a write encounters an exception,
 	 * the selector thread may establish a new connection. */
 	private void write(SelectionKey key) throws IOException {
+		this.write(key, this.writeBuffer);
+	}
+
+	/* The write buffer is owned by the calling thread, i.e., the selector
+	 * thread, the sender task, or a reactor. */
+	private void write(SelectionKey key, ByteBuffer writeBuffer)
+			throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 		try {
 			InetSocketAddress isa = (InetSocketAddress) socketChannel
@@ -959,7 +1195,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				cleanupSSL(key);
 			} else {
 				// If all data written successfully, switch back to read mode.
-				if (this.writeAllPendingWrites(isa, socketChannel))
+				if (this.writeAllPendingWrites(isa, socketChannel, writeBuffer))
 					key.interestOps(SelectionKey.OP_READ);
 			}
 		} catch (IOException e) {
@@ -975,12 +1211,18 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				.getSockAddrFromSockChannel(socketChannel);
 		/* Invariant: if there is data buffered to a destination, we must have a
 		 * socket channel for it. */
+		SendQueue sendQueue = null;
 		synchronized (this.sendQueues) {
-			this.sendQueues.remove(sockAddr);
+			sendQueue = this.sendQueues.remove(sockAddr);
 			synchronized (this.sockAddrToSockChannel) {
 				this.sockAddrToSockChannel.remove(sockAddr);
 			}
 		}
+		// dropped data no longer counts against the destination
+		if (sendQueue != null) {
+			sendQueue.bytes.set(0);
+			this.updateCongestion(sockAddr, sendQueue);
+		}
 	}
 
 	private static boolean useSenderTask = false;
@@ -1059,16 +1301,18 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * the other side. Basically, socket exceptions are bad news and will likely
 	 * result in some missing data. */
 	private boolean writeAllPendingWrites(InetSocketAddress isa,
-			SocketChannel socketChannel) throws IOException {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues.get(isa);
+			SocketChannel socketChannel, ByteBuffer writeBuffer)
+			throws IOException {
+		SendQueue sendQueue = this.sendQueues.get(isa);
 		// possible if queuePendingWrite has not yet happened after connect
 		if (sendQueue == null)
 			return true;
 
 		if (SEND_BATCHED)
-			this.sendBatched(sendQueue, socketChannel);
+			this.sendBatched(sendQueue, socketChannel, writeBuffer);
 		else
 			this.sendUnbatched(sendQueue, socketChannel);
+		this.updateCongestion(isa, sendQueue);
 
 		if (sendQueue.isEmpty()) // check before locking
 			this.dequeueSendQueueIfEmpty(isa, sendQueue);
@@ -1080,8 +1324,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	private static boolean SEND_BATCHED = true; // default true
 
 	// dequeue and send one message at a time
-	private void sendUnbatched(LinkedBlockingQueue<ByteBuffer> sendQueue,
+	private void sendUnbatched(SendQueue sendQueue,
 			SocketChannel socketChannel) throws IOException {
+		boolean removed = false;
 		while (!sendQueue.isEmpty()) {
 			ByteBuffer buf0 = (ByteBuffer) sendQueue.peek();
 			this.wrapWrite(socketChannel, buf0); // hook to SSL here
@@ -1090,8 +1335,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			log.log(level, "{0} wrote \"{1}\" to {2}",
 					new Object[] {
 							this,
-							log.isLoggable(level) ? new Stringer(buf0.array())
-									: buf0, socketChannel });
+							log.isLoggable(level) && buf0.hasArray() ? new Stringer(
+									buf0.array()) : buf0, socketChannel });
 			if (buf0.remaining() > 0) {
 				log.log(Level.FINE,
 						"{0} socket buffer congested because of high load..",
@@ -1099,15 +1344,44 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				break;
 			}
 			assert (buf0.remaining() == 0);
-			sendQueue.remove(); // remove buf0
+			if (!removeHead(sendQueue, buf0))
+				break;
+			removed = true;
+		}
+		if (removed)
+			drained(sendQueue);
+	}
+
+	/* Removes and releases head if it is still at the head of sendQueue.
+	 * Heads are removed only through this method, both by the selector thread
+	 * draining the queue and by application threads discarding a partial
+	 * buffer upon reconnection, so a buffer is never released twice or
+	 * released while still queued. */
+	private static boolean removeHead(SendQueue sendQueue, ByteBuffer head) {
+		ByteBuffer removed = null;
+		synchronized (sendQueue) {
+			if (sendQueue.peek() != head)
+				return false;
+			removed = sendQueue.poll();
+			sendQueue.bytes.addAndGet(-removed.limit());
 		}
+		assert (removed == head);
+		release(removed);
+		return true;
+	}
+
+	private static void drained(SendQueue sendQueue) {
+		long now = System.nanoTime();
+		SEND_QUEUE_WAIT.record(now - sendQueue.waitingSince);
+		sendQueue.waitingSince = now;
 	}
 
 	// use a large bytebuffer to batch and send
-	private void sendBatched(LinkedBlockingQueue<ByteBuffer> sendQueue,
-			SocketChannel socketChannel) throws IOException {
+	private void sendBatched(SendQueue sendQueue,
+			SocketChannel socketChannel, ByteBuffer writeBuffer)
+			throws IOException {
 		// copy as much as possible into writeBuffer
-		this.writeBuffer.clear();
+		writeBuffer.clear();
 		for (ByteBuffer buf : sendQueue) {
 			if (writeBuffer.remaining() < buf.remaining())
 				// cut out exactly as much as writeBuffer can accommodate
@@ -1121,14 +1395,15 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 
 		// flip and send out
-		this.writeBuffer.flip();
-		int written = this.wrapWrite(socketChannel, this.writeBuffer);
+		writeBuffer.flip();
+		int written = this.wrapWrite(socketChannel, writeBuffer);
 		NIOInstrumenter.incrBytesSent(written);
 		// assert(this.writeBuffer.remaining()==0);
 		log.log(Level.FINEST, "{0} wrote {1} batched bytes to {2}",
 				new Object[] { this, written, socketChannel });
 
 		// remove exactly what got sent above
+		boolean removed = false;
 		while (!sendQueue.isEmpty()) {
 			ByteBuffer buf = sendQueue.peek();
 			int partial = buf.remaining() - written;
@@ -1139,12 +1414,16 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			}
 			// remove buf coz it got fully sent
 			written -= buf.remaining();
-			sendQueue.remove();
+			if (!removeHead(sendQueue, buf))
+				break;
+			removed = true;
 		}
+		if (removed)
+			drained(sendQueue);
 	}
 
 	private void dequeueSendQueueIfEmpty(InetSocketAddress isa,
-			LinkedBlockingQueue<ByteBuffer> sendQueue) {
+			SendQueue sendQueue) {
 		synchronized (this.sendQueues) {
 			// synchronized queue -> pendingWrites
 			if (sendQueue.isEmpty())
@@ -1206,32 +1485,60 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (!isComplete) {
 			/* Deregister write interest, but keep read interest coz we need it
 			 * for the handshake itself to complete. */
-			SelectionKey key = socketChannel.keyFor(this.selector);
+			SelectionKey key = this.keyFor(socketChannel);
 			if (key != null && key.isValid())
 				key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
 		}
 		return isComplete;
 	}
 
+	/* Tries a direct gather write of the header and the payload if nothing is
+	 * queued for isa, and queues whatever did not get written. The queued
+	 * buffer always holds the complete message with its position advanced past
+	 * the bytes already written, the same as a partial sneaky write. */
+	private int enqueueSend(InetSocketAddress isa, byte[] data)
+			throws IOException {
+		// lock because selector thread may remove sendQueue from sendQueues
+		synchronized (this.sendQueues) {
+			SendQueue sendQueue = this.sendQueues
+					.get(isa);
+			int written = 0;
+			if ((sendQueue == null || sendQueue.isEmpty())
+					&& (written = this.trySneakyGatherWrite(isa, data)) == HEADER_SIZE
+							+ data.length)
+				return written;
+			ByteBuffer bbuf = getHeaderedByteBuffer(data);
+			bbuf.position(written);
+			return this.enqueueSend(isa, bbuf);
+		}
+	}
+
 	// for application threads to queue sends for selector thread
 	private int enqueueSend(InetSocketAddress isa, ByteBuffer data)
 			throws IOException {
 
 		int queuedBytes = 0;
+		SendQueue sendQueue = null;
 		// lock because selector thread may remove sendQueue from sendQueues
 		synchronized (this.sendQueues) {
 			if (!this.sendQueues.containsKey(isa))
 				this.sendQueues.putIfAbsent(isa,
-						new LinkedBlockingQueue<ByteBuffer>());
-			LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues
+						new SendQueue());
+			sendQueue = this.sendQueues
 					.get(isa);
 			if (sendQueue.isEmpty() && (trySneakyWrite(isa, data))
-					&& data.remaining() == 0)
-				return data.capacity();
+					&& data.remaining() == 0) {
+				int length = data.limit();
+				release(data);
+				return length;
+			}
 
 			if (sendQueue.size() < getMaxQueuedSends()) {
+				if (sendQueue.isEmpty())
+					sendQueue.waitingSince = System.nanoTime();
 				sendQueue.add(data);
-				queuedBytes = data.capacity();
+				queuedBytes = data.limit();
+				sendQueue.bytes.addAndGet(queuedBytes);
 
 			} else {
 				log.log(Level.WARNING,
@@ -1242,6 +1549,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			}
 		}
 
+		if (queuedBytes > 0)
+			this.updateCongestion(isa, sendQueue);
+
 		if (queuedBytes > 0 && data.remaining() > 0)
 			// wake up selecting thread so it can push out the write
 			this.wakeupSelector(isa);
@@ -1250,9 +1560,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	}
 
 	private boolean canEnqueueSend(InetSocketAddress isa) {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = null;
+		SendQueue sendQueue = null;
 		return ((sendQueue = this.sendQueues.get(isa)) == null)
-				|| sendQueue.size() < MAX_QUEUED_SENDS;
+				|| sendQueue.size() < getMaxQueuedSends();
 	}
 
 	private void wakeupSelector(InetSocketAddress isa) {
@@ -1265,7 +1575,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (sc != null && sc.isConnected() && this.isHandshakeComplete(sc))
 			try {
 				// set op to write if not already set
-				if ((key = sc.keyFor(this.selector)) != null && key.isValid()
+				if ((key = this.keyFor(sc)) != null && key.isValid()
 				// && (key.interestOps() & SelectionKey.OP_WRITE) == 0
 				)
 					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
@@ -1273,7 +1583,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				// could have been cancelled upon a write attempt
 				cleanupRetry(key, sc, isa);
 			}
-		this.selector.wakeup();
+		// the reactor owning the channel if any needs the wakeup
+		(key != null ? key.selector() : this.selector).wakeup();
 		// if pending writes and socket closed, retry if possible
 		if (sc != null && !sc.isOpen())
 			this.cleanupRetry(null, sc, isa);
@@ -1284,6 +1595,39 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * first and only element) of the pendingWrites list. */
 	private static final boolean SNEAK_DIRECT_WRITE = true; // default true
 
+	/* Same as trySneakyWrite but writes the header and data as a gather write
+	 * without copying data into a headered buffer. Returns the number of bytes
+	 * written, which may be less than the total if the socket buffer is full,
+	 * or 0 if a direct write could not be attempted. */
+	private int trySneakyGatherWrite(InetSocketAddress isa, byte[] data)
+			throws IOException {
+		if (!SNEAK_DIRECT_WRITE || isSSL())
+			return 0;
+		SocketChannel channel = this.getSockAddrToSockChannel(isa);
+		if (channel != null && channel.isConnected()
+				&& this.isHandshakeComplete(channel)) {
+			ByteBuffer[] gather = gatherBuffers.get();
+			putHeaderLength((ByteBuffer) gather[0].clear(), data.length).flip();
+			gather[1] = ByteBuffer.wrap(data);
+			try {
+				long written = 0;
+				// gathering write returns 0 once the socket buffer is full
+				for (long w = 0; (gather[0].hasRemaining() || gather[1]
+						.hasRemaining()) && (w = channel.write(gather)) > 0;)
+					written += w;
+				return (int) written;
+			} catch (IOException e) {
+				if (!this.isDisconnected(isa)) {
+					this.updateFailed(isa);
+					throw e;
+				}
+			} finally {
+				gather[1] = null;
+			}
+		}
+		return 0;
+	}
+
 	private boolean trySneakyWrite(InetSocketAddress isa, ByteBuffer data)
 			throws IOException {
 		/* FIXME: sneaky writes cause problems with ssl, so they are disabled
@@ -1324,7 +1668,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			return;
 		synchronized (this.sendQueues) {
 			for (InetSocketAddress isa : this.sendQueues.keySet()) {
-				LinkedBlockingQueue<ByteBuffer> queue = this.sendQueues
+				SendQueue queue = this.sendQueues
 						.get(isa);
 				if (queue != null && !queue.isEmpty()) {
 					// Nested locking: pendingWrites -> SockAddrToSockChannel
@@ -1340,12 +1684,14 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					// connected and handshake complete => set op_write
 					SelectionKey key = null;
 					if (((sc.isConnected() && this.isHandshakeComplete(sc))
-							&& (key = sc.keyFor(this.selector)) != null 
+							&& (key = this.keyFor(sc)) != null 
 							&& (key.interestOps() & SelectionKey.OP_WRITE) == 0
 							))
 						try {
 							key.interestOps(key.interestOps()
 									| SelectionKey.OP_WRITE);
+							if (key.selector() != this.selector)
+								key.selector().wakeup();
 						} catch (CancelledKeyException cke) {
 							// could have been cancelled upon a write attempt
 							cleanupRetry(key, sc, isa);
@@ -1453,7 +1799,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					socketChannel);
 			if (prevChannel != null) {
 				//cleanup(prevChannel.keyFor(this.selector), prevChannel);
-				cleanupSSL(prevChannel.keyFor(this.selector));
+				cleanupSSL(this.keyFor(prevChannel));
 			}
 		}
 	}
@@ -1705,26 +2051,20 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * exactly to the buffers (partially or wholly) written to the underlying
 	 * TCP socket but not yet sent to the other end. */
 	private void removePartialBuffers(InetSocketAddress isa) {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues.get(isa);
+		SendQueue sendQueue = this.sendQueues.get(isa);
 		if (sendQueue == null || sendQueue.isEmpty())
 			return;
 		synchronized (sendQueue) {
-			ByteBuffer bbuf = ByteBuffer.allocate(HEADER_SIZE);
-			Util.put(bbuf, sendQueue.peek());
-			sendQueue.peek().rewind();
-			bbuf.flip();
-			int length = -1;
-			try {
-				length = getPayloadLength(bbuf);
-			} catch (IOException ioe) {
-				assert (outOfRange(length) || (length != sendQueue.peek()
-						.capacity() - HEADER_SIZE));
-				if (sendQueue.remove() != null)
-					log.severe(this
-							+ " initiated connection and removed partial unsent packet in send queue to "
-							+ isa);
-			}
+			ByteBuffer head = sendQueue.peek();
+			if (head == null)
+				return;
+			head.rewind();
+			if (peekPayloadLength(head) < 0 && removeHead(sendQueue, head))
+				log.severe(this
+						+ " initiated connection and removed partial unsent packet in send queue to "
+						+ isa);
 		}
+		this.updateCongestion(isa, sendQueue);
 	}
 
 	protected static final boolean outOfRange(int length) {
@@ -1742,6 +2082,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		// Finish the connection. If the connection operation failed
 		// this will raise an IOException.
 		try {
+			if (this.reactors != null)
+				return this.finishConnectionAndHandoff(key);
 			connected = socketChannel.finishConnect()
 					&&
 					// will register only if finishConnect() is true
@@ -1779,6 +2121,23 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return connected;
 	}
 
+	/* Invoked only by the selector thread when reactors are enabled. The
+	 * connected channel is deregistered from the main selector and registered
+	 * with its reactor for reads and writes. */
+	private boolean finishConnectionAndHandoff(SelectionKey key)
+			throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		if (!socketChannel.finishConnect())
+			return false;
+		key.cancel();
+		this.getReactor(socketChannel).register(socketChannel,
+				SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		log.log(Level.FINE, "{0} connected channel {1}", new Object[] { this,
+				socketChannel });
+		this.updateAlive(socketChannel);
+		return true;
+	}
+
 	private static final int NUM_RETRIES = 100;
 
 	private boolean isNodeID(InetSocketAddress isa) {
@@ -1822,6 +2181,101 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
+	/* Reactors are not used with SSL because SSLDataProcessingWorker assumes
+	 * that a single thread wraps and unwraps on all channels. */
+	private ArrayList<Reactor> initReactors() throws IOException {
+		if (getNumReactors() == 0 || isSSL())
+			return null;
+		ArrayList<Reactor> created = new ArrayList<Reactor>();
+		for (int i = 0; i < getNumReactors(); i++) {
+			Reactor reactor = new Reactor(i);
+			created.add(reactor);
+			reactor.start();
+		}
+		log.log(Level.INFO, "{0} started {1} reactor threads", new Object[] {
+				this, created.size() });
+		return created;
+	}
+
+	/* A channel is always mapped to the same reactor for its lifetime, so all
+	 * reads and writes on a connection are done by a single thread. */
+	private Reactor getReactor(SelectableChannel channel) {
+		return this.reactors.get((System.identityHashCode(channel) & Integer.MAX_VALUE)
+				% this.reactors.size());
+	}
+
+	/* Returns the valid key for the channel with either the main selector or
+	 * the reactor selector. A channel handed off to a reactor may still have a
+	 * cancelled key with the main selector until the next select. */
+	private SelectionKey keyFor(SocketChannel channel) {
+		SelectionKey key = channel.keyFor(this.selector);
+		if ((key == null || !key.isValid()) && this.reactors != null) {
+			SelectionKey reactorKey = channel.keyFor(this.getReactor(channel).selector);
+			if (reactorKey != null)
+				key = reactorKey;
+		}
+		return key;
+	}
+
+	/**
+	 * A reactor owns a selector and a write buffer and does all reads and
+	 * writes on the socket channels handed off to it by the main selector
+	 * thread. Registrations are queued because a channel can not be registered
+	 * with a selector by a different thread while the selector is blocked in
+	 * select().
+	 */
+	private class Reactor extends Thread {
+		private final Selector selector;
+		private final ByteBuffer writeBuffer = ByteBuffer
+				.allocateDirect(WRITE_BUFFER_SIZE);
+		private final ConcurrentLinkedQueue<ChangeRequest> pendingRegistrations = new ConcurrentLinkedQueue<ChangeRequest>();
+
+		Reactor(int index) throws IOException {
+			this.selector = Selector.open();
+			this.setName(NIOTransport.class.getSimpleName() + ":"
+					+ (myID != null ? myID : "[]") + ":reactor" + index);
+		}
+
+		void register(SocketChannel socketChannel, int ops) {
+			this.pendingRegistrations.add(new ChangeRequest(socketChannel,
+					ChangeRequest.REGISTER, ops));
+			this.selector.wakeup();
+		}
+
+		private void processPendingRegistrations() {
+			ChangeRequest change = null;
+			while ((change = this.pendingRegistrations.poll()) != null) {
+				try {
+					change.socket.register(this.selector, change.ops,
+							new AlternatingByteBuffer());
+				} catch (ClosedChannelException cce) {
+					log.log(Level.FINE,
+							"{0} socket channel {1} closed before reactor registration",
+							new Object[] { NIOTransport.this, change.socket });
+				}
+			}
+		}
+
+		public void run() {
+			while (!isStopped()) {
+				try {
+					this.processPendingRegistrations();
+					this.selector.select(SELECT_TIMEOUT);
+					processSelectedKeys(this.selector, this.writeBuffer);
+					tryProcessCongested(this.selector);
+				} catch (Exception e) {
+					log.severe(this + " incurred exception " + e.getMessage());
+					e.printStackTrace();
+				}
+			}
+			try {
+				this.selector.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+
 	// A utility container class.
 	private class ChangeRequest {
 
@@ -1850,7 +2304,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	protected int getPendingSize() {
 		synchronized (this.sendQueues) {
 			int numPending = 0;
-			for (LinkedBlockingQueue<ByteBuffer> arr : this.sendQueues.values()) {
+			for (SendQueue arr : this.sendQueues.values()) {
 				numPending += arr.size();
 			}
 			return numPending;
@@ -2035,4 +2489,64 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Unit tests for {@link NIOTransport}.
+	 */
+	public static class NIOTransportTest extends DefaultTest {
+		/**
+		 * Tests that a destination that stops reading triggers a congestion
+		 * event and that draining it triggers a decongestion event.
+		 * 
+		 * @throws IOException
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testSendQueueBackpressure() throws IOException,
+				InterruptedException {
+			long watermark = getSendQueueHighWatermark();
+			setSendQueueHighWatermark(256 * 1024);
+			ServerSocket server = new ServerSocket(0);
+			NIOTransport<Integer> niot = new NIOTransport<Integer>(0,
+					new DataProcessingWorkerDefault());
+			try {
+				final LinkedBlockingQueue<Boolean> events = new LinkedBlockingQueue<Boolean>();
+				niot.addSendQueueCallback(new SendQueueCallback<Integer>() {
+					@Override
+					public void congestionChanged(InetSocketAddress isa,
+							Integer node, boolean congested) {
+						events.add(congested && node == null);
+					}
+				});
+				InetSocketAddress isa = new InetSocketAddress(
+						InetAddress.getLoopbackAddress(), server.getLocalPort());
+
+				// server never reads, so socket buffers and then the queue fill
+				byte[] msg = new byte[16 * 1024];
+				for (int i = 0; i < MAX_QUEUED_SENDS && events.isEmpty(); i++)
+					niot.send(isa, msg);
+				Assert.assertEquals(true, events.poll(10, TimeUnit.SECONDS));
+
+				final Socket socket = server.accept();
+				new Thread(new Runnable() {
+					public void run() {
+						byte[] buf = new byte[64 * 1024];
+						try {
+							InputStream in = socket.getInputStream();
+							while (in.read(buf) >= 0)
+								;
+						} catch (IOException e) {
+							// closed below
+						}
+					}
+				}).start();
+				Assert.assertEquals(false, events.poll(10, TimeUnit.SECONDS));
+				socket.close();
+			} finally {
+				niot.stop();
+				server.close();
+				setSendQueueHighWatermark(watermark);
+			}
+		}
+	}
 }
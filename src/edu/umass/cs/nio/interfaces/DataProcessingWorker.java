@@ -28,6 +28,10 @@ import java.nio.channels.SocketChannel;
  */
 public interface DataProcessingWorker {
 	/**
+	 * The buffer {@code incoming} may be recycled by NIO once this method
+	 * returns, so implementations must synchronously copy out any bytes that
+	 * they need to retain.
+	 * 
 	 * @param socket The socket channel on which the bytes were received.
 	 * @param incoming The bytes received.
 	 */
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015 University of Massachusetts
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * Initial developer(s): V. Arun
+ */
+package edu.umass.cs.nio.interfaces;
+
+import java.net.InetSocketAddress;
+
+/**
+ * @author arun
+ *
+ * @param <NodeIDType>
+ * 
+ *            Notified when the bytes queued for sending to a destination cross
+ *            the send queue high watermark or drain back below the low
+ *            watermark. Invoked while holding the send queue's lock, so
+ *            implementations must return quickly and must not send.
+ */
+public interface SendQueueCallback<NodeIDType> {
+	/**
+	 * @param isa
+	 *            Destination socket address.
+	 * @param node
+	 *            Destination node or null if isa is not a node.
+	 * @param congested
+	 *            True if the queue just crossed the high watermark, false if
+	 *            it just drained below the low watermark.
+	 */
+	public void congestionChanged(InetSocketAddress isa, NodeIDType node,
+			boolean congested);
+}
@@ -0,0 +1,126 @@
+package edu.umass.cs.nio.nioutils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.nio.NIOTransport;
+import edu.umass.cs.nio.interfaces.DataProcessingWorker;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         A local throughput benchmark for {@link NIOTransport} reactors. Many
+ *         senders, each with its own connection, send to a single receiver
+ *         whose socket channels are sharded across the number of reactors
+ *         specified as arguments, e.g., "0 1 2 4 8", where 0 means the default
+ *         single selector thread. The receive rate is printed for each reactor
+ *         count.
+ */
+public class NIOReactorTester {
+
+	private static final int NUM_SENDERS = 8;
+	private static final int NUM_MESSAGES_PER_SENDER = 50000;
+	private static final int MSG_SIZE = 1000;
+
+	// emulates a little bit of per-message deserialization work
+	static class DPWCounter implements DataProcessingWorker {
+		final AtomicLong count = new AtomicLong(0);
+		final AtomicLong checksum = new AtomicLong(0);
+
+		@Override
+		public void processData(SocketChannel socket, ByteBuffer incoming) {
+			byte[] rcvd = new byte[incoming.remaining()];
+			incoming.get(rcvd);
+			long sum = 0;
+			for (byte b : rcvd)
+				sum = 31 * sum + b;
+			checksum.addAndGet(sum);
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void demultiplexMessage(Object message) {
+		}
+	}
+
+	private static double testReactors(int numReactors, int runIndex,
+			final byte[] msg) throws IOException, InterruptedException {
+		int rcvrID = 5000 + runIndex * (NUM_SENDERS + 1);
+		SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>();
+		for (int i = 0; i <= NUM_SENDERS; i++)
+			snc.addLocal(rcvrID + i);
+		final InetSocketAddress rcvrAddress = new InetSocketAddress(
+				snc.getNodeAddress(rcvrID), snc.getNodePort(rcvrID));
+
+		NIOTransport.setNumReactors(numReactors);
+		DPWCounter counter = new DPWCounter();
+		NIOTransport<Integer> rcvr = new NIOTransport<Integer>(rcvrID, snc,
+				counter);
+
+		// senders always use the default single selector thread
+		NIOTransport.setNumReactors(0);
+		@SuppressWarnings("unchecked")
+		final NIOTransport<Integer>[] senders = (NIOTransport<Integer>[]) new NIOTransport<?>[NUM_SENDERS];
+		Thread[] threads = new Thread[NUM_SENDERS];
+		for (int i = 0; i < NUM_SENDERS; i++) {
+			senders[i] = new NIOTransport<Integer>(rcvrID + 1 + i, snc,
+					new DataProcessingWorkerDefault());
+			final NIOTransport<Integer> sender = senders[i];
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < NUM_MESSAGES_PER_SENDER; j++)
+							while (sender.send(rcvrAddress, msg) <= 0)
+								Thread.yield();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		long total = (long) NUM_SENDERS * NUM_MESSAGES_PER_SENDER;
+		long t = System.currentTimeMillis();
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		while (counter.count.get() < total
+				&& System.currentTimeMillis() - t < 60000)
+			Thread.sleep(10);
+		long elapsed = Math.max(1, System.currentTimeMillis() - t);
+
+		rcvr.stop();
+		for (NIOTransport<Integer> sender : senders)
+			sender.stop();
+		return counter.count.get() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * @param args
+	 *            Reactor counts to test.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		String[] reactorCounts = args.length > 0 ? args : new String[] { "0",
+				"1", "2", "4", "8" };
+		byte[] msg = new byte[MSG_SIZE];
+		for (int i = 0; i < msg.length; i++)
+			msg[i] = (byte) ('a' + i % 26);
+
+		for (int i = 0; i < reactorCounts.length; i++) {
+			int numReactors = Integer.valueOf(reactorCounts[i]);
+			double rate = testReactors(numReactors, i, msg);
+			System.out.println("reactors=" + numReactors + " senders="
+					+ NUM_SENDERS + " msgSize=" + MSG_SIZE + " rate="
+					+ Util.df(rate) + "/s");
+			Thread.sleep(1000);
+		}
+	}
+}
@@ -20,8 +20,8 @@ package edu.umass.cs.protocoltask;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -35,7 +35,8 @@ import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.MessageNIOTransport;
 import edu.umass.cs.nio.interfaces.Messenger;
 import edu.umass.cs.protocoltask.json.ProtocolPacket;
-import edu.umass.cs.utils.MultiArrayMap;
+import edu.umass.cs.utils.ConcurrentMultiArrayMap;
+import edu.umass.cs.utils.TimingWheel;
 
 /**
  * @author V. Arun
@@ -45,6 +46,13 @@ import edu.umass.cs.utils.MultiArrayMap;
  * 
  *            The purpose of this class is to store ProtocolTasks and activate
  *            them when a corresponding event arrives.
+ * 
+ *            Periodic restarts of {@link SchedulableProtocolTask}s are driven
+ *            by a {@link TimingWheel} rather than the underlying executor, so
+ *            that hundreds of thousands of concurrently scheduled tasks, e.g.,
+ *            during mass reconfigurations, cost O(1) to spawn and cancel and
+ *            never contend on a shared lock or a shared delay queue. Each
+ *            restart runs on the executor and schedules the next one.
  */
 public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	protected static final int MAX_TASKS = 10000;
@@ -69,9 +77,11 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	private final Messenger<NodeIDType, ?> messenger;
 	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
 			MAX_THREADS);
-	private static final HashSet<Object> canceledKeys = new HashSet<Object>();
+	private final TimingWheel restarts;
+	private static final Set<Object> canceledKeys = ConcurrentHashMap
+			.newKeySet();
 
-	private final MultiArrayMap<KeyType, ProtocolTaskWrapper<NodeIDType, EventType, KeyType>> protocolTasks = new MultiArrayMap<KeyType, ProtocolTaskWrapper<NodeIDType, EventType, KeyType>>(
+	private final ConcurrentMultiArrayMap<KeyType, ProtocolTaskWrapper<NodeIDType, EventType, KeyType>> protocolTasks = new ConcurrentMultiArrayMap<KeyType, ProtocolTaskWrapper<NodeIDType, EventType, KeyType>>(
 			MAX_TASKS);
 	private final HashMap<EventType, ProtocolTaskWrapper<NodeIDType, EventType, KeyType>> defaultTasks = new HashMap<EventType, ProtocolTaskWrapper<NodeIDType, EventType, KeyType>>();
 
@@ -91,6 +101,7 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	public ProtocolExecutor(Messenger<NodeIDType, ?> messenger) {
 		this.messenger = messenger;
 		this.myID = messenger.getMyID();
+		this.restarts = new TimingWheel(this + ":restarts", this.executor);
 		this.executor.scheduleWithFixedDelay(new TooManyTasksWarner(), 0,
 				TOO_MANY_TASKS_CHECK_PERIOD, TimeUnit.SECONDS);
 	}
@@ -167,15 +178,19 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	 * @param actualTask
 	 * @return True if spawned.
 	 */
-	public synchronized boolean spawnIfNotRunning(
+	public boolean spawnIfNotRunning(
 			ProtocolTask<NodeIDType, EventType, KeyType> actualTask) {
-		if (this.isRunning(actualTask.getKey())) {
-			log.log(Level.FINE, "{0} unable to re-spawn already running task",
-					new Object[] { this, actualTask.getKey() });
-			return false;
+		try {
+			if (!this.isRunning(actualTask.getKey())) {
+				this.spawn(actualTask);
+				return true;
+			}
+		} catch (ProtocolTaskCreationException e) {
+			// lost the race to a concurrent spawn
 		}
-		this.spawn(actualTask);
-		return true;
+		log.log(Level.FINE, "{0} unable to re-spawn already running task",
+				new Object[] { this, actualTask.getKey() });
+		return false;
 	}
 
 	public String toString() {
@@ -208,6 +223,7 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	 */
 	public void stop() {
 		this.messenger.stop();
+		this.restarts.stop();
 		this.executor.shutdownNow();
 	}
 
@@ -241,18 +257,18 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 		return this.executor.schedule(task, initialDelay, unit);
 	}
 
-	private synchronized void insert(
+	private void insert(
 			ProtocolTaskWrapper<NodeIDType, EventType, KeyType> task) {
-		if (task.getKey() == null || this.isRunning(task.getKey())) {
+		if (task.getKey() == null
+				|| this.protocolTasks.putIfAbsent(task.getKey(), task) != null) {
 			String errorMsg = "Node" + myID + " trying to insert "
 					+ (task.getKey() == null ? "null" : "duplicate") + " key "
 					+ task.getKey();
 			log.warning(errorMsg);
 			throw new ProtocolTaskCreationException(errorMsg);
 		}
-		log.log(Level.FINE, "{0} inserting key {1} for task {2}", new Object[] {
+		log.log(Level.FINE, "{0} inserted key {1} for task {2}", new Object[] {
 				this, task.getKey(), task.task.getClass() });
-		this.protocolTasks.put(task.getKey(), task);
 	}
 
 	private GenericMessagingTask<NodeIDType, ?>[] start(
@@ -283,22 +299,19 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	 * schedule will periodically re-invoke task.start() for as long as it is
 	 * present in the hashmap. The periodic invocation will stop once the task
 	 * is removed from the hashmap.
-	 * 
-	 * FIXME: why synchronized?
 	 */
 	/**
 	 * @param actualTask
 	 * @param period
 	 */
-	public synchronized void schedule(
+	public void schedule(
 			SchedulableProtocolTask<NodeIDType, EventType, KeyType> actualTask,
 			long period) {
 		ProtocolTaskWrapper<NodeIDType, EventType, KeyType> task = wrapSpawn(actualTask);
 		// schedule restarts
-		Restarter restarter = new Restarter(task);
 		log.log(Level.FINE, "{0} scheduling {1} for periodic restarts",
 				new Object[] { this, task.getKey() });
-		task.setFuture(this.executor.scheduleWithFixedDelay(restarter, period,
+		task.setRestart(this.restarts.newTimeout(new Restarter(task, period),
 				period, TimeUnit.MILLISECONDS));
 	}
 
@@ -320,7 +333,7 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 		return (wrapper != null ? wrapper.task : null);
 	}
 
-	private synchronized ProtocolTaskWrapper<NodeIDType, EventType, KeyType> retrieve(
+	private ProtocolTaskWrapper<NodeIDType, EventType, KeyType> retrieve(
 			KeyType key) {
 		return this.protocolTasks.get(key);
 	}
@@ -336,39 +349,52 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	}
 
 	/*
-	 * remove must also cancel the scheduled future if one exists.
+	 * remove must also cancel the scheduled restart if one exists. Only the
+	 * given task is removed, not a task since spawned with the same key.
 	 */
-	private synchronized ProtocolTask<?, ?, ?> remove(
+	private ProtocolTask<?, ?, ?> remove(
 			ProtocolTaskWrapper<NodeIDType, EventType, KeyType> task) {
 		if (task == null)
 			return null;
-		if (task.getFuture() != null) {
+		if (task.cancelRestart())
 			log.log(Level.FINE, "{0} canceling protocol task {1}",
 					new Object[] { this, task.task.getKey() });
-			task.getFuture().cancel(true);
-		}
-		return this.protocolTasks.remove(task.getKey());
+		return this.protocolTasks.remove(task.getKey(), task) ? task : null;
 	}
 
 	/**
 	 * @param key
 	 * @return The removed task if any.
 	 */
-	public synchronized ProtocolTask<?, ?, ?> remove(KeyType key) {
+	public ProtocolTask<?, ?, ?> remove(KeyType key) {
 		return remove(this.retrieve(key));
 	}
 
+	// restarts with a fixed delay until the task is removed
 	private class Restarter implements Runnable {
 		final ProtocolTaskWrapper<NodeIDType, EventType, KeyType> task;
+		final long period;
 
-		Restarter(ProtocolTaskWrapper<NodeIDType, EventType, KeyType> task) {
+		Restarter(ProtocolTaskWrapper<NodeIDType, EventType, KeyType> task,
+				long period) {
 			this.task = task;
+			this.period = period;
 		}
 
 		public void run() {
+			if (this.task.isCanceled())
+				return;
 			// calling parent send and start
 			GenericMessagingTask<NodeIDType, ?>[] mtasks = restart(task);
 			send(mtasks, this.task.getKey());
+			if (!this.task.isCanceled()
+					&& retrieve(this.task.getKey()) == this.task)
+				try {
+					this.task.setRestart(restarts.newTimeout(this,
+							this.period, TimeUnit.MILLISECONDS));
+				} catch (IllegalStateException ise) {
+					// stopped
+				}
 		}
 	}
 
@@ -433,11 +459,11 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	/**
 	 * @param key
 	 */
-	public synchronized static void enqueueCancel(Object key) {
+	public static void enqueueCancel(Object key) {
 		canceledKeys.add(key);
 	}
 
-	private synchronized static boolean removable(Object key) {
+	private static boolean removable(Object key) {
 		return canceledKeys.remove(key);
 	}
 
@@ -468,6 +494,12 @@ public class ProtocolExecutor<NodeIDType, EventType, KeyType> {
 	public int getActiveCount() {
 		return this.executor.getActiveCount();
 	}
+	/**
+	 * @return Number of tasks awaiting a scheduled restart.
+	 */
+	public int getScheduledCount() {
+		return this.restarts.size();
+	}
 	/**
 	 * @return Number of tasks in underlying Executor. 
 	 */
@@ -0,0 +1,322 @@
+package edu.umass.cs.protocoltask;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.nio.AbstractPacketDemultiplexer;
+import edu.umass.cs.nio.GenericMessagingTask;
+import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
+import edu.umass.cs.nio.interfaces.Messenger;
+import edu.umass.cs.nio.interfaces.NodeConfig;
+import edu.umass.cs.utils.TimingWheel;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Spawn, restart and cancel throughput with a large number of
+ *         concurrently scheduled tasks, resembling the WaitAckStopEpoch,
+ *         WaitAckStartEpoch and WaitEpochFinalState tasks alive during a mass
+ *         reconfiguration. The first two phases compare the raw schedulers,
+ *         {@link TimingWheel} and {@link ScheduledThreadPoolExecutor}, by
+ *         scheduling and then canceling numTasks one-shot timeouts, and by
+ *         keeping numTasks periodic timeouts with the given period alive for
+ *         secondsPerRun. The last phase spawns, restarts and removes numTasks
+ *         {@link SchedulableProtocolTask}s through {@link ProtocolExecutor}.
+ *         Messaging is stubbed out. Usage:
+ *
+ *         <pre>
+ * ProtocolExecutorBenchmark [numTasks [threads [periodMillis [secondsPerRun]]]]
+ * </pre>
+ *
+ *         with 1M tasks, 4 threads, a 10s period and 10s runs by default.
+ *         A million tasks need about a 2GB heap (-Xmx).
+ */
+public class ProtocolExecutorBenchmark {
+
+	private static final Set<String> EVENT_TYPES = new HashSet<String>();
+
+	private static interface Op {
+		void run(int i);
+	}
+
+	// runs op on [0,n) from numThreads threads and returns ops/sec
+	private static double run(final int n, int numThreads, final Op op)
+			throws InterruptedException {
+		Thread[] threads = new Thread[numThreads];
+		long t = System.nanoTime();
+		for (int k = 0; k < numThreads; k++) {
+			final int id = k;
+			(threads[k] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = id; i < n; i += threads.length)
+						op.run(i);
+				}
+			})).start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		return n * 1000.0 * 1000 * 1000 / (System.nanoTime() - t);
+	}
+
+	private static void print(String scheduler, String phase, double rate,
+			String unit) {
+		System.out.println(scheduler + " " + phase + "=" + Util.df(rate) + " "
+				+ unit);
+	}
+
+	private static double measureFired(AtomicLong fired, long durationMillis)
+			throws InterruptedException {
+		long before = fired.get(), t = System.nanoTime();
+		Thread.sleep(durationMillis);
+		return (fired.get() - before) * 1000.0 * 1000 * 1000
+				/ (System.nanoTime() - t);
+	}
+
+	private static void benchmarkTimingWheel(final int n, int numThreads,
+			final long period, long durationMillis) throws InterruptedException {
+		ThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+				ProtocolExecutor.MAX_THREADS);
+		final TimingWheel wheel = new TimingWheel("benchmark", executor);
+		final TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[n];
+		final Runnable noop = new Runnable() {
+			public void run() {
+			}
+		};
+		String name = TimingWheel.class.getSimpleName();
+		print(name, "schedule", run(n, numThreads, new Op() {
+			public void run(int i) {
+				timeouts[i] = wheel.newTimeout(noop, 60, TimeUnit.SECONDS);
+			}
+		}), "ops/s");
+		print(name, "cancel", run(n, numThreads, new Op() {
+			public void run(int i) {
+				timeouts[i].cancel();
+			}
+		}), "ops/s");
+
+		final AtomicLong fired = new AtomicLong(0);
+		run(n, numThreads, new Op() {
+			public void run(final int i) {
+				timeouts[i] = wheel.newTimeout(new Runnable() {
+					public void run() {
+						fired.incrementAndGet();
+						timeouts[i] = wheel.newTimeout(this, period,
+								TimeUnit.MILLISECONDS);
+					}
+				}, (long) (Math.random() * period), TimeUnit.MILLISECONDS);
+			}
+		});
+		print(name, "restart", measureFired(fired, durationMillis),
+				"restarts/s (offered " + Util.df(n * 1000.0 / period) + ")");
+		wheel.stop();
+		executor.shutdownNow();
+	}
+
+	private static void benchmarkScheduledThreadPoolExecutor(final int n,
+			int numThreads, final long period, long durationMillis)
+			throws InterruptedException {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+				ProtocolExecutor.MAX_THREADS);
+		executor.setRemoveOnCancelPolicy(true);
+		final ScheduledFuture<?>[] futures = new ScheduledFuture<?>[n];
+		final Runnable noop = new Runnable() {
+			public void run() {
+			}
+		};
+		String name = ScheduledThreadPoolExecutor.class.getSimpleName();
+		print(name, "schedule", run(n, numThreads, new Op() {
+			public void run(int i) {
+				futures[i] = executor.schedule(noop, 60, TimeUnit.SECONDS);
+			}
+		}), "ops/s");
+		print(name, "cancel", run(n, numThreads, new Op() {
+			public void run(int i) {
+				futures[i].cancel(false);
+			}
+		}), "ops/s");
+
+		final AtomicLong fired = new AtomicLong(0);
+		final Runnable counter = new Runnable() {
+			public void run() {
+				fired.incrementAndGet();
+			}
+		};
+		run(n, numThreads, new Op() {
+			public void run(int i) {
+				futures[i] = executor.scheduleWithFixedDelay(counter,
+						(long) (Math.random() * period), period,
+						TimeUnit.MILLISECONDS);
+			}
+		});
+		print(name, "restart", measureFired(fired, durationMillis),
+				"restarts/s (offered " + Util.df(n * 1000.0 / period) + ")");
+		executor.shutdownNow();
+	}
+
+	private static class BenchmarkTask implements
+			SchedulableProtocolTask<Integer, String, String> {
+		final String key;
+		final long period;
+		final AtomicLong restarts;
+
+		BenchmarkTask(String key, long period, AtomicLong restarts) {
+			this.key = key;
+			this.period = period;
+			this.restarts = restarts;
+		}
+
+		@Override
+		public GenericMessagingTask<Integer, ?>[] handleEvent(
+				ProtocolEvent<String, String> event,
+				ProtocolTask<Integer, String, String>[] ptasks) {
+			return null;
+		}
+
+		@Override
+		public GenericMessagingTask<Integer, ?>[] start() {
+			return null;
+		}
+
+		@Override
+		public Set<String> getEventTypes() {
+			return EVENT_TYPES;
+		}
+
+		@Override
+		public String getKey() {
+			return this.key;
+		}
+
+		@Override
+		public GenericMessagingTask<Integer, ?>[] restart() {
+			this.restarts.incrementAndGet();
+			return null;
+		}
+
+		@Override
+		public long getPeriod() {
+			return this.period;
+		}
+	}
+
+	private static void benchmarkProtocolExecutor(final int n,
+			int numThreads, final long period, long durationMillis)
+			throws InterruptedException {
+		final ProtocolExecutor<Integer, String, String> executor = new ProtocolExecutor<Integer, String, String>(
+				new NullMessenger());
+		final AtomicLong restarts = new AtomicLong(0);
+		String name = ProtocolExecutor.class.getSimpleName();
+		print(name, "spawn", run(n, numThreads, new Op() {
+			public void run(int i) {
+				executor.spawn(new BenchmarkTask("task" + i, period, restarts));
+			}
+		}), "ops/s");
+		print(name, "restart", measureFired(restarts, durationMillis),
+				"restarts/s (offered " + Util.df(n * 1000.0 / period) + ")");
+		print(name, "cancel", run(n, numThreads, new Op() {
+			public void run(int i) {
+				executor.remove("task" + i);
+			}
+		}), "ops/s");
+		executor.stop();
+	}
+
+	/**
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int n = args.length > 0 ? Integer.valueOf(args[0]) : 1000 * 1000;
+		int numThreads = args.length > 1 ? Integer.valueOf(args[1]) : 4;
+		long period = args.length > 2 ? Long.valueOf(args[2]) : 10000;
+		long durationMillis = 1000 * (args.length > 3 ? Integer
+				.valueOf(args[3]) : 10);
+
+		benchmarkTimingWheel(n, numThreads, period, durationMillis);
+		System.gc();
+		benchmarkScheduledThreadPoolExecutor(n, numThreads, period,
+				durationMillis);
+		System.gc();
+		benchmarkProtocolExecutor(n, numThreads, period, durationMillis);
+	}
+
+	private static class NullMessenger implements Messenger<Integer, Object> {
+
+		@Override
+		public int sendToAddress(InetSocketAddress isa, Object msg)
+				throws IOException {
+			return 0;
+		}
+
+		@Override
+		public int sendToAddress(InetSocketAddress isa, byte[] msg)
+				throws IOException {
+			return 0;
+		}
+
+		@Override
+		public int sendToID(Integer id, Object msg) throws IOException {
+			return 0;
+		}
+
+		@Override
+		public void addPacketDemultiplexer(AbstractPacketDemultiplexer<?> pd) {
+		}
+
+		@Override
+		public void precedePacketDemultiplexer(
+				AbstractPacketDemultiplexer<?> pd) {
+		}
+
+		@Override
+		public Integer getMyID() {
+			return 0;
+		}
+
+		@Override
+		public void stop() {
+		}
+
+		@Override
+		public NodeConfig<Integer> getNodeConfig() {
+			return null;
+		}
+
+		@Override
+		public int sendToID(Integer id, byte[] msg) throws IOException {
+			return 0;
+		}
+
+		@Override
+		public boolean isDisconnected(Integer node) {
+			return false;
+		}
+
+		@Override
+		public InetSocketAddress getListeningSocketAddress() {
+			return null;
+		}
+
+		@Override
+		public boolean isStopped() {
+			return false;
+		}
+
+		@Override
+		public void send(GenericMessagingTask<Integer, ?> mtask) {
+		}
+
+		@Override
+		public SSL_MODES getSSLMode() {
+			return SSL_MODES.CLEAR;
+		}
+	}
+}
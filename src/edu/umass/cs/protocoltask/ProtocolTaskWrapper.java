@@ -18,9 +18,9 @@
 package edu.umass.cs.protocoltask;
 
 import java.util.Set;
-import java.util.concurrent.ScheduledFuture;
 
 import edu.umass.cs.nio.GenericMessagingTask;
+import edu.umass.cs.utils.TimingWheel;
 
 /**
  * @author V. Arun
@@ -41,7 +41,8 @@ class ProtocolTaskWrapper<NodeIDType, EventType, KeyType> implements
 	public final ProtocolTask<NodeIDType, EventType, KeyType> task;
 	private long startTime = System.currentTimeMillis();
 	private long lastActiveTime = System.currentTimeMillis();
-	private ScheduledFuture<?> future;
+	private volatile TimingWheel.Timeout restart;
+	private volatile boolean canceled = false;
 
 	ProtocolTaskWrapper(ProtocolTask<NodeIDType, EventType, KeyType> task) {
 		this.task = task;
@@ -72,12 +73,21 @@ class ProtocolTaskWrapper<NodeIDType, EventType, KeyType> implements
 		//return this.task.refreshKey();
 	}
 
-	protected void setFuture(final ScheduledFuture<?> future) {
-		this.future = future;
+	// cancels the new restart if a cancel raced ahead of this call
+	protected void setRestart(TimingWheel.Timeout restart) {
+		this.restart = restart;
+		if (this.canceled)
+			restart.cancel();
 	}
 
-	protected ScheduledFuture<?> getFuture() {
-		return this.future;
+	protected boolean cancelRestart() {
+		this.canceled = true;
+		TimingWheel.Timeout restart = this.restart;
+		return restart != null && restart.cancel();
+	}
+
+	protected boolean isCanceled() {
+		return this.canceled;
 	}
 
 	protected boolean isLongIdle() {
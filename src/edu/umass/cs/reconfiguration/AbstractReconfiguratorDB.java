@@ -532,7 +532,7 @@ public abstract class AbstractReconfiguratorDB<NodeIDType> implements
 	 * @return Current epoch
 	 */
 	@Override
-	public synchronized Integer getEpoch(String name) {
+	public Integer getEpoch(String name) {
 		ReconfigurationRecord<NodeIDType> record = this
 				.getReconfigurationRecord(name);
 		return (record != null ? record.getEpoch() : null);
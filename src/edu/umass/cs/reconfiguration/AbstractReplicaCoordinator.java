@@ -18,6 +18,7 @@ package edu.umass.cs.reconfiguration;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -25,10 +26,16 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.interfaces.AppRequestParser;
 import edu.umass.cs.gigapaxos.interfaces.AppRequestParserBytes;
+import edu.umass.cs.gigapaxos.interfaces.Application;
+import edu.umass.cs.gigapaxos.interfaces.DeltaCheckpointReplicable;
 import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.LeaseReadReplicable;
+import edu.umass.cs.gigapaxos.interfaces.ParallelReplicable;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
@@ -45,9 +52,12 @@ import edu.umass.cs.reconfiguration.interfaces.ReplicableRequest;
 import edu.umass.cs.reconfiguration.interfaces.Repliconfigurable;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.DefaultAppRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.BatchedClientRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReplicableClientRequest;
 import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
 import edu.umass.cs.reconfiguration.reconfigurationutils.TrivialRepliconfigurable;
+import edu.umass.cs.reconfiguration.examples.AppRequest;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -76,7 +86,7 @@ import edu.umass.cs.utils.Util;
  */
 public abstract class AbstractReplicaCoordinator<NodeIDType> implements
 		Repliconfigurable, ReplicaCoordinator<NodeIDType>,
-		AppRequestParserBytes {
+		AppRequestParserBytes, LeaseReadReplicable, ParallelReplicable, DeltaCheckpointReplicable {
 	protected final Repliconfigurable app;
 	private final ConcurrentHashMap<IntegerPacketType, Boolean> coordinationTypes = new ConcurrentHashMap<IntegerPacketType, Boolean>();
 
@@ -284,6 +294,9 @@ public abstract class AbstractReplicaCoordinator<NodeIDType> implements
 				else if ((type == ReconfigurationPacket.PacketType.REPLICABLE_CLIENT_REQUEST
 						.getInt()) && (internal=true))
 					return new ReplicableClientRequest(json, null);
+				else if ((type == ReconfigurationPacket.PacketType.BATCHED_CLIENT_REQUEST
+						.getInt()) && (internal=true))
+					return new BatchedClientRequest(json, null);
 			} catch (JSONException | UnsupportedEncodingException e) {
 				if(internal) throw new RequestParseException(e);
 				// else ignore and treat as app request
@@ -295,6 +308,12 @@ public abstract class AbstractReplicaCoordinator<NodeIDType> implements
 	public final Request getRequest(byte[] bytes, NIOHeader header)
 			throws RequestParseException {
 		try {
+			if (ByteBuffer.wrap(bytes).getInt() == ReconfigurationPacket.PacketType.BATCHED_CLIENT_REQUEST
+					.getInt())
+				return this.app instanceof AppRequestParserBytes ? new BatchedClientRequest(
+						bytes, header, (AppRequestParserBytes) this.app)
+						: new BatchedClientRequest(bytes,
+								(AppRequestParser) this.app);
 			return ByteBuffer.wrap(bytes).getInt() == ReconfigurationPacket.PacketType.REPLICABLE_CLIENT_REQUEST
 					.getInt() ? (this.app instanceof AppRequestParserBytes ? new ReplicableClientRequest(
 					bytes, header, (AppRequestParserBytes) this.app)
@@ -366,6 +385,87 @@ public abstract class AbstractReplicaCoordinator<NodeIDType> implements
 		return app.restore(name, state);
 	}
 
+	/* The opt-in interfaces below are implemented on behalf of the underlying
+	 * app because the coordination protocol, e.g., paxos, only gets to see
+	 * this coordinator as its app. */
+	private Application getUnderlyingApp() {
+		return this.app instanceof TrivialRepliconfigurable ? ((TrivialRepliconfigurable) this.app).app
+				: this.app;
+	}
+
+	/* Returns the app request in request if it is a single app request, else
+	 * null for stop, batched, or unparseable requests that the app's opt-in
+	 * methods are not meant to see. */
+	private Request getAppRequest(Request request) {
+		if (request instanceof ReplicableClientRequest)
+			try {
+				request = this.getRequest((ReplicableClientRequest) request,
+						null);
+			} catch (RequestParseException e) {
+				return null;
+			}
+		return request == null
+				|| request instanceof BatchedClientRequest
+				|| request.getRequestType() == ReconfigurationPacket.PacketType.NO_TYPE
+				|| (request instanceof ReconfigurableRequest && ((ReconfigurableRequest) request)
+						.isStop()) ? null : request;
+	}
+
+	@Override
+	public boolean supportsLeaseReads() {
+		return this.getUnderlyingApp() instanceof LeaseReadReplicable
+				&& ((LeaseReadReplicable) this.getUnderlyingApp())
+						.supportsLeaseReads();
+	}
+
+	@Override
+	public boolean isReadOnly(Request request) {
+		Request appRequest = this.supportsLeaseReads() ? this
+				.getAppRequest(request) : null;
+		return appRequest != null
+				&& ((LeaseReadReplicable) this.getUnderlyingApp())
+						.isReadOnly(appRequest);
+	}
+
+	@Override
+	public boolean supportsParallelExecution() {
+		return this.getUnderlyingApp() instanceof ParallelReplicable
+				&& ((ParallelReplicable) this.getUnderlyingApp())
+						.supportsParallelExecution();
+	}
+
+	@Override
+	public Set<?> getConflictKeys(Request request) {
+		Request appRequest = this.supportsParallelExecution() ? this
+				.getAppRequest(request) : null;
+		return appRequest != null ? ((ParallelReplicable) this
+				.getUnderlyingApp()).getConflictKeys(appRequest) : null;
+	}
+
+	@Override
+	public boolean supportsDeltaCheckpoints() {
+		return this.getUnderlyingApp() instanceof DeltaCheckpointReplicable
+				&& ((DeltaCheckpointReplicable) this.getUnderlyingApp())
+						.supportsDeltaCheckpoints();
+	}
+
+	@Override
+	public String checkpointDelta(String name) {
+		return this.supportsDeltaCheckpoints() ? ((DeltaCheckpointReplicable) this
+				.getUnderlyingApp()).checkpointDelta(name) : null;
+	}
+
+	@Override
+	public boolean restoreDelta(String name, String delta) {
+		if (!this.supportsDeltaCheckpoints())
+			throw new RuntimeException(this.getUnderlyingApp().getClass()
+					.getSimpleName()
+					+ " does not support delta checkpoints but got one for "
+					+ name);
+		return ((DeltaCheckpointReplicable) this.getUnderlyingApp())
+				.restoreDelta(name, delta);
+	}
+
 	/* Call back active replica for stop requests, else call default callback.
 	 * Should really be private, but sometimes we may need to trigger a callback
 	 * for an older request. */
@@ -472,4 +572,174 @@ public abstract class AbstractReplicaCoordinator<NodeIDType> implements
 		Set<IntegerPacketType> types = this.app.getMutualAuthRequestTypes();
 		return types != null ? types : new HashSet<IntegerPacketType>();
 	}
+
+	/**
+	 * Tests that opt-in paxos app interfaces are forwarded to the app.
+	 */
+	public static class AbstractReplicaCoordinatorTest extends DefaultTest {
+
+		private static class PlainApp implements Replicable {
+			@Override
+			public boolean execute(Request request) {
+				return true;
+			}
+
+			@Override
+			public Request getRequest(String stringified)
+					throws RequestParseException {
+				return null;
+			}
+
+			@Override
+			public Set<IntegerPacketType> getRequestTypes() {
+				return new HashSet<IntegerPacketType>();
+			}
+
+			@Override
+			public boolean execute(Request request, boolean doNotReplyToClient) {
+				return true;
+			}
+
+			@Override
+			public String checkpoint(String name) {
+				return null;
+			}
+
+			@Override
+			public boolean restore(String name, String state) {
+				return true;
+			}
+		}
+
+		// conflict keys are the request value
+		private static class KeyedApp extends PlainApp implements
+				ParallelReplicable {
+			@Override
+			public Set<?> getConflictKeys(Request request) {
+				return Collections.singleton(((AppRequest) request).getValue());
+			}
+		}
+
+		// reads are requests whose value is "read"
+		private static class ReadApp extends PlainApp implements
+				LeaseReadReplicable {
+			@Override
+			public boolean isReadOnly(Request request) {
+				return "read".equals(((AppRequest) request).getValue());
+			}
+		}
+
+		// deltas are appended to the state
+		private static class DeltaApp extends PlainApp implements
+				DeltaCheckpointReplicable {
+			String state = "";
+
+			@Override
+			public String checkpointDelta(String name) {
+				return "delta";
+			}
+
+			@Override
+			public boolean restoreDelta(String name, String delta) {
+				this.state += delta;
+				return true;
+			}
+		}
+
+		private static AbstractReplicaCoordinator<Integer> wrap(Replicable app) {
+			return new AbstractReplicaCoordinator<Integer>(app) {
+				@Override
+				public boolean coordinateRequest(Request request,
+						ExecutedCallback callback) {
+					return false;
+				}
+
+				@Override
+				public boolean createReplicaGroup(String serviceName,
+						int epoch, String state, Set<Integer> nodes) {
+					return false;
+				}
+
+				@Override
+				public boolean deleteReplicaGroup(String serviceName, int epoch) {
+					return false;
+				}
+
+				@Override
+				public Set<Integer> getReplicaGroup(String serviceName) {
+					return null;
+				}
+
+				@Override
+				public Set<IntegerPacketType> getRequestTypes() {
+					return this.getAppRequestTypes();
+				}
+			};
+		}
+
+		private static AppRequest request(String value, boolean stop) {
+			return new AppRequest("name", value,
+					AppRequest.PacketType.DEFAULT_APP_REQUEST, stop);
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testParallelForwarding() {
+			AbstractReplicaCoordinator<Integer> coordinator = wrap(new KeyedApp());
+			Assert.assertTrue(coordinator.supportsParallelExecution());
+			Assert.assertEquals(Collections.singleton("k"),
+					coordinator.getConflictKeys(request("k", false)));
+			Assert.assertEquals(Collections.singleton("k"),
+					coordinator.getConflictKeys(ReplicableClientRequest
+							.wrap(request("k", false))));
+			// stops conflict with everything
+			Assert.assertNull(coordinator.getConflictKeys(request("k", true)));
+
+			// coordinators of coordinators forward to the same app
+			Assert.assertTrue(wrap(coordinator).supportsParallelExecution());
+			Assert.assertFalse(wrap(new PlainApp()).supportsParallelExecution());
+			Assert.assertNull(wrap(new PlainApp()).getConflictKeys(request("k",
+					false)));
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testLeaseReadForwarding() {
+			AbstractReplicaCoordinator<Integer> coordinator = wrap(new ReadApp());
+			Assert.assertTrue(coordinator.supportsLeaseReads());
+			Assert.assertTrue(coordinator.isReadOnly(request("read", false)));
+			Assert.assertFalse(coordinator.isReadOnly(request("write", false)));
+			// stops are never reads
+			Assert.assertFalse(coordinator.isReadOnly(request("read", true)));
+			Assert.assertTrue(coordinator.isReadOnly(ReplicableClientRequest
+					.wrap(request("read", false))));
+
+			// coordinators of coordinators forward to the same app
+			Assert.assertTrue(wrap(coordinator).supportsLeaseReads());
+			Assert.assertFalse(wrap(new PlainApp()).supportsLeaseReads());
+			Assert.assertFalse(wrap(new PlainApp()).isReadOnly(request("read",
+					false)));
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testDeltaCheckpointForwarding() {
+			DeltaApp app = new DeltaApp();
+			AbstractReplicaCoordinator<Integer> coordinator = wrap(app);
+			Assert.assertTrue(coordinator.supportsDeltaCheckpoints());
+			Assert.assertEquals("delta", coordinator.checkpointDelta("name"));
+			Assert.assertTrue(coordinator.restoreDelta("name", "d1"));
+			Assert.assertTrue(wrap(coordinator).restoreDelta("name", "d2"));
+			Assert.assertEquals("d1d2", app.state);
+
+			Assert.assertFalse(wrap(new PlainApp()).supportsDeltaCheckpoints());
+			Assert.assertNull(wrap(new PlainApp()).checkpointDelta("name"));
+		}
+	}
 }
@@ -75,6 +75,7 @@ import edu.umass.cs.reconfiguration.reconfigurationpackets.BasicReconfigurationP
 import edu.umass.cs.reconfiguration.reconfigurationpackets.DefaultAppRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.DemandReport;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.DropEpochFinalState;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.BatchedClientRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.EchoRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.EpochFinalState;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket;
@@ -96,6 +97,7 @@ import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.GCConcurrentHashMap;
 import edu.umass.cs.utils.GCConcurrentHashMapCallback;
+import edu.umass.cs.utils.LatencyHistogram;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -283,6 +285,8 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 		// else
 		// send demand report
 		this.updateDemandStats(request, senderAndRequest.csa.getAddress());
+		(isCoordinated ? COORDINATED_REQUEST_LATENCY : LOCAL_REQUEST_LATENCY)
+				.recordSince(senderAndRequest.recvTime);
 		instrumentNanoApp(isCoordinated ? Instrument.replicable
 				: Instrument.local, senderAndRequest.recvTime);
 
@@ -322,6 +326,12 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 	private static final String appName = ReconfigurationConfig.application
 			.getSimpleName();
 
+	// from receipt to response, unsampled unlike instrumentNanoApp
+	private static final LatencyHistogram COORDINATED_REQUEST_LATENCY = DelayProfiler
+			.histogram(appName + "." + Instrument.replicable);
+	private static final LatencyHistogram LOCAL_REQUEST_LATENCY = DelayProfiler
+			.histogram(appName + "." + Instrument.local);
+
 	// to print instrumentation stats periodically
 	protected void initInstrumenter() {
 		if (Config.getGlobalBoolean(RC.ENABLE_INSTRUMENTATION))
@@ -347,6 +357,14 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 		log.log(debug, "{0} handleMessage received {1}", new Object[] { this,
 				incoming.getSummary(log.isLoggable(debug)) });
 
+		// unbatch and handle each request as if received separately
+		if (incoming instanceof BatchedClientRequest) {
+			for (ReplicableClientRequest request : ((BatchedClientRequest) incoming)
+					.getRequests())
+				this.handleMessage(request, header);
+			return false;
+		}
+
 		long entryTime = System.nanoTime();
 		@SuppressWarnings("unchecked")
 		BasicReconfigurationPacket<NodeIDType> rcPacket = incoming instanceof BasicReconfigurationPacket ? (BasicReconfigurationPacket<NodeIDType>) incoming
@@ -567,6 +585,7 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 		types.remove(PaxosPacket.PaxosPacketType.PAXOS_PACKET);
 		types.addAll(this.getActiveReplicaPacketTypes());
 		types.addAll(this.appCoordinator.getMutualAuthAppRequestTypes());
+		types.add(PacketType.BATCHED_CLIENT_REQUEST);
 		return types;
 	}
 
@@ -1240,11 +1259,12 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 						.getMutualAuthAppRequestTypes());
 				pd.register(appTypes, this);
 				
-				/* These two requests are not app requests but are expected to be received on
+				/* These requests are not app requests but are expected to be received on
 				 * client-facing ports, so we need to register them here.
 				 */
 				pd.register(PacketType.ECHO_REQUEST, this);
 				pd.register(PacketType.REPLICABLE_CLIENT_REQUEST, this);
+				pd.register(PacketType.BATCHED_CLIENT_REQUEST, this);
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -0,0 +1,309 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.reconfiguration;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gigapaxos.interfaces.TimeoutRequestCallback;
+import edu.umass.cs.nio.NIOTransport;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.CreateServiceName;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ConsistentHashing;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Bulk-loads a stream of (name, initial state) pairs into gigapaxos,
+ *         e.g., to migrate an existing dataset. Pairs are read one line at a
+ *         time as
+ *
+ *         <pre>
+ * name&lt;TAB&gt;initial_state
+ * </pre>
+ *
+ *         and buffered per reconfigurator group until a batch reaches
+ *         {@link RC#MAX_BATCH_SIZE} names or a quarter of
+ *         {@link NIOTransport#MAX_PAYLOAD_SIZE} bytes, so that each batch is a
+ *         legitimate batched {@link CreateServiceName} that the responsible
+ *         reconfigurators commit as a single record update and the actives
+ *         create as a single bulk paxos instance creation. Up to a window of
+ *         batches is kept outstanding so that the record commit of a batch is
+ *         pipelined with the StartEpoch dispatch of earlier batches. Only the
+ *         partially filled batches, one per reconfigurator group, and the
+ *         outstanding batches are held in memory, so the input can be
+ *         arbitrarily large.
+ *
+ *         Usage:
+ *
+ *         <pre>
+ * BulkCreateLoader &lt;file|-&gt; [batchSize [window [timeoutMillis]]]
+ * </pre>
+ *
+ *         where "-" reads from standard input. Reconfigurators are read from
+ *         the gigapaxos properties file.
+ */
+public class BulkCreateLoader {
+
+	private static final Logger log = Reconfigurator.getLogger();
+
+	private static final int DEFAULT_WINDOW = 8;
+	private static final long DEFAULT_TIMEOUT = 5 * 60 * 1000;
+	private static final long REPORT_INTERVAL = 5000;
+
+	private final ReconfigurableAppClientAsync<?> client;
+	private final ConsistentHashing<String> ch;
+	private final int batchSize;
+	private final int maxBatchBytes = NIOTransport.MAX_PAYLOAD_SIZE / 4;
+	private final int window;
+	private final Semaphore outstanding;
+	private final long timeout;
+	private final ScheduledExecutorService timer = Executors
+			.newSingleThreadScheduledExecutor();
+
+	// partially filled batch per reconfigurator group
+	private final Map<String, Map<String, String>> pending = new HashMap<String, Map<String, String>>();
+	private final Map<String, Integer> pendingBytes = new HashMap<String, Integer>();
+
+	private final AtomicLong sent = new AtomicLong(0);
+	private final AtomicLong created = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+
+	/**
+	 * @param client
+	 * @param reconfigurators
+	 *            Reconfigurator IDs used to split names into reconfigurator
+	 *            groups. If they are stale, reconfigurators will split the
+	 *            batches further, which is correct but slower.
+	 * @param batchSize
+	 * @param window
+	 *            Maximum number of outstanding batches.
+	 * @param timeout
+	 *            Time after which an unacknowledged batch is counted as failed.
+	 */
+	public BulkCreateLoader(ReconfigurableAppClientAsync<?> client,
+			Set<String> reconfigurators, int batchSize, int window, long timeout) {
+		this.client = client;
+		this.ch = new ConsistentHashing<String>(reconfigurators);
+		this.batchSize = batchSize;
+		this.window = window;
+		this.outstanding = new Semaphore(window);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param client
+	 * @param reconfigurators
+	 */
+	public BulkCreateLoader(ReconfigurableAppClientAsync<?> client,
+			Set<String> reconfigurators) {
+		this(client, reconfigurators, Config
+				.getGlobalInt(RC.MAX_BATCH_SIZE), DEFAULT_WINDOW,
+				DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Reads all name, state pairs from {@code reader} and returns after all
+	 * batches have been acknowledged or timed out.
+	 *
+	 * @param reader
+	 * @return Number of names successfully created.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public long load(Reader reader) throws IOException, InterruptedException {
+		BufferedReader br = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
+		long t = System.currentTimeMillis(), lastReport = t;
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (line.isEmpty())
+				continue;
+			int tab = line.indexOf('\t');
+			this.add(tab < 0 ? line : line.substring(0, tab),
+					tab < 0 ? "" : line.substring(tab + 1));
+			if (System.currentTimeMillis() - lastReport > REPORT_INTERVAL)
+				this.report(t, lastReport = System.currentTimeMillis());
+		}
+		for (String rc : this.pending.keySet())
+			this.send(this.pending.get(rc));
+		this.pending.clear();
+		this.pendingBytes.clear();
+
+		// wait for all outstanding batches
+		this.outstanding.acquire(this.window);
+		this.outstanding.release(this.window);
+		this.report(t, System.currentTimeMillis());
+		return this.created.get();
+	}
+
+	private void add(String name, String state) throws IOException,
+			InterruptedException {
+		String rc = this.ch.getReplicatedServersArray(name).get(0);
+		Map<String, String> batch = this.pending.get(rc);
+		if (batch == null)
+			this.pending.put(rc, batch = new LinkedHashMap<String, String>());
+		Integer bytes = this.pendingBytes.get(rc);
+		bytes = (bytes != null ? bytes : 0) + name.length() + state.length();
+		if (batch.put(name, state) != null)
+			log.log(Level.WARNING, "{0} ignoring duplicate name {1}",
+					new Object[] { this, name });
+		if (batch.size() >= this.batchSize || bytes >= this.maxBatchBytes) {
+			this.pending.remove(rc);
+			this.pendingBytes.remove(rc);
+			this.send(batch);
+		} else
+			this.pendingBytes.put(rc, bytes);
+	}
+
+	private void send(final Map<String, String> nameStates)
+			throws IOException, InterruptedException {
+		if (nameStates.isEmpty())
+			return;
+		this.outstanding.acquire();
+		final CreateServiceName create = new CreateServiceName(null,
+				nameStates);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		this.sent.addAndGet(nameStates.size());
+		this.timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (done.compareAndSet(false, true)) {
+					log.log(Level.WARNING,
+							"{0} timed out on batch create of {1} names with head name {2}",
+							new Object[] { BulkCreateLoader.this,
+									nameStates.size(), create.getServiceName() });
+					BulkCreateLoader.this.failed.addAndGet(nameStates.size());
+					BulkCreateLoader.this.outstanding.release();
+				}
+			}
+		}, this.timeout, TimeUnit.MILLISECONDS);
+		this.client.sendRequest(create, new TimeoutRequestCallback() {
+			@Override
+			public void handleResponse(Request response) {
+				if (!done.compareAndSet(false, true))
+					return;
+				if (response instanceof CreateServiceName
+						&& !((CreateServiceName) response).isFailed())
+					BulkCreateLoader.this.created.addAndGet(nameStates.size());
+				else {
+					log.log(Level.WARNING,
+							"{0} failed batch create of {1} names with head name {2}: {3}",
+							new Object[] {
+									BulkCreateLoader.this,
+									nameStates.size(),
+									create.getServiceName(),
+									response instanceof CreateServiceName ? ((CreateServiceName) response)
+											.getResponseMessage() : response });
+					BulkCreateLoader.this.failed.addAndGet(nameStates.size());
+				}
+				BulkCreateLoader.this.outstanding.release();
+			}
+
+			@Override
+			public long getTimeout() {
+				return BulkCreateLoader.this.timeout;
+			}
+		});
+	}
+
+	private void report(long startTime, long now) {
+		log.log(Level.INFO,
+				"{0} sent {1}, created {2}, failed {3} names; {4} names/sec",
+				new Object[] {
+						this,
+						this.sent.get(),
+						this.created.get(),
+						this.failed.get(),
+						Util.df(this.created.get() * 1000.0
+								/ Math.max(1, now - startTime)) });
+	}
+
+	/**
+	 * @return Number of names whose batch create failed or timed out.
+	 */
+	public long getFailed() {
+		return this.failed.get();
+	}
+
+	/**
+	 * Stops the timeout timer; the client is not closed.
+	 */
+	public void close() {
+		this.timer.shutdownNow();
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName();
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		if (args.length < 1) {
+			System.err
+					.println("Usage: BulkCreateLoader <file|-> [batchSize [window [timeoutMillis]]]");
+			System.exit(1);
+		}
+		InputStream in = args[0].equals("-") ? System.in
+				: new FileInputStream(args[0]);
+		ReconfigurableAppClientAsync<?> client = new ReconfigurableAppClientAsync.AsyncClient();
+		BulkCreateLoader loader = new BulkCreateLoader(client,
+				ReconfigurationConfig.getReconfiguratorIDs(),
+				args.length > 1 ? Integer.valueOf(args[1]) : Config
+						.getGlobalInt(RC.MAX_BATCH_SIZE),
+				args.length > 2 ? Integer.valueOf(args[2]) : DEFAULT_WINDOW,
+				args.length > 3 ? Long.valueOf(args[3]) : DEFAULT_TIMEOUT);
+		long t = System.currentTimeMillis();
+		long numCreated = 0;
+		try {
+			numCreated = loader.load(new InputStreamReader(in, "UTF-8"));
+		} finally {
+			loader.close();
+			client.close();
+			in.close();
+		}
+		System.out.println("Created " + numCreated + " names ("
+				+ loader.getFailed() + " failed) at "
+				+ Util.df(numCreated * 1000.0
+						/ Math.max(1, System.currentTimeMillis() - t))
+				+ " names/sec");
+		System.exit(loader.getFailed() > 0 ? 1 : 0);
+	}
+}
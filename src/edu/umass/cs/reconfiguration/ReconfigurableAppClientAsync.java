@@ -10,6 +10,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
@@ -35,6 +37,7 @@ import edu.umass.cs.gigapaxos.interfaces.RequestCallback;
 import edu.umass.cs.gigapaxos.interfaces.RequestFuture;
 import edu.umass.cs.gigapaxos.interfaces.SummarizableRequest;
 import edu.umass.cs.gigapaxos.interfaces.TimeoutRequestCallback;
+import edu.umass.cs.gigapaxos.paxosutil.ConsumerBatchTask;
 import edu.umass.cs.gigapaxos.paxosutil.E2ELatencyAwareRedirector;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONPacket;
@@ -51,6 +54,7 @@ import edu.umass.cs.reconfiguration.interfaces.GigaPaxosClient;
 import edu.umass.cs.reconfiguration.interfaces.ReplicableRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ActiveReplicaError;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.BasicReconfigurationPacket;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.BatchedClientRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ClientReconfigurationPacket;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ClientReconfigurationPacket.ResponseCodes;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.CreateServiceName;
@@ -216,9 +220,11 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 		}
 	}
 
-	// all app client request callbacks
-	private final GCConcurrentHashMap<Long, Callback<Request, V>> callbacks = new GCConcurrentHashMap<Long, Callback<Request, V>>(
-			appGCCallback, APP_REQUEST_TIMEOUT);
+	/* All app client request callbacks. This map is accessed by every sending
+	 * thread and by the response demultiplexer, so it is a plain lock-free map
+	 * with timed out entries swept periodically by {@link #timer} instead of
+	 * a GCConcurrentHashMap whose every put and remove is synchronized. */
+	private final ConcurrentHashMap<Long, Callback<Request, V>> callbacks = new ConcurrentHashMap<Long, Callback<Request, V>>();
 	private final GCConcurrentHashMap<Long, Callback<Request, V>> callbacksLongTimeout = new GCConcurrentHashMap<Long, Callback<Request, V>>(
 			defaultGCCallback, APP_REQUEST_LONG_TIMEOUT);
 
@@ -226,7 +232,7 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	private final GCConcurrentHashMap<String, RequestCallback> callbacksCRP = new GCConcurrentHashMap<String, RequestCallback>(
 			crpGCCallback, CRP_GC_TIMEOUT);
 	private final GCConcurrentHashMap<String, RequestCallback> callbacksCRPLongTimeout = new GCConcurrentHashMap<String, RequestCallback>(
-			crpGCCallback, CRP_GC_TIMEOUT);
+			crpGCCallback, CRP_GC_LONG_TIMEOUT);
 
 	// server reconfiguration packet callbacks,
 	private final GCConcurrentHashMap<String, RequestCallback> callbacksSRP = new GCConcurrentHashMap<String, RequestCallback>(
@@ -275,7 +281,19 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 		}
 	};
 
-	Timer timer = null;
+	volatile Timer timer = null;
+
+	// interval at which timed out entries in callbacks are swept
+	private static final long CALLBACKS_SWEEP_INTERVAL = 1000;
+
+	private static final boolean CLIENT_REQUEST_BATCHING = Config
+			.getGlobalBoolean(RC.CLIENT_REQUEST_BATCHING);
+
+	private static final int CLIENT_MAX_BATCH_SIZE = Config
+			.getGlobalInt(RC.CLIENT_MAX_BATCH_SIZE);
+
+	// non-null only if CLIENT_REQUEST_BATCHING is enabled
+	private final RequestBatcher batcher;
 
 	private static final Logger log = Logger
 			.getLogger(ReconfigurableAppClientAsync.class.getName()); // Reconfigurator.getLogger();
@@ -331,6 +349,10 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 		this.e2eRedirector = new E2ELatencyAwareRedirector(
 				this.niot.getListeningSocketAddress());
 
+		if ((this.batcher = CLIENT_REQUEST_BATCHING ? new RequestBatcher(
+				new LinkedList<PendingSend>()) : null) != null)
+			this.batcher.start(this + ":" + RequestBatcher.class.getSimpleName());
+
 		if (checkConnectivity)
 			this.checkConnectivity();
 	}
@@ -868,6 +890,8 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 
 		RequestCallbackFuture<V> future = callback instanceof RequestCallbackFuture ? (RequestCallbackFuture<V>) callback
 				: new RequestCallbackFuture<V>(request, callback);
+		// callbacks relies on the timer to sweep timed out entries
+		initTimerIfNeeded();
 		try {
 			Callback<Request, V> original = callback;
 			// transforms all requests to a unique ID unless retransmission
@@ -894,7 +918,8 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 			if (prev != null
 					&& ((RequestAndCallback) prev).request.equals(request))
 				this.callbacks.put(request.getRequestID(),
-						new RequestAndCallback(request, callback));
+						new RequestAndCallback(request, callback)
+								.setServerSentTo(server));
 
 			// special case for long timeout tasks
 			if (hasLongTimeout(original))
@@ -902,7 +927,7 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 						((TimeoutRequestCallback) original).getTimeout(),
 						request);
 
-			sendFailed = this.niot.sendToAddress(server, request) <= 0;
+			sendFailed = !this.send(server, request);
 			Level level = request instanceof EchoRequest ? Level.FINE
 					: Level.FINE;
 			log.log(level,
@@ -1018,9 +1043,143 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 
 	// we don't initialize a timer unless really needed at least once
 	private void initTimerIfNeeded() {
+		if (this.timer != null)
+			return;
 		synchronized (this) {
-			if (this.timer == null)
-				this.timer = new Timer(this.toString(), true);
+			if (this.timer == null) {
+				Timer timer = new Timer(this.toString(), true);
+				timer.schedule(new TimerTask() {
+					@Override
+					public void run() {
+						ReconfigurableAppClientAsync.this.sweepCallbacks();
+					}
+				}, CALLBACKS_SWEEP_INTERVAL, CALLBACKS_SWEEP_INTERVAL);
+				this.timer = timer;
+			}
+		}
+	}
+
+	/* Removes and times out expired app request callbacks. Removing with
+	 * remove(key, value) ensures that we neither time out a callback that a
+	 * response just removed nor one that a retransmission just refreshed. */
+	private void sweepCallbacks() {
+		for (Iterator<Map.Entry<Long, Callback<Request, V>>> iter = this.callbacks
+				.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Long, Callback<Request, V>> entry = iter.next();
+			if (entry.getValue() instanceof ReconfigurableAppClientAsync.RequestAndCallback
+					&& ((RequestAndCallback) entry.getValue()).isExpired()
+					&& this.callbacks.remove(entry.getKey(), entry.getValue()))
+				this.appGCCallback.callbackGC(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/* Sends directly or through the batcher if batching is enabled. Batched
+	 * sends are asynchronous, so a failure to send a batch is only logged and
+	 * the corresponding requests eventually time out like lost requests. */
+	private boolean send(InetSocketAddress server, ClientRequest request)
+			throws IOException {
+		if (this.batcher != null && request instanceof ReplicableRequest
+				&& !this.getMutualAuthTypes().contains(request.getRequestType())) {
+			this.batcher.enqueue(new PendingSend(server, request));
+			return true;
+		}
+		return this.niot.sendToAddress(server, request) > 0;
+	}
+
+	private static class PendingSend {
+		final InetSocketAddress server;
+		final ClientRequest request;
+
+		PendingSend(InetSocketAddress server, ClientRequest request) {
+			this.server = server;
+			this.request = request;
+		}
+	}
+
+	/**
+	 * Coalesces app requests enqueued while the previous batch was being sent
+	 * into {@link BatchedClientRequest}s, one per (active replica, service
+	 * name) pair. A request that finds the batcher idle is sent right away, so
+	 * batching adds no latency but reduces per-message overhead under load.
+	 */
+	private class RequestBatcher extends ConsumerBatchTask<PendingSend> {
+
+		private final LinkedList<PendingSend> pending;
+
+		RequestBatcher(LinkedList<PendingSend> lock) {
+			super(lock, new PendingSend[0]);
+			this.pending = lock;
+		}
+
+		@Override
+		public void enqueueImpl(PendingSend task) {
+			this.pending.add(task);
+		}
+
+		@Override
+		public PendingSend dequeueImpl() {
+			throw new RuntimeException(this.getClass().getName()
+					+ ".dequeueImpl() should not have been called");
+		}
+
+		@Override
+		public void process(PendingSend task) {
+			throw new RuntimeException(this.getClass().getName()
+					+ ".process() should not have been called");
+		}
+
+		@Override
+		public void process(PendingSend[] tasks) {
+			// server->name->requests preserving the order of sending
+			LinkedHashMap<InetSocketAddress, LinkedHashMap<String, ArrayList<ClientRequest>>> batches = new LinkedHashMap<InetSocketAddress, LinkedHashMap<String, ArrayList<ClientRequest>>>();
+			for (PendingSend task : tasks) {
+				LinkedHashMap<String, ArrayList<ClientRequest>> byName = batches
+						.get(task.server);
+				if (byName == null)
+					batches.put(
+							task.server,
+							byName = new LinkedHashMap<String, ArrayList<ClientRequest>>());
+				ArrayList<ClientRequest> requests = byName.get(task.request
+						.getServiceName());
+				if (requests == null)
+					byName.put(task.request.getServiceName(),
+							requests = new ArrayList<ClientRequest>());
+				requests.add(task.request);
+			}
+			for (InetSocketAddress server : batches.keySet())
+				for (ArrayList<ClientRequest> requests : batches.get(server)
+						.values())
+					for (int i = 0; i < requests.size(); i += CLIENT_MAX_BATCH_SIZE)
+						this.send(server, requests.subList(i,
+								Math.min(i + CLIENT_MAX_BATCH_SIZE, requests.size())));
+		}
+
+		private void send(InetSocketAddress server, List<ClientRequest> requests) {
+			Object message = null;
+			if (requests.size() == 1)
+				message = requests.get(0);
+			else {
+				ArrayList<ReplicableClientRequest> wrapped = new ArrayList<ReplicableClientRequest>();
+				for (ClientRequest request : requests)
+					wrapped.add(request instanceof ReplicableClientRequest ? (ReplicableClientRequest) request
+							: ReplicableClientRequest.wrap(request));
+				message = new BatchedClientRequest(wrapped);
+			}
+			try {
+				if (niot.sendToAddress(server, message) <= 0)
+					log.log(Level.INFO,
+							"{0} failed to send batch of {1} requests to {2}",
+							new Object[] { ReconfigurableAppClientAsync.this,
+									requests.size(), server });
+				else if (requests.size() > 1)
+					DelayProfiler.updateMovAvg("client_batch_size",
+							requests.size());
+			} catch (IOException e) {
+				log.log(Level.INFO,
+						"{0} incurred {1} sending batch of {2} requests to {3}",
+						new Object[] { ReconfigurableAppClientAsync.this, e,
+								requests.size(), server });
+			}
 		}
 	}
 
@@ -1032,7 +1191,7 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 			@Override
 			public void run() {
 				ReconfigurableAppClientAsync.this.callbacksCRPLongTimeout
-						.remove(request.getKey());
+						.remove(getKey(request));
 			}
 
 		}, timeout);
@@ -1054,16 +1213,17 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	private boolean sendRequest(ClientReconfigurationPacket request,
 			InetSocketAddress reconfigurator, RequestCallback callback)
 			throws IOException {
+		// check timeout before wrapping callback
+		Long longTimeout = hasLongTimeout(callback) ? ((TimeoutRequestCallback) callback)
+				.getTimeout() : null;
 		if (callback != null
 				&& (callback = new CRPRequestCallback(request, callback,
 						reconfigurator)) != null)
-			if (!hasLongTimeout(callback))
+			if (longTimeout == null)
 				this.callbacksCRP.put(getKey(request), callback);
 			else if (this.callbacksCRPLongTimeout
 					.put(getKey(request), callback) == null)
-				spawnGCClientReconfigurationPacket(
-						((TimeoutRequestCallback) callback).getTimeout(),
-						request);
+				spawnGCClientReconfigurationPacket(longTimeout, request);
 		return this.sendRequest(
 				request,
 				reconfigurator != null ? reconfigurator : this.e2eRedirector
@@ -1698,6 +1858,8 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	public void close() {
 		if (this.timer != null)
 			this.timer.cancel();
+		if (this.batcher != null)
+			this.batcher.stop();
 		this.niot.stop();
 	}
 
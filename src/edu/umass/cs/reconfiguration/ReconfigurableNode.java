@@ -36,6 +36,7 @@ import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.JSONNIOTransport;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
@@ -349,6 +350,12 @@ public abstract class ReconfigurableNode<NodeIDType> {
 
 		if (Config.getGlobalBoolean(PC.EMULATE_DELAYS))
 			AbstractPacketDemultiplexer.emulateDelays();
+		NIOTransport.setNumReactors(Config
+				.getGlobalInt(PC.NIO_REACTOR_THREADS));
+		NIOTransport.setUsePooledBuffers(Config
+				.getGlobalBoolean(PC.NIO_POOLED_BUFFERS));
+		NIOTransport.setSendQueueHighWatermark(Config
+				.getGlobalLong(PC.NIO_SEND_QUEUE_HIGH_WATERMARK));
 
 		Set<String> servers = getAllNodes(args);
 
@@ -240,6 +240,14 @@ public class ReconfigurationConfig {
 		 */
 		USE_DISK_MAP_RCDB(true),
 
+		/**
+		 * Number of stripes into which the reconfigurator DB partitions records
+		 * by name hash. Operations on names in different stripes proceed
+		 * concurrently, and each stripe has its own in-memory slice of
+		 * {@link #USE_DISK_MAP_RCDB} records.
+		 */
+		RCDB_STRIPES(16),
+
 		/**
 		 * This parameter specifies the the number of active replicas for a name
 		 * at upon creation of the name. This parameter is irrelevant if
@@ -323,6 +331,21 @@ public class ReconfigurationConfig {
 		 */
 		ENABLE_ID_TRANSFORM (false),
 		
+		/**
+		 * True means that {@link ReconfigurableAppClientAsync} will coalesce
+		 * requests to the same service name and the same active replica that
+		 * are sent concurrently into a single
+		 * {@link edu.umass.cs.reconfiguration.reconfigurationpackets.BatchedClientRequest}.
+		 * Requests are never delayed waiting for a batch to fill up, so a
+		 * client with a single outstanding request sends it unbatched.
+		 */
+		CLIENT_REQUEST_BATCHING (false),
+
+		/**
+		 * Maximum number of requests in a single client request batch.
+		 */
+		CLIENT_MAX_BATCH_SIZE (64),
+		
 		/**
 		 * True means that the demand profile implementation is tested at bootstrap
 		 * time to sanity check that its implementation meets the specification.
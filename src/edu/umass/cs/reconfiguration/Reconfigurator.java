@@ -1496,6 +1496,24 @@ public class Reconfigurator<NodeIDType> implements
 		return modified;
 	}
 
+	/* Clients send subsequent requests for a name directly to the forwardee,
+	 * so it must be my client facing address of the same kind (clear or SSL)
+	 * as the forwarder's address on which the client request was received.
+	 * Otherwise, I would treat those requests as server-to-server and, for
+	 * example, return active replica addresses without client facing ports. */
+	private InetSocketAddress getClientFacingForwardee(
+			InetSocketAddress entryReceiver, InetSocketAddress forwarder) {
+		Boolean ssl = entryReceiver == null
+				|| entryReceiver.getPort() == forwarder.getPort() ? null
+				: entryReceiver.getPort() == getClientFacingSSLPort(forwarder
+						.getPort());
+		return modifyPortsForSSL(
+				new HashSet<InetSocketAddress>(Arrays
+						.asList(this.consistentNodeConfig
+								.getNodeSocketAddress(getMyID()))), ssl)
+				.iterator().next();
+	}
+
 	private boolean clientFacingPortIsMyPort() {
 		return getClientFacingClearPort(this.consistentNodeConfig
 				.getNodePort(getMyID())) == this.consistentNodeConfig
@@ -2128,8 +2146,8 @@ public class Reconfigurator<NodeIDType> implements
 				this.messenger.sendToAddress(
 						querier,
 						new JSONMessenger.JSONObjectByteableWrapper(response
-								.setForwardee(this.consistentNodeConfig
-										.getNodeSocketAddress(getMyID()))
+								.setForwardee(this.getClientFacingForwardee(
+										response.getMyReceiver(), querier))
 						// .toJSONObject()
 						));
 			}
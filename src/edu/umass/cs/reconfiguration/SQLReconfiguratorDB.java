@@ -23,14 +23,10 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.StringReader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -44,15 +40,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -60,6 +55,10 @@ import javax.sql.DataSource;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
 
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 
@@ -82,6 +81,7 @@ import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurableSampleNod
 import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurationRecord;
 import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurationRecord.RCStates;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.DiskMap;
 import edu.umass.cs.utils.StringLocker;
@@ -143,18 +143,48 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	private static final int MAX_FILENAME_LENGTH = 128;
 	private static final String CHARSET = "ISO-8859-1";
 
-	private static final int THREAD_POOL_SIZE = Config
-			.getGlobalInt(PC.PACKET_DEMULTIPLEXER_THREADS);
-
 	private static enum Columns {
 		SERVICE_NAME, EPOCH, RC_GROUP_NAME, ACTIVES, NEW_ACTIVES, RC_STATE, STRINGIFIED_RECORD, DEMAND_PROFILE, INET_ADDRESS, PORT, NODE_CONFIG_VERSION, RC_NODE_ID, AR_NODE_ID, IS_RECONFIGURATOR
 	};
 
-	private static enum Keys {
-		INET_SOCKET_ADDRESS, FILENAME, FILESIZE
-	};
+	/* Records are partitioned by name hash into stripes so that operations on
+	 * names in different stripes proceed concurrently. Each stripe is the
+	 * monitor for all operations on the names hashing to it and, with
+	 * USE_DISK_MAP, holds its own in-memory slice of the records table. */
+	private final ArrayList<Stripe> stripes;
+
+	private class Stripe {
+		final DiskMap<String, ReconfigurationRecord<NodeIDType>> rcRecords;
+
+		Stripe(long capacity) {
+			this.rcRecords = USE_DISK_MAP ? new DiskMap<String, ReconfigurationRecord<NodeIDType>>(
+					capacity) {
+
+				@Override
+				public Set<String> commit(
+						Map<String, ReconfigurationRecord<NodeIDType>> toCommit)
+						throws IOException {
+					return SQLReconfiguratorDB.this
+							.putReconfigurationRecordDB(toCommit);
+				}
+
+				@Override
+				public ReconfigurationRecord<NodeIDType> restore(String key)
+						throws IOException {
+					return SQLReconfiguratorDB.this
+							.getReconfigurationRecordDB(key);
+				}
+			}
+					: null;
+		}
+
+		public String toString() {
+			return String.valueOf(this.rcRecords);
+		}
+	}
 
-	private final DiskMap<String, ReconfigurationRecord<NodeIDType>> rcRecords;
+	private static final int NUM_STRIPES = Math.max(1,
+			Config.getGlobalInt(RC.RCDB_STRIPES));
 
 	private static final ArrayList<SQLReconfiguratorDB<?>> instances = new ArrayList<SQLReconfiguratorDB<?>>();
 
@@ -162,14 +192,10 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 
 	private ComboPooledDataSource dataSource = null;
 
-	private ServerSocket serverSock = null;
-
 	private Object fileSystemLock = new Object();
 
 	private StringLocker stringLocker = new StringLocker();
 
-	private ScheduledExecutorService executor;
-	Future<?> checkpointServerFuture = null;
 
 	private boolean closed = true;
 
@@ -189,34 +215,44 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 				: logDir) + "/";
 		addDerbyPersistentReconfiguratorDB(this);
 
-		this.rcRecords = USE_DISK_MAP ? new DiskMap<String, ReconfigurationRecord<NodeIDType>>(
-				Config.getGlobalInt(PC.PINSTANCES_CAPACITY)) {
-
-			@Override
-			public Set<String> commit(
-					Map<String, ReconfigurationRecord<NodeIDType>> toCommit)
-					throws IOException {
-				return SQLReconfiguratorDB.this
-						.putReconfigurationRecordDB(toCommit);
-			}
-
-			@Override
-			public ReconfigurationRecord<NodeIDType> restore(String key)
-					throws IOException {
-				return SQLReconfiguratorDB.this.getReconfigurationRecordDB(key);
-			}
-		}
-				: null;
+		this.stripes = this.createStripes(NUM_STRIPES,
+				Config.getGlobalInt(PC.PINSTANCES_CAPACITY) / NUM_STRIPES);
 		initialize(true);
 	}
 
 	private SQLReconfiguratorDB(NodeIDType myID) {
 		super(myID, null);
 		logDirectory = SQLReconfiguratorDB.LOG_DIRECTORY + "/";
-		this.rcRecords = null;
+		this.stripes = null;
 		this.initialize(false);
 	}
 
+	private ArrayList<Stripe> createStripes(int numStripes, long capacity) {
+		ArrayList<Stripe> stripes = new ArrayList<Stripe>(numStripes);
+		for (int i = 0; i < numStripes; i++)
+			stripes.add(new Stripe(Math.max(1, capacity)));
+		return stripes;
+	}
+
+	private Stripe getStripe(String name) {
+		return this.stripes.get((name.hashCode() & Integer.MAX_VALUE)
+				% this.stripes.size());
+	}
+
+	private void commitAll() {
+		if (USE_DISK_MAP)
+			for (Stripe stripe : this.stripes)
+				stripe.rcRecords.commit();
+	}
+
+	private int numInMemoryRecords() {
+		int size = 0;
+		if (USE_DISK_MAP)
+			for (Stripe stripe : this.stripes)
+				size += stripe.rcRecords.size();
+		return size;
+	}
+
 	/**
 	 * @param myID
 	 * @param nc
@@ -386,12 +422,15 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	/******************** Start of overridden methods *********************/
 
 	@Override
-	public synchronized ReconfigurationRecord<NodeIDType> getReconfigurationRecord(
+	public ReconfigurationRecord<NodeIDType> getReconfigurationRecord(
 			String name) {
-		if (USE_DISK_MAP)
-			return this.rcRecords.get(name);
-		else
-			return this.getReconfigurationRecordDB(name);
+		Stripe stripe = this.getStripe(name);
+		synchronized (stripe) {
+			if (USE_DISK_MAP)
+				return stripe.rcRecords.get(name);
+			else
+				return this.getReconfigurationRecordDB(name);
+		}
 	}
 
 	private ReconfigurationRecord<NodeIDType> getReconfigurationRecordDB(
@@ -426,46 +465,48 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	}
 
 	@Override
-	public synchronized boolean updateDemandStats(
+	public boolean updateDemandStats(
 			DemandReport<NodeIDType> report) {
-		JSONObject update = report.getStats();
-		JSONObject historic = getDemandStatsJSON(report.getServiceName());
-		JSONObject combined = null;
-		String insertCmd = "insert into " + getDemandTable() + " ("
-				+ Columns.DEMAND_PROFILE.toString() + ", "
-				+ Columns.SERVICE_NAME.toString() + " ) values (?,?)";
-		String updateCmd = "update " + getDemandTable() + " set "
-				+ Columns.DEMAND_PROFILE.toString() + "=? where "
-				+ Columns.SERVICE_NAME.toString() + "=?";
-		String cmd = historic != null ? updateCmd : insertCmd;
-		combined = update;
-		if (historic != null && shouldCombineStats())
-			combined = combineStats(historic, update);
+		synchronized (this.getStripe(report.getServiceName())) {
+			JSONObject update = report.getStats();
+			JSONObject historic = getDemandStatsJSON(report.getServiceName());
+			JSONObject combined = null;
+			String insertCmd = "insert into " + getDemandTable() + " ("
+					+ Columns.DEMAND_PROFILE.toString() + ", "
+					+ Columns.SERVICE_NAME.toString() + " ) values (?,?)";
+			String updateCmd = "update " + getDemandTable() + " set "
+					+ Columns.DEMAND_PROFILE.toString() + "=? where "
+					+ Columns.SERVICE_NAME.toString() + "=?";
+			String cmd = historic != null ? updateCmd : insertCmd;
+			combined = update;
+			if (historic != null && shouldCombineStats())
+				combined = combineStats(historic, update);
 
-		PreparedStatement insertCP = null;
-		Connection conn = null;
-		try {
-			conn = this.getDefaultConn();
-			insertCP = conn.prepareStatement(cmd);
-			if (DEMAND_PROFILE_CLOB_OPTION)
-				insertCP.setClob(1, new StringReader(combined.toString()));
-			else
-				insertCP.setString(1, combined.toString());
-			insertCP.setString(2, report.getServiceName());
-			insertCP.executeUpdate();
-			// conn.commit();
-		} catch (SQLException sqle) {
-			log.severe("SQLException while updating stats using " + cmd);
-			sqle.printStackTrace();
-		} finally {
-			cleanup(insertCP);
-			cleanup(conn);
+			PreparedStatement insertCP = null;
+			Connection conn = null;
+			try {
+				conn = this.getDefaultConn();
+				insertCP = conn.prepareStatement(cmd);
+				if (DEMAND_PROFILE_CLOB_OPTION)
+					insertCP.setClob(1, new StringReader(combined.toString()));
+				else
+					insertCP.setString(1, combined.toString());
+				insertCP.setString(2, report.getServiceName());
+				insertCP.executeUpdate();
+				// conn.commit();
+			} catch (SQLException sqle) {
+				log.severe("SQLException while updating stats using " + cmd);
+				sqle.printStackTrace();
+			} finally {
+				cleanup(insertCP);
+				cleanup(conn);
+			}
+			return true;
 		}
-		return true;
 	}
 
 	@Override
-	public synchronized boolean setState(String name, int epoch,
+	public boolean setState(String name, int epoch,
 			ReconfigurationRecord.RCStates state) {
 		return this.setStateMerge(name, epoch, state, null, null);
 	}
@@ -475,81 +516,83 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	 * READY usually to WAIT_ACK_STOP. */
 
 	@Override
-	public synchronized boolean setStateMerge(String name, int epoch,
+	public boolean setStateMerge(String name, int epoch,
 			ReconfigurationRecord.RCStates state, Set<NodeIDType> newActives,
 			Set<String> mergees) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(name);
-		if (record == null)
-			return false;
+		synchronized (this.getStripe(name)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(name);
+			if (record == null)
+				return false;
 
-		log.log(Level.INFO,
-				"==============================> {0} {1} {2}:{3} -> {4}:{5} {6} {7} {8}",
-				new Object[] { this, record.getName(), record.getEpoch(),
-						record.getState(), epoch, state,
-						record.getNewActives(),
-						mergees != null && !mergees.isEmpty() ? mergees : "",
-						isUnclean(record) ? "(unclean)" : "" });
-
-		record.setStateMerge(name, epoch, state, mergees);
-		// setStateInitReconfiguration used for intent
-		assert (state.equals(RCStates.READY)
-				|| state.equals(RCStates.READY_READY) || state
-					.equals(RCStates.WAIT_DELETE));
-		if (record.isReady()) {
-			record.setActivesToNewActives(newActives);
-			/* The list of pending reconfigurations is stored persistently so
-			 * that we can resume the most recent incomplete reconfiguration
-			 * upon recovery. The ones before the most recent will be handled by
-			 * paxos roll forward automatically. The reason paxos is not enough
-			 * for the most recent one is because reconfiguration is (at least)
-			 * a two step process consisting of an "intent" followed by a
-			 * "complete" operation. Paxos will blindly replay all committed
-			 * operations but has no way of knowing application-specific
-			 * information like the fact that an intent has to be followed by
-			 * complete. So if the node crashes after an intent but before the
-			 * corresponding complete, the app has to redo just that last step.
-			 * 
-			 * FIXME: setPending is invoked twice during each reconfiguration,
-			 * which touches the DB and slows down reconfiguration. But we can
-			 * not simply use DiskMap like for the main records table because
-			 * the pending table is not backed up by paxos. One fix is to use
-			 * DiskMap and also include the pending table information in paxos
-			 * checkpoints so that paxos can restore it upon recovery. Then,
-			 * reconfiguration can proceed essentially at half of paxos
-			 * throughput. */
-			if (record.isReconfigurationReady())
-				this.setPending(name, false);
-			/* Trimming RC epochs is needed only for the NODE_CONFIG record. It
-			 * removes entries for deleted RC nodes. The entries maintain the
-			 * current epoch number for the group corresponding to each RC node
-			 * in NODE_CONFIG. This information is needed in order for nodes to
-			 * know from what current epoch number to reconfigure to the next
-			 * epoch number when the corresponding RC groups may be out of date
-			 * locally or may not even exist locally. A simpler alternative is
-			 * to force all RC groups to reconfigure upon the addition or
-			 * deletion of any RC nodes so that RC group epoch numbers are
-			 * always identical to the NODE_CONFIG epoch number, but this is
-			 * unsatisfying as it does not preserve the "consistent hashing"
-			 * like property for reconfigurations, i.e., ideally only
-			 * reconfigurators on the ring near an added or deleted
-			 * reconfigurator should be affected. Note that even a "trivial"
-			 * reconfiguration, i.e., when there is no actual change in an RC
-			 * group, must go through the stop, start, drop sequence for
-			 * correctness, and that process involves checkpointing and
-			 * restoring locally from the checkpoint. Even though the
-			 * checkpoints are local, it can take a long time for a large number
-			 * of records, so it is better avoided when not needed.
-			 * 
-			 * A downside of allowing different epoch numbers for different
-			 * groups is that manual intervention if ever needed will be
-			 * harrowing. It is much simpler to track out of date RC nodes when
-			 * all RC group epoch numbers are known to be identical to the
-			 * NODE_CONFIG epoch number. */
-			record.trimRCEpochs();
+			log.log(Level.INFO,
+					"==============================> {0} {1} {2}:{3} -> {4}:{5} {6} {7} {8}",
+					new Object[] { this, record.getName(), record.getEpoch(),
+							record.getState(), epoch, state,
+							record.getNewActives(),
+							mergees != null && !mergees.isEmpty() ? mergees : "",
+							isUnclean(record) ? "(unclean)" : "" });
+
+			record.setStateMerge(name, epoch, state, mergees);
+			// setStateInitReconfiguration used for intent
+			assert (state.equals(RCStates.READY)
+					|| state.equals(RCStates.READY_READY) || state
+						.equals(RCStates.WAIT_DELETE));
+			if (record.isReady()) {
+				record.setActivesToNewActives(newActives);
+				/* The list of pending reconfigurations is stored persistently so
+				 * that we can resume the most recent incomplete reconfiguration
+				 * upon recovery. The ones before the most recent will be handled by
+				 * paxos roll forward automatically. The reason paxos is not enough
+				 * for the most recent one is because reconfiguration is (at least)
+				 * a two step process consisting of an "intent" followed by a
+				 * "complete" operation. Paxos will blindly replay all committed
+				 * operations but has no way of knowing application-specific
+				 * information like the fact that an intent has to be followed by
+				 * complete. So if the node crashes after an intent but before the
+				 * corresponding complete, the app has to redo just that last step.
+				 * 
+				 * FIXME: setPending is invoked twice during each reconfiguration,
+				 * which touches the DB and slows down reconfiguration. But we can
+				 * not simply use DiskMap like for the main records table because
+				 * the pending table is not backed up by paxos. One fix is to use
+				 * DiskMap and also include the pending table information in paxos
+				 * checkpoints so that paxos can restore it upon recovery. Then,
+				 * reconfiguration can proceed essentially at half of paxos
+				 * throughput. */
+				if (record.isReconfigurationReady())
+					this.setPending(name, false);
+				/* Trimming RC epochs is needed only for the NODE_CONFIG record. It
+				 * removes entries for deleted RC nodes. The entries maintain the
+				 * current epoch number for the group corresponding to each RC node
+				 * in NODE_CONFIG. This information is needed in order for nodes to
+				 * know from what current epoch number to reconfigure to the next
+				 * epoch number when the corresponding RC groups may be out of date
+				 * locally or may not even exist locally. A simpler alternative is
+				 * to force all RC groups to reconfigure upon the addition or
+				 * deletion of any RC nodes so that RC group epoch numbers are
+				 * always identical to the NODE_CONFIG epoch number, but this is
+				 * unsatisfying as it does not preserve the "consistent hashing"
+				 * like property for reconfigurations, i.e., ideally only
+				 * reconfigurators on the ring near an added or deleted
+				 * reconfigurator should be affected. Note that even a "trivial"
+				 * reconfiguration, i.e., when there is no actual change in an RC
+				 * group, must go through the stop, start, drop sequence for
+				 * correctness, and that process involves checkpointing and
+				 * restoring locally from the checkpoint. Even though the
+				 * checkpoints are local, it can take a long time for a large number
+				 * of records, so it is better avoided when not needed.
+				 * 
+				 * A downside of allowing different epoch numbers for different
+				 * groups is that manual intervention if ever needed will be
+				 * harrowing. It is much simpler to track out of date RC nodes when
+				 * all RC group epoch numbers are known to be identical to the
+				 * NODE_CONFIG epoch number. */
+				record.trimRCEpochs();
+			}
+			this.putReconfigurationRecord(record);
+			return true;
 		}
-		this.putReconfigurationRecord(record);
-		return true;
 	}
 
 	private boolean isUnclean(ReconfigurationRecord<?> record) {
@@ -560,56 +603,64 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	 * only be changed to WAIT_ACK_STOP. The epoch argument must also match the
 	 * current epoch number. */
 	@Override
-	public synchronized boolean setStateInitReconfiguration(String name,
+	public boolean setStateInitReconfiguration(String name,
 			int epoch, RCStates state, Set<NodeIDType> newActives) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(name);
-		assert (record != null && ((!TWO_PAXOS_RC && epoch - record.getEpoch() >= 0) || epoch
-				- record.getEpoch() == 0)) : epoch + "!=" + record.getEpoch()
-				+ " at " + myID;
-		if (!record.isReady()) {
-			log.log(Level.WARNING,
-					"{0} {1}:{2} not ready for transition to {3}:{4}:{5}",
+		synchronized (this.getStripe(name)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(name);
+			assert (record != null && ((!TWO_PAXOS_RC && epoch - record.getEpoch() >= 0) || epoch
+					- record.getEpoch() == 0)) : epoch + "!=" + record.getEpoch()
+					+ " at " + myID;
+			if (!record.isReady()) {
+				log.log(Level.WARNING,
+						"{0} {1}:{2} not ready for transition to {3}:{4}:{5}",
+						new Object[] { this, record.getName(), record.getEpoch(),
+								name, epoch, state });
+				return false;
+			}
+			assert (state.equals(RCStates.WAIT_ACK_STOP));
+			log.log(Level.INFO,
+					"==============================> {0} {1} {2}:{3} -> {4}:{5} {6}",
 					new Object[] { this, record.getName(), record.getEpoch(),
-							name, epoch, state });
-			return false;
+							record.getState(), epoch, state, newActives });
+			record.setState(name, epoch, state, newActives);
+			// during recovery, we can already have the reconfiguration pending
+			this.setPending(name, true, true);
+			this.putReconfigurationRecord(record);
+
+			record = this.getReconfigurationRecord(name);
+			assert (!name.equals(AbstractReconfiguratorDB.RecordNames.RC_NODES
+					.toString()) || !record.getActiveReplicas().equals(
+					record.getNewActives()));
+			return true;
 		}
-		assert (state.equals(RCStates.WAIT_ACK_STOP));
-		log.log(Level.INFO,
-				"==============================> {0} {1} {2}:{3} -> {4}:{5} {6}",
-				new Object[] { this, record.getName(), record.getEpoch(),
-						record.getState(), epoch, state, newActives });
-		record.setState(name, epoch, state, newActives);
-		// during recovery, we can already have the reconfiguration pending
-		this.setPending(name, true, true);
-		this.putReconfigurationRecord(record);
-
-		record = this.getReconfigurationRecord(name);
-		assert (!name.equals(AbstractReconfiguratorDB.RecordNames.RC_NODES
-				.toString()) || !record.getActiveReplicas().equals(
-				record.getNewActives()));
-		return true;
 	}
 
 	private static final boolean USE_DISK_MAP = Config
 			.getGlobalBoolean(RC.USE_DISK_MAP_RCDB);
 
-	private synchronized void putReconfigurationRecord(
+	private void putReconfigurationRecord(
 			ReconfigurationRecord<NodeIDType> rcRecord) {
-		if (USE_DISK_MAP)
-			this.rcRecords.put(rcRecord.getName(), rcRecord);
-		else
-			this.putReconfigurationRecordDB(rcRecord,
-					this.getRCGroupName(rcRecord.getName()));
+		Stripe stripe = this.getStripe(rcRecord.getName());
+		synchronized (stripe) {
+			if (USE_DISK_MAP)
+				stripe.rcRecords.put(rcRecord.getName(), rcRecord);
+			else
+				this.putReconfigurationRecordDB(rcRecord,
+						this.getRCGroupName(rcRecord.getName()));
+		}
 	}
 
-	private synchronized void putReconfigurationRecord(
+	private void putReconfigurationRecord(
 			ReconfigurationRecord<NodeIDType> rcRecord, String rcGroupName) {
-		if (USE_DISK_MAP) {
-			this.rcRecords.put(rcRecord.getName(),
-					rcRecord.setRCGroupName(rcGroupName));
-		} else
-			this.putReconfigurationRecordDB(rcRecord, rcGroupName);
+		Stripe stripe = this.getStripe(rcRecord.getName());
+		synchronized (stripe) {
+			if (USE_DISK_MAP) {
+				stripe.rcRecords.put(rcRecord.getName(),
+						rcRecord.setRCGroupName(rcGroupName));
+			} else
+				this.putReconfigurationRecordDB(rcRecord, rcGroupName);
+		}
 	}
 
 	private void putReconfigurationRecordDB(
@@ -681,101 +732,111 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	}
 
 	/* Should put RC records only for non-RC group names. */
-	private synchronized boolean putReconfigurationRecordIfNotName(
+	private boolean putReconfigurationRecordIfNotName(
 			ReconfigurationRecord<NodeIDType> record, String rcGroupName,
 			String mergee) {
+		synchronized (this.getStripe(record.getName())) {
 
-		// if RC group record, it must match rcGroupName
-		if (this.isRCGroupName(record.getName())
-				&& !record.getName().equals(rcGroupName))
-			return false;
-		// special case coz mergee may not be recognized by isRCGroupName
-		else if (record.getName().equals(mergee))
-			return false;
+			// if RC group record, it must match rcGroupName
+			if (this.isRCGroupName(record.getName())
+					&& !record.getName().equals(rcGroupName))
+				return false;
+			// special case coz mergee may not be recognized by isRCGroupName
+			else if (record.getName().equals(mergee))
+				return false;
 
-		// else good to insert and set pending if needed
-		this.putReconfigurationRecord(record, rcGroupName);
-		if (!record.isReady())
-			this.setPending(record.getName(), true, true);
-		log.log(Level.FINER,
-				"{0} inserted RC record named {1} to RC group {2}",
-				new Object[] { this, record.getName(), rcGroupName });
-		return true;
+			// else good to insert and set pending if needed
+			this.putReconfigurationRecord(record, rcGroupName);
+			if (!record.isReady())
+				this.setPending(record.getName(), true, true);
+			log.log(Level.FINER,
+					"{0} inserted RC record named {1} to RC group {2}",
+					new Object[] { this, record.getName(), rcGroupName });
+			return true;
+		}
 	}
 
 	@Override
-	public synchronized boolean deleteReconfigurationRecord(String name,
-			int epoch) {
-		if (USE_DISK_MAP) {
-			ReconfigurationRecord<NodeIDType> record = this
-					.getReconfigurationRecord(name);
-			if (record != null && record.getEpoch() == epoch)
-				return this.rcRecords.remove(name) != null;
-			else
-				return false;
-		} else
-			return this.deleteReconfigurationRecordDB(name, epoch);
+	public boolean deleteReconfigurationRecord(String name, int epoch) {
+		Stripe stripe = this.getStripe(name);
+		synchronized (stripe) {
+			if (USE_DISK_MAP) {
+				ReconfigurationRecord<NodeIDType> record = this
+						.getReconfigurationRecord(name);
+				if (record != null && record.getEpoch() == epoch)
+					return stripe.rcRecords.remove(name) != null;
+				else
+					return false;
+			} else
+				return this.deleteReconfigurationRecordDB(name, epoch);
+		}
 	}
 
-	private synchronized boolean deleteReconfigurationRecordDB(String name,
+	private boolean deleteReconfigurationRecordDB(String name,
 			Integer epoch) {
-		if (epoch != null) {
-			ReconfigurationRecord<NodeIDType> record = this
-					.getReconfigurationRecordDB(name);
-			if (record == null || (record.getEpoch() != epoch))
-				return false;
-		}
+		synchronized (this.getStripe(name)) {
+			if (epoch != null) {
+				ReconfigurationRecord<NodeIDType> record = this
+						.getReconfigurationRecordDB(name);
+				if (record == null || (record.getEpoch() != epoch))
+					return false;
+			}
 
-		log.log(Level.INFO,
-				"==============================> {0} {1} -> DELETE",
-				new Object[] { this, name });
-		boolean deleted = this.deleteReconfigurationRecord(name,
-				this.getRCRecordTable());
-		this.deleteReconfigurationRecord(name, this.getPendingTable());
-		this.deleteReconfigurationRecord(name, this.getDemandTable());
-		return deleted;
+			log.log(Level.INFO,
+					"==============================> {0} {1} -> DELETE",
+					new Object[] { this, name });
+			boolean deleted = this.deleteReconfigurationRecord(name,
+					this.getRCRecordTable());
+			this.deleteReconfigurationRecord(name, this.getPendingTable());
+			this.deleteReconfigurationRecord(name, this.getDemandTable());
+			return deleted;
+		}
 	}
 
-	private synchronized boolean deleteReconfigurationRecordDB(String name) {
+	private boolean deleteReconfigurationRecordDB(String name) {
 		return this.deleteReconfigurationRecordDB(name, null);
 	}
 
 	@Override
-	public synchronized boolean markDeleteReconfigurationRecord(String name,
+	public boolean markDeleteReconfigurationRecord(String name,
 			int epoch) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(name);
-		if (record == null)
-			return false;
-		assert (record.getEpoch() == epoch);
+		synchronized (this.getStripe(name)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(name);
+			if (record == null)
+				return false;
+			assert (record.getEpoch() == epoch);
 
-		// READY possible under merge operations
-		assert (record.getState().equals(RCStates.WAIT_ACK_STOP)) : record;
-		log.log(Level.INFO, MyLogger.FORMAT[4], new Object[] {
-				"==============================> ", this, name, " ->",
-				"DELETE PENDING" });
+			// READY possible under merge operations
+			assert (record.getState().equals(RCStates.WAIT_ACK_STOP)) : record;
+			log.log(Level.INFO, MyLogger.FORMAT[4], new Object[] {
+					"==============================> ", this, name, " ->",
+					"DELETE PENDING" });
 
-		record.setState(name, epoch, RCStates.WAIT_DELETE);
-		this.putReconfigurationRecord(record);
+			record.setState(name, epoch, RCStates.WAIT_DELETE);
+			this.putReconfigurationRecord(record);
 
-		// not necessary to delete demand right here
-		this.deleteReconfigurationRecord(name, this.getDemandTable());
-		return true;
+			// not necessary to delete demand right here
+			this.deleteReconfigurationRecord(name, this.getDemandTable());
+			return true;
+		}
 	}
 
 	// This also sets newActives
 	@Override
-	public synchronized ReconfigurationRecord<NodeIDType> createReconfigurationRecord(
+	public ReconfigurationRecord<NodeIDType> createReconfigurationRecord(
 			ReconfigurationRecord<NodeIDType> record) {
-		if (this.getReconfigurationRecord(record.getName()) != null)
-			return null;
-		log.log(Level.INFO,
-				"==============================> {0} [] -> {1}:{2} {3} {4} ",
-				new Object[] { this, record.getName(), record.getEpoch(),
-						record.getState(), record.getNewActives() });
-		this.putReconfigurationRecord(record);
-		// put will be successful or throw an exception
-		return record;
+		synchronized (this.getStripe(record.getName())) {
+			if (this.getReconfigurationRecord(record.getName()) != null)
+				return null;
+			log.log(Level.INFO,
+					"==============================> {0} [] -> {1}:{2} {3} {4} ",
+					new Object[] { this, record.getName(), record.getEpoch(),
+							record.getState(), record.getNewActives() });
+			this.putReconfigurationRecord(record);
+			// put will be successful or throw an exception
+			return record;
+		}
 	}
 
 	/******************** Incomplete paxos methods below **************/
@@ -791,9 +852,9 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 			if (USE_DISK_MAP) {
 				log.log(Level.FINEST,
 						"{0} committing {1} in-memory RC records while getting state for RC group {2} : {3}",
-						new Object[] { this, this.rcRecords.size(), rcGroup,
-								this.rcRecords });
-				this.rcRecords.commit();
+						new Object[] { this, this.numInMemoryRecords(),
+								rcGroup, this.stripes });
+				this.commitAll();
 			}
 
 			PreparedStatement pstmt = null;
@@ -1111,7 +1172,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 				"{0} initializing with RC records in DB = {1}",
 				new Object[] { this,
 						this.getNodeConfigRecords(this.consistentNodeConfig) });
-		return initCheckpointServer();
+		return true;
 	}
 
 	// used only for debugging
@@ -1142,213 +1203,6 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return output;
 	}
 
-	// /////// Start of file system checkpoint methods and classes /////////
-
-	// opens the server thread for file system based checkpoints
-	private boolean initCheckpointServer() {
-		this.executor = Executors.newScheduledThreadPool(THREAD_POOL_SIZE,
-				new ThreadFactory() {
-					@Override
-					public Thread newThread(Runnable r) {
-						Thread thread = Executors.defaultThreadFactory()
-								.newThread(r);
-						thread.setName(SQLReconfiguratorDB.class
-								.getSimpleName() + myID);
-						return thread;
-					}
-				});
-
-		try {
-			InetAddress addr = null;
-			try {
-				this.serverSock = new ServerSocket();
-				// first try the configured address, else fall back to wildcard
-				this.serverSock.bind(new InetSocketAddress(
-						addr = this.consistentNodeConfig.getBindAddress(myID),
-						0));
-			} catch (IOException ioe) {
-				log.info(this
-						+ " unable to open large checkpoint server socket on "
-						+ addr + "; trying wildcard address instead");
-				this.serverSock = new ServerSocket(0);
-			}
-			checkpointServerFuture = executor.submit(new CheckpointServer());
-			return true;
-		} catch (IOException e) {
-			log.severe(this
-					+ " unable to open server socket for large checkpoint transfers");
-			e.printStackTrace();
-		}
-		return false;
-	}
-
-	// Map<Future<?>,Long> transportFutures = new
-	// ConcurrentHashMap<Future<?>,Long>();
-	// spawns off a new thread to process file system based checkpoint request
-	private class CheckpointServer implements Runnable {
-
-		@Override
-		public void run() {
-			Socket sock = null;
-			try {
-				while ((sock = serverSock.accept()) != null) {
-					executor.submit(new CheckpointTransporter(sock));
-					// (new Thread(new CheckpointTransporter(sock))).start();
-				}
-			} catch (IOException e) {
-				if (!isClosed()) {
-					log.severe(myID
-							+ " incurred IOException while processing checkpoint transfer request");
-					e.printStackTrace();
-				}
-			}
-		}
-	}
-
-	// sends a requested file system based checkpoint
-	private class CheckpointTransporter implements Runnable {
-
-		final Socket sock;
-
-		CheckpointTransporter(Socket sock) {
-			this.sock = sock;
-		}
-
-		@Override
-		public void run() {
-			transferCheckpoint(sock);
-		}
-	}
-
-	/* synchronized is meant to prevent concurrent file delete.
-	 * 
-	 * Reads request and transfers requested checkpoint. */
-	private void transferCheckpoint(Socket sock) {
-		synchronized (this.fileSystemLock) {
-			BufferedReader brSock = null, brFile = null;
-			try {
-				brSock = new BufferedReader(new InputStreamReader(
-						sock.getInputStream()));
-				// first and only line is request
-				String request = brSock.readLine();
-				if ((new File(request).exists())) {
-					// request is filename
-					brFile = new BufferedReader(new InputStreamReader(
-							new FileInputStream(request)));
-					// file successfully open if here
-					OutputStream outStream = sock.getOutputStream();
-					String line = null; // each line is a record
-					while ((line = brFile.readLine()) != null)
-						outStream.write(line.getBytes(CHARSET));
-					outStream.close();
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				try {
-					if (brSock != null)
-						brSock.close();
-					if (brFile != null)
-						brFile.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-	}
-
-	/**
-	 * TODO: unused because we now use {@link LargeCheckpointer}.
-	 * 
-	 * Sends request for and receives remote checkpoint file if correctly
-	 * formatted URL. If so, it returns a local filename. If not, it returns the
-	 * url back as-is.
-	 */
-	@SuppressWarnings("unused")
-	private String getRemoteCheckpoint(String rcGroup, String url) {
-		if (url == null)
-			return url;
-		String filename = url;
-		JSONObject jsonUrl;
-		try {
-			jsonUrl = new JSONObject(url);
-			if (jsonUrl.has(Keys.INET_SOCKET_ADDRESS.toString())
-					&& jsonUrl.has(Keys.FILENAME.toString())) {
-				filename = jsonUrl.getString(Keys.FILENAME.toString());
-				File file = new File(filename);
-				if (!file.exists()) { // fetch from remote
-					InetSocketAddress sockAddr = Util
-							.getInetSocketAddressFromString(jsonUrl
-									.getString(Keys.INET_SOCKET_ADDRESS
-											.toString()));
-					assert (sockAddr != null);
-					filename = this
-							.getRemoteCheckpoint(rcGroup, sockAddr, filename,
-									jsonUrl.getLong(Keys.FILESIZE.toString()));
-				}
-			}
-		} catch (JSONException e) {
-			// do nothing, will return filename
-		}
-		return filename;
-	}
-
-	/**
-	 * Helper function for getRemoteCheckpoint above that actually fetches the
-	 * reads from the socket and writes to a local file.
-	 * 
-	 * @param rcGroupName
-	 * @param sockAddr
-	 * @param remoteFilename
-	 * @param fileSize
-	 * @return
-	 */
-	private String getRemoteCheckpoint(String rcGroupName,
-			InetSocketAddress sockAddr, String remoteFilename, long fileSize) {
-		synchronized (this.fileSystemLock) {
-			String request = remoteFilename + "\n";
-			Socket sock = null;
-			FileOutputStream fos = null;
-			String localCPFilename = null;
-			try {
-				sock = new Socket(sockAddr.getAddress(), sockAddr.getPort());
-				sock.getOutputStream().write(request.getBytes(CHARSET));
-				InputStream inStream = (sock.getInputStream());
-				if (!this.createCheckpointFile(localCPFilename = this
-						.getCheckpointFile(rcGroupName)))
-					return null;
-				fos = new FileOutputStream(new File(localCPFilename));
-				byte[] buf = new byte[1024];
-				int nread = 0;
-				int nTotalRead = 0;
-				// read from sock, write to file
-				while ((nread = inStream.read(buf)) >= 0) {
-					/* Need to ensure that the read won't block forever if the
-					 * remote endpoint crashes ungracefully and there is no
-					 * exception triggered here. But this method itself is
-					 * currently unused. */
-					nTotalRead += nread;
-					fos.write(buf, 0, nread);
-				}
-				// check exact expected file size
-				if (nTotalRead != fileSize)
-					localCPFilename = null;
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				try {
-					if (fos != null)
-						fos.close();
-					if (sock != null)
-						sock.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			return localCPFilename;
-		}
-	}
-
 	/**
 	 * @param finalStates
 	 * @param mergerGroup
@@ -1418,32 +1272,6 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return null;
 	}
 
-	/**
-	 * TODO: unused because we migrated to {@link LargeCheckpointer}.
-	 * 
-	 * @param localFilename
-	 * @return
-	 */
-	@SuppressWarnings("unused")
-	private String getCheckpointURL(String localFilename) {
-		String url = null;
-		try {
-			JSONObject jsonUrl = new JSONObject();
-			jsonUrl.put(Keys.INET_SOCKET_ADDRESS.toString(),
-					new InetSocketAddress(this.serverSock.getInetAddress(),
-							this.serverSock.getLocalPort()));
-			jsonUrl.put(Keys.FILENAME.toString(), localFilename);
-			long fileSize = (new File(localFilename)).length();
-			jsonUrl.put(Keys.FILESIZE.toString(), fileSize);
-			url = jsonUrl.toString();
-		} catch (JSONException je) {
-			log.severe(this
-					+ " incurred JSONException while encoding URL for filename "
-					+ localFilename);
-		}
-		return url;
-	}
-
 	private boolean makeCheckpointTransferDir() {
 		File cpDir = new File(getCheckpointDir());
 		if (!cpDir.exists())
@@ -1866,14 +1694,9 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 					new Object[] {
 							this,
 							this.getNodeConfigRecords(this.consistentNodeConfig) });
-		this.rcRecords.close(false);
-		try {
-			this.serverSock.close();
-
-		} catch (IOException e) {
-			// ignore coz there will almost always be an interrupted accept
-		}
-		this.executor.shutdownNow();
+		if (USE_DISK_MAP)
+			for (Stripe stripe : this.stripes)
+				stripe.rcRecords.close(false);
 	}
 
 	private synchronized boolean isClosed() {
@@ -2329,38 +2152,39 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return added;
 	}
 
-	/* The double synchronized is because we need to synchronize over "this" to
-	 * perform testAndSet checks over record, but we have to do that after,
-	 * never before, stringLocker lock. The stringLocker lock is so that we
-	 * don't have to lock all records in order to just synchronize a single
-	 * group's getState or updateState. */
+	/* The stringLocker lock serializes a single group's getState, updateState
+	 * and mergeState, so the test-and-set of the merged set in the group's
+	 * record below needs to lock only the group record's stripe. We release
+	 * that stripe while updating state, which puts records into other
+	 * stripes, so that no thread ever holds more than one stripe lock at a
+	 * time. */
 	@Override
 	public boolean mergeState(String rcGroupName, int epoch, String mergee,
 			int mergeeEpoch, String state) {
 		synchronized (this.stringLocker.get(rcGroupName)) {
-			synchronized (this) {
-				ReconfigurationRecord<NodeIDType> record = this
-						.getReconfigurationRecord(rcGroupName);
-
-				assert (record.getEpoch() == epoch);
-				if (!record.hasBeenMerged(mergee))
-					if (this.updateState(rcGroupName, state, mergee)) {
-						record.insertMerged(mergee);
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(rcGroupName);
+			assert (record.getEpoch() == epoch);
+			if (!record.hasBeenMerged(mergee))
+				if (this.updateState(rcGroupName, state, mergee)) {
+					synchronized (this.getStripe(rcGroupName)) {
+						(record = this.getReconfigurationRecord(rcGroupName))
+								.insertMerged(mergee);
 						this.putReconfigurationRecord(record);
-						// delete mergee RC record as it must have been stopped
-						this.setMergeeStateToWaitDelete(mergee, mergeeEpoch);
-						log.log(Level.INFO,
-								"{0} merged state from {1}:{2} into {3}:{4}",
-								new Object[] { this, mergee, mergeeEpoch,
-										rcGroupName, epoch, });
-					} else
-						log.warning(this + " attempt to merge " + mergee + ":"
-								+ mergeeEpoch + " failed.");
-				if (record.isReconfigurationReady())
-					this.setPending(rcGroupName, false, true);
-				// paxos will still always see a true return value
-				return record.hasBeenMerged(mergee);
-			}
+					}
+					// delete mergee RC record as it must have been stopped
+					this.setMergeeStateToWaitDelete(mergee, mergeeEpoch);
+					log.log(Level.INFO,
+							"{0} merged state from {1}:{2} into {3}:{4}",
+							new Object[] { this, mergee, mergeeEpoch,
+									rcGroupName, epoch, });
+				} else
+					log.warning(this + " attempt to merge " + mergee + ":"
+							+ mergeeEpoch + " failed.");
+			if (record.isReconfigurationReady())
+				this.setPending(rcGroupName, false, true);
+			// paxos will still always see a true return value
+			return record.hasBeenMerged(mergee);
 		}
 	}
 
@@ -2381,13 +2205,15 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	}
 
 	@Override
-	public synchronized void clearMerged(String rcGroupName, int epoch) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(rcGroupName, epoch);
-		if (record == null)
-			return;
-		record.clearMerged();
-		this.putReconfigurationRecord(record);
+	public void clearMerged(String rcGroupName, int epoch) {
+		synchronized (this.getStripe(rcGroupName)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(rcGroupName, epoch);
+			if (record == null)
+				return;
+			record.clearMerged();
+			this.putReconfigurationRecord(record);
+		}
 	}
 
 	@Override
@@ -2448,21 +2274,25 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	}
 
 	@Override
-	public synchronized boolean createReconfigurationRecords(
+	public boolean createReconfigurationRecords(
 			Map<String, String> nameStates, Set<NodeIDType> newActives) {
 		if (USE_DISK_MAP) {
 			boolean insertedAll = true;
 			Set<String> inserted = new HashSet<String>();
-			for (String name : nameStates.keySet())
-				/* We just directly initialize with WAIT_ACK_STOP:-1 instead of
-				 * starting with READY:-1 and pretending to go through the whole
-				 * reconfiguration protocol sequence. */
-				if (insertedAll = insertedAll
-						&& (this.rcRecords.put(name,
-								new ReconfigurationRecord<NodeIDType>(name, -1,
-										newActives).setState(name, -1,
-										RCStates.WAIT_ACK_STOP)) == null))
-					inserted.add(name);
+			for (String name : nameStates.keySet()) {
+				Stripe stripe = this.getStripe(name);
+				synchronized (stripe) {
+					/* We just directly initialize with WAIT_ACK_STOP:-1 instead
+					 * of starting with READY:-1 and pretending to go through
+					 * the whole reconfiguration protocol sequence. */
+					if (insertedAll = insertedAll
+							&& (stripe.rcRecords.put(name,
+									new ReconfigurationRecord<NodeIDType>(name,
+											-1, newActives).setState(name, -1,
+											RCStates.WAIT_ACK_STOP)) == null))
+						inserted.add(name);
+				}
+			}
 
 			if (!insertedAll)
 				// rollback
@@ -2561,14 +2391,19 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 			RCStates state, Set<NodeIDType> newActives) {
 		if (USE_DISK_MAP) {
 			for (String name : nameStates.keySet()) {
-				ReconfigurationRecord<NodeIDType> record = this.rcRecords
-						.get(name);
-				assert (record != null && record.getUnclean() == 0);
-				/* setStateMerge will print INFO logs and invoke the setPending
-				 * DB call that is unnecessary overhead for batch creates. */
-				// this.setStateMerge(name, epoch, state, null);
-				record.setState(name, epoch, state).setActivesToNewActives();
-				this.putReconfigurationRecord(record);
+				Stripe stripe = this.getStripe(name);
+				synchronized (stripe) {
+					ReconfigurationRecord<NodeIDType> record = stripe.rcRecords
+							.get(name);
+					assert (record != null && record.getUnclean() == 0);
+					/* setStateMerge will print INFO logs and invoke the
+					 * setPending DB call that is unnecessary overhead for batch
+					 * creates. */
+					// this.setStateMerge(name, epoch, state, null);
+					record.setState(name, epoch, state)
+							.setActivesToNewActives();
+					this.putReconfigurationRecord(record);
+				}
 			}
 			return true;
 		} else
@@ -2650,7 +2485,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 
 		log.info(this + " before rcRecords.commit");
 		// need to commit all before making a full pass
-		this.rcRecords.commit();
+		this.commitAll();
 		log.info(this + " after rcRecords.commit");
 
 		this.cursorActive = active;
@@ -2745,10 +2580,231 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		}
 		System.out.println("[success]");
 
-		if (USE_DISK_MAP)
-			rcDB.rcRecords.commit();
+		rcDB.commitAll();
 		rcDB.printRCTable();
 		rcDB.close();
 	}
 
+	/**
+	 * Unit tests for concurrent access to the striped records.
+	 */
+	public static class SQLReconfiguratorDBTest extends DefaultTest {
+		// records persist across runs, so names are unique per run
+		private static final String PREFIX = "rcdbtest"
+				+ System.currentTimeMillis() + "_";
+		private static final long TIMEOUT = 60000;
+
+		private static SQLReconfiguratorDB<Integer> rcDB;
+		private static Integer rcID;
+		private static Set<Integer> actives;
+
+		/**
+		 * 
+		 */
+		@BeforeClass
+		public static void setup() {
+			// per-name state transitions are logged at INFO
+			Reconfigurator.getLogger().setLevel(Level.WARNING);
+			ReconfigurableSampleNodeConfig nc = new ReconfigurableSampleNodeConfig();
+			nc.localSetup(3);
+			ConsistentReconfigurableNodeConfig<Integer> consistentNodeConfig = new ConsistentReconfigurableNodeConfig<Integer>(
+					nc);
+			rcID = consistentNodeConfig.getReconfigurators().iterator().next();
+			rcDB = new SQLReconfiguratorDB<Integer>(rcID, consistentNodeConfig);
+			actives = new HashSet<Integer>(
+					consistentNodeConfig.getActiveReplicas());
+		}
+
+		/**
+		 * 
+		 */
+		@AfterClass
+		public static void teardown() {
+			rcDB.close();
+		}
+
+		/* Runs tasks in parallel and fails if any task throws or if they do
+		 * not all complete within TIMEOUT, e.g., because of a deadlock. */
+		private static void runConcurrently(List<Runnable> tasks)
+				throws InterruptedException {
+			final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			for (final Runnable task : tasks) {
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						try {
+							task.run();
+						} catch (Throwable t) {
+							errors.add(t);
+						}
+					}
+				});
+				thread.setDaemon(true);
+				threads.add(thread);
+				thread.start();
+			}
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			for (Thread thread : threads) {
+				thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+				Assert.assertFalse("possible deadlock", thread.isAlive());
+			}
+			Assert.assertTrue(errors.toString(), errors.isEmpty());
+		}
+
+		private static void createReady(String name) {
+			Assert.assertNotNull(rcDB
+					.createReconfigurationRecord(new ReconfigurationRecord<Integer>(
+							name, 0, actives)));
+			Assert.assertTrue(rcDB.setState(name, 0, RCStates.READY));
+		}
+
+		/**
+		 * Threads race to create the same names, which span all stripes, and
+		 * then concurrently reconfigure and delete disjoint subsets of them.
+		 * 
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrentCreateUpdateDelete()
+				throws InterruptedException {
+			final int numThreads = 8, numNames = 32 * NUM_STRIPES;
+			final String[] names = new String[numNames];
+			final AtomicInteger[] creations = new AtomicInteger[numNames];
+			Set<Object> stripes = new HashSet<Object>();
+			for (int i = 0; i < numNames; i++) {
+				names[i] = PREFIX + "crud" + i;
+				creations[i] = new AtomicInteger(0);
+				stripes.add(rcDB.getStripe(names[i]));
+			}
+			Assert.assertEquals(rcDB.stripes.size(), stripes.size());
+
+			List<Runnable> creators = new ArrayList<Runnable>();
+			for (int t = 0; t < numThreads; t++) {
+				final int offset = t * numNames / numThreads;
+				creators.add(new Runnable() {
+					public void run() {
+						for (int i = 0; i < numNames; i++) {
+							int j = (offset + i) % numNames;
+							if (rcDB.createReconfigurationRecord(new ReconfigurationRecord<Integer>(
+									names[j], 0, actives)) != null)
+								creations[j].incrementAndGet();
+						}
+					}
+				});
+			}
+			runConcurrently(creators);
+			for (AtomicInteger created : creations)
+				Assert.assertEquals(1, created.get());
+
+			List<Runnable> updaters = new ArrayList<Runnable>();
+			for (int t = 0; t < numThreads; t++) {
+				final int first = t;
+				updaters.add(new Runnable() {
+					public void run() {
+						for (int j = first; j < numNames; j += numThreads) {
+							String name = names[j];
+							Assert.assertTrue(rcDB.setState(name, 0,
+									RCStates.READY));
+							Assert.assertTrue(rcDB.setStateInitReconfiguration(
+									name, 0, RCStates.WAIT_ACK_STOP, actives));
+							Assert.assertTrue(rcDB.setState(name, 1,
+									RCStates.READY));
+							ReconfigurationRecord<Integer> record = rcDB
+									.getReconfigurationRecord(name);
+							Assert.assertEquals(1, record.getEpoch());
+							Assert.assertEquals(RCStates.READY,
+									record.getState());
+							Assert.assertTrue(rcDB.deleteReconfigurationRecord(
+									name, 1));
+						}
+					}
+				});
+			}
+			runConcurrently(updaters);
+			for (String name : names)
+				Assert.assertNull(rcDB.getReconfigurationRecord(name));
+		}
+
+		/**
+		 * Merges several mergees into an RC group record while other threads
+		 * create, update, delete and read records in the group record's
+		 * stripe and in other stripes. mergeState holds the group's
+		 * stringLocker lock and then at most one stripe at a time, so this
+		 * must neither deadlock nor lose a merge.
+		 * 
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testMergeStateLockOrdering() throws InterruptedException {
+			final String rcGroup = rcDB.getRCGroupName(rcID);
+			if (rcDB.getReconfigurationRecord(rcGroup) == null)
+				createReady(rcGroup);
+			final int epoch = rcDB.getReconfigurationRecord(rcGroup)
+					.getEpoch();
+			final int numMergees = 8, numMerged = 16, numWorkers = 4, numOps = 64;
+
+			List<Runnable> tasks = new ArrayList<Runnable>();
+			final String[] mergees = new String[numMergees];
+			for (int i = 0; i < numMergees; i++) {
+				mergees[i] = PREFIX + "mergee" + i;
+				createReady(mergees[i]);
+				StringBuilder state = new StringBuilder();
+				for (int k = 0; k < numMerged; k++)
+					state.append(
+							new ReconfigurationRecord<Integer>(PREFIX
+									+ "merged" + i + "_" + k, 0, actives)
+									.setState(PREFIX + "merged" + i + "_" + k,
+											0, RCStates.READY)).append("\n");
+				final String mergee = mergees[i], mergeeState = state
+						.toString();
+				tasks.add(new Runnable() {
+					public void run() {
+						Assert.assertTrue(rcDB.mergeState(rcGroup, epoch,
+								mergee, 0, mergeeState));
+					}
+				});
+			}
+
+			// half of the workers' names share the RC group record's stripe
+			final Object groupStripe = rcDB.getStripe(rcGroup);
+			for (int t = 0; t < numWorkers; t++) {
+				final ArrayList<String> names = new ArrayList<String>();
+				for (int k = 0; names.size() < numOps; k++) {
+					String name = PREFIX + "worker" + t + "_" + k;
+					if ((rcDB.getStripe(name) == groupStripe) == (names.size() % 2 == 0))
+						names.add(name);
+				}
+				tasks.add(new Runnable() {
+					public void run() {
+						for (String name : names) {
+							createReady(name);
+							Assert.assertNotNull(rcDB
+									.getReconfigurationRecord(rcGroup));
+							Assert.assertTrue(rcDB.setStateInitReconfiguration(
+									name, 0, RCStates.WAIT_ACK_STOP, actives));
+							Assert.assertTrue(rcDB.setState(name, 1,
+									RCStates.READY));
+							Assert.assertTrue(rcDB.deleteReconfigurationRecord(
+									name, 1));
+						}
+					}
+				});
+			}
+			runConcurrently(tasks);
+
+			ReconfigurationRecord<Integer> record = rcDB
+					.getReconfigurationRecord(rcGroup);
+			for (int i = 0; i < numMergees; i++) {
+				Assert.assertTrue(mergees[i], record.hasBeenMerged(mergees[i]));
+				ReconfigurationRecord<Integer> mergee = rcDB
+						.getReconfigurationRecord(mergees[i]);
+				Assert.assertEquals(1, mergee.getEpoch());
+				Assert.assertEquals(RCStates.WAIT_DELETE, mergee.getState());
+				for (int k = 0; k < numMerged; k++)
+					Assert.assertNotNull(rcDB.getReconfigurationRecord(PREFIX
+							+ "merged" + i + "_" + k));
+			}
+			rcDB.clearMerged(rcGroup, epoch);
+		}
+	}
 }
@@ -63,12 +63,15 @@ import edu.umass.cs.reconfiguration.reconfigurationpackets.BasicReconfigurationP
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ClientReconfigurationPacket;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket.PacketType;
+import edu.umass.cs.utils.DelayProfiler;
 
 /**
  * @author arun
  * 
  *         An HTTP front-end for a reconfigurator that supports the create,
- *         delete, and request active replicas operations.
+ *         delete, and request active replicas operations. It also serves
+ *         {@link DelayProfiler} statistics for scraping at
+ *         {@link #METRICS_PATH}.
  * 
  *         Requests are encoded in URIs using
  * 
@@ -401,6 +404,11 @@ public class HttpReconfigurator {
 		throw new RuntimeException("Unimplemented");
 	}
 
+	/**
+	 * Path at which {@link DelayProfiler#getMetrics()} is served.
+	 */
+	public static final String METRICS_PATH = "/metrics";
+
 	static class HTTPReconfiguratorHandler extends
 			SimpleChannelInboundHandler<Object> {
 
@@ -425,19 +433,24 @@ public class HttpReconfigurator {
 				buf.setLength(0);
 
 				ReconfiguratorRequest crp = null;
-				try {
-					JSONObject json = toJSONObject(new QueryStringDecoder(
-							request.uri()).parameters());
-					crp = toReconfiguratorRequest(json, ctx.channel());
-					crp = (ReconfiguratorRequest) this.rcFunctions
-							.sendRequest(crp);
-					buf.append(crp.toString());
-
-				} catch (JSONException | HTTPException e) {
-					e.printStackTrace();
-					buf.append(crp != null ? crp.setFailed()
-							.setResponseMessage(e.getMessage()) : "");
-				}
+				QueryStringDecoder decoder = new QueryStringDecoder(
+						request.uri());
+				if (METRICS_PATH.equals(decoder.path()))
+					// scrape endpoint
+					buf.append(DelayProfiler.getMetrics());
+				else
+					try {
+						JSONObject json = toJSONObject(decoder.parameters());
+						crp = toReconfiguratorRequest(json, ctx.channel());
+						crp = (ReconfiguratorRequest) this.rcFunctions
+								.sendRequest(crp);
+						buf.append(crp.toString());
+
+					} catch (JSONException | HTTPException e) {
+						e.printStackTrace();
+						buf.append(crp != null ? crp.setFailed()
+								.setResponseMessage(e.getMessage()) : "");
+					}
 				buf.append("\r\n");
 				// appendDecoderResult(buf, request);
 			}
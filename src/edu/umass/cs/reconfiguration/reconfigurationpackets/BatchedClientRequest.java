@@ -0,0 +1,216 @@
+package edu.umass.cs.reconfiguration.reconfigurationpackets;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.interfaces.AppRequestParser;
+import edu.umass.cs.gigapaxos.interfaces.AppRequestParserBytes;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.nio.JSONPacket;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.nio.interfaces.Stringifiable;
+import edu.umass.cs.nio.nioutils.NIOHeader;
+import edu.umass.cs.reconfiguration.examples.AppRequest;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         A batch of {@link ReplicableClientRequest}s sent by a client to an
+ *         active replica as a single message. The active replica handles each
+ *         request in the batch exactly as if it had been received separately
+ *         and responds to each one separately.
+ *         <p>
+ *         The byteified form of a batch is the concatenation of the
+ *         length-prefixed byteified forms of the requests.
+ */
+public class BatchedClientRequest extends JSONPacket implements Request,
+		Byteable {
+
+	private static enum Keys {
+		REQUESTS
+	};
+
+	private final ReplicableClientRequest[] requests;
+
+	/**
+	 * @param requests
+	 */
+	public BatchedClientRequest(List<ReplicableClientRequest> requests) {
+		super(ReconfigurationPacket.PacketType.BATCHED_CLIENT_REQUEST);
+		this.requests = requests.toArray(new ReplicableClientRequest[0]);
+	}
+
+	BatchedClientRequest(ByteBuffer bbuf, NIOHeader header, Object parser) {
+		super(ReconfigurationPacket.PacketType.BATCHED_CLIENT_REQUEST);
+		int type = bbuf.getInt();
+		assert (type == ReconfigurationPacket.PacketType.BATCHED_CLIENT_REQUEST
+				.getInt()) : type;
+		this.requests = new ReplicableClientRequest[bbuf.getInt()];
+		for (int i = 0; i < this.requests.length; i++) {
+			byte[] bytes = new byte[bbuf.getInt()];
+			bbuf.get(bytes);
+			this.requests[i] = new ReplicableClientRequest(
+					ByteBuffer.wrap(bytes), header, parser);
+		}
+	}
+
+	/**
+	 * @param buf
+	 * @param header
+	 * @param parser
+	 */
+	public BatchedClientRequest(byte[] buf, NIOHeader header,
+			AppRequestParserBytes parser) {
+		this(ByteBuffer.wrap(buf), header, parser);
+	}
+
+	/**
+	 * @param buf
+	 * @param parser
+	 */
+	public BatchedClientRequest(byte[] buf, AppRequestParser parser) {
+		this(ByteBuffer.wrap(buf), null, parser);
+	}
+
+	/**
+	 * @param json
+	 * @param unstringer
+	 * @throws JSONException
+	 * @throws UnsupportedEncodingException
+	 */
+	public BatchedClientRequest(JSONObject json, Stringifiable<?> unstringer)
+			throws JSONException, UnsupportedEncodingException {
+		// ignore unstringer
+		super(json);
+		JSONArray jsonArray = json.getJSONArray(Keys.REQUESTS.toString());
+		this.requests = new ReplicableClientRequest[jsonArray.length()];
+		for (int i = 0; i < this.requests.length; i++)
+			this.requests[i] = new ReplicableClientRequest(
+					jsonArray.getJSONObject(i), unstringer);
+	}
+
+	/**
+	 * @return The batched requests in the order in which they were sent.
+	 */
+	public ReplicableClientRequest[] getRequests() {
+		return this.requests;
+	}
+
+	/**
+	 * @return Number of batched requests.
+	 */
+	public int size() {
+		return this.requests.length;
+	}
+
+	@Override
+	public IntegerPacketType getRequestType() {
+		return ReconfigurationPacket.PacketType.BATCHED_CLIENT_REQUEST;
+	}
+
+	/**
+	 * Batches are formed per service name, so this is the service name of
+	 * every batched request.
+	 */
+	@Override
+	public String getServiceName() {
+		return this.requests.length > 0 ? this.requests[0].getServiceName()
+				: null;
+	}
+
+	@Override
+	public byte[] toBytes() {
+		byte[][] reqBytes = new byte[this.requests.length][];
+		int length = Integer.BYTES + Integer.BYTES;
+		for (int i = 0; i < this.requests.length; i++)
+			length += Integer.BYTES
+					+ (reqBytes[i] = this.requests[i].toBytes()).length;
+		ByteBuffer bbuf = ByteBuffer.wrap(new byte[length])
+		// type
+				.putInt(this.getRequestType().getInt())
+				// number of requests
+				.putInt(this.requests.length);
+		for (byte[] bytes : reqBytes)
+			bbuf.putInt(bytes.length).put(bytes);
+		return bbuf.array();
+	}
+
+	@Override
+	protected JSONObject toJSONObjectImpl() throws JSONException {
+		JSONObject json = new JSONObject();
+		JSONArray jsonArray = new JSONArray();
+		for (ReplicableClientRequest request : this.requests)
+			jsonArray.put(request.toJSONObject());
+		json.put(Keys.REQUESTS.toString(), jsonArray);
+		return json;
+	}
+
+	@Override
+	public Object getSummary() {
+		return new Object() {
+			public String toString() {
+				return getRequestType() + ":" + getServiceName() + ":"
+						+ requests.length;
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	public static class BatchedClientRequestTest extends DefaultTest {
+		/**
+		 * @throws RequestParseException
+		 */
+		@Test
+		public void testToBytes() throws RequestParseException {
+			AppRequestParser parser = new AppRequestParser() {
+				@Override
+				public Request getRequest(String stringified)
+						throws RequestParseException {
+					try {
+						return new AppRequest(new JSONObject(stringified));
+					} catch (JSONException e) {
+						throw new RequestParseException(e);
+					}
+				}
+
+				@Override
+				public java.util.Set<IntegerPacketType> getRequestTypes() {
+					return null;
+				}
+			};
+			ReplicableClientRequest[] requests = new ReplicableClientRequest[3];
+			for (int i = 0; i < requests.length; i++)
+				requests[i] = ReplicableClientRequest.wrap(new AppRequest(
+						"name", "value" + i,
+						AppRequest.PacketType.DEFAULT_APP_REQUEST, false),
+						i % 2 == 0);
+			BatchedClientRequest batch = new BatchedClientRequest(
+					Arrays.asList(requests));
+			BatchedClientRequest decoded = new BatchedClientRequest(
+					batch.toBytes(), parser);
+			Assert.assertEquals(requests.length, decoded.size());
+			Assert.assertEquals("name", decoded.getServiceName());
+			for (int i = 0; i < requests.length; i++) {
+				Assert.assertEquals(requests[i].getRequestID(),
+						decoded.getRequests()[i].getRequestID());
+				Assert.assertEquals(requests[i].needsCoordination(),
+						decoded.getRequests()[i].needsCoordination());
+				Assert.assertEquals(requests[i].getRequest().toString(),
+						decoded.getRequests()[i].getRequest().toString());
+			}
+		}
+	}
+}
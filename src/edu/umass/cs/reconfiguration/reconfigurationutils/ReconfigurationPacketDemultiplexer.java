@@ -105,7 +105,8 @@ public class ReconfigurationPacketDemultiplexer extends
 		if ((BYTEIFICATION
 				&& (rcType = ReconfigurationPacket.PacketType.intToType
 						.get(bbuf.getInt())) != null
-				&& rcType != ReconfigurationPacket.PacketType.REPLICABLE_CLIENT_REQUEST && (json = AbstractJSONPacketDemultiplexer
+				&& rcType != ReconfigurationPacket.PacketType.REPLICABLE_CLIENT_REQUEST
+				&& rcType != ReconfigurationPacket.PacketType.BATCHED_CLIENT_REQUEST && (json = AbstractJSONPacketDemultiplexer
 				.processHeaderStatic(message, Integer.BYTES, header, true)) != null)
 
 				|| (!BYTEIFICATION
@@ -0,0 +1,583 @@
+package edu.umass.cs.reconfiguration.testing;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gigapaxos.PaxosConfig;
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gigapaxos.interfaces.RequestCallback;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.reconfiguration.ReconfigurableAppClientAsync;
+import edu.umass.cs.reconfiguration.ReconfigurableNode;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
+import edu.umass.cs.reconfiguration.examples.AppRequest;
+import edu.umass.cs.reconfiguration.examples.noopsimple.NoopApp;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.CreateServiceName;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.reconfiguration.testing.TESTReconfigurationConfig.TRC;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+import edu.umass.cs.utils.ExpiringConcurrentHashMap;
+import edu.umass.cs.utils.GCConcurrentHashMapCallback;
+import edu.umass.cs.utils.LatencyHistogram;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Throughput and latency benchmark of {@link NoopApp} (or any app
+ *         using {@link AppRequest}) with {@link TRC#NUM_RECONFIGURATORS}
+ *         reconfigurators and {@link TRC#NUM_ACTIVES} actives on loopback,
+ *         started either in this JVM or, with {@link TRC#BENCH_FORK}, one JVM
+ *         per node. Requests are spread uniformly over
+ *         {@link TRC#BENCH_NUM_GROUPS} freshly created names, and a
+ *         {@link TRC#BENCH_READ_FRACTION} of them are sent as uncoordinated
+ *         reads.
+ *
+ *         In closed-loop mode, {@link TRC#BENCH_CONCURRENCY} requests are kept
+ *         outstanding. A closed-loop generator issues fewer requests exactly
+ *         when the system is slow, so response latencies are corrected for
+ *         this coordinated omission using the mean latency measured during
+ *         warmup as the expected interval between requests of each slot. In
+ *         open-loop mode, requests are issued at {@link TRC#BENCH_RATE}
+ *         irrespective of responses, and response latency is measured from
+ *         the time a request was meant to be sent, so that a lagging
+ *         generator does not hide queueing either. Service latency is always
+ *         measured from the actual send time.
+ *
+ *         Each run appends a JSON line with the configuration and results to
+ *         {@link TRC#BENCH_OUTPUT} if set. Usage:
+ *
+ *         <pre>
+ * LoopbackBenchmark [KEY=VALUE ...]
+ * </pre>
+ *
+ *         where KEY is any {@link TRC}, {@link PC} or {@link RC} parameter,
+ *         e.g., BENCH_OPEN_LOOP=true BENCH_RATE=5000 BENCH_OUTPUT=bench.json.
+ *         A forked node's output goes to LoopbackBenchmark.&lt;node&gt;.log in
+ *         the temp directory.
+ */
+public class LoopbackBenchmark {
+
+	private static final String INITIAL_STATE = "benchmark_initial_state";
+	private static final String RECONFIGURATOR_PREFIX = "reconfigurator.";
+	private static final int MAX_OUTSTANDING_CREATES = 100;
+	private static final long NODE_STARTUP_TIMEOUT = 60000;
+	// max wait for any create response
+	private static final long CREATE_TIMEOUT = 60000;
+	private static final int MAX_WARM_ATTEMPTS = 5;
+	/* Longer than the client's own timeout so that lost requests have been
+	 * timed out by the client, which then stops sending requests for the name
+	 * to the unresponsive active, as in TESTReconfigurationClient. */
+	private static final long WARM_TIMEOUT = ReconfigurableAppClientAsync.APP_REQUEST_TIMEOUT * 3 / 2;
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static class BenchmarkClient extends
+			ReconfigurableAppClientAsync<Request> {
+
+		BenchmarkClient(Set<InetSocketAddress> reconfigurators)
+				throws IOException {
+			super(reconfigurators, true);
+		}
+
+		@Override
+		public Request getRequest(String stringified)
+				throws RequestParseException {
+			try {
+				return NoopApp.staticGetRequest(stringified);
+			} catch (JSONException e) {
+				// ignore
+			}
+			return null;
+		}
+
+		@Override
+		public Set<IntegerPacketType> getRequestTypes() {
+			return NoopApp.staticGetRequestTypes();
+		}
+	}
+
+	/* Counts and latencies of requests sent during a phase, including their
+	 * responses received after the phase. */
+	private static class Phase {
+		final AtomicLong sent = new AtomicLong(0);
+		final AtomicLong completed = new AtomicLong(0);
+		final AtomicLong errors = new AtomicLong(0);
+		final AtomicLong timeouts = new AtomicLong(0);
+		final LatencyHistogram response = new LatencyHistogram("response");
+		final LatencyHistogram service = new LatencyHistogram("service");
+
+		long outstanding() {
+			return this.sent.get() - this.completed.get() - this.errors.get()
+					- this.timeouts.get();
+		}
+	}
+
+	private final BenchmarkClient[] clients;
+	private final String[] names;
+	private final String value;
+	private final double readFraction;
+	// clients and the names for which they got responses while warming up
+	private BenchmarkClient[] senders;
+	private String[][] senderNames;
+	private int unresponsive = 0;
+	// closed-loop interval for coordinated omission correction
+	private long expectedInterval = 0;
+	/* Lost requests are counted as timeouts, and their closed-loop window
+	 * slots freed, after up to twice this timeout. */
+	private final long requestTimeout = Config
+			.getGlobalLong(TRC.TEST_APP_REQUEST_TIMEOUT);
+	// closed-loop window, null in open-loop mode
+	private Semaphore window = null;
+
+	// request ID->phase of requests awaiting a response
+	private final ExpiringConcurrentHashMap<Long, Phase> outstanding = new ExpiringConcurrentHashMap<Long, Phase>(
+			new GCConcurrentHashMapCallback() {
+				@Override
+				public void callbackGC(Object key, Object value) {
+					((Phase) value).timeouts.incrementAndGet();
+					if (LoopbackBenchmark.this.window != null)
+						LoopbackBenchmark.this.window.release();
+				}
+			}, this.requestTimeout);
+
+	private LoopbackBenchmark(Set<InetSocketAddress> reconfigurators)
+			throws IOException {
+		this.clients = new BenchmarkClient[Config
+				.getGlobalInt(TRC.BENCH_NUM_CLIENTS)];
+		for (int i = 0; i < this.clients.length; i++)
+			this.clients[i] = new BenchmarkClient(reconfigurators);
+		this.names = new String[Config.getGlobalInt(TRC.BENCH_NUM_GROUPS)];
+		// fresh names so that state left by earlier runs does not matter
+		String prefix = Config.getGlobalString(TRC.NAME_PREFIX)
+				+ (long) (Math.random() * Integer.MAX_VALUE) + "_";
+		for (int i = 0; i < this.names.length; i++)
+			this.names[i] = prefix + i;
+		this.value = new String(Util.getRandomAlphanumericBytes(Config
+				.getGlobalInt(TRC.BENCH_REQUEST_SIZE)));
+		this.readFraction = Config.getGlobalDouble(TRC.BENCH_READ_FRACTION);
+	}
+
+	private BenchmarkClient getRandomClient() {
+		return this.clients[(int) (Math.random() * this.clients.length)];
+	}
+
+	private void createNames() throws IOException, InterruptedException {
+		final Semaphore window = new Semaphore(MAX_OUTSTANDING_CREATES);
+		final CountDownLatch latch = new CountDownLatch(this.names.length);
+		final Set<String> failed = new HashSet<String>();
+		long t = System.currentTimeMillis();
+		for (final String name : this.names) {
+			if (!window.tryAcquire(CREATE_TIMEOUT, TimeUnit.MILLISECONDS))
+				throw new IOException("Timed out creating names");
+			this.getRandomClient().sendRequest(
+					new CreateServiceName(name, INITIAL_STATE),
+					new RequestCallback() {
+						@Override
+						public void handleResponse(Request response) {
+							if (!(response instanceof CreateServiceName)
+									|| ((CreateServiceName) response)
+											.isFailed())
+								synchronized (failed) {
+									failed.add(name);
+								}
+							window.release();
+							latch.countDown();
+						}
+					});
+		}
+		if (!latch.await(CREATE_TIMEOUT, TimeUnit.MILLISECONDS))
+			throw new IOException("Timed out creating " + latch.getCount()
+					+ " of " + this.names.length + " names");
+		if (!failed.isEmpty())
+			throw new IOException("Failed to create " + failed.size() + " of "
+					+ this.names.length + " names, e.g., "
+					+ failed.iterator().next());
+		System.out.println("Created " + this.names.length + " names in "
+				+ (System.currentTimeMillis() - t) + "ms");
+	}
+
+	private AppRequest newRequest(String name) {
+		AppRequest request = new AppRequest(name,
+				(long) (Math.random() * Long.MAX_VALUE), this.value,
+				AppRequest.PacketType.DEFAULT_APP_REQUEST, false);
+		if (this.readFraction > 0 && Math.random() < this.readFraction)
+			request.setNeedsCoordination(false);
+		return request;
+	}
+
+	/* The first requests to just created names may get dropped, so retry
+	 * until every client has gotten a response for every name before
+	 * measuring anything. A client occasionally keeps getting no responses
+	 * for a name even after retries, so such client-name pairs are left out
+	 * and only counted. */
+	private void warmNames() throws IOException, InterruptedException {
+		List<Set<String>> pending = new ArrayList<Set<String>>();
+		for (int i = 0; i < this.clients.length; i++) {
+			pending.add(ConcurrentHashMap.<String> newKeySet());
+			pending.get(i).addAll(Arrays.asList(this.names));
+		}
+		for (int k = 0; k < MAX_WARM_ATTEMPTS && count(pending) > 0; k++) {
+			final CountDownLatch latch = new CountDownLatch(count(pending));
+			for (int i = 0; i < this.clients.length; i++) {
+				final Set<String> clientPending = pending.get(i);
+				for (final String name : clientPending.toArray(new String[0]))
+					this.clients[i].sendRequest(this.newRequest(name),
+							new RequestCallback() {
+								@Override
+								public void handleResponse(Request response) {
+									if (response instanceof AppRequest)
+										clientPending.remove(name);
+									latch.countDown();
+								}
+							});
+			}
+			latch.await(WARM_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		this.unresponsive = count(pending);
+		if (this.unresponsive == this.clients.length * this.names.length)
+			throw new IOException("No responses after " + MAX_WARM_ATTEMPTS
+					+ " attempts");
+
+		List<BenchmarkClient> senders = new ArrayList<BenchmarkClient>();
+		List<String[]> senderNames = new ArrayList<String[]>();
+		for (int i = 0; i < this.clients.length; i++) {
+			Set<String> responsive = new HashSet<String>(
+					Arrays.asList(this.names));
+			responsive.removeAll(pending.get(i));
+			if (responsive.isEmpty())
+				continue;
+			senders.add(this.clients[i]);
+			senderNames.add(responsive.toArray(new String[0]));
+		}
+		this.senders = senders.toArray(new BenchmarkClient[0]);
+		this.senderNames = senderNames.toArray(new String[0][]);
+		if (this.unresponsive > 0)
+			System.out.println("Left out " + this.unresponsive
+					+ " unresponsive client-name pairs");
+	}
+
+	private static int count(List<Set<String>> pending) {
+		int count = 0;
+		for (Set<String> clientPending : pending)
+			count += clientPending.size();
+		return count;
+	}
+
+	// intendedTime is when the request should have been sent
+	private void send(final Phase phase, final long intendedTime)
+			throws IOException {
+		int i = (int) (Math.random() * this.senders.length);
+		String[] names = this.senderNames[i];
+		final AppRequest request = this.newRequest(names[(int) (Math
+				.random() * names.length)]);
+		final long expectedInterval = this.expectedInterval;
+		final long sendTime = System.nanoTime();
+		phase.sent.incrementAndGet();
+		this.outstanding.put(request.getRequestID(), phase);
+		this.senders[i].sendRequest(request, new RequestCallback() {
+			@Override
+			public void handleResponse(Request response) {
+				long now = System.nanoTime();
+				// already counted as a timeout
+				if (LoopbackBenchmark.this.outstanding.remove(request
+						.getRequestID()) == null)
+					return;
+				if (response instanceof AppRequest) {
+					phase.service.record(now - sendTime);
+					phase.response.recordWithExpectedInterval(now
+							- intendedTime, expectedInterval);
+					phase.completed.incrementAndGet();
+				} else
+					phase.errors.incrementAndGet();
+				if (LoopbackBenchmark.this.window != null)
+					LoopbackBenchmark.this.window.release();
+			}
+		});
+	}
+
+	private void runClosedLoop(Phase phase, long duration)
+			throws IOException, InterruptedException {
+		long end = System.nanoTime() + duration;
+		while (System.nanoTime() < end)
+			if (this.window.tryAcquire(10, TimeUnit.MILLISECONDS))
+				this.send(phase, System.nanoTime());
+			else
+				this.outstanding.tryGC(this.requestTimeout);
+	}
+
+	private void runOpenLoop(Phase phase, long duration, double rate)
+			throws IOException {
+		long interval = (long) (1000 * 1000 * 1000 / rate);
+		long start = System.nanoTime(), wait = 0;
+		for (long intendedTime = start; intendedTime - start < duration; intendedTime += interval) {
+			while ((wait = intendedTime - System.nanoTime()) > 0)
+				LockSupport.parkNanos(wait);
+			// if lagging, catch up as fast as possible
+			this.send(phase, intendedTime);
+			this.outstanding.tryGC(this.requestTimeout);
+		}
+	}
+
+	private Phase run(long duration, boolean openLoop, double rate)
+			throws IOException, InterruptedException {
+		Phase phase = new Phase();
+		if (openLoop)
+			this.runOpenLoop(phase, duration, rate);
+		else
+			this.runClosedLoop(phase, duration);
+		return phase;
+	}
+
+	private void awaitResponses(Phase phase) throws InterruptedException {
+		long t = System.currentTimeMillis();
+		while (phase.outstanding() > 0
+				&& System.currentTimeMillis() - t < 2 * this.requestTimeout) {
+			this.outstanding.tryGC(this.requestTimeout);
+			Thread.sleep(10);
+		}
+	}
+
+	private static JSONObject toJSON(LatencyHistogram histogram)
+			throws JSONException {
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		JSONObject json = new JSONObject();
+		for (double percentile : PERCENTILES)
+			json.put("p" + (percentile + "").replaceAll("\\.0$", ""),
+					snapshot.getValueAtPercentile(percentile) / 1000.0);
+		json.put("max", snapshot.getMax() / 1000.0);
+		json.put("mean", snapshot.getMean() / 1000.0);
+		json.put("count", snapshot.getCount());
+		return json;
+	}
+
+	private JSONObject benchmark() throws IOException, InterruptedException,
+			JSONException {
+		boolean openLoop = Config.getGlobalBoolean(TRC.BENCH_OPEN_LOOP);
+		double rate = Config.getGlobalDouble(TRC.BENCH_RATE);
+		int concurrency = Config.getGlobalInt(TRC.BENCH_CONCURRENCY);
+		long warmup = TimeUnit.SECONDS.toNanos(Config
+				.getGlobalLong(TRC.BENCH_WARMUP)), duration = TimeUnit.SECONDS
+				.toNanos(Config.getGlobalLong(TRC.BENCH_DURATION));
+		this.window = openLoop ? null : new Semaphore(concurrency);
+
+		this.warmNames();
+		System.out.println("Warming up for " + warmup / 1000 / 1000 + "ms");
+		Phase warm = this.run(warmup, openLoop, rate);
+		this.expectedInterval = openLoop ? 0 : (long) warm.service.snapshot()
+				.getMean();
+		System.out.println("Measuring for " + duration / 1000 / 1000 + "ms");
+		Phase phase = this.run(duration, openLoop, rate);
+		this.awaitResponses(phase);
+
+		JSONObject json = new JSONObject();
+		json.put("label", Config.getGlobalString(TRC.BENCH_LABEL));
+		json.put("timestamp", System.currentTimeMillis());
+		json.put("java", System.getProperty("java.version"));
+		json.put("app", ReconfigurationConfig.application.getSimpleName());
+		json.put("fork", Config.getGlobalBoolean(TRC.BENCH_FORK));
+		json.put("reconfigurators",
+				Config.getGlobalInt(TRC.NUM_RECONFIGURATORS));
+		json.put("actives", Config.getGlobalInt(TRC.NUM_ACTIVES));
+		json.put("clients", this.clients.length);
+		json.put("groups", this.names.length);
+		json.put("request_size", this.value.length());
+		json.put("read_fraction", this.readFraction);
+		json.put("mode", openLoop ? "open" : "closed");
+		if (openLoop)
+			json.put("rate", rate);
+		else
+			json.put("concurrency", concurrency);
+		json.put("warmup_s", TimeUnit.NANOSECONDS.toSeconds(warmup));
+		json.put("duration_s", TimeUnit.NANOSECONDS.toSeconds(duration));
+		json.put("sent", phase.sent.get());
+		json.put("completed", phase.completed.get());
+		json.put("errors", phase.errors.get());
+		json.put("timeouts", phase.timeouts.get() + phase.outstanding());
+		json.put("unresponsive_pairs", this.unresponsive);
+		json.put("throughput", phase.completed.get() * 1000.0 * 1000 * 1000
+				/ duration);
+		json.put("expected_interval_us", this.expectedInterval / 1000.0);
+		JSONObject latency = new JSONObject();
+		latency.put(phase.response.getName(), toJSON(phase.response));
+		latency.put(phase.service.getName(), toJSON(phase.service));
+		json.put("latency_us", latency);
+		return json;
+	}
+
+	private void close() {
+		for (BenchmarkClient client : this.clients)
+			client.close();
+	}
+
+	private static String toString(InetSocketAddress isa) {
+		return isa.getAddress().getHostAddress() + ":" + isa.getPort();
+	}
+
+	/* The forked nodes get the same configuration as this JVM, including
+	 * command-line overrides, except for the set of nodes. */
+	private static File writeForkedConfig(String[] args) throws IOException {
+		File file = File.createTempFile(
+				LoopbackBenchmark.class.getSimpleName(), ".properties");
+		file.deleteOnExit();
+		Properties properties = PaxosConfig.getAsProperties();
+		try (PrintWriter writer = new PrintWriter(file)) {
+			for (String key : properties.stringPropertyNames())
+				if (!key.startsWith(PaxosConfig.DEFAULT_SERVER_PREFIX)
+						&& !key.startsWith(RECONFIGURATOR_PREFIX))
+					writer.println(key + "=" + properties.getProperty(key));
+			for (String arg : args)
+				if (arg.contains("="))
+					writer.println(arg.replaceFirst("^-", ""));
+			writer.println(RC.APPLICATION + "="
+					+ ReconfigurationConfig.application.getName());
+			for (Map.Entry<String, InetSocketAddress> entry : TESTReconfigurationConfig
+					.getLocalReconfigurators().entrySet())
+				writer.println(RECONFIGURATOR_PREFIX + entry.getKey() + "="
+						+ toString(entry.getValue()));
+			for (Map.Entry<String, InetSocketAddress> entry : TESTReconfigurationConfig
+					.getLocalActives().entrySet())
+				writer.println(PaxosConfig.DEFAULT_SERVER_PREFIX
+						+ entry.getKey() + "=" + toString(entry.getValue()));
+		}
+		return file;
+	}
+
+	private static List<Process> startForkedServers(String[] args)
+			throws IOException, InterruptedException {
+		File config = writeForkedConfig(args);
+		List<String> jvm = new ArrayList<String>();
+		jvm.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		for (String arg : ManagementFactory.getRuntimeMXBean()
+				.getInputArguments())
+			// a debugger port can not be shared
+			if (!arg.startsWith("-D" + PaxosConfig.GIGAPAXOS_CONFIG_FILE_KEY)
+					&& !arg.startsWith("-agentlib:jdwp"))
+				jvm.add(arg);
+		jvm.add("-D" + PaxosConfig.GIGAPAXOS_CONFIG_FILE_KEY + "="
+				+ config.getPath());
+		jvm.add("-cp");
+		jvm.add(System.getProperty("java.class.path"));
+		jvm.add(ReconfigurableNode.class.getName());
+
+		Map<String, InetSocketAddress> nodes = TESTReconfigurationConfig
+				.getLocalReconfigurators();
+		nodes.putAll(TESTReconfigurationConfig.getLocalActives());
+		final List<Process> processes = new ArrayList<Process>();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				stopForkedServers(processes);
+			}
+		});
+		System.out.print("Forking node(s) [ ");
+		for (String node : nodes.keySet()) {
+			List<String> command = new ArrayList<String>(jvm);
+			command.add(node);
+			processes.add(new ProcessBuilder(command)
+					.redirectErrorStream(true)
+					.redirectOutput(
+							Redirect.to(new File(System
+									.getProperty("java.io.tmpdir"),
+									LoopbackBenchmark.class.getSimpleName()
+											+ "." + node + ".log"))).start());
+			System.out.print(node + " ");
+		}
+		System.out.println("]");
+		for (InetSocketAddress isa : nodes.values())
+			awaitListening(isa, NODE_STARTUP_TIMEOUT);
+		return processes;
+	}
+
+	private static void awaitListening(InetSocketAddress isa, long timeout)
+			throws IOException, InterruptedException {
+		long t = System.currentTimeMillis();
+		while (true) {
+			try (Socket socket = new Socket()) {
+				socket.connect(isa, 1000);
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() - t > timeout)
+					throw new IOException("Node at " + isa
+							+ " not listening after " + timeout + "ms");
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	private static void stopForkedServers(List<Process> processes) {
+		for (Process process : processes)
+			process.destroy();
+		for (Process process : processes)
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Config.register(args);
+		boolean fork = Config.getGlobalBoolean(TRC.BENCH_FORK);
+		List<Process> processes = null;
+		if (fork)
+			processes = startForkedServers(args);
+		else
+			TESTReconfigurationMain.startLocalServers();
+
+		LoopbackBenchmark benchmark = new LoopbackBenchmark(
+				new HashSet<InetSocketAddress>(TESTReconfigurationConfig
+						.getLocalReconfigurators().values()));
+		JSONObject result = null;
+		try {
+			benchmark.createNames();
+			result = benchmark.benchmark();
+		} finally {
+			benchmark.close();
+			if (fork)
+				stopForkedServers(processes);
+			else
+				TESTReconfigurationMain.closeServers();
+		}
+
+		System.out.println(result.toString(2));
+		if (!fork)
+			System.out.println(DelayProfiler.getStats());
+		String output = Config.getGlobalString(TRC.BENCH_OUTPUT);
+		if (!output.isEmpty()) {
+			try (FileWriter writer = new FileWriter(output, true)) {
+				writer.write(result.toString() + "\n");
+			}
+			System.out.println("Appended results to " + output);
+		}
+		System.exit(0);
+	}
+}
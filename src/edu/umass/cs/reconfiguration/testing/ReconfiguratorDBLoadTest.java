@@ -0,0 +1,124 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.reconfiguration.testing;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import edu.umass.cs.reconfiguration.Reconfigurator;
+import edu.umass.cs.reconfiguration.SQLReconfiguratorDB;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ConsistentReconfigurableNodeConfig;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurableSampleNodeConfig;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurationRecord;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurationRecord.RCStates;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Load test for {@link SQLReconfiguratorDB} that creates and then
+ *         reconfigures a large number of names from concurrent threads, each
+ *         thread operating on its own disjoint set of names, and reports the
+ *         ops/sec for each phase. A reconfiguration is the same sequence of
+ *         record updates as an epoch change at a reconfigurator, i.e., a
+ *         transition to WAIT_ACK_STOP followed by one to READY in the next
+ *         epoch. Usage:
+ *
+ *         <pre>
+ * ReconfiguratorDBLoadTest [numNames [numThreads]]
+ * </pre>
+ *
+ *         with 1M names and 16 threads by default. The number of stripes
+ *         into which the DB partitions records is RCDB_STRIPES.
+ */
+public class ReconfiguratorDBLoadTest {
+
+	private static interface Op {
+		void run(String name);
+	}
+
+	private static double run(final String phase, final int numNames,
+			int numThreads, final Op op) throws InterruptedException {
+		final AtomicInteger next = new AtomicInteger(0);
+		Thread[] threads = new Thread[numThreads];
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < numThreads; i++)
+			(threads[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; (j = next.getAndIncrement()) < numNames;)
+						op.run("name" + j);
+				}
+			}, phase + i)).start();
+		for (Thread thread : threads)
+			thread.join();
+		double rate = numNames * 1000.0
+				/ Math.max(1, System.currentTimeMillis() - t);
+		System.out.println(phase + " " + numNames + " names with "
+				+ numThreads + " threads: " + Util.df(rate) + " ops/sec");
+		return rate;
+	}
+
+	/**
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int numNames = args.length > 0 ? Integer.valueOf(args[0]) : 1000 * 1000;
+		int numThreads = args.length > 1 ? Integer.valueOf(args[1]) : 16;
+		// per-name state transitions are logged at INFO
+		Reconfigurator.getLogger().setLevel(Level.WARNING);
+
+		ReconfigurableSampleNodeConfig nc = new ReconfigurableSampleNodeConfig();
+		nc.localSetup(3);
+		ConsistentReconfigurableNodeConfig<Integer> consistentNodeConfig = new ConsistentReconfigurableNodeConfig<Integer>(
+				nc);
+		final SQLReconfiguratorDB<Integer> rcDB = new SQLReconfiguratorDB<Integer>(
+				consistentNodeConfig.getReconfigurators().iterator().next(),
+				consistentNodeConfig);
+		final Set<Integer> actives = new HashSet<Integer>(
+				consistentNodeConfig.getActiveReplicas());
+
+		try {
+			run("create", numNames, numThreads, new Op() {
+				public void run(String name) {
+					if (rcDB.createReconfigurationRecord(new ReconfigurationRecord<Integer>(
+							name, 0, actives)) == null)
+						throw new RuntimeException("Unable to create " + name);
+					rcDB.setState(name, 0, RCStates.READY);
+				}
+			});
+			run("reconfigure", numNames, numThreads, new Op() {
+				public void run(String name) {
+					if (!rcDB.setStateInitReconfiguration(name, 0,
+							RCStates.WAIT_ACK_STOP, actives)
+							|| !rcDB.setState(name, 1, RCStates.READY))
+						throw new RuntimeException("Unable to reconfigure "
+								+ name);
+				}
+			});
+			run("delete", numNames, numThreads, new Op() {
+				public void run(String name) {
+					if (!rcDB.deleteReconfigurationRecord(name, 1))
+						throw new RuntimeException("Unable to delete " + name);
+				}
+			});
+		} finally {
+			rcDB.close();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package edu.umass.cs.reconfiguration.testing;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
@@ -10,6 +11,8 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +36,7 @@ import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.interfaces.RequestCallback;
 import edu.umass.cs.gigapaxos.paxosutil.RateLimiter;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.reconfiguration.BulkCreateLoader;
 import edu.umass.cs.reconfiguration.ReconfigurableAppClientAsync;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
 import edu.umass.cs.reconfiguration.Reconfigurator;
@@ -834,6 +838,117 @@ public class TESTReconfigurationClient {
 		success();
 	}
 
+	/**
+	 * Sends {@link TRC#TEST_THROUGHPUT_NUM_REQUESTS} app requests from each
+	 * client in a separate thread keeping up to
+	 * {@link TRC#TEST_THROUGHPUT_WINDOW} requests outstanding and reports the
+	 * requests/sec achieved by each client thread. Running this test with
+	 * {@link RC#CLIENT_REQUEST_BATCHING} enabled and disabled compares batched
+	 * and unbatched client throughput.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void test05_ClientThroughput() throws IOException,
+			InterruptedException {
+		String[] names = generateRandomNames(Config
+				.getGlobalInt(TRC.TEST_NUM_APP_NAMES));
+		Assert.assertEquals(testNotExists(names) && testCreates(names)
+				&& testExists(names), true);
+		final double[] rates = new double[clients.length];
+		Thread[] threads = new Thread[clients.length];
+		for (int i = 0; i < clients.length; i++) {
+			final int j = i;
+			(threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					/* Warm up so that active replicas are known for all names.
+					 * Like testAppRequests, retry as the first requests to
+					 * just created names may get dropped. */
+					boolean warm = false;
+					for (int k = 0; k < 5 && !warm; k++)
+						warm = testClientThroughput(clients[j], names,
+								names.length, 1) > 0;
+					rates[j] = warm ? testClientThroughput(clients[j], names,
+							Config.getGlobalInt(TRC.TEST_THROUGHPUT_NUM_REQUESTS),
+							Config.getGlobalInt(TRC.TEST_THROUGHPUT_WINDOW))
+							: -1;
+				}
+			}, testName.getMethodName() + j)).start();
+		}
+		boolean test = true;
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			test = test && rates[i] > 0;
+		}
+		String stats = "batching="
+				+ Config.getGlobalBoolean(RC.CLIENT_REQUEST_BATCHING)
+				+ " requests/sec/client_thread=" + Arrays.toString(rates);
+		System.out.print(stats + " ");
+		log.log(Level.INFO, "{0}: {1}",
+				new Object[] { testName.getMethodName(), stats });
+		Assert.assertEquals(test && testDeletes(names) && testNotExists(names),
+				true);
+		success();
+	}
+
+	/**
+	 * @return The requests/sec achieved, or -1 if some request failed or more
+	 *         than one in a thousand responses did not arrive before the
+	 *         client timed them out.
+	 */
+	private double testClientThroughput(RCClient client, String[] names,
+			int numRequests, int window) {
+		final Semaphore outstanding = new Semaphore(window);
+		/* Wait longer than the client itself so that, before any retry, the
+		 * client has timed out lost requests and stopped sending requests for
+		 * the name to the unresponsive server. */
+		final long timeout = ReconfigurableAppClientAsync.APP_REQUEST_TIMEOUT * 3 / 2;
+		final int[] errors = new int[1];
+		final long[] lastResponseTime = new long[1];
+		long t = System.currentTimeMillis();
+		int lost = 0;
+		try {
+			for (int i = 0; i < numRequests; i++) {
+				if (!outstanding.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+					return -1;
+				client.sendRequest(new AppRequest(names[i % names.length],
+						(long) (Math.random() * Long.MAX_VALUE),
+						"request_value",
+						AppRequest.PacketType.DEFAULT_APP_REQUEST, false),
+						new RequestCallback() {
+							@Override
+							public void handleResponse(Request response) {
+								synchronized (errors) {
+									if (!(response instanceof AppRequest))
+										errors[0]++;
+									lastResponseTime[0] = System
+											.currentTimeMillis();
+								}
+								outstanding.release();
+							}
+						});
+			}
+			// wait for all outstanding responses
+			if (!outstanding.tryAcquire(window, timeout, TimeUnit.MILLISECONDS))
+				lost = window - outstanding.availablePermits();
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			return -1;
+		}
+		synchronized (errors) {
+			/* Like testAppRequests, tolerate the occasional request that gets
+			 * dropped, e.g., while a replica group is still being created, but
+			 * not throughput that only looks high because responses are not
+			 * arriving. */
+			if (errors[0] > 0 || lost > Math.max(1, numRequests / 1000))
+				return -1;
+			return (numRequests - lost) * 1000.0
+					/ Math.max(1, lastResponseTime[0] - t);
+		}
+	}
+
 	/**
 	 * @throws IOException
 	 * @throws InterruptedException
@@ -876,6 +991,44 @@ public class TESTReconfigurationClient {
 		success();
 	}
 
+	/**
+	 * Streams {@link TRC#TEST_BULK_LOAD_NUM_NAMES} name, state pairs through
+	 * {@link BulkCreateLoader} in batches of {@link TRC#TEST_BATCH_SIZE} and
+	 * checks that all names got created.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void test06_BulkLoad() throws IOException, InterruptedException {
+		String[] names = generateRandomNames(Config
+				.getGlobalInt(TRC.TEST_BULK_LOAD_NUM_NAMES));
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < names.length; i++)
+			input.append(names[i]).append('\t').append(INITIAL_STATE + i)
+					.append('\n');
+		BulkCreateLoader loader = new BulkCreateLoader(getRandomClient(),
+				this.reconfigurators, Config.getGlobalInt(TRC.TEST_BATCH_SIZE),
+				4, ReconfigurableAppClientAsync.CRP_GC_LONG_TIMEOUT);
+		long t = System.currentTimeMillis();
+		long created = 0;
+		try {
+			created = loader.load(new StringReader(input.toString()));
+		} finally {
+			loader.close();
+		}
+		log.log(Level.INFO, "{0} created {1} names at {2} names/sec",
+				new Object[] {
+						testName.getMethodName(),
+						created,
+						Util.df(created * 1000.0
+								/ Math.max(1, System.currentTimeMillis() - t)) });
+		Assert.assertEquals(names.length, created);
+		Assert.assertEquals(testExists(names) && testDeletes(names)
+				&& testNotExists(names), true);
+		success();
+	}
+
 	/**
 	 * Deletion of a non-existent active replica fails.
 	 * 
@@ -162,6 +162,91 @@ public class TESTReconfigurationConfig {
 		 */
 		TEST_NUM_REQUESTS_PER_NAME(10),
 
+		/**
+		 * Number of app requests sent by each client thread in the client
+		 * throughput test.
+		 */
+		TEST_THROUGHPUT_NUM_REQUESTS(5000),
+
+		/**
+		 * Maximum number of outstanding app requests per client thread in the
+		 * client throughput test.
+		 */
+		TEST_THROUGHPUT_WINDOW(100),
+
+		/**
+		 * Number of names streamed through
+		 * {@link edu.umass.cs.reconfiguration.BulkCreateLoader} in the bulk
+		 * load test.
+		 */
+		TEST_BULK_LOAD_NUM_NAMES(1000),
+
+		/**
+		 * If true, {@link LoopbackBenchmark} starts each node in a separate
+		 * JVM, else all nodes in the benchmark's JVM.
+		 */
+		BENCH_FORK(false),
+
+		/**
+		 * If true, {@link LoopbackBenchmark} issues requests at
+		 * {@link #BENCH_RATE} irrespective of responses, else it keeps
+		 * {@link #BENCH_CONCURRENCY} requests outstanding.
+		 */
+		BENCH_OPEN_LOOP(false),
+
+		/**
+		 * Offered load in requests/sec in open-loop mode.
+		 */
+		BENCH_RATE(1000),
+
+		/**
+		 * Number of outstanding requests in closed-loop mode.
+		 */
+		BENCH_CONCURRENCY(32),
+
+		/**
+		 * Number of {@link LoopbackBenchmark} clients, each with its own
+		 * connections, over which requests are uniformly spread.
+		 */
+		BENCH_NUM_CLIENTS(1),
+
+		/**
+		 * Number of names (paxos groups) over which requests are uniformly
+		 * spread.
+		 */
+		BENCH_NUM_GROUPS(10),
+
+		/**
+		 * Size in bytes of the request value.
+		 */
+		BENCH_REQUEST_SIZE(100),
+
+		/**
+		 * Fraction of requests sent as uncoordinated reads.
+		 */
+		BENCH_READ_FRACTION(0.0),
+
+		/**
+		 * Warmup in seconds whose results are discarded.
+		 */
+		BENCH_WARMUP(5),
+
+		/**
+		 * Measurement duration in seconds.
+		 */
+		BENCH_DURATION(20),
+
+		/**
+		 * File to which one JSON line is appended per run. Results are only
+		 * printed if empty.
+		 */
+		BENCH_OUTPUT(""),
+
+		/**
+		 * Free-form label recorded with the results, e.g., a release.
+		 */
+		BENCH_LABEL(""),
+
 		/**
 		 * 
 		 */
@@ -0,0 +1,352 @@
+package edu.umass.cs.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author arun
+ * @param <K>
+ * @param <V>
+ *
+ *            A concurrent variant of {@link MultiArrayMap} with the same
+ *            compact layout, i.e., values implementing {@link Keyable} are
+ *            stored directly in a small number of progressively smaller
+ *            arrays ("levels") with a hashmap as the cop out for values that
+ *            collide at all levels.
+ *            <p>
+ *
+ *            Reads ({@code get}, {@code containsKey}) take no locks at all.
+ *            Writes for a key are serialized using a fixed number of lock
+ *            stripes chosen by the key's hash, and claiming an empty array
+ *            slot is done using a CAS, so writes for keys in different stripes
+ *            proceed in parallel even if they collide on a slot. A value is
+ *            never moved once inserted, so a lock-free read can not miss a
+ *            value that is concurrently being overwritten.
+ *            <p>
+ *
+ *            Iterators are weakly consistent like those of
+ *            {@link ConcurrentHashMap}: they never throw
+ *            {@link java.util.ConcurrentModificationException} and may or may
+ *            not reflect concurrent modifications. Unlike
+ *            {@link MultiArrayMap#concurrentIterator()}, {@code next()} never
+ *            returns null after {@code hasNext()} returns true.
+ *            <p>
+ *
+ *            Being a {@link MultiArrayMap}, this map can be used as the
+ *            in-memory map of a {@link DiskMap}.
+ */
+public class ConcurrentMultiArrayMap<K, V extends Keyable<K>> extends
+		MultiArrayMap<K, V> {
+	private static final float SHRINKAGE = 0.75F;
+	private static final int LEVELS = 6;
+	private static final int NUM_STRIPES = 256;
+
+	private final int arraySize;
+	private final AtomicReferenceArray<V>[] levels;
+	private final ConcurrentHashMap<K, V> hMap = new ConcurrentHashMap<K, V>();
+	private final Object[] stripes = new Object[NUM_STRIPES];
+	// number of values in the arrays
+	private final AtomicInteger arrayCount = new AtomicInteger(0);
+
+	/**
+	 * @param size
+	 * @param numLevels
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentMultiArrayMap(int size, int numLevels) {
+		// the superclass storage is unused
+		super(0, 0);
+		this.arraySize = size;
+		this.levels = (AtomicReferenceArray<V>[]) new AtomicReferenceArray<?>[numLevels];
+		double sizeFactor = 1;
+		for (int i = 0; i < numLevels; i++) {
+			this.levels[i] = new AtomicReferenceArray<V>(Math.max(1,
+					(int) (sizeFactor * this.arraySize)));
+			sizeFactor *= SHRINKAGE;
+		}
+		for (int i = 0; i < NUM_STRIPES; i++)
+			this.stripes[i] = new Object();
+	}
+
+	/**
+	 * @param size
+	 */
+	public ConcurrentMultiArrayMap(int size) {
+		this(size, LEVELS);
+	}
+
+	@Override
+	public int capacity() {
+		return this.arraySize;
+	}
+
+	private Object getStripe(Object key) {
+		int h = key.hashCode();
+		return this.stripes[((h ^ (h >>> 16)) & Integer.MAX_VALUE)
+				% NUM_STRIPES];
+	}
+
+	private static int getHashIndex(Object key, AtomicReferenceArray<?> array) {
+		int index = key.hashCode() % array.length();
+		if (index < 0)
+			index += array.length();
+		return index;
+	}
+
+	private static boolean matches(Object key, Keyable<?> value) {
+		return value != null && key.equals(value.getKey());
+	}
+
+	@Override
+	public V get(Object key) {
+		if (key == null)
+			return null;
+		for (AtomicReferenceArray<V> array : this.levels) {
+			V value = array.get(getHashIndex(key, array));
+			if (matches(key, value))
+				return value;
+		}
+		return this.hMap.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return this.get(key) != null;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return (value instanceof Keyable<?>)
+				&& value.equals(this.get(((Keyable<?>) value).getKey()));
+	}
+
+	// caller must hold the stripe lock for key
+	private V putLocked(K key, V value) {
+		// overwrite in place if present
+		for (AtomicReferenceArray<V> array : this.levels) {
+			int index = getHashIndex(key, array);
+			V prev = array.get(index);
+			if (matches(key, prev)) {
+				array.set(index, value);
+				return prev;
+			}
+		}
+		V prev = this.hMap.get(key);
+		if (prev != null)
+			return this.hMap.put(key, value);
+
+		// else claim the first free slot
+		for (AtomicReferenceArray<V> array : this.levels)
+			if (array.compareAndSet(getHashIndex(key, array), null, value)) {
+				this.arrayCount.incrementAndGet();
+				return null;
+			}
+		return this.hMap.put(key, value);
+	}
+
+	// caller must hold the stripe lock for key
+	private V removeLocked(Object key) {
+		for (AtomicReferenceArray<V> array : this.levels) {
+			int index = getHashIndex(key, array);
+			V prev = array.get(index);
+			if (matches(key, prev)) {
+				// only writers of this key can modify a slot holding it
+				array.set(index, null);
+				this.arrayCount.decrementAndGet();
+				return prev;
+			}
+		}
+		return this.hMap.remove(key);
+	}
+
+	@Override
+	public V put(K key, V value) {
+		assert (key.equals(value.getKey())) : key + " != " + value.getKey();
+		synchronized (this.getStripe(key)) {
+			return this.putLocked(key, value);
+		}
+	}
+
+	@Override
+	public V remove(Object key) {
+		if (key == null)
+			return null;
+		synchronized (this.getStripe(key)) {
+			return this.removeLocked(key);
+		}
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		synchronized (this.getStripe(key)) {
+			V prev = this.get(key);
+			return prev != null ? prev : this.putLocked(key, value);
+		}
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		if (key == null)
+			return false;
+		synchronized (this.getStripe(key)) {
+			V prev = this.get(key);
+			return prev != null && prev.equals(value)
+					&& this.removeLocked(key) != null;
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		synchronized (this.getStripe(key)) {
+			V prev = this.get(key);
+			return prev != null && prev.equals(oldValue)
+					&& this.putLocked(key, newValue) != null;
+		}
+	}
+
+	@Override
+	public V replace(K key, V value) {
+		synchronized (this.getStripe(key)) {
+			return this.get(key) != null ? this.putLocked(key, value) : null;
+		}
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+		for (Map.Entry<? extends K, ? extends V> entry : m.entrySet())
+			this.put(entry.getKey(), entry.getValue());
+	}
+
+	@Override
+	public int size() {
+		return this.arrayCount.get() + this.hMap.size();
+	}
+
+	@Override
+	public int hashmapSize() {
+		return this.hMap.size();
+	}
+
+	@Override
+	public void clear() {
+		for (AtomicReferenceArray<V> array : this.levels)
+			for (int i = 0; i < array.length(); i++)
+				if (array.getAndSet(i, null) != null)
+					this.arrayCount.decrementAndGet();
+		this.hMap.clear();
+	}
+
+	@Override
+	public Iterator<V> iterator() {
+		return new WeaklyConsistentIterator();
+	}
+
+	@Override
+	public Iterator<V> concurrentIterator() {
+		return new WeaklyConsistentIterator();
+	}
+
+	class WeaklyConsistentIterator implements Iterator<V> {
+		private int level = 0;
+		private int index = -1;
+		private Iterator<V> hMapIter = null;
+		private V next = null;
+		private V last = null;
+
+		private V advance() {
+			for (; level < levels.length; level++, index = -1)
+				while (++index < levels[level].length()) {
+					V value = levels[level].get(index);
+					if (value != null)
+						return value;
+				}
+			if (hMapIter == null)
+				hMapIter = hMap.values().iterator();
+			return hMapIter.hasNext() ? hMapIter.next() : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null || (next = advance()) != null;
+		}
+
+		@Override
+		public V next() {
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			last = next;
+			next = null;
+			return last;
+		}
+
+		@Override
+		public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			ConcurrentMultiArrayMap.this.remove(last.getKey(), last);
+			last = null;
+		}
+	}
+
+	/**
+	 * Unit tests for {@link ConcurrentMultiArrayMap}.
+	 */
+	public static class ConcurrentMultiArrayMapTest extends DefaultTest {
+		/**
+		 * Concurrent writers on overlapping keys on a deliberately small map so
+		 * that both slot collisions and the cop out hashmap get exercised.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrentPutRemove() throws InterruptedException {
+			final int numThreads = 8, numKeys = 4000, rounds = 20;
+			final ConcurrentMultiArrayMap<String, StringValue<Integer>> map = new ConcurrentMultiArrayMap<String, StringValue<Integer>>(
+					numKeys / 4);
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < numThreads; t++) {
+				final int offset = t;
+				threads.add(new Thread(new Runnable() {
+					public void run() {
+						for (int r = 0; r < rounds; r++)
+							for (int i = offset; i < numKeys; i += numThreads) {
+								String key = "key" + i;
+								map.put(key, new StringValue<Integer>(key, r));
+								Assert.assertEquals(r, (int) map.get(key).value);
+								// remove half of them in all but the last round
+								if (i % 2 == 0 && r < rounds - 1)
+									Assert.assertNotNull(map.remove(key));
+							}
+					}
+				}));
+			}
+			for (Thread thread : threads)
+				thread.start();
+			for (Thread thread : threads)
+				thread.join();
+
+			Assert.assertEquals(numKeys, map.size());
+			Assert.assertTrue(map.hashmapSize() > 0);
+			int count = 0;
+			for (StringValue<Integer> value : map) {
+				Assert.assertEquals(rounds - 1, (int) value.value);
+				count++;
+			}
+			Assert.assertEquals(numKeys, count);
+
+			// no duplicate slots for a key after remove and reinsertion
+			for (int i = 0; i < numKeys; i++)
+				Assert.assertNotNull(map.remove("key" + i));
+			Assert.assertEquals(0, map.size());
+			Assert.assertFalse(map.iterator().hasNext());
+		}
+	}
+}
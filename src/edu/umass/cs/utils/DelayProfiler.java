@@ -1,6 +1,7 @@
 package edu.umass.cs.utils;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -22,6 +23,8 @@ public class DelayProfiler {
 	private static ConcurrentHashMap<String, Double> lastRecordedNanos = new ConcurrentHashMap<String, Double>();
 	private static ConcurrentHashMap<String, Double> lastCount = new ConcurrentHashMap<String, Double>();
 
+	private static ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
 	private static boolean enabled = true;
 	
 	/**
@@ -29,6 +32,24 @@ public class DelayProfiler {
 	 */
 	public static void disable() {
 		enabled = false;
+		LatencyHistogram.disable();
+	}
+
+	/**
+	 * Registers if needed and returns the histogram for {@code field}. Unlike
+	 * the other methods here, this is meant to be called once per field, with
+	 * the returned handle used to record values on the critical path.
+	 * 
+	 * @param field
+	 * @return The latency histogram handle for {@code field}.
+	 */
+	public static LatencyHistogram histogram(String field) {
+		LatencyHistogram histogram = histograms.get(field);
+		if (histogram == null) {
+			histograms.putIfAbsent(field, new LatencyHistogram(field));
+			histogram = histograms.get(field);
+		}
+		return histogram;
 	}
 
 	/**
@@ -324,10 +345,79 @@ public class DelayProfiler {
 		s += statsHelper(averages, "", fields);
 		s += statsHelper(counters, "", fields);
 		s += statsHelper(instarates, "/s", fields);
+		s += histogramStatsHelper(fields);
 
 		return (s + "]").replace(" | ]", " ]");
 	}
 
+	private static String histogramStatsHelper(Set<String> fields) {
+		String s = "";
+		for (String field : new TreeMap<String, LatencyHistogram>(histograms)
+				.keySet()) {
+			if (fields != null && !fields.contains(field))
+				continue;
+			LatencyHistogram.Snapshot snapshot = histograms.get(field)
+					.snapshot();
+			if (snapshot.getCount() == 0)
+				continue;
+			s += (field + ":p50/p99/p999="
+					+ Util.df(snapshot.getValueAtPercentile(50) / 1000.0) + "/"
+					+ Util.df(snapshot.getValueAtPercentile(99) / 1000.0)
+					+ "/"
+					+ Util.df(snapshot.getValueAtPercentile(99.9) / 1000.0)
+					+ "us" + " | ");
+		}
+		return s;
+	}
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * @return All statistics in the Prometheus text exposition format, with
+	 *         histograms as summaries in seconds and the rest as gauges
+	 *         labeled by field.
+	 */
+	public static String getMetrics() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# TYPE gigapaxos_latency_seconds summary\n");
+		for (String field : new TreeMap<String, LatencyHistogram>(histograms)
+				.keySet()) {
+			LatencyHistogram.Snapshot snapshot = histograms.get(field)
+					.snapshot();
+			String label = "name=\"" + escape(field) + "\"";
+			for (double q : QUANTILES)
+				sb.append("gigapaxos_latency_seconds{").append(label)
+						.append(",quantile=\"").append(q).append("\"} ")
+						.append(snapshot.getValueAtPercentile(q * 100) / 1e9)
+						.append("\n");
+			sb.append("gigapaxos_latency_seconds_sum{").append(label)
+					.append("} ").append(snapshot.getSum() / 1e9).append("\n");
+			sb.append("gigapaxos_latency_seconds_count{").append(label)
+					.append("} ").append(snapshot.getCount()).append("\n");
+		}
+		metricsHelper(sb, "gigapaxos_average_millis", averageMillis);
+		metricsHelper(sb, "gigapaxos_average_nanos", averageNanos);
+		metricsHelper(sb, "gigapaxos_average", averages);
+		metricsHelper(sb, "gigapaxos_counter", counters);
+		metricsHelper(sb, "gigapaxos_rate", instarates);
+		return sb.toString();
+	}
+
+	private static void metricsHelper(StringBuilder sb, String metric,
+			ConcurrentMap<String, Double> map) {
+		sb.append("# TYPE ").append(metric).append(" gauge\n");
+		for (Map.Entry<String, Double> entry : new TreeMap<String, Double>(map)
+				.entrySet())
+			sb.append(metric).append("{field=\"")
+					.append(escape(entry.getKey())).append("\"} ")
+					.append(entry.getValue()).append("\n");
+	}
+
+	private static String escape(String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+
 	private static String statsHelper(ConcurrentMap<String, Double> map,
 			String units, Set<String> fields) {
 		String s = "";
@@ -368,5 +458,7 @@ public class DelayProfiler {
 		lastArrivalNanos.clear();
 		lastRecordedNanos.clear();
 		lastCount.clear();
+		for (LatencyHistogram histogram : histograms.values())
+			histogram.reset();
 	}
 }
\ No newline at end of file
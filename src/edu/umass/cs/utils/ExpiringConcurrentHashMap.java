@@ -0,0 +1,408 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+
+package edu.umass.cs.utils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author arun
+ * @param <K>
+ * @param <V>
+ *
+ *            A drop-in replacement for {@link GCConcurrentHashMap} with the
+ *            same {@link GCConcurrentHashMapCallback} semantics but without
+ *            any global monitor. Keys are tracked in striped time buckets,
+ *            each a concurrent set of the keys put during a slice of
+ *            {@link #NUM_BUCKETS}-th of the GC timeout, and a concurrent
+ *            key-&gt;bucket map. Garbage collection drops whole expired buckets
+ *            from a lock-free queue and removes a key only if it has not since
+ *            been refreshed by another put, so puts, removes and garbage
+ *            collection never block one another. At most one thread garbage
+ *            collects at a time; other threads simply skip it. Entries expire
+ *            up to one bucket width later than they would in
+ *            {@link GCConcurrentHashMap}. Without contention on that monitor,
+ *            i.e., with few cores, {@link GCConcurrentHashMap} is faster (see
+ *            {@link ExpiringConcurrentHashMapBenchmark}).
+ */
+public class ExpiringConcurrentHashMap<K, V> extends ConcurrentHashMap<K, V> {
+
+	private static final int DEFAULT_GC_THRESHOLD_SIZE = 1024 * 64;
+	private volatile int gcThresholdSize = DEFAULT_GC_THRESHOLD_SIZE;
+
+	private static final int NUM_BUCKETS = 16;
+
+	private static class Bucket<K> {
+		final long start;
+		final Set<K> keys = ConcurrentHashMap.newKeySet();
+
+		Bucket(long start) {
+			this.start = start;
+		}
+	}
+
+	// key->bucket of its most recent put
+	private final ConcurrentHashMap<K, Bucket<K>> keyBuckets = new ConcurrentHashMap<K, Bucket<K>>();
+	// buckets in increasing order of start time
+	private final ConcurrentLinkedQueue<Bucket<K>> buckets = new ConcurrentLinkedQueue<Bucket<K>>();
+	private final AtomicReference<Bucket<K>> current = new AtomicReference<Bucket<K>>();
+	private final long bucketWidth;
+	private final AtomicBoolean collecting = new AtomicBoolean(false);
+
+	private final GCConcurrentHashMapCallback callback;
+	private volatile long gcTimeout; // milliseconds
+
+	/**
+	 * @param callback
+	 * @param gcTimeout
+	 */
+	public ExpiringConcurrentHashMap(GCConcurrentHashMapCallback callback,
+			long gcTimeout) {
+		super();
+		this.callback = callback;
+		this.gcTimeout = gcTimeout;
+		this.minGCInterval = this.gcTimeout;
+		this.bucketWidth = Math.max(1, gcTimeout / NUM_BUCKETS);
+	}
+
+	/**
+	 * @param gcTimeout
+	 */
+	public ExpiringConcurrentHashMap(long gcTimeout) {
+		this(null, gcTimeout);
+	}
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 183021919213L;
+
+	public V put(K key, V value) {
+		this.putGC(key);
+		return super.put(key, value);
+	}
+
+	public V putIfAbsent(K key, V value) {
+		this.putGC(key);
+		return super.putIfAbsent(key, value);
+	}
+
+	public void putAll(Map<? extends K, ? extends V> map) {
+		for (K key : map.keySet())
+			this.putGC(key);
+		super.putAll(map);
+	}
+
+	public V remove(Object key) {
+		Bucket<K> bucket = this.keyBuckets.get(key);
+		V value = super.remove(key);
+		this.untrack(key, bucket);
+		return value;
+	}
+
+	public boolean remove(Object key, Object value) {
+		Bucket<K> bucket = this.keyBuckets.get(key);
+		if (super.remove(key, value)) {
+			this.untrack(key, bucket);
+			return true;
+		}
+		return false;
+	}
+
+	public void clear() {
+		super.clear();
+		this.keyBuckets.clear();
+		this.buckets.clear();
+		this.current.set(null);
+	}
+
+	/* A put that refreshed the key after we read its bucket will have moved it
+	 * to a newer bucket, in which case it must remain tracked. */
+	@SuppressWarnings("unchecked")
+	private void untrack(Object key, final Bucket<K> bucket) {
+		if (bucket != null)
+			this.keyBuckets.computeIfPresent((K) key,
+					new BiFunction<K, Bucket<K>, Bucket<K>>() {
+						@Override
+						public Bucket<K> apply(K k, Bucket<K> b) {
+							if (b != bucket)
+								return b;
+							bucket.keys.remove(k);
+							return null;
+						}
+					});
+	}
+
+	/**
+	 * @param size
+	 * @return {@code this}
+	 */
+	public ExpiringConcurrentHashMap<K, V> setGCThresholdSize(int size) {
+		this.gcThresholdSize = size;
+		return this;
+	}
+
+	/**
+	 * @param timeout
+	 * @return {@code this}
+	 */
+	public ExpiringConcurrentHashMap<K, V> setGCTimeout(long timeout) {
+		this.gcTimeout = timeout;
+		return this;
+	}
+
+	private Bucket<K> getCurrentBucket() {
+		long now = System.currentTimeMillis();
+		Bucket<K> bucket = this.current.get();
+		while (bucket == null || now - bucket.start >= this.bucketWidth) {
+			Bucket<K> next = new Bucket<K>(now);
+			if (this.current.compareAndSet(bucket, next)) {
+				this.buckets.add(next);
+				return next;
+			}
+			bucket = this.current.get();
+		}
+		return bucket;
+	}
+
+	private void putGC(K key) {
+		final Bucket<K> bucket = this.getCurrentBucket();
+		/* Moving the key between bucket sets under its keyBuckets lock keeps
+		 * the map entry and bucket membership consistent across concurrent
+		 * puts, removes and expiry of the same key. */
+		this.keyBuckets.compute(key, new BiFunction<K, Bucket<K>, Bucket<K>>() {
+			@Override
+			public Bucket<K> apply(K k, Bucket<K> prev) {
+				if (prev != null && prev != bucket)
+					prev.keys.remove(k);
+				bucket.keys.add(k);
+				return bucket;
+			}
+		});
+		// Util.oneIn would contend on the shared Math.random() seed
+		if (this.size() > gcThresholdSize
+				|| ThreadLocalRandom.current().nextInt(1000) == 0)
+			GC();
+	}
+
+	private volatile long lastGCTime = 0;
+	private final long minGCInterval;
+
+	/**
+	 * @param timeout
+	 */
+	public void tryGC(long timeout) {
+		this.GC(timeout);
+	}
+
+	private void GC() {
+		this.GC(this.gcTimeout);
+	}
+
+	private void GC(long timeout) {
+		if (System.currentTimeMillis() - this.lastGCTime < this.minGCInterval
+				|| !this.collecting.compareAndSet(false, true))
+			return;
+		try {
+			long now = this.lastGCTime = System.currentTimeMillis();
+			Bucket<K> bucket = null;
+			// only the collecting thread polls, so poll returns the peeked head
+			while ((bucket = this.buckets.peek()) != null
+					&& now - (bucket.start + this.bucketWidth) > timeout) {
+				this.buckets.poll();
+				for (K key : bucket.keys) {
+					V value = this.expire(key, bucket);
+					if (value != null && this.callback != null)
+						this.callback.callbackGC(key, value);
+				}
+			}
+		} finally {
+			this.collecting.set(false);
+		}
+	}
+
+	/* Removes the value only if the key is still tracked in bucket, i.e., has
+	 * not been refreshed since. The check and removal happen under the key's
+	 * lock in keyBuckets, and a put moves the key to a newer bucket there
+	 * before writing its value, so a re-put either keeps its value or
+	 * overwrites one that has already expired. */
+	private V expire(K key, final Bucket<K> bucket) {
+		final AtomicReference<V> expired = new AtomicReference<V>();
+		this.keyBuckets.computeIfPresent(key,
+				new BiFunction<K, Bucket<K>, Bucket<K>>() {
+					@Override
+					public Bucket<K> apply(K k, Bucket<K> b) {
+						if (b != bucket)
+							return b;
+						expired.set(ExpiringConcurrentHashMap.super.remove(k));
+						return null;
+					}
+				});
+		return expired.get();
+	}
+
+	/**
+	 *
+	 */
+	public static class ExpiringConcurrentHashMapTest extends DefaultTest {
+
+		private static class CountingCallback implements
+				GCConcurrentHashMapCallback {
+			final ConcurrentHashMap<Object, Object> collected = new ConcurrentHashMap<Object, Object>();
+
+			@Override
+			public void callbackGC(Object key, Object value) {
+				Assert.assertNull(collected.put(key, value));
+			}
+		}
+
+		/**
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testExpiry() throws InterruptedException {
+			CountingCallback callback = new CountingCallback();
+			ExpiringConcurrentHashMap<String, Integer> map = new ExpiringConcurrentHashMap<String, Integer>(
+					callback, 100);
+			map.put("expires", 1);
+			map.put("removed", 2);
+			map.put("replaced", 3);
+			map.remove("removed");
+			Thread.sleep(60);
+			// refresh put time
+			map.put("replaced", 4);
+			Thread.sleep(60);
+			map.tryGC(100);
+			Assert.assertEquals(1, callback.collected.size());
+			Assert.assertEquals(1, callback.collected.get("expires"));
+			Assert.assertFalse(map.containsKey("expires"));
+			Assert.assertEquals(4, (int) map.get("replaced"));
+			Assert.assertEquals(1, map.size());
+			Assert.assertEquals(1, map.keyBuckets.size());
+
+			// refreshed put time expires later
+			Thread.sleep(110);
+			map.tryGC(100);
+			Assert.assertEquals(4, callback.collected.get("replaced"));
+			Assert.assertTrue(map.isEmpty());
+			Assert.assertTrue(map.keyBuckets.isEmpty());
+			Assert.assertTrue(map.buckets.isEmpty());
+		}
+
+		/**
+		 * Concurrent puts and removes of request IDs, each of which is either
+		 * removed or garbage collected exactly once.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrent() throws InterruptedException {
+			final CountingCallback callback = new CountingCallback();
+			final ExpiringConcurrentHashMap<Long, Long> map = new ExpiringConcurrentHashMap<Long, Long>(
+					callback, 50).setGCThresholdSize(100);
+			final int numThreads = 8, numPerThread = 100 * 1000;
+			final AtomicInteger removed = new AtomicInteger(0);
+			Thread[] threads = new Thread[numThreads];
+			for (int t = 0; t < numThreads; t++) {
+				final long base = (long) t * numPerThread;
+				(threads[t] = new Thread(new Runnable() {
+					public void run() {
+						for (long i = base; i < base + numPerThread; i++) {
+							map.put(i, i);
+							// leave every 16th request to be collected
+							if (i % 16 != 0 && map.remove(i) != null)
+								removed.incrementAndGet();
+						}
+					}
+				})).start();
+			}
+			for (Thread thread : threads)
+				thread.join();
+			Thread.sleep(110);
+			map.tryGC(50);
+			Assert.assertTrue(map.isEmpty());
+			Assert.assertEquals(numThreads * numPerThread, removed.get()
+					+ callback.collected.size());
+			Assert.assertTrue(map.keyBuckets.isEmpty());
+		}
+
+		/**
+		 * Keys re-put at random intervals around the GC timeout while garbage
+		 * collection runs concurrently. Only values older than the timeout
+		 * may ever be collected.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrentReputAtExpiry() throws InterruptedException {
+			final long timeout = 10;
+			final AtomicInteger collected = new AtomicInteger(0);
+			final AtomicInteger early = new AtomicInteger(0);
+			final ExpiringConcurrentHashMap<Integer, Long> map = new ExpiringConcurrentHashMap<Integer, Long>(
+					new GCConcurrentHashMapCallback() {
+						@Override
+						public void callbackGC(Object key, Object value) {
+							collected.incrementAndGet();
+							if (System.currentTimeMillis() - (Long) value < timeout)
+								early.incrementAndGet();
+						}
+					}, timeout);
+			// about as many keys as puts in a timeout, so many are re-put
+			// just as they expire
+			final int numKeys = 1 << 15;
+			final long duration = 2000;
+			final AtomicBoolean stop = new AtomicBoolean(false);
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++)
+				(threads[t] = new Thread(new Runnable() {
+					public void run() {
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						while (!stop.get())
+							for (int i = 0; i < 1024; i++)
+								map.put(random.nextInt(numKeys),
+										System.currentTimeMillis());
+					}
+				})).start();
+			long start = System.currentTimeMillis();
+			while (System.currentTimeMillis() - start < duration)
+				map.tryGC(timeout);
+			stop.set(true);
+			for (Thread thread : threads)
+				thread.join();
+			Assert.assertTrue(collected.get() > 0);
+			Assert.assertEquals(early.get() + " of " + collected.get()
+					+ " collected values were re-put before the timeout", 0,
+					early.get());
+			// every remaining value must still be tracked
+			Assert.assertEquals(map.size(), map.keyBuckets.size());
+			Thread.sleep(3 * timeout);
+			map.tryGC(timeout);
+			Assert.assertTrue(map.isEmpty());
+			Assert.assertTrue(map.keyBuckets.isEmpty());
+		}
+	}
+}
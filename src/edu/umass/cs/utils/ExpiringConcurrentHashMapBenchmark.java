@@ -0,0 +1,114 @@
+package edu.umass.cs.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author arun
+ *
+ *         Multithreaded throughput benchmark comparing
+ *         {@link ExpiringConcurrentHashMap}, {@link GCConcurrentHashMap} and a
+ *         plain {@link ConcurrentHashMap} on a workload resembling an
+ *         outstanding requests table: each thread puts unique request IDs
+ *         and removes each one after a fixed number of subsequent puts, i.e.,
+ *         once its response "arrives", leaving one in every 64 requests to be
+ *         garbage collected. Throughput is reported as put+remove pairs per
+ *         second. Usage:
+ *
+ *         <pre>
+ * ExpiringConcurrentHashMapBenchmark [threads [secondsPerRun [outstanding [gcTimeoutMillis]]]]
+ * </pre>
+ *
+ *         where threads is a comma-separated list, e.g., "1,2,4,8,16,32 5".
+ */
+public class ExpiringConcurrentHashMapBenchmark {
+
+	private static final String[] MAP_TYPES = { "ExpiringConcurrentHashMap",
+			"GCConcurrentHashMap", "ConcurrentHashMap" };
+
+	private static final GCConcurrentHashMapCallback callback = new GCConcurrentHashMapCallback() {
+		@Override
+		public void callbackGC(Object key, Object value) {
+			// timed out request
+		}
+	};
+
+	private static ConcurrentHashMap<Long, Long> createMap(String type,
+			long gcTimeout) {
+		if (type.equals("ExpiringConcurrentHashMap"))
+			return new ExpiringConcurrentHashMap<Long, Long>(callback,
+					gcTimeout);
+		else if (type.equals("GCConcurrentHashMap"))
+			return new GCConcurrentHashMap<Long, Long>(callback, gcTimeout);
+		return new ConcurrentHashMap<Long, Long>();
+	}
+
+	private static double run(final ConcurrentHashMap<Long, Long> map,
+			int numThreads, final int outstanding, long durationMillis)
+			throws InterruptedException {
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final AtomicLong ops = new AtomicLong(0);
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			// disjoint request ID space per thread
+			final long base = (long) t << 40;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					long id = base;
+					while (!stop.get()) {
+						// amortize the stop check
+						for (int i = 0; i < 1024; i++, id++) {
+							map.put(id, id);
+							if (id - base >= outstanding
+									&& (id - outstanding) % 64 != 0)
+								map.remove(id - outstanding);
+						}
+					}
+					ops.addAndGet(id - base);
+				}
+			});
+		}
+		long t = System.nanoTime();
+		for (Thread thread : threads)
+			thread.start();
+		Thread.sleep(durationMillis);
+		stop.set(true);
+		for (Thread thread : threads)
+			thread.join();
+		return ops.get() * 1000.0 * 1000 * 1000 / (System.nanoTime() - t);
+	}
+
+	private static int[] parse(String csv) {
+		String[] tokens = csv.split(",");
+		int[] values = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+			values[i] = Integer.valueOf(tokens[i].trim());
+		return values;
+	}
+
+	/**
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int[] threadCounts = parse(args.length > 0 ? args[0]
+				: "1,2,4,8,16,32");
+		long durationMillis = 1000 * (args.length > 1 ? Integer
+				.valueOf(args[1]) : 3);
+		int outstanding = args.length > 2 ? Integer.valueOf(args[2]) : 1000;
+		long gcTimeout = args.length > 3 ? Long.valueOf(args[3]) : 1000;
+
+		for (String type : MAP_TYPES) {
+			// warm up
+			run(createMap(type, gcTimeout), 1, outstanding, durationMillis / 2);
+			for (int numThreads : threadCounts)
+				System.out.println(type
+						+ " threads="
+						+ numThreads
+						+ " rate="
+						+ Util.df(run(createMap(type, gcTimeout), numThreads,
+								outstanding, durationMillis)) + " put+remove/s");
+		}
+	}
+}
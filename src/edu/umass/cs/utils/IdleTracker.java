@@ -0,0 +1,361 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+
+package edu.umass.cs.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author arun
+ * @param <K>
+ *
+ *            Approximate LRU order over a large, concurrently accessed set of
+ *            keys, e.g., paxos instance IDs, so that the least recently used
+ *            keys can be polled without scanning all keys. Like
+ *            {@link ExpiringConcurrentHashMap}, keys are tracked in time
+ *            buckets, each a concurrent set of the keys last touched during
+ *            its slice of time, in a lock-free queue in increasing order of
+ *            time together with a concurrent key-&gt;bucket map. A touch is a
+ *            single map lookup if the key was already touched in the current
+ *            bucket and otherwise moves the key to the current bucket, so the
+ *            cost of an access is O(1) and independent of the number of keys.
+ *            Polling walks buckets from the oldest and stops as soon as it has
+ *            enough keys, so its cost is proportional to the number of keys
+ *            returned. The order within a bucket is arbitrary, so keys are
+ *            ordered only up to the bucket width.
+ *
+ *            A polled key is no longer tracked; the caller is expected to
+ *            either get rid of it or touch it again.
+ */
+public class IdleTracker<K> {
+
+	private static class Bucket<K> {
+		final long start;
+		final Set<K> keys = ConcurrentHashMap.newKeySet();
+
+		Bucket(long start) {
+			this.start = start;
+		}
+	}
+
+	// key->bucket of its most recent touch
+	private final ConcurrentHashMap<K, Bucket<K>> keyBuckets = new ConcurrentHashMap<K, Bucket<K>>();
+	// buckets in increasing order of start time
+	private final ConcurrentLinkedQueue<Bucket<K>> buckets = new ConcurrentLinkedQueue<Bucket<K>>();
+	private final AtomicReference<Bucket<K>> current = new AtomicReference<Bucket<K>>();
+	private final long bucketWidth;
+
+	/**
+	 * @param bucketWidth
+	 *            Granularity in milliseconds up to which keys are LRU-ordered.
+	 */
+	public IdleTracker(long bucketWidth) {
+		this.bucketWidth = Math.max(1, bucketWidth);
+	}
+
+	private Bucket<K> getCurrentBucket() {
+		long now = System.currentTimeMillis();
+		Bucket<K> bucket = this.current.get();
+		while (bucket == null || now - bucket.start >= this.bucketWidth) {
+			Bucket<K> next = new Bucket<K>(now);
+			if (this.current.compareAndSet(bucket, next)) {
+				this.buckets.add(next);
+				this.dropEmptyBuckets(next);
+				return next;
+			}
+			bucket = this.current.get();
+		}
+		return bucket;
+	}
+
+	/* Empty buckets at the head would otherwise accumulate, one per bucket
+	 * width, if nobody polls. */
+	private void dropEmptyBuckets(Bucket<K> current) {
+		Bucket<K> head = null;
+		while ((head = this.buckets.peek()) != null && head != current
+				&& head.keys.isEmpty())
+			this.buckets.remove(head);
+	}
+
+	/**
+	 * Marks {@code key} as most recently used, tracking it if it is not
+	 * already tracked.
+	 *
+	 * @param key
+	 */
+	public void touch(K key) {
+		final Bucket<K> bucket = this.getCurrentBucket();
+		// common case of repeated accesses within a bucket width
+		if (this.keyBuckets.get(key) == bucket)
+			return;
+		/* Moving the key between bucket sets under its keyBuckets lock keeps
+		 * the map entry and bucket membership consistent with concurrent
+		 * touches, removes and polls of the same key. */
+		this.keyBuckets.compute(key, new BiFunction<K, Bucket<K>, Bucket<K>>() {
+			@Override
+			public Bucket<K> apply(K k, Bucket<K> prev) {
+				if (prev != null && prev != bucket)
+					prev.keys.remove(k);
+				bucket.keys.add(k);
+				return bucket;
+			}
+		});
+	}
+
+	/**
+	 * Stops tracking {@code key}.
+	 *
+	 * @param key
+	 */
+	public void remove(K key) {
+		Bucket<K> bucket = this.keyBuckets.get(key);
+		/* A touch that moved the key after we read its bucket means that it
+		 * must remain tracked. */
+		if (bucket != null)
+			this.untrack(key, bucket);
+	}
+
+	// untracks key only if it is still in bucket
+	private boolean untrack(K key, final Bucket<K> bucket) {
+		final boolean[] untracked = new boolean[1];
+		this.keyBuckets.computeIfPresent(key,
+				new BiFunction<K, Bucket<K>, Bucket<K>>() {
+					@Override
+					public Bucket<K> apply(K k, Bucket<K> b) {
+						if (b != bucket)
+							return b;
+						bucket.keys.remove(k);
+						untracked[0] = true;
+						return null;
+					}
+				});
+		return untracked[0];
+	}
+
+	/**
+	 * Removes and returns up to {@code max} keys that have not been touched
+	 * for at least {@code idleTime} milliseconds, least recently used first.
+	 *
+	 * @param idleTime
+	 * @param max
+	 * @return Idle keys, possibly empty.
+	 */
+	public List<K> pollIdle(long idleTime, int max) {
+		return this.poll(System.currentTimeMillis() - idleTime, max);
+	}
+
+	/**
+	 * Removes and returns up to {@code max} least recently used keys
+	 * irrespective of how long they have been idle.
+	 *
+	 * @param max
+	 * @return Least recently used keys, possibly empty.
+	 */
+	public List<K> pollColdest(int max) {
+		return this.poll(Long.MAX_VALUE, max);
+	}
+
+	// one poller at a time, but touches and removes never block on it
+	private synchronized List<K> poll(long cutoff, int max) {
+		List<K> polled = new ArrayList<K>();
+		for (Iterator<Bucket<K>> iter = this.buckets.iterator(); iter
+				.hasNext() && polled.size() < max;) {
+			Bucket<K> bucket = iter.next();
+			// keys in this bucket may have been touched after cutoff
+			if (cutoff != Long.MAX_VALUE
+					&& bucket.start + this.bucketWidth > cutoff)
+				break;
+			for (K key : bucket.keys) {
+				if (polled.size() >= max)
+					break;
+				/* Skip if moved or removed since, in which case the toucher or
+				 * remover removes it from this bucket. */
+				if (this.untrack(key, bucket))
+					polled.add(key);
+			}
+			if (bucket.keys.isEmpty() && bucket != this.current.get())
+				this.buckets.remove(bucket);
+		}
+		return polled;
+	}
+
+	/**
+	 * @return Number of keys tracked.
+	 */
+	public int size() {
+		return this.keyBuckets.size();
+	}
+
+	/**
+	 *
+	 */
+	public static class IdleTrackerTest extends DefaultTest {
+
+		/**
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testPollIdle() throws InterruptedException {
+			IdleTracker<String> tracker = new IdleTracker<String>(10);
+			tracker.touch("idle");
+			tracker.touch("active");
+			tracker.touch("removed");
+			tracker.remove("removed");
+			Thread.sleep(60);
+			tracker.touch("active");
+			Assert.assertEquals(2, tracker.size());
+
+			List<String> idle = tracker.pollIdle(50, Integer.MAX_VALUE);
+			Assert.assertEquals(1, idle.size());
+			Assert.assertEquals("idle", idle.get(0));
+			Assert.assertTrue(tracker.pollIdle(50, Integer.MAX_VALUE)
+					.isEmpty());
+			Assert.assertEquals(1, tracker.size());
+
+			// coldest need not be idle
+			List<String> coldest = tracker.pollColdest(1);
+			Assert.assertEquals("active", coldest.get(0));
+			Assert.assertEquals(0, tracker.size());
+			Assert.assertTrue(tracker.pollColdest(1).isEmpty());
+		}
+
+		/**
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testColdestFirst() throws InterruptedException {
+			IdleTracker<Integer> tracker = new IdleTracker<Integer>(5);
+			for (int i = 0; i < 5; i++) {
+				tracker.touch(i);
+				Thread.sleep(10);
+			}
+			// re-touched keys become the hottest
+			tracker.touch(0);
+			Assert.assertEquals(1, (int) tracker.pollColdest(1).get(0));
+			Assert.assertEquals(2, (int) tracker.pollIdle(0, 1).get(0));
+			List<Integer> rest = tracker.pollColdest(3);
+			Assert.assertEquals(3, rest.size());
+			Assert.assertEquals(0, (int) rest.get(2));
+			Assert.assertTrue(tracker.buckets.size() <= 1);
+		}
+
+		/**
+		 * Concurrent touches and removes of disjoint key ranges concurrently
+		 * with polling. Removed keys are never left tracked and every other
+		 * key is either polled or still tracked.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrent() throws InterruptedException {
+			final IdleTracker<Integer> tracker = new IdleTracker<Integer>(1);
+			final int numThreads = 8, numPerThread = 100 * 1000;
+			final Set<Integer> polled = ConcurrentHashMap.newKeySet();
+			Thread[] threads = new Thread[numThreads];
+			for (int t = 0; t < numThreads; t++) {
+				final int base = t * numPerThread;
+				(threads[t] = new Thread(new Runnable() {
+					public void run() {
+						for (int i = base; i < base + numPerThread; i++) {
+							tracker.touch(i);
+							tracker.touch(i);
+							// remove every 4th
+							if (i % 4 == 0)
+								tracker.remove(i);
+						}
+					}
+				})).start();
+			}
+			Thread poller = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 100; i++)
+						polled.addAll(tracker.pollColdest(1000));
+				}
+			});
+			poller.start();
+			for (Thread thread : threads)
+				thread.join();
+			poller.join();
+			List<Integer> remaining = tracker.pollColdest(Integer.MAX_VALUE);
+			Assert.assertEquals(0, tracker.size());
+			Set<Integer> remainingSet = new HashSet<Integer>(remaining);
+			Assert.assertEquals(remaining.size(), remainingSet.size());
+			for (int i = 0; i < numThreads * numPerThread; i++)
+				if (i % 4 == 0)
+					Assert.assertFalse("" + i, remainingSet.contains(i));
+				else
+					Assert.assertTrue("" + i,
+							remainingSet.contains(i) || polled.contains(i));
+		}
+
+		/**
+		 * Concurrent touches, removes and polls of the same keys. Every key
+		 * still tracked must remain in its bucket so that it can be polled.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrentSameKeys() throws InterruptedException {
+			final IdleTracker<Integer> tracker = new IdleTracker<Integer>(1);
+			final int numKeys = 64, numOps = 200 * 1000;
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++)
+				(threads[t] = new Thread(new Runnable() {
+					public void run() {
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						for (int i = 0; i < numOps; i++) {
+							int key = random.nextInt(numKeys);
+							if (random.nextInt(4) == 0)
+								tracker.remove(key);
+							else
+								tracker.touch(key);
+						}
+					}
+				})).start();
+			Thread poller = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 1000; i++)
+						tracker.pollColdest(8);
+				}
+			});
+			poller.start();
+			for (Thread thread : threads)
+				thread.join();
+			poller.join();
+			int size = tracker.size();
+			for (Map.Entry<Integer, Bucket<Integer>> entry : tracker.keyBuckets
+					.entrySet())
+				Assert.assertTrue("" + entry.getKey(), entry.getValue().keys
+						.contains(entry.getKey()));
+			Assert.assertEquals(size,
+					tracker.pollColdest(Integer.MAX_VALUE).size());
+			Assert.assertEquals(0, tracker.size());
+		}
+	}
+}
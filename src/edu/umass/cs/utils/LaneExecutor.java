@@ -0,0 +1,224 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author arun
+ *
+ *         A fixed set of single-threaded lanes, each with its own FIFO queue.
+ *         A task is submitted along with a key and is always executed in the
+ *         lane that the key hashes to, so tasks with equal keys are executed
+ *         one at a time in submission order while tasks with keys hashing to
+ *         different lanes execute in parallel.
+ *
+ *         Lane queues may be bounded, in which case {@link #execute} blocks
+ *         the submitter while the corresponding lane is full. An exception
+ *         thrown by a task is logged and does not affect subsequent tasks.
+ */
+public class LaneExecutor {
+
+	private static final Logger log = Logger.getLogger(LaneExecutor.class
+			.getName());
+
+	private static final Runnable POISON = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private final String name;
+	private final LinkedBlockingQueue<Runnable>[] lanes;
+	private final Thread[] workers;
+
+	/**
+	 * @param name
+	 *            Prefix for worker thread names.
+	 * @param numLanes
+	 * @param laneCapacity
+	 *            Maximum number of queued tasks per lane.
+	 */
+	@SuppressWarnings("unchecked")
+	public LaneExecutor(String name, int numLanes, int laneCapacity) {
+		if (numLanes <= 0 || laneCapacity <= 0)
+			throw new IllegalArgumentException(
+					"Number of lanes and lane capacity must be positive");
+		this.name = name;
+		this.lanes = (LinkedBlockingQueue<Runnable>[]) new LinkedBlockingQueue<?>[numLanes];
+		this.workers = new Thread[numLanes];
+		for (int i = 0; i < numLanes; i++) {
+			final LinkedBlockingQueue<Runnable> lane = (this.lanes[i] = new LinkedBlockingQueue<Runnable>(
+					laneCapacity));
+			this.workers[i] = new Thread(new Runnable() {
+				public void run() {
+					LaneExecutor.this.drain(lane);
+				}
+			}, name + ":lane" + i);
+			this.workers[i].setDaemon(true);
+			this.workers[i].start();
+		}
+	}
+
+	/**
+	 * @param name
+	 * @param numLanes
+	 */
+	public LaneExecutor(String name, int numLanes) {
+		this(name, numLanes, Integer.MAX_VALUE);
+	}
+
+	private void drain(LinkedBlockingQueue<Runnable> lane) {
+		Runnable task = null;
+		try {
+			while ((task = lane.take()) != POISON)
+				try {
+					task.run();
+				} catch (RuntimeException | Error e) {
+					log.log(Level.SEVERE, "{0} task {1} threw {2}",
+							new Object[] { this, task, e });
+					e.printStackTrace();
+				}
+		} catch (InterruptedException ie) {
+			// exit
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return The lane index for {@code key}.
+	 */
+	public int getLane(Object key) {
+		int h = key != null ? key.hashCode() : 0;
+		// spread higher bits as keys often differ only in a suffix
+		h ^= (h >>> 16);
+		return (h & Integer.MAX_VALUE) % this.lanes.length;
+	}
+
+	/**
+	 * @return The number of lanes.
+	 */
+	public int getNumLanes() {
+		return this.lanes.length;
+	}
+
+	/**
+	 * Executes {@code task} in the lane for {@code key} after all tasks
+	 * previously submitted to that lane, blocking while the lane is full.
+	 *
+	 * @param key
+	 * @param task
+	 * @throws InterruptedException
+	 */
+	public void execute(Object key, Runnable task) throws InterruptedException {
+		this.lanes[this.getLane(key)].put(task);
+	}
+
+	/**
+	 * Non-blocking version of {@link #execute(Object, Runnable)}.
+	 *
+	 * @param key
+	 * @param task
+	 * @return False if the lane for {@code key} is full.
+	 */
+	public boolean offer(Object key, Runnable task) {
+		return this.lanes[this.getLane(key)].offer(task);
+	}
+
+	/**
+	 * Blocks until all tasks submitted before this call have been executed.
+	 * Tasks submitted concurrently with this call may or may not have been
+	 * executed upon return.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void awaitQuiescence() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(this.lanes.length);
+		for (LinkedBlockingQueue<Runnable> lane : this.lanes)
+			lane.put(new Runnable() {
+				public void run() {
+					latch.countDown();
+				}
+			});
+		latch.await();
+	}
+
+	/**
+	 * Stops all lanes after they have executed all tasks already submitted.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void shutdown() throws InterruptedException {
+		for (LinkedBlockingQueue<Runnable> lane : this.lanes)
+			lane.put(POISON);
+	}
+
+	/**
+	 * Stops all lanes without executing queued tasks.
+	 */
+	public void shutdownNow() {
+		for (Thread worker : this.workers)
+			worker.interrupt();
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + ":" + this.name;
+	}
+
+	/**
+	 * Unit tests for {@link LaneExecutor}.
+	 */
+	public static class LaneExecutorTest extends DefaultTest {
+		/**
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testPerKeyOrder() throws InterruptedException {
+			final int numKeys = 16, perKey = 1000;
+			LaneExecutor lanes = new LaneExecutor("test", 4, 8);
+			final ArrayList<ArrayList<Integer>> executed = new ArrayList<ArrayList<Integer>>();
+			for (int k = 0; k < numKeys; k++)
+				executed.add(new ArrayList<Integer>());
+			final AtomicInteger count = new AtomicInteger(0);
+			for (int i = 0; i < perKey; i++)
+				for (int k = 0; k < numKeys; k++) {
+					final int key = k, seq = i;
+					lanes.execute("key" + key, new Runnable() {
+						public void run() {
+							// accessed only by the lane for key
+							executed.get(key).add(seq);
+							count.incrementAndGet();
+							if (seq == 0 && key == 0)
+								throw new RuntimeException("ignored");
+						}
+					});
+				}
+			lanes.awaitQuiescence();
+			Assert.assertEquals(numKeys * perKey, count.get());
+			for (ArrayList<Integer> list : executed)
+				for (int i = 0; i < perKey; i++)
+					Assert.assertEquals(i, (int) list.get(i));
+			lanes.shutdown();
+		}
+	}
+}
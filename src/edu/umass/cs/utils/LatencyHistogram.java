@@ -0,0 +1,397 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+
+package edu.umass.cs.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author arun
+ *
+ *         A latency histogram with HDR-style log-linear buckets: exact below
+ *         {@link #SUB_BUCKETS} nanoseconds and {@link #SUB_BUCKETS} linear
+ *         sub-buckets per power of two above that, i.e., a relative error of
+ *         at most 1/{@link #SUB_BUCKETS}, up to 2^{@link #MAX_EXPONENT}
+ *         nanoseconds (over an hour). Larger values are counted in the last
+ *         bucket.
+ *
+ *         Each recording thread gets its own array of counts that only it
+ *         writes, so {@link #record(long)} neither allocates nor contends
+ *         beyond a thread local lookup. Readers merge the per-thread arrays
+ *         on {@link #snapshot()}, and the arrays of threads that have died
+ *         are folded into a shared array. Handles are meant to be created
+ *         once, typically as static finals via
+ *         {@link DelayProfiler#histogram(String)}, and not looked up by name
+ *         on the critical path.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	/**
+	 * Linear sub-buckets per power of two.
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * Values at or above 2^(MAX_EXPONENT+1) nanoseconds are counted in the
+	 * last bucket.
+	 */
+	public static final int MAX_EXPONENT = 42;
+	private static final int NUM_BUCKETS = SUB_BUCKETS
+			+ (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	// index of the sum of recorded values in each counts array
+	private static final int SUM = NUM_BUCKETS;
+
+	private static boolean enabled = true;
+
+	/**
+	 * Disables recording in all histograms.
+	 */
+	public static void disable() {
+		enabled = false;
+	}
+
+	private static class Recorder {
+		final WeakReference<Thread> thread = new WeakReference<Thread>(
+				Thread.currentThread());
+		final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS + 1);
+
+		boolean isDead() {
+			Thread t = this.thread.get();
+			return t == null || !t.isAlive();
+		}
+	}
+
+	private final String name;
+	private final ConcurrentLinkedQueue<Recorder> recorders = new ConcurrentLinkedQueue<Recorder>();
+	private final ThreadLocal<Recorder> local = new ThreadLocal<Recorder>() {
+		@Override
+		protected Recorder initialValue() {
+			Recorder recorder = new Recorder();
+			LatencyHistogram.this.recorders.add(recorder);
+			// infrequent, so also a good time to fold in dead threads
+			LatencyHistogram.this.foldDeadRecorders();
+			return recorder;
+		}
+	};
+	// counts of threads that have died
+	private final long[] retired = new long[NUM_BUCKETS + 1];
+	// subtracted from snapshots after a reset
+	private Snapshot baseline = null;
+
+	/**
+	 * @param name
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return Name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (!enabled)
+			return;
+		AtomicLongArray counts = this.local.get().counts;
+		int index = index(nanos);
+		// single writer, so no need for an atomic increment
+		counts.lazySet(index, counts.get(index) + 1);
+		counts.lazySet(SUM, counts.get(SUM) + Math.max(nanos, 0));
+	}
+
+	/**
+	 * Corrects for coordinated omission by a load generator that issues
+	 * requests back-to-back instead of at their intended times. A value
+	 * exceeding {@code expectedIntervalNanos} means that the requests that
+	 * would have been issued during the stall were not, so their latencies,
+	 * linearly decreasing from {@code nanos} by {@code expectedIntervalNanos}
+	 * each, are also recorded, as in HdrHistogram's method of the same name.
+	 *
+	 * @param nanos
+	 * @param expectedIntervalNanos
+	 *            Expected interval between requests; no correction if not
+	 *            positive.
+	 */
+	public void recordWithExpectedInterval(long nanos,
+			long expectedIntervalNanos) {
+		this.record(nanos);
+		if (expectedIntervalNanos <= 0)
+			return;
+		for (long missed = nanos - expectedIntervalNanos; missed >= expectedIntervalNanos; missed -= expectedIntervalNanos)
+			this.record(missed);
+	}
+
+	/**
+	 * @param startNanos
+	 *            Start time as returned by {@link System#nanoTime()}.
+	 */
+	public void recordSince(long startNanos) {
+		this.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * For call sites timed using {@link System#currentTimeMillis()}.
+	 *
+	 * @param startMillis
+	 */
+	public void recordMillisSince(long startMillis) {
+		this.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()
+				- startMillis));
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return value < 0 ? 0 : (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return NUM_BUCKETS - 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS
+				+ (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	// highest value that maps to index, as in HDR's highestEquivalentValue
+	private static long highestValue(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long lowest = ((long) (SUB_BUCKETS + (index - SUB_BUCKETS)
+				% SUB_BUCKETS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	private synchronized void foldDeadRecorders() {
+		for (Iterator<Recorder> iter = this.recorders.iterator(); iter
+				.hasNext();) {
+			Recorder recorder = iter.next();
+			if (recorder.isDead()) {
+				for (int i = 0; i < recorder.counts.length(); i++)
+					this.retired[i] += recorder.counts.get(i);
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return Merged counts of all threads since the last {@link #reset()}.
+	 */
+	public synchronized Snapshot snapshot() {
+		this.foldDeadRecorders();
+		long[] counts = this.retired.clone();
+		for (Recorder recorder : this.recorders)
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += recorder.counts.get(i);
+		if (this.baseline != null)
+			for (int i = 0; i < counts.length; i++)
+				counts[i] -= this.baseline.counts[i];
+		return new Snapshot(counts);
+	}
+
+	/**
+	 * Subsequent snapshots only include values recorded after this call.
+	 * Recording threads are not disturbed.
+	 */
+	public synchronized void reset() {
+		this.baseline = null;
+		this.baseline = this.snapshot();
+	}
+
+	/**
+	 * Immutable merged counts.
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+
+		Snapshot(long[] counts) {
+			this.counts = counts;
+			long n = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++)
+				n += counts[i];
+			this.count = n;
+		}
+
+		/**
+		 * @return Number of recorded values.
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * @return Sum of recorded values in nanoseconds.
+		 */
+		public long getSum() {
+			return this.counts[SUM];
+		}
+
+		/**
+		 * @return Mean in nanoseconds.
+		 */
+		public double getMean() {
+			return this.count > 0 ? this.counts[SUM] * 1.0 / this.count : 0;
+		}
+
+		/**
+		 * @param percentile
+		 *            In [0, 100].
+		 * @return Value in nanoseconds at or below which {@code percentile}
+		 *         percent of recorded values lie, up to the bucket resolution.
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (this.count == 0)
+				return 0;
+			long rank = Math.max(1,
+					(long) Math.ceil(percentile / 100 * this.count));
+			long seen = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++)
+				if ((seen += this.counts[i]) >= rank)
+					return highestValue(i);
+			return highestValue(NUM_BUCKETS - 1);
+		}
+
+		/**
+		 * @return Maximum recorded value in nanoseconds up to the bucket
+		 *         resolution.
+		 */
+		public long getMax() {
+			return this.getValueAtPercentile(100);
+		}
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + ":" + this.name;
+	}
+
+	/**
+	 *
+	 */
+	public static class LatencyHistogramTest extends DefaultTest {
+
+		/**
+		 *
+		 */
+		@Test
+		public void testBuckets() {
+			for (long v : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000,
+					123456789, 1L << MAX_EXPONENT }) {
+				int index = index(v);
+				Assert.assertTrue(v + "", highestValue(index) >= v);
+				Assert.assertTrue(v + "", index == 0
+						|| highestValue(index - 1) < v);
+				Assert.assertTrue(v + "", highestValue(index) - v <= v
+						/ SUB_BUCKETS);
+			}
+			Assert.assertEquals(NUM_BUCKETS - 1, index(Long.MAX_VALUE));
+			Assert.assertEquals(0, index(-1));
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testPercentiles() {
+			LatencyHistogram histogram = new LatencyHistogram("test");
+			// 1..10000 microseconds
+			for (int i = 1; i <= 10000; i++)
+				histogram.record(i * 1000L);
+			Snapshot snapshot = histogram.snapshot();
+			Assert.assertEquals(10000, snapshot.getCount());
+			Assert.assertEquals(50005000L * 1000, snapshot.getSum());
+			assertClose(5000 * 1000, snapshot.getValueAtPercentile(50));
+			assertClose(9900 * 1000, snapshot.getValueAtPercentile(99));
+			assertClose(9990 * 1000, snapshot.getValueAtPercentile(99.9));
+			assertClose(10000 * 1000, snapshot.getMax());
+
+			histogram.reset();
+			Assert.assertEquals(0, histogram.snapshot().getCount());
+			histogram.record(7);
+			Assert.assertEquals(1, histogram.snapshot().getCount());
+			Assert.assertEquals(7, histogram.snapshot().getMax());
+		}
+
+		/**
+		 *
+		 */
+		@Test
+		public void testExpectedInterval() {
+			LatencyHistogram histogram = new LatencyHistogram("test");
+			// a 100us stall with a 10us expected interval hides 9 requests
+			histogram.recordWithExpectedInterval(100 * 1000, 10 * 1000);
+			Snapshot snapshot = histogram.snapshot();
+			Assert.assertEquals(10, snapshot.getCount());
+			Assert.assertEquals(550 * 1000, snapshot.getSum());
+			assertClose(50 * 1000, snapshot.getValueAtPercentile(50));
+
+			histogram.reset();
+			histogram.recordWithExpectedInterval(5 * 1000, 10 * 1000);
+			histogram.recordWithExpectedInterval(100 * 1000, 0);
+			Assert.assertEquals(2, histogram.snapshot().getCount());
+		}
+
+		private static void assertClose(long expected, long actual) {
+			Assert.assertTrue(expected + "!=" + actual, actual >= expected
+					&& actual - expected <= expected / SUB_BUCKETS);
+		}
+
+		/**
+		 * Counts recorded by concurrent threads, including threads that have
+		 * since died, are all merged.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrent() throws InterruptedException {
+			final LatencyHistogram histogram = new LatencyHistogram("test");
+			final int numThreads = 8, numPerThread = 100 * 1000;
+			Thread[] threads = new Thread[numThreads];
+			for (int t = 0; t < numThreads; t++)
+				(threads[t] = new Thread(new Runnable() {
+					public void run() {
+						for (int i = 0; i < numPerThread; i++)
+							histogram.record(i);
+					}
+				})).start();
+			// concurrent snapshots see monotonically increasing counts
+			long prev = 0;
+			for (int i = 0; i < 10; i++) {
+				long count = histogram.snapshot().getCount();
+				Assert.assertTrue(count >= prev);
+				prev = count;
+			}
+			for (Thread thread : threads)
+				thread.join();
+			Snapshot snapshot = histogram.snapshot();
+			Assert.assertEquals(numThreads * numPerThread, snapshot.getCount());
+			Assert.assertEquals(numThreads * (numPerThread - 1L)
+					* numPerThread / 2, snapshot.getSum());
+			Assert.assertTrue(histogram.recorders.isEmpty());
+		}
+	}
+}
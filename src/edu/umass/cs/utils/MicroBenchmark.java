@@ -0,0 +1,274 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author arun
+ *
+ *         Minimal single-threaded microbenchmark harness in the spirit of JMH
+ *         for measuring hot paths without external dependencies. A benchmark
+ *         implements {@link #op(int)}, optionally with {@link #setup()} and
+ *         {@link #teardown()}, and {@link #run(int, int, long)} runs timed
+ *         warmup iterations whose results are discarded followed by timed
+ *         measurement iterations, reporting the mean and standard deviation of
+ *         ops/sec across measurement iterations and the heap bytes allocated
+ *         per op.
+ *
+ *         Ops are invoked in batches sized during warmup to take about a
+ *         millisecond so that reading the clock does not dominate cheap ops.
+ *         The value returned by each op is stored in a field so that the JIT
+ *         can neither eliminate the op nor scalar-replace its result.
+ *         Allocation is measured using the HotSpot per-thread allocation
+ *         counter and is reported as -1 on JVMs that do not support it.
+ */
+public abstract class MicroBenchmark {
+
+	private static final long BATCH_NANOS = 1000 * 1000;
+
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+
+	private final String name;
+
+	// consumes results so that ops are not optimized away
+	private Object sink;
+
+	/**
+	 * @param name
+	 */
+	protected MicroBenchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return Name of this benchmark.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Invoked once before warmup.
+	 *
+	 * @throws Exception
+	 */
+	protected void setup() throws Exception {
+	}
+
+	/**
+	 * The operation being measured.
+	 *
+	 * @param i
+	 *            Number of ops invoked before this one, e.g., to cycle through
+	 *            precomputed inputs.
+	 * @return A result that depends on the work done by the op.
+	 * @throws Exception
+	 */
+	protected abstract Object op(int i) throws Exception;
+
+	/**
+	 * Invoked once after measurement even if the benchmark failed.
+	 *
+	 * @throws Exception
+	 */
+	protected void teardown() throws Exception {
+	}
+
+	/**
+	 * Result of a benchmark run.
+	 */
+	public static class Result {
+		/**
+		 * Benchmark name.
+		 */
+		public final String name;
+		/**
+		 * Mean ops/sec across measurement iterations.
+		 */
+		public final double opsPerSec;
+		/**
+		 * Standard deviation of ops/sec across measurement iterations.
+		 */
+		public final double opsPerSecStdDev;
+		/**
+		 * Heap bytes allocated per op, or -1 if unsupported.
+		 */
+		public final double bytesPerOp;
+		/**
+		 * Number of measurement iterations.
+		 */
+		public final int iterations;
+
+		Result(String name, double opsPerSec, double opsPerSecStdDev,
+				double bytesPerOp, int iterations) {
+			this.name = name;
+			this.opsPerSec = opsPerSec;
+			this.opsPerSecStdDev = opsPerSecStdDev;
+			this.bytesPerOp = bytesPerOp;
+			this.iterations = iterations;
+		}
+
+		/**
+		 * @return Mean time per op in nanoseconds.
+		 */
+		public double getNanosPerOp() {
+			return 1000.0 * 1000 * 1000 / this.opsPerSec;
+		}
+
+		/**
+		 * @return Allocation rate in MB/sec, or -1 if unsupported.
+		 */
+		public double getAllocMBPerSec() {
+			return this.bytesPerOp < 0 ? -1 : this.bytesPerOp
+					* this.opsPerSec / 1024 / 1024;
+		}
+
+		/**
+		 * @return JSON representation.
+		 * @throws JSONException
+		 */
+		public JSONObject toJSONObject() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put("benchmark", this.name);
+			json.put("ops_per_sec", Math.round(this.opsPerSec));
+			json.put("ops_per_sec_stddev", Math.round(this.opsPerSecStdDev));
+			json.put("ns_per_op", round(this.getNanosPerOp()));
+			json.put("bytes_per_op", round(this.bytesPerOp));
+			json.put("alloc_mb_per_sec", round(this.getAllocMBPerSec()));
+			json.put("iterations", this.iterations);
+			return json;
+		}
+
+		private static double round(double value) {
+			return Math.round(value * 10) / 10.0;
+		}
+
+		public String toString() {
+			return String.format("%-40s %14s ops/s +- %-10s %10s ns/op %10s B/op",
+					this.name, Util.df(this.opsPerSec),
+					Util.df(this.opsPerSecStdDev),
+					Util.df(this.getNanosPerOp()), Util.df(this.bytesPerOp));
+		}
+	}
+
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) THREADS)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	private int numOps = 0;
+
+	// runs whole batches for at least duration and returns {ops, nanos, bytes}
+	private long[] iterate(int batchSize, long durationNanos) throws Exception {
+		long ops = 0, bytes = allocatedBytes(), t = System.nanoTime(), elapsed = 0;
+		do {
+			for (int j = 0; j < batchSize; j++)
+				this.sink = this.op(this.numOps++);
+			ops += batchSize;
+		} while ((elapsed = System.nanoTime() - t) < durationNanos);
+		return new long[] { ops, elapsed,
+				bytes < 0 ? -1 : allocatedBytes() - bytes };
+	}
+
+	/**
+	 * @param warmupIterations
+	 * @param iterations
+	 * @param iterationMillis
+	 * @return Result of measurement iterations.
+	 * @throws Exception
+	 */
+	public Result run(int warmupIterations, int iterations, long iterationMillis)
+			throws Exception {
+		long iterationNanos = iterationMillis * 1000 * 1000;
+		this.setup();
+		try {
+			// size batches during warmup
+			int batchSize = 1;
+			for (int i = 0; i < warmupIterations; i++) {
+				long[] warm = this.iterate(batchSize, iterationNanos);
+				batchSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+						warm[0] * BATCH_NANOS / Math.max(1, warm[1])));
+			}
+			double[] rates = new double[Math.max(1, iterations)];
+			long totalOps = 0, totalBytes = 0;
+			for (int i = 0; i < rates.length; i++) {
+				long[] measured = this.iterate(batchSize, iterationNanos);
+				rates[i] = measured[0] * 1000.0 * 1000 * 1000 / measured[1];
+				totalOps += measured[0];
+				totalBytes = measured[2] < 0 || totalBytes < 0 ? -1
+						: totalBytes + measured[2];
+			}
+			double mean = 0, var = 0;
+			for (double rate : rates)
+				mean += rate / rates.length;
+			for (double rate : rates)
+				var += (rate - mean) * (rate - mean) / rates.length;
+			return new Result(this.name, mean, Math.sqrt(var),
+					totalBytes < 0 ? -1 : totalBytes * 1.0 / totalOps,
+					rates.length);
+		} finally {
+			this.sink = null;
+			this.teardown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class MicroBenchmarkTest extends DefaultTest {
+
+		/**
+		 * @throws Exception
+		 */
+		@Test
+		public void testRun() throws Exception {
+			final int[] calls = new int[3];
+			MicroBenchmark benchmark = new MicroBenchmark("alloc") {
+				protected void setup() {
+					calls[0]++;
+				}
+
+				protected Object op(int i) {
+					calls[1]++;
+					return new byte[1024];
+				}
+
+				protected void teardown() {
+					calls[2]++;
+				}
+			};
+			Result result = benchmark.run(1, 3, 50);
+			Assert.assertEquals(1, calls[0]);
+			Assert.assertEquals(1, calls[2]);
+			Assert.assertEquals(3, result.iterations);
+			Assert.assertTrue(result.opsPerSec > 0 && calls[1] > 0);
+			if (result.bytesPerOp >= 0)
+				Assert.assertTrue(result.bytesPerOp + "",
+						result.bytesPerOp >= 1024);
+			Assert.assertEquals("alloc", result.toJSONObject().get("benchmark"));
+		}
+	}
+}
@@ -345,7 +345,7 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 
 			@Override
 			public int size() {
-				return MultiArrayMap.this.size;
+				return MultiArrayMap.this.size();
 			}
 
 			@Override
@@ -0,0 +1,125 @@
+package edu.umass.cs.utils;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.utils.MultiArrayMap.StringValue;
+
+/**
+ * @author arun
+ *
+ *         Multithreaded throughput benchmark comparing {@link MultiArrayMap},
+ *         {@link ConcurrentMultiArrayMap} and {@link ConcurrentHashMap} on a
+ *         read-mostly workload resembling lookups of paxos instances by
+ *         paxosID: 90% gets, 5% overwrites and 5% remove-then-put of a
+ *         uniformly random preloaded key. Usage:
+ *
+ *         <pre>
+ * MultiArrayMapBenchmark [sizes [threads [secondsPerRun]]]
+ * </pre>
+ *
+ *         where sizes and threads are comma-separated lists, e.g.,
+ *         "1000000,10000000 1,2,4,8,16,32 5". Large sizes need a
+ *         correspondingly large heap (-Xmx).
+ */
+public class MultiArrayMapBenchmark {
+
+	private static final String[] MAP_TYPES = { "MultiArrayMap",
+			"ConcurrentMultiArrayMap", "ConcurrentHashMap" };
+
+	private static ConcurrentMap<String, StringValue<Integer>> createMap(
+			String type, int size) {
+		if (type.equals("MultiArrayMap"))
+			return new MultiArrayMap<String, StringValue<Integer>>(size);
+		else if (type.equals("ConcurrentMultiArrayMap"))
+			return new ConcurrentMultiArrayMap<String, StringValue<Integer>>(
+					size);
+		return new ConcurrentHashMap<String, StringValue<Integer>>(size);
+	}
+
+	private static double run(
+			final ConcurrentMap<String, StringValue<Integer>> map,
+			final String[] keys, int numThreads, long durationMillis)
+			throws InterruptedException {
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final AtomicLong ops = new AtomicLong(0);
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					long count = 0;
+					while (!stop.get()) {
+						// amortize the stop check
+						for (int i = 0; i < 1024; i++) {
+							String key = keys[random.nextInt(keys.length)];
+							int dice = random.nextInt(100);
+							if (dice < 90)
+								map.get(key);
+							else if (dice < 95)
+								map.put(key, new StringValue<Integer>(key, i));
+							else {
+								map.remove(key);
+								map.put(key, new StringValue<Integer>(key, i));
+							}
+						}
+						count += 1024;
+					}
+					ops.addAndGet(count);
+				}
+			});
+		}
+		long t = System.nanoTime();
+		for (Thread thread : threads)
+			thread.start();
+		Thread.sleep(durationMillis);
+		stop.set(true);
+		for (Thread thread : threads)
+			thread.join();
+		return ops.get() * 1000.0 * 1000 * 1000 / (System.nanoTime() - t);
+	}
+
+	private static int[] parse(String csv) {
+		String[] tokens = csv.split(",");
+		int[] values = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+			values[i] = Integer.valueOf(tokens[i].trim());
+		return values;
+	}
+
+	/**
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int[] sizes = parse(args.length > 0 ? args[0] : "1000000");
+		int[] threadCounts = parse(args.length > 1 ? args[1]
+				: "1,2,4,8,16,32");
+		long durationMillis = 1000 * (args.length > 2 ? Integer
+				.valueOf(args[2]) : 3);
+
+		for (int size : sizes) {
+			String[] keys = new String[size];
+			for (int i = 0; i < size; i++)
+				keys[i] = "paxos" + i;
+			for (String type : MAP_TYPES) {
+				ConcurrentMap<String, StringValue<Integer>> map = createMap(
+						type, size);
+				for (String key : keys)
+					map.put(key, new StringValue<Integer>(key, 0));
+				// warm up
+				run(map, keys, 1, durationMillis / 2);
+				for (int numThreads : threadCounts)
+					System.out.println(type + " size=" + size + " threads="
+							+ numThreads + " rate="
+							+ Util.df(run(map, keys, numThreads, durationMillis))
+							+ " ops/s");
+				map = null;
+				System.gc();
+			}
+		}
+	}
+}
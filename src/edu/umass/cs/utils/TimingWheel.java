@@ -0,0 +1,471 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author arun
+ *
+ *         A hierarchical timing wheel for a large number of long-lived,
+ *         mostly canceled timeouts. The wheel has a root level of 256 slots,
+ *         each one tick wide, and three higher levels of 64 slots, each slot
+ *         as wide as the whole level below it. A timeout is placed in the
+ *         lowest level whose span covers its deadline and cascades down a
+ *         level each time the level below wraps around, so both insertion
+ *         and expiry are O(1) per timeout regardless of the number of
+ *         outstanding timeouts. With the default tick of 10ms, the wheel spans
+ *         about a week; longer timeouts are parked in the top level and
+ *         re-examined once per rotation.
+ *         <p>
+ *
+ *         The wheel itself is owned by a single ticker thread. Other threads
+ *         register and cancel timeouts through lock-free queues that the ticker
+ *         drains once per tick, so {@link #newTimeout} and
+ *         {@link Timeout#cancel()} never block and cancellation unlinks the
+ *         timeout from its slot in O(1). Expired tasks are handed to the
+ *         supplied executor, or run on the ticker thread if none is supplied.
+ */
+public class TimingWheel {
+
+	private static final Logger log = Logger.getLogger(TimingWheel.class
+			.getName());
+
+	/**
+	 * Default tick duration in milliseconds.
+	 */
+	public static final long DEFAULT_TICK = 10;
+
+	private static final int ROOT_BITS = 8;
+	private static final int LEVEL_BITS = 6;
+	private static final int NUM_LEVELS = 4;
+	private static final int ROOT_MASK = (1 << ROOT_BITS) - 1;
+	private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+	private static final long MAX_TICKS = (1L << (ROOT_BITS + (NUM_LEVELS - 1)
+			* LEVEL_BITS)) - 1;
+
+	private static final int INIT = 0, CANCELED = 1, EXPIRED = 2;
+
+	/**
+	 * Handle to a scheduled task.
+	 */
+	public static class Timeout {
+		private final TimingWheel wheel;
+		private final Runnable task;
+		private final long deadline; // nanos
+		private final AtomicInteger state = new AtomicInteger(INIT);
+
+		// touched only by the ticker thread
+		private long expires;
+		private Slot slot;
+		private Timeout prev, next;
+
+		private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return True if this call canceled the timeout, false if it had
+		 *         already expired or been canceled.
+		 */
+		public boolean cancel() {
+			if (!this.state.compareAndSet(INIT, CANCELED))
+				return false;
+			this.wheel.pending.decrementAndGet();
+			this.wheel.cancellations.add(this);
+			return true;
+		}
+
+		/**
+		 * @return True if canceled.
+		 */
+		public boolean isCanceled() {
+			return this.state.get() == CANCELED;
+		}
+
+		/**
+		 * @return True if the task has been or is being run.
+		 */
+		public boolean isExpired() {
+			return this.state.get() == EXPIRED;
+		}
+
+		public String toString() {
+			return this.getClass().getSimpleName() + ":" + this.task;
+		}
+	}
+
+	// intrusive doubly linked list of timeouts
+	private static class Slot {
+		private Timeout head, tail;
+
+		private void add(Timeout t) {
+			t.slot = this;
+			t.prev = this.tail;
+			t.next = null;
+			if (this.tail != null)
+				this.tail.next = t;
+			else
+				this.head = t;
+			this.tail = t;
+		}
+
+		private void remove(Timeout t) {
+			if (t.prev != null)
+				t.prev.next = t.next;
+			else
+				this.head = t.next;
+			if (t.next != null)
+				t.next.prev = t.prev;
+			else
+				this.tail = t.prev;
+			t.slot = null;
+			t.prev = t.next = null;
+		}
+
+		// detaches and returns the list
+		private Timeout clear() {
+			Timeout first = this.head;
+			this.head = this.tail = null;
+			return first;
+		}
+	}
+
+	private final String name;
+	private final long tickNanos;
+	private final long startTime = System.nanoTime();
+	private final Executor executor;
+	private final Slot[][] levels = new Slot[NUM_LEVELS][];
+	private final ConcurrentLinkedQueue<Timeout> registrations = new ConcurrentLinkedQueue<Timeout>();
+	private final ConcurrentLinkedQueue<Timeout> cancellations = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger pending = new AtomicInteger(0);
+	private final Thread ticker;
+	private volatile boolean stopped = false;
+
+	// next tick to be processed, touched only by the ticker thread
+	private long currentTick = 0;
+
+	/**
+	 * @param name
+	 *            Name of the ticker thread.
+	 * @param executor
+	 *            Executor for expired tasks; if null, expired tasks are run
+	 *            by the ticker thread and must not block.
+	 * @param tick
+	 * @param unit
+	 */
+	public TimingWheel(String name, Executor executor, long tick, TimeUnit unit) {
+		if (tick <= 0)
+			throw new IllegalArgumentException("Tick must be positive");
+		this.name = name;
+		this.executor = executor;
+		this.tickNanos = unit.toNanos(tick);
+		for (int i = 0; i < NUM_LEVELS; i++) {
+			this.levels[i] = new Slot[i == 0 ? ROOT_MASK + 1 : LEVEL_MASK + 1];
+			for (int j = 0; j < this.levels[i].length; j++)
+				this.levels[i][j] = new Slot();
+		}
+		this.ticker = new Thread(new Runnable() {
+			public void run() {
+				TimingWheel.this.tickLoop();
+			}
+		}, name);
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	/**
+	 * @param name
+	 * @param executor
+	 */
+	public TimingWheel(String name, Executor executor) {
+		this(name, executor, DEFAULT_TICK, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Schedules {@code task} to run once after {@code delay}. Never blocks.
+	 *
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return Handle that can be used to cancel the task.
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (this.stopped)
+			throw new IllegalStateException(this + " stopped");
+		Timeout timeout = new Timeout(this, task, System.nanoTime()
+				+ unit.toNanos(Math.max(0, delay)));
+		this.pending.incrementAndGet();
+		this.registrations.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @return Number of timeouts neither expired nor canceled.
+	 */
+	public int size() {
+		return this.pending.get();
+	}
+
+	/**
+	 * Stops the ticker thread. Pending timeouts never expire. Must be called
+	 * before shutting down the executor, if any.
+	 */
+	public void stop() {
+		this.stopped = true;
+		this.ticker.interrupt();
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + ":" + this.name;
+	}
+
+	private void tickLoop() {
+		while (!this.stopped) {
+			try {
+				long now = System.nanoTime() - this.startTime;
+				this.processCancellations();
+				this.processRegistrations();
+				for (long lastTick = now / this.tickNanos; this.currentTick <= lastTick
+						&& !this.stopped;)
+					this.processTick();
+				long sleep = this.currentTick * this.tickNanos
+						- (System.nanoTime() - this.startTime);
+				if (sleep > 0)
+					LockSupport.parkNanos(this, sleep);
+			} catch (RuntimeException | Error e) {
+				log.log(Level.SEVERE, "{0} encountered {1}", new Object[] {
+						this, e });
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void processCancellations() {
+		Timeout t = null;
+		while ((t = this.cancellations.poll()) != null)
+			if (t.slot != null)
+				t.slot.remove(t);
+	}
+
+	private void processRegistrations() {
+		Timeout t = null;
+		while ((t = this.registrations.poll()) != null)
+			// skip if already canceled
+			if (t.state.get() == INIT) {
+				long delta = t.deadline - this.startTime;
+				// round up so that a timeout never fires early
+				t.expires = delta <= 0 ? 0 : (delta + this.tickNanos - 1)
+						/ this.tickNanos;
+				this.place(t);
+			}
+	}
+
+	private void place(Timeout t) {
+		long expires = Math.max(t.expires, this.currentTick);
+		long delta = expires - this.currentTick;
+		if (delta > MAX_TICKS)
+			// re-examined when the top level slot cascades
+			delta = (expires = this.currentTick + MAX_TICKS) - this.currentTick;
+		int level = 0;
+		for (long span = 1L << ROOT_BITS; level < NUM_LEVELS - 1
+				&& delta >= span; span <<= LEVEL_BITS)
+			level++;
+		this.levels[level][this.index(expires, level)].add(t);
+	}
+
+	private int index(long tick, int level) {
+		return level == 0 ? (int) (tick & ROOT_MASK)
+				: (int) ((tick >>> (ROOT_BITS + (level - 1) * LEVEL_BITS)) & LEVEL_MASK);
+	}
+
+	private void processTick() {
+		int index = this.index(this.currentTick, 0);
+		// cascade each higher level whose lower level just wrapped around
+		for (int level = 1; level < NUM_LEVELS && index == 0; level++)
+			this.cascade(level, index = this.index(this.currentTick, level));
+
+		for (Timeout t = this.levels[0][this.index(this.currentTick, 0)]
+				.clear(), next = null; t != null; t = next) {
+			next = t.next;
+			t.slot = null;
+			t.prev = t.next = null;
+			if (t.expires > this.currentTick)
+				// parked beyond the span of the wheel
+				this.place(t);
+			else if (t.state.compareAndSet(INIT, EXPIRED)) {
+				this.pending.decrementAndGet();
+				this.run(t);
+			}
+		}
+		this.currentTick++;
+	}
+
+	private void cascade(int level, int index) {
+		for (Timeout t = this.levels[level][index].clear(), next = null; t != null; t = next) {
+			next = t.next;
+			t.slot = null;
+			t.prev = t.next = null;
+			if (t.state.get() == INIT)
+				this.place(t);
+		}
+	}
+
+	private void run(Timeout t) {
+		if (this.stopped)
+			return;
+		try {
+			if (this.executor != null)
+				this.executor.execute(t.task);
+			else
+				t.task.run();
+		} catch (RuntimeException e) {
+			log.log(Level.WARNING, "{0} unable to run {1}: {2}", new Object[] {
+					this, t, e });
+		}
+	}
+
+	/**
+	 *
+	 */
+	public static class TimingWheelTest extends DefaultTest {
+
+		/**
+		 * Timeouts spread over all levels fire no earlier than their deadline
+		 * and within a few ticks of it.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testExpiry() throws InterruptedException {
+			// 1ms ticks so that a few seconds span three levels
+			TimingWheel wheel = new TimingWheel("testExpiry", null, 1,
+					TimeUnit.MILLISECONDS);
+			final long[] delays = { 0, 1, 5, 100, 255, 256, 300, 1000, 3000 };
+			final long[] lateness = new long[delays.length];
+			final CountDownLatch latch = new CountDownLatch(delays.length);
+			final long t = System.nanoTime();
+			for (int i = 0; i < delays.length; i++) {
+				final int j = i;
+				wheel.newTimeout(new Runnable() {
+					public void run() {
+						lateness[j] = (System.nanoTime() - t) / 1000 / 1000
+								- delays[j];
+						latch.countDown();
+					}
+				}, delays[i], TimeUnit.MILLISECONDS);
+			}
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i < delays.length; i++) {
+				Assert.assertTrue(delays[i] + ":" + lateness[i],
+						lateness[i] >= 0);
+				Assert.assertTrue(delays[i] + ":" + lateness[i],
+						lateness[i] < 200);
+			}
+			Assert.assertEquals(0, wheel.size());
+			wheel.stop();
+		}
+
+		/**
+		 * Canceled timeouts never fire, and each timeout either fires or is
+		 * canceled exactly once under concurrent registration and
+		 * cancellation.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testConcurrentCancel() throws InterruptedException {
+			ExecutorService executor = Executors.newFixedThreadPool(2);
+			TimingWheel wheel = new TimingWheel("testConcurrentCancel",
+					executor, 1, TimeUnit.MILLISECONDS);
+			final AtomicInteger fired = new AtomicInteger(0), canceled = new AtomicInteger(
+					0), cancelFailed = new AtomicInteger(0);
+			final Runnable task = new Runnable() {
+				public void run() {
+					fired.incrementAndGet();
+				}
+			};
+			final int numThreads = 4, numPerThread = 50 * 1000;
+			Thread[] threads = new Thread[numThreads];
+			for (int i = 0; i < numThreads; i++)
+				(threads[i] = new Thread(new Runnable() {
+					public void run() {
+						for (int j = 0; j < numPerThread; j++) {
+							Timeout t = wheel.newTimeout(task, j % 50,
+									TimeUnit.MILLISECONDS);
+							// cancel half, some after they may have fired
+							if (j % 2 == 0)
+								if (t.cancel())
+									canceled.incrementAndGet();
+								else
+									cancelFailed.incrementAndGet();
+						}
+					}
+				})).start();
+			for (Thread thread : threads)
+				thread.join();
+			long t = System.currentTimeMillis();
+			while (wheel.size() > 0 && System.currentTimeMillis() - t < 5000)
+				Thread.sleep(10);
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, wheel.size());
+			Assert.assertEquals(numThreads * numPerThread, fired.get()
+					+ canceled.get());
+			Assert.assertTrue(canceled.get() + cancelFailed.get() == numThreads
+					* numPerThread / 2);
+			wheel.stop();
+		}
+
+		/**
+		 * Timeouts longer than the wheel's span are parked and still fire.
+		 *
+		 * @throws InterruptedException
+		 */
+		@Test
+		public void testBeyondSpan() throws InterruptedException {
+			// 1us ticks to make the span about 67s
+			TimingWheel wheel = new TimingWheel("testBeyondSpan", null, 1,
+					TimeUnit.MICROSECONDS);
+			final CountDownLatch latch = new CountDownLatch(1);
+			Timeout far = wheel.newTimeout(new Runnable() {
+				public void run() {
+					latch.countDown();
+				}
+			}, MAX_TICKS * 2, TimeUnit.MICROSECONDS);
+			Assert.assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+			Assert.assertFalse(far.isExpired());
+			Assert.assertTrue(far.cancel());
+			Assert.assertFalse(far.cancel());
+			Assert.assertEquals(0, wheel.size());
+			wheel.stop();
+		}
+	}
+}
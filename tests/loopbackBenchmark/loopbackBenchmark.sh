@@ -0,0 +1,14 @@
+#!/bin/bash
+# Usage: loopbackBenchmark.sh [KEY=VALUE ...], e.g.,
+# loopbackBenchmark.sh BENCH_OPEN_LOOP=true BENCH_RATE=5000 BENCH_OUTPUT=bench.json
+
+# set this path to use binaries directly from IDE set to build
+# automatically instead of  having to recompile using ant
+IDE_BUILD_PATH=./build/classes/
+LIB_PATH=./lib/*
+ANT_BUILD_PATH=./dist/*
+CLASSPATH=.:$IDE_BUILD_PATH:$ANT_BUILD_PATH:$LIB_PATH
+
+java -Xms4096M -cp $CLASSPATH \
+-Djava.util.logging.config.file=logging.properties \
+edu.umass.cs.reconfiguration.testing.LoopbackBenchmark "$@"